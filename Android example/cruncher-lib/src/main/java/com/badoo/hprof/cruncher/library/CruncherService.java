@@ -8,6 +8,7 @@ import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import com.badoo.bmd.BmdBlockOutputStream;
 import com.badoo.hprof.cruncher.HprofCruncher;
 import com.badoo.hprof.cruncher.HprofFileSource;
 
@@ -16,7 +17,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static com.badoo.hprof.cruncher.HprofCruncher.Config;
 
@@ -78,7 +78,7 @@ public class CruncherService extends IntentService {
                         if (DEBUG) {
                             Log.d(TAG, "Found HPROF file: " + file + ", size: " + file.length());
                         }
-                        String outFile = getFilesDir() + "/" + System.currentTimeMillis() + ".bmd.gz";
+                        String outFile = getFilesDir() + "/" + System.currentTimeMillis() + ".bmd";
                         crunchFile(file.getAbsolutePath(), outFile);
                         final boolean deleted = file.delete();
                         if (DEBUG) {
@@ -108,9 +108,11 @@ public class CruncherService extends IntentService {
         OutputStream out = null;
         boolean success = false;
         try {
-            out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(outputFilePath)));
+            out = new BufferedOutputStream(new FileOutputStream(outputFilePath));
             long startTime = SystemClock.elapsedRealtime();
-            Config config = new Config.Builder().iterationSleep(0).stats(true).build();
+            // Block compression instead of gzip, so that the file can be decoded in parallel
+            Config config = new Config.Builder().iterationSleep(0).stats(true)
+                .blockCompression(BmdBlockOutputStream.DEFAULT_BLOCK_SIZE).build();
             HprofCruncher.crunch(new HprofFileSource(inputFile), out, config);
             if (DEBUG) {
                 Log.d(TAG, "Crunching finished after " + (SystemClock.elapsedRealtime() - startTime) + "ms");
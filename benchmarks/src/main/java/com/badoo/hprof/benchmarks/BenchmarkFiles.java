@@ -0,0 +1,44 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Resolves the HPROF file parameters of the benchmarks. Besides a file path the parameter can be "generated:&lt;instances&gt;", in which
+ * case a synthetic HPROF file with that number of instances is generated (see HprofGenerator), for example -p hprofFile=generated:50000000
+ */
+public class BenchmarkFiles {
+
+    private static final String GENERATED_PREFIX = "generated:";
+
+    /**
+     * Returns the HPROF file for a benchmark parameter, generating it if needed. Generated files are deleted when the JVM exits.
+     *
+     * @param param the parameter value
+     * @return the file
+     */
+    @Nonnull
+    public static File getHprofFile(@Nonnull String param) throws IOException {
+        if (!param.startsWith(GENERATED_PREFIX)) {
+            return new File(param);
+        }
+        long instances = Long.parseLong(param.substring(GENERATED_PREFIX.length()));
+        HprofGenerator.Config config = new HprofGenerator.Config.Builder()
+            .classes(1000)
+            .instances(instances)
+            .objectArrays(instances / 10)
+            .primitiveArrays(instances / 10)
+            .strings(10000)
+            .segments((int) Math.max(1, instances / 1000000))
+            .shape(HprofGenerator.GraphShape.RANDOM)
+            .build();
+        File file = File.createTempFile("generated", ".hprof");
+        file.deleteOnExit();
+        new HprofGenerator(config).generate(file);
+        return file;
+    }
+}
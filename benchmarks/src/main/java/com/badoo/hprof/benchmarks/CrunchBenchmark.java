@@ -0,0 +1,54 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.hprof.cruncher.HprofCruncher;
+import com.badoo.hprof.cruncher.HprofFileSource;
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Benchmark for converting a HPROF file to BMD (both passes of CrunchProcessor). The output is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrunchBenchmark {
+
+    @Param({"../test_files/crunch_test_in.hprof"})
+    public String hprofFile;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private HprofFileSource source;
+    private HprofCruncher.Config config;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = new HprofFileSource(BenchmarkFiles.getHprofFile(hprofFile));
+        config = new HprofCruncher.Config.Builder().threads(threads).build();
+    }
+
+    @Benchmark
+    public void crunch(Throughput throughput) throws IOException, TimeoutException {
+        HprofCruncher.crunch(source, ByteStreams.nullOutputStream(), config);
+        throughput.add(source.getDataSize());
+    }
+}
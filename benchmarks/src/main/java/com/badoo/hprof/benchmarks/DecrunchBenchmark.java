@@ -0,0 +1,52 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.bmd.decruncher.BmdDecruncher;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for converting a BMD file back to HPROF (BmdReader and DecrunchProcessor). The input is read into memory before the
+ * benchmark starts and the output is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecrunchBenchmark {
+
+    @Param({"../test_files/decrunch_test_in.bmd"})
+    public String bmdFile;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Files.toByteArray(new File(bmdFile));
+    }
+
+    @Benchmark
+    public void decrunch(Throughput throughput) throws IOException {
+        BmdDecruncher.decrunch(new ByteArrayInputStream(data), ByteStreams.nullOutputStream(), Collections.<String>emptyList());
+        throughput.add(data.length);
+    }
+}
@@ -0,0 +1,56 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.hprof.deobfuscator.HprofDeobfuscator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for deobfuscating a HPROF file (reading the mapping file and both passes over the HPROF file).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeobfuscateBenchmark {
+
+    @Param({"../test_files/x86_obfuscated.hprof"})
+    public String hprofFile;
+
+    @Param({"../test_files/mapping.txt"})
+    public String mappingFile;
+
+    private File outFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        outFile = File.createTempFile("deobfuscated", ".hprof");
+    }
+
+    @TearDown
+    public void tearDown() {
+        outFile.delete();
+    }
+
+    @Benchmark
+    public void deobfuscate(Throughput throughput) {
+        new HprofDeobfuscator(mappingFile, hprofFile, outFile.getPath(), false);
+        throughput.add(new File(hprofFile).length());
+    }
+}
@@ -0,0 +1,156 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Benchmarks for reading HPROF files with HprofReader and HeapDumpReader, using both a regular (buffered) FileInputStream and a
+ * MappedFileInputStream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HprofReaderBenchmark {
+
+    @Param({"../test_files/x86_obfuscated.hprof"})
+    public String hprofFile;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = BenchmarkFiles.getHprofFile(hprofFile);
+    }
+
+    /**
+     * Read all records, skipping the contents of each record.
+     */
+    @Benchmark
+    public void scanStream(Throughput throughput) throws IOException {
+        read(new BufferedInputStream(new FileInputStream(file)), new DiscardProcessor() {
+        });
+        throughput.add(file.length());
+    }
+
+    /**
+     * Read all records from a memory mapped file, skipping the contents of each record.
+     */
+    @Benchmark
+    public void scanMapped(Throughput throughput) throws IOException {
+        read(new MappedFileInputStream(file), new DiscardProcessor() {
+        });
+        throughput.add(file.length());
+    }
+
+    /**
+     * Read all records and decode all class, instance and array records in the heap dump.
+     */
+    @Benchmark
+    public void decodeHeapStream(Throughput throughput, Blackhole blackhole) throws IOException {
+        read(new BufferedInputStream(new FileInputStream(file)), new DecodingProcessor(blackhole));
+        throughput.add(file.length());
+    }
+
+    /**
+     * Read all records from a memory mapped file and decode all class, instance and array records in the heap dump.
+     */
+    @Benchmark
+    public void decodeHeapMapped(Throughput throughput, Blackhole blackhole) throws IOException {
+        read(new MappedFileInputStream(file), new DecodingProcessor(blackhole));
+        throughput.add(file.length());
+    }
+
+    private static void read(InputStream in, DiscardProcessor processor) throws IOException {
+        try {
+            HprofReader reader = new HprofReader(in, processor);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static class DecodingProcessor extends DiscardProcessor {
+
+        private final Map<ID, ClassDefinition> classes = new HashMap<ID, ClassDefinition>();
+        private final Blackhole blackhole;
+
+        DecodingProcessor(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+            if (tag == Tag.LOAD_CLASS) {
+                ClassDefinition cls = reader.readLoadClassRecord();
+                classes.put(cls.getObjectId(), cls);
+            }
+            else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+                HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), new HeapDumpBaseProcessor() {
+
+                    @Override
+                    public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                        switch (tag) {
+                            case HeapTag.CLASS_DUMP:
+                                blackhole.consume(reader.readClassDumpRecord(classes));
+                                break;
+                            case HeapTag.INSTANCE_DUMP:
+                                blackhole.consume(reader.readInstanceDump());
+                                break;
+                            case HeapTag.OBJECT_ARRAY_DUMP:
+                                blackhole.consume(reader.readObjectArray());
+                                break;
+                            case HeapTag.PRIMITIVE_ARRAY_DUMP:
+                                blackhole.consume(reader.readPrimitiveArray());
+                                break;
+                            default:
+                                skipHeapRecord(tag, reader);
+                        }
+                    }
+                });
+                while (heapReader.hasNext()) {
+                    heapReader.next();
+                }
+            }
+            else {
+                super.onRecord(tag, timestamp, length, reader);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.badoo.hprof.benchmarks;
+
+import com.badoo.hprof.library.util.LongIntMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the object id remapping of CrunchProcessor, comparing the HashMap of byte[] backed ids used before with LongIntMap.
+ * <p/>
+ * The fill benchmarks build a map of objectCount ids, the gc.alloc.rate.norm value reported by the GC profiler is the number of bytes
+ * allocated to build it (including the garbage of resizing). The lookup benchmarks read back all ids from a prebuilt map.
+ * <p/>
+ * The retained heap footprint of the maps (used heap after GC, before and after filling a map) is measured when the maps used by the
+ * lookup benchmarks are built and printed in the benchmark output, in MB per million ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IdMapBenchmark {
+
+    private static final long FIRST_OBJECT_ID = 0x12c00000L;
+
+    @Param({"1000000"})
+    public int objectCount;
+
+    private Map<ByteArrayId, ByteArrayId> hashMap;
+    private LongIntMap longIntMap;
+
+    @Setup
+    public void setUp() {
+        long before = getUsedHeap();
+        hashMap = fillHashMap();
+        long afterHashMap = getUsedHeap();
+        longIntMap = fillLongIntMap();
+        long afterLongIntMap = getUsedHeap();
+        System.out.println(String.format("Retained heap per million ids: HashMap of byte[] ids %.1f MB, LongIntMap %.1f MB",
+            getMegabytesPerMillion(afterHashMap - before), getMegabytesPerMillion(afterLongIntMap - afterHashMap)));
+    }
+
+    @Benchmark
+    public Map<ByteArrayId, ByteArrayId> fillHashMap() {
+        Map<ByteArrayId, ByteArrayId> map = new HashMap<ByteArrayId, ByteArrayId>();
+        for (int i = 0; i < objectCount; i++) {
+            map.put(new ByteArrayId(getObjectId(i)), new ByteArrayId(i + 1));
+        }
+        return map;
+    }
+
+    @Benchmark
+    public LongIntMap fillLongIntMap() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 0; i < objectCount; i++) {
+            map.put(getObjectId(i), i + 1);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public void lookupHashMap(Blackhole blackhole) {
+        for (int i = 0; i < objectCount; i++) {
+            blackhole.consume(hashMap.get(new ByteArrayId(getObjectId(i))));
+        }
+    }
+
+    @Benchmark
+    public void lookupLongIntMap(Blackhole blackhole) {
+        for (int i = 0; i < objectCount; i++) {
+            blackhole.consume(longIntMap.get(getObjectId(i)));
+        }
+    }
+
+    private double getMegabytesPerMillion(long bytes) {
+        return bytes * (1000000.0 / objectCount) / (1024 * 1024);
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long getObjectId(int index) {
+        return FIRST_OBJECT_ID + index * 8L;
+    }
+
+    /**
+     * Copy of the ID class as it was before it stored its value in a long: the id is kept in a byte array (of 4 bytes, the id size of
+     * Android heap dumps) and compared with Arrays.equals() and Arrays.hashCode().
+     */
+    static final class ByteArrayId {
+
+        private static final int ID_SIZE = 4;
+
+        private final byte[] idBytes;
+
+        ByteArrayId(long idBytesLong) {
+            idBytes = new byte[ID_SIZE];
+            for (int j = 0; j < ID_SIZE; j++) {
+                idBytes[ID_SIZE - j - 1] = (byte) ((idBytesLong >>> (8 * j)) & 0xFFL);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(idBytes, ((ByteArrayId) o).idBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(idBytes);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.badoo.hprof.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary JMH counter for the amount of data processed by a benchmark. When used in throughput mode it is reported in MB/s next to
+ * the regular ops/s score.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Throughput {
+
+    /**
+     * Number of megabytes processed (public since JMH reads the counter fields directly)
+     */
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+
+    public void add(long bytes) {
+        megabytes += bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,190 @@
+package com.badoo.bmd;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Random access to the blocks of a block compressed BMD file (see BmdBlockOutputStream), using the block index at the end of the file.
+ * <p/>
+ * Each block holds only whole records, so blocks can be decoded independently (and in parallel, readBlock() can be called from several
+ * threads). The position of a record is its offset in the uncompressed data, findBlock() returns the block holding it.
+ * <p/>
+ * <pre>
+ *     BmdBlockFile file = new BmdBlockFile(new File("dump.bmd"));
+ *     int block = file.findBlock(recordPosition);
+ *     byte[] data = file.readBlock(block); // The record starts at recordPosition - file.getBlockPosition(block)
+ * </pre>
+ */
+public class BmdBlockFile implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final long[] positions; // Uncompressed position of each block
+    private final int[] compressedLengths;
+    private final int[] lengths;
+
+    /**
+     * Open a block compressed BMD file.
+     *
+     * @param bmdFile the file
+     * @throws IOException if the file cannot be read or is not a block compressed BMD file
+     */
+    public BmdBlockFile(@Nonnull File bmdFile) throws IOException {
+        file = new RandomAccessFile(bmdFile, "r");
+        channel = file.getChannel();
+        try {
+            byte[] magic = new byte[BmdBlockOutputStream.MAGIC.length];
+            file.readFully(magic);
+            long size = file.length();
+            if (!BmdBlockInputStream.isMagic(magic) || size < magic.length + BmdBlockOutputStream.TRAILER_SIZE) {
+                throw new IOException("Not a block compressed BMD file: " + bmdFile);
+            }
+            ByteBuffer trailer = read(size - BmdBlockOutputStream.TRAILER_SIZE, BmdBlockOutputStream.TRAILER_SIZE);
+            long indexOffset = trailer.getLong();
+            for (int i = 0; i < BmdBlockOutputStream.INDEX_MAGIC.length; i++) {
+                if (trailer.get() != BmdBlockOutputStream.INDEX_MAGIC[i]) {
+                    throw new IOException("No block index in " + bmdFile + " (the file is truncated)");
+                }
+            }
+            long indexLength = size - BmdBlockOutputStream.TRAILER_SIZE - indexOffset;
+            if (indexOffset < magic.length || indexLength < 4 || indexLength > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt BMD block index in " + bmdFile);
+            }
+            ByteBuffer index = read(indexOffset, (int) indexLength);
+            int blockCount = index.getInt();
+            if (blockCount < 0 || index.remaining() != (long) blockCount * BmdBlockOutputStream.INDEX_ENTRY_SIZE) {
+                throw new IOException("Corrupt BMD block index in " + bmdFile);
+            }
+            offsets = new long[blockCount];
+            positions = new long[blockCount];
+            compressedLengths = new int[blockCount];
+            lengths = new int[blockCount];
+            long position = 0;
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                compressedLengths[i] = index.getInt();
+                lengths[i] = index.getInt();
+                if (offsets[i] < magic.length || compressedLengths[i] < 0 || lengths[i] < 0
+                    || offsets[i] + BmdBlockOutputStream.BLOCK_HEADER_SIZE + compressedLengths[i] > indexOffset) {
+                    throw new IOException("Corrupt BMD block index in " + bmdFile);
+                }
+                positions[i] = position;
+                position += lengths[i];
+            }
+        }
+        catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if a file is a block compressed BMD file.
+     */
+    public static boolean isBlockFile(@Nonnull File bmdFile) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(bmdFile, "r");
+        try {
+            byte[] magic = new byte[BmdBlockOutputStream.MAGIC.length];
+            return in.length() >= magic.length && in.read(magic) == magic.length && BmdBlockInputStream.isMagic(magic);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the position of the first byte of a block in the uncompressed data.
+     */
+    public long getBlockPosition(int block) {
+        return positions[block];
+    }
+
+    /**
+     * Returns the uncompressed length of a block.
+     */
+    public int getBlockLength(int block) {
+        return lengths[block];
+    }
+
+    /**
+     * Returns the total length of the uncompressed data.
+     */
+    public long getLength() {
+        return offsets.length > 0 ? positions[offsets.length - 1] + lengths[offsets.length - 1] : 0;
+    }
+
+    /**
+     * Returns the block holding the byte at a position in the uncompressed data.
+     *
+     * @param position the position
+     * @return the block
+     * @throws IllegalArgumentException if the position is outside of the data
+     */
+    public int findBlock(long position) {
+        if (position < 0 || position >= getLength()) {
+            throw new IllegalArgumentException("Position " + position + " is outside of the data (length " + getLength() + ")");
+        }
+        int low = 0;
+        int high = positions.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (positions[mid] <= position) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read and decompress a block. Can be called from several threads.
+     *
+     * @param block the block
+     * @return the uncompressed data of the block
+     */
+    @Nonnull
+    public byte[] readBlock(int block) throws IOException {
+        ByteBuffer compressed = read(offsets[block] + BmdBlockOutputStream.BLOCK_HEADER_SIZE, compressedLengths[block]);
+        byte[] data = new byte[lengths[block]];
+        Inflater inflater = new Inflater(true);
+        try {
+            BmdBlockInputStream.inflate(inflater, compressed.array(), compressedLengths[block], data, data.length);
+        }
+        finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of block compressed BMD file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.badoo.bmd;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+/**
+ * InputStream reading the (uncompressed) records of a block compressed BMD file (see BmdBlockOutputStream) sequentially. Use
+ * BmdBlockFile to read the blocks of a file in any order.
+ */
+public class BmdBlockInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private byte[] compressed = new byte[4096];
+    private byte[] block = new byte[0];
+    private int position;
+    private int length;
+    private boolean ended;
+
+    /**
+     * @param in input positioned at the start of a block compressed BMD file
+     * @throws IOException if the input is not a block compressed BMD file
+     */
+    public BmdBlockInputStream(@Nonnull InputStream in) throws IOException {
+        this.in = in;
+        byte[] magic = new byte[BmdBlockOutputStream.MAGIC.length];
+        readFully(in, magic, magic.length);
+        if (!isMagic(magic)) {
+            throw new IOException("Not a block compressed BMD file");
+        }
+    }
+
+    /**
+     * Returns a stream for reading the records of a BMD file of any version: a BmdBlockInputStream if the data is block compressed,
+     * otherwise the data as is (buffered if needed).
+     *
+     * @param in input positioned at the start of a BMD file
+     * @return the stream to read records from
+     */
+    @Nonnull
+    public static InputStream open(@Nonnull InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        byte[] magic = new byte[BmdBlockOutputStream.MAGIC.length];
+        in.mark(magic.length);
+        int read = 0;
+        while (read < magic.length) {
+            int count = in.read(magic, read, magic.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        in.reset();
+        return read == magic.length && isMagic(magic) ? new BmdBlockInputStream(in) : in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == length && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] data, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == length && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, length - position);
+        System.arraycopy(block, position, data, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < length || nextBlock())) {
+            int count = (int) Math.min(n - skipped, length - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes left in the current block, or of the next block if the current one has been read (0 at the end of the
+     * data).
+     */
+    @Override
+    public int available() throws IOException {
+        if (position == length) {
+            nextBlock();
+        }
+        return length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (!ended) {
+            int compressedLength = readInt();
+            if (compressedLength == 0) {
+                ended = true; // The block index follows, it is not needed when reading sequentially
+                break;
+            }
+            int uncompressedLength = readInt();
+            if (compressedLength > compressed.length) {
+                compressed = new byte[compressedLength];
+            }
+            if (uncompressedLength > block.length) {
+                block = new byte[uncompressedLength];
+            }
+            readFully(in, compressed, compressedLength);
+            inflate(inflater, compressed, compressedLength, block, uncompressedLength);
+            position = 0;
+            length = uncompressedLength;
+            if (length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int readInt() throws IOException {
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        int b4 = in.read();
+        if ((b1 | b2 | b3 | b4) < 0) {
+            throw new EOFException("Unexpected end of block compressed BMD data");
+        }
+        return (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+    }
+
+    static boolean isMagic(byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != BmdBlockOutputStream.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void inflate(Inflater inflater, byte[] compressed, int compressedLength, byte[] data, int length) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, count, length - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != length) {
+                throw new IOException("Invalid block, expected " + length + " bytes but got " + count);
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Invalid block: " + e.getMessage());
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] data, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(data, read, length - read);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of block compressed BMD data");
+            }
+            read += count;
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.badoo.bmd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+
+/**
+ * OutputStream writing BMD data in the block compressed container format (BMD version 2, see "BMD file format.md").
+ * <p/>
+ * The data is split into blocks that are compressed independently with Deflate, followed by an index of all blocks at the end of the
+ * file. Blocks are only ended at the start of a record (see startRecord(), which is called by DataWriter) so each block contains only
+ * whole records and can be decoded on its own, and the index can be used to find the block holding a record without reading the
+ * blocks before it (see BmdBlockFile).
+ * <p/>
+ * finish() (or close()) must be called after the last record to write the last block and the index.
+ */
+public class BmdBlockOutputStream extends OutputStream {
+
+    /**
+     * Default (uncompressed) block size
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    static final byte[] MAGIC = {'B', 'M', 'D', 2}; // The first byte of a version 1 file is the version (1)
+    static final byte[] INDEX_MAGIC = {'B', 'M', 'D', 'I'};
+    static final int BLOCK_HEADER_SIZE = 8; // Compressed and uncompressed length
+    static final int TRAILER_SIZE = 12; // Index offset and index magic
+    static final int INDEX_ENTRY_SIZE = 16; // Offset, compressed length and uncompressed length
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private byte[] buffer;
+    private int count;
+    private byte[] compressed = new byte[4096];
+    private long offset; // Number of bytes written to the output
+    private long[] blockOffsets = new long[64];
+    private int[] compressedLengths = new int[64];
+    private int[] uncompressedLengths = new int[64];
+    private int blockCount;
+    private boolean finished;
+
+    public BmdBlockOutputStream(@Nonnull OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param out       the output
+     * @param blockSize the uncompressed size at which blocks are ended (blocks can be larger since records are never split)
+     */
+    public BmdBlockOutputStream(@Nonnull OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.buffer = new byte[blockSize];
+        out.write(MAGIC);
+        offset = MAGIC.length;
+    }
+
+    /**
+     * Marks the start of a record, ending the current block if it is full.
+     */
+    public void startRecord() throws IOException {
+        if (count >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkNotFinished();
+        if (count == buffer.length) {
+            grow(count + 1);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(@Nonnull byte[] data, int off, int len) throws IOException {
+        checkNotFinished();
+        if (count + len > buffer.length) {
+            grow(count + len);
+        }
+        System.arraycopy(data, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Returns the number of blocks written so far.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Write the last block and the block index. Nothing can be written after this.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (count > 0) {
+            writeBlock();
+        }
+        writeInt(0); // A block with compressed length 0 marks the end of the blocks
+        long indexOffset = offset;
+        writeInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            writeLong(blockOffsets[i]);
+            writeInt(compressedLengths[i]);
+            writeInt(uncompressedLengths[i]);
+        }
+        writeLong(indexOffset);
+        out.write(INDEX_MAGIC);
+        out.flush();
+        deflater.end();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(buffer, 0, count);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] larger = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, larger, 0, length);
+                compressed = larger;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        if (blockCount == blockOffsets.length) {
+            growIndex();
+        }
+        blockOffsets[blockCount] = offset;
+        compressedLengths[blockCount] = length;
+        uncompressedLengths[blockCount] = count;
+        blockCount++;
+        writeInt(length);
+        writeInt(count);
+        out.write(compressed, 0, length);
+        offset += length;
+        count = 0;
+        if (buffer.length > blockSize) {
+            buffer = new byte[blockSize]; // Do not keep the memory used by a very large record
+        }
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("Cannot write after finish()");
+        }
+    }
+
+    private void grow(int minSize) {
+        byte[] larger = new byte[Math.max(minSize, buffer.length * 2)];
+        System.arraycopy(buffer, 0, larger, 0, count);
+        buffer = larger;
+    }
+
+    private void growIndex() {
+        int size = blockOffsets.length * 2;
+        long[] offsets = new long[size];
+        int[] compressed = new int[size];
+        int[] uncompressed = new int[size];
+        System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+        System.arraycopy(compressedLengths, 0, compressed, 0, blockCount);
+        System.arraycopy(uncompressedLengths, 0, uncompressed, 0, blockCount);
+        blockOffsets = offsets;
+        compressedLengths = compressed;
+        uncompressedLengths = uncompressed;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+        offset += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.badoo.bmd;
+
+import com.badoo.bmd.model.BmdBasicType;
+import com.badoo.bmd.model.BmdClassDefinition;
+import com.badoo.bmd.model.BmdInstanceFieldDefinition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The instance fields of a class and all its super classes, in the order they are stored in instance dumps. Used to decode instance
+ * dumps directly into the HPROF layout (see BmdReader.readInstanceDumpData()).
+ */
+class BmdInstanceLayout {
+
+    private static final int OBJECT_SIZE = 4; // Object ids are written as 4 byte ids
+
+    private final BmdBasicType[] types; // Null for the filler replacing the discarded fields of a class
+    private final int[] fillerSizes;
+    private final int size;
+
+    private BmdInstanceLayout(@Nonnull BmdBasicType[] types, @Nonnull int[] fillerSizes, int size) {
+        this.types = types;
+        this.fillerSizes = fillerSizes;
+        this.size = size;
+    }
+
+    /**
+     * Create the layout of the instances of a class.
+     *
+     * @param classDef the class
+     * @param classes  the class definitions, must contain all super classes of the class
+     * @return the layout
+     * @throws BmdReader.MissingClassException if a super class has not been read
+     */
+    @Nonnull
+    static BmdInstanceLayout create(@Nonnull BmdClassDefinition classDef, @Nonnull Map<Integer, BmdClassDefinition> classes) {
+        List<BmdBasicType> types = new ArrayList<BmdBasicType>();
+        List<Integer> fillerSizes = new ArrayList<Integer>();
+        int size = 0;
+        BmdClassDefinition currentClass = classDef;
+        while (currentClass != null) {
+            for (BmdInstanceFieldDefinition field : currentClass.getInstanceFields()) {
+                types.add(field.getType());
+                fillerSizes.add(0);
+                size += sizeOf(field.getType());
+            }
+            if (currentClass.getDiscardedFieldSize() > 0) {
+                types.add(null);
+                fillerSizes.add(currentClass.getDiscardedFieldSize());
+                size += currentClass.getDiscardedFieldSize();
+            }
+            int superClassId = currentClass.getSuperClassId();
+            currentClass = classes.get(superClassId);
+            if (currentClass == null && superClassId != 0) {
+                throw new BmdReader.MissingClassException(superClassId);
+            }
+        }
+        int[] fillers = new int[fillerSizes.size()];
+        for (int i = 0; i < fillers.length; i++) {
+            fillers[i] = fillerSizes.get(i);
+        }
+        return new BmdInstanceLayout(types.toArray(new BmdBasicType[types.size()]), fillers, size);
+    }
+
+    /**
+     * Read the field values of an instance.
+     *
+     * @param in the reader, positioned at the first field value
+     * @return the field values in the HPROF layout
+     */
+    @Nonnull
+    byte[] read(@Nonnull DataReader in) throws IOException {
+        byte[] data = new byte[size];
+        int pos = 0;
+        for (int i = 0; i < types.length; i++) {
+            BmdBasicType type = types[i];
+            if (type == null) {
+                pos += fillerSizes[i]; // Already zero
+                continue;
+            }
+            switch (type) {
+                case OBJECT:
+                case INT:
+                    pos = putInt(data, pos, in.readInt32());
+                    break;
+                case SHORT:
+                    pos = putShort(data, pos, in.readInt32());
+                    break;
+                case LONG:
+                    pos = putLong(data, pos, in.readInt64());
+                    break;
+                case DOUBLE:
+                    pos = putLong(data, pos, in.readRawLittleEndian64());
+                    break;
+                case FLOAT:
+                    pos = putInt(data, pos, in.readRawLittleEndian32());
+                    break;
+                case BOOLEAN:
+                    data[pos++] = (byte) (in.readRawByte() != 0 ? 1 : 0);
+                    break;
+                case BYTE:
+                    data[pos++] = in.readRawByte();
+                    break;
+                case CHAR:
+                    data[pos++] = in.readRawByte();
+                    data[pos++] = in.readRawByte();
+                    break;
+            }
+        }
+        return data;
+    }
+
+    private static int sizeOf(BmdBasicType type) {
+        switch (type) {
+            case OBJECT:
+                return OBJECT_SIZE;
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Invalid type: " + type);
+        }
+    }
+
+    private static int putShort(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >>> 8);
+        data[pos + 1] = (byte) value;
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+
+    private static int putLong(byte[] data, int pos, long value) {
+        putInt(data, pos, (int) (value >>> 32));
+        return putInt(data, pos + 4, (int) value);
+    }
+
+}
@@ -3,6 +3,7 @@ package com.badoo.bmd;
 import com.badoo.bmd.model.BmdBasicType;
 import com.badoo.bmd.model.BmdClassDefinition;
 import com.badoo.bmd.model.BmdConstantField;
+import com.badoo.bmd.model.BmdInstanceData;
 import com.badoo.bmd.model.BmdInstanceDump;
 import com.badoo.bmd.model.BmdInstanceDumpField;
 import com.badoo.bmd.model.BmdInstanceFieldDefinition;
@@ -16,6 +17,7 @@ import com.google.common.primitives.Chars;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,7 +27,7 @@ import javax.annotation.Nonnull;
  * Class for reading BMD files.
  * <p/>
  * Records of a BMD file are read sequentially by calling next(). This will result in a callback to the BmpProcessor implementation
- * provided in the constructor of the class.
+ * provided in the constructor of the class. Both plain and block compressed (version 2, see BmdBlockOutputStream) BMD files can be read.
  * <p/>
  * BmdProcessor proc = new MyProcessor();
  * BmdReader reader = new BmdReader(in, proc);
@@ -39,12 +41,46 @@ public class BmdReader extends DataReader {
 
     private static final boolean DEBUG = false;
 
+    /**
+     * Thrown when reading an instance dump of a class that has not been read (yet).
+     */
+    static class MissingClassException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        MissingClassException(int classId) {
+            super("No class loaded with id: " + classId);
+        }
+    }
+
     private final BmdProcessor processor;
+    private final Map<Integer, BmdClassDefinition> classes;
+    private final Map<Integer, BmdInstanceLayout> layouts = new HashMap<Integer, BmdInstanceLayout>();
     private boolean readHeader = true;
 
-    public BmdReader(@Nonnull InputStream in, @Nonnull BmdProcessor processor) {
-        super(in);
+    /**
+     * @param in        input positioned at the start of a BMD file, which can be block compressed (see BmdBlockOutputStream)
+     * @param processor processor receiving the records
+     */
+    public BmdReader(@Nonnull InputStream in, @Nonnull BmdProcessor processor) throws IOException {
+        super(BmdBlockInputStream.open(in));
         this.processor = processor;
+        this.classes = new HashMap<Integer, BmdClassDefinition>();
+    }
+
+    /**
+     * Creates a reader for the records of one block of a block compressed file (see ParallelBmdReader).
+     *
+     * @param block      the uncompressed data of the block, decoded directly from the array
+     * @param classes    the class definitions read so far, shared with the readers of the other blocks
+     * @param readHeader true if the block starts with the header of the file (the first block)
+     */
+    BmdReader(@Nonnull byte[] block, @Nonnull BmdProcessor processor, @Nonnull Map<Integer, BmdClassDefinition> classes,
+              boolean readHeader) {
+        super(block);
+        this.processor = processor;
+        this.classes = classes;
+        this.readHeader = readHeader;
     }
 
     /**
@@ -53,7 +89,7 @@ public class BmdReader extends DataReader {
      * @return True if there are more records, otherwise false.
      */
     public boolean hasNext() throws IOException {
-        return (in.available() > 0);
+        return !isAtEnd();
     }
 
     /**
@@ -69,6 +105,14 @@ public class BmdReader extends DataReader {
         }
     }
 
+    /**
+     * Returns the class definitions read so far (by this reader, or by all readers of a ParallelBmdReader).
+     */
+    @Nonnull
+    public Map<Integer, BmdClassDefinition> getClasses() {
+        return classes;
+    }
+
     /**
      * Reads a BmdString containing real string data from the input.
      *
@@ -126,7 +170,10 @@ public class BmdReader extends DataReader {
             instanceFields.add(readInstanceField());
         }
         int discardedFieldSize = readInt32();
-        return new BmdClassDefinition(classId, superClassId, name, constantFields, staticFields, instanceFields, discardedFieldSize);
+        BmdClassDefinition classDef = new BmdClassDefinition(classId, superClassId, name, constantFields, staticFields, instanceFields,
+            discardedFieldSize);
+        classes.put(classId, classDef);
+        return classDef;
     }
 
     /**
@@ -159,6 +206,31 @@ public class BmdReader extends DataReader {
         return new BmdPrimitiveArray(objectId, type, count);
     }
 
+    /**
+     * Reads an instance dump from the input, using the class definitions read so far (see getClasses()). All classes in the instance
+     * inheritance hierarchy must already have been read.
+     *
+     * @return A BmdInstanceDump
+     */
+    @Nonnull
+    public BmdInstanceDump readInstanceDumpRecord() throws IOException {
+        return readInstanceDumpRecord(classes);
+    }
+
+    /**
+     * Reads an instance dump from the input, decoding the field values directly into the layout of HPROF instance dumps. Faster than
+     * readInstanceDumpRecord() since no objects are created for the fields. All classes in the instance inheritance hierarchy must
+     * already have been read (see getClasses()).
+     *
+     * @return A BmdInstanceData
+     */
+    @Nonnull
+    public BmdInstanceData readInstanceDumpData() throws IOException {
+        int objectId = readInt32();
+        int classId = readInt32();
+        return new BmdInstanceData(objectId, classId, getLayout(classId).read(this));
+    }
+
     /**
      * Reads an instance dump from the input. All classes in the instance inheritance hierarchy must already have been loaded.
      *
@@ -171,7 +243,7 @@ public class BmdReader extends DataReader {
         int classId = readInt32();
         BmdClassDefinition classDef = classes.get(classId);
         if (classDef == null) {
-            throw new IllegalStateException("No class loaded with id: " + classId);
+            throw new MissingClassException(classId);
         }
         // Calculate instance size
         BmdClassDefinition currentClass = classDef;
@@ -207,7 +279,11 @@ public class BmdReader extends DataReader {
 
                 }
             }
-            currentClass = classes.get(currentClass.getSuperClassId());
+            int superClassId = currentClass.getSuperClassId();
+            currentClass = classes.get(superClassId);
+            if (currentClass == null && superClassId != 0) {
+                throw new MissingClassException(superClassId); // The size of the instance data is not known
+            }
         }
         return new BmdInstanceDump(objectId, classDef.getId(), fields);
     }
@@ -225,6 +301,49 @@ public class BmdReader extends DataReader {
         return new BmdLegacyRecord(tag, data);
     }
 
+    /**
+     * Returns true if the next record is an instance dump of a class whose class hierarchy has not been read (yet). The position of the
+     * reader is not changed. Only for readers created from an array (see ParallelBmdReader).
+     */
+    boolean isClassMissing() throws IOException {
+        if (readHeader) {
+            return false;
+        }
+        int start = getPosition();
+        try {
+            if (readInt32() != BmdTag.INSTANCE_DUMP.value) {
+                return false;
+            }
+            readInt32(); // Object id
+            getLayout(readInt32());
+            return false;
+        }
+        catch (MissingClassException e) {
+            return true;
+        }
+        finally {
+            setPosition(start);
+        }
+    }
+
+    /**
+     * Returns the (cached) layout of the instances of a class.
+     *
+     * @throws MissingClassException if a class in the class hierarchy has not been read
+     */
+    private BmdInstanceLayout getLayout(int classId) {
+        BmdInstanceLayout layout = layouts.get(classId);
+        if (layout == null) {
+            BmdClassDefinition classDef = classes.get(classId);
+            if (classDef == null) {
+                throw new MissingClassException(classId);
+            }
+            layout = BmdInstanceLayout.create(classDef, classes);
+            layouts.put(classId, layout);
+        }
+        return layout;
+    }
+
     private BmdInstanceFieldDefinition readInstanceField() throws IOException {
         int nameId = readInt32();
         BmdBasicType type = BmdBasicType.fromInt(readInt32());
@@ -30,8 +30,7 @@
 
 package com.badoo.bmd;
 
-import com.badoo.hprof.library.util.StreamUtil;
-
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -42,15 +41,59 @@ import java.io.InputStream;
 
 /**
  * Reads and decodes numeric data
+ * <p/>
+ * Data is decoded from a byte array, which is either refilled from the input stream or (when reading a single block of a block
+ * compressed file) holds all the data to read.
  *
  * @author kenton@google.com Kenton Varda
  */
 public class DataReader {
 
-    protected final InputStream in;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    protected final InputStream in; // Null if all data is in the buffer
+    private final byte[] buffer;
+    private int bufferPos;
+    private int bufferSize;
 
     public DataReader(InputStream in) {
         this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a reader decoding the data of an array.
+     */
+    DataReader(byte[] data) {
+        this.in = null;
+        this.buffer = data;
+        this.bufferSize = data.length;
+    }
+
+    /**
+     * Returns true if all data has been read.
+     */
+    protected boolean isAtEnd() throws IOException {
+        return bufferPos == bufferSize && !refillBuffer();
+    }
+
+    /**
+     * Returns the position in the data of a reader created from an array.
+     */
+    int getPosition() {
+        checkArrayReader();
+        return bufferPos;
+    }
+
+    /**
+     * Moves a reader created from an array to a position in the data, for example to read a record again.
+     */
+    void setPosition(int position) {
+        checkArrayReader();
+        if (position < 0 || position > bufferSize) {
+            throw new IllegalArgumentException("Invalid position " + position);
+        }
+        bufferPos = position;
     }
 
     /** Read a {@code double} field value from the stream. */
@@ -137,14 +180,30 @@ public class DataReader {
      * Read one byte from the input.
      */
     public byte readRawByte() throws IOException {
-        return (byte) in.read();
+        if (bufferPos == bufferSize && !refillBuffer()) {
+            throw new EOFException("Unexpected end of data");
+        }
+        return buffer[bufferPos++];
     }
 
     /**
      * Read a fixed size of bytes from the input.
      */
     public byte[] readRawBytes(final int size) throws IOException {
-        return StreamUtil.read(in, size);
+        final byte[] bytes = new byte[size];
+        final int buffered = Math.min(size, bufferSize - bufferPos);
+        System.arraycopy(buffer, bufferPos, bytes, 0, buffered);
+        bufferPos += buffered;
+        // Larger reads go directly to the input stream
+        int pos = buffered;
+        while (pos < size) {
+            final int read = in != null ? in.read(bytes, pos, size - pos) : -1;
+            if (read == -1) {
+                throw new EOFException("Unexpected end of data, " + (size - pos) + " bytes missing");
+            }
+            pos += read;
+        }
+        return bytes;
     }
 
     /** Read a 32-bit little-endian integer from the stream. */
@@ -179,4 +238,32 @@ public class DataReader {
             (((long)b8 & 0xff) << 56);
     }
 
+    /**
+     * Reads more data from the input stream into the (completely read) buffer.
+     *
+     * @return false if there is no more data
+     */
+    private boolean refillBuffer() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        }
+        while (read == 0);
+        if (read == -1) {
+            return false;
+        }
+        bufferPos = 0;
+        bufferSize = read;
+        return true;
+    }
+
+    private void checkArrayReader() {
+        if (in != null) {
+            throw new IllegalStateException("The position can only be changed when reading from an array");
+        }
+    }
+
 }
\ No newline at end of file
@@ -49,9 +49,11 @@ import java.io.OutputStream;
 public abstract class DataWriter {
 
     protected final OutputStream out;
+    private final BmdBlockOutputStream blocks; // Set when writing a block compressed BMD file
 
     protected DataWriter(OutputStream out) {
         this.out = out;
+        this.blocks = out instanceof BmdBlockOutputStream ? (BmdBlockOutputStream) out : null;
     }
 
     /**
@@ -63,6 +65,29 @@ public abstract class DataWriter {
         return out;
     }
 
+    /**
+     * Must be called before writing each record. When writing to a BmdBlockOutputStream this is where full blocks are ended, so that
+     * records are never split between blocks.
+     */
+    protected void startRecord() throws IOException {
+        if (blocks != null) {
+            blocks.startRecord();
+        }
+    }
+
+    /**
+     * Write any buffered data to the output. When writing to a BmdBlockOutputStream the last block and the block index are written and
+     * nothing more can be written after this.
+     */
+    public void finish() throws IOException {
+        if (blocks != null) {
+            blocks.finish();
+        }
+        else {
+            out.flush();
+        }
+    }
+
     /**
      * Write a {@code double} field to the stream.
      */
@@ -0,0 +1,176 @@
+package com.badoo.bmd;
+
+import com.badoo.bmd.model.BmdClassDefinition;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reads the records of a block compressed BMD file (see BmdBlockFile) using several threads, one block per thread at a time.
+ * <p/>
+ * The records of a block are given to its processor in order, but the blocks are read in parallel. The records can either be given to a
+ * single thread safe processor (read(BmdProcessor)) or to one processor per block that are merged by the caller afterwards
+ * (read(ProcessorFactory)). The header is given to the processor of the first block.
+ * <p/>
+ * Instance dumps can only be read once the class definitions of their class hierarchy have been read. Processors must read instance
+ * dumps with BmdReader.readInstanceDumpRecord() or readInstanceDumpData() (without arguments), which use the class definitions read
+ * from all blocks. Before an instance dump is given to the processor the reader checks that its classes have been read, if not (because
+ * they are in a block that is read at the same time) the thread waits for the blocks before it to be read. Each record is therefore
+ * given to the processor exactly once.
+ * <p/>
+ * <pre>
+ *     List&lt;CountProcessor&gt; processors = new ParallelBmdReader(file, threads).read(new ProcessorFactory&lt;CountProcessor&gt;() {
+ *         public CountProcessor createProcessor(int block) {
+ *             return new CountProcessor();
+ *         }
+ *     });
+ * </pre>
+ */
+public class ParallelBmdReader {
+
+    /**
+     * Creates the processors of the blocks when reading with one processor per block.
+     */
+    public interface ProcessorFactory<P extends BmdProcessor> {
+
+        /**
+         * Create the processor for a block. Called from the thread reading the block.
+         */
+        @Nonnull
+        P createProcessor(int block);
+    }
+
+    private final BmdBlockFile file;
+    private final int threadCount;
+    private final Map<Integer, BmdClassDefinition> classes = new ConcurrentHashMap<Integer, BmdClassDefinition>();
+
+    /**
+     * @param file        the file to read
+     * @param threadCount the number of threads to read blocks with
+     */
+    public ParallelBmdReader(@Nonnull BmdBlockFile file, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count " + threadCount);
+        }
+        this.file = file;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Read all records, giving them to a single processor.
+     *
+     * @param processor the processor, which must be thread safe
+     */
+    public void read(@Nonnull final BmdProcessor processor) throws IOException {
+        read(new ProcessorFactory<BmdProcessor>() {
+            @Nonnull
+            @Override
+            public BmdProcessor createProcessor(int block) {
+                return processor;
+            }
+        });
+    }
+
+    /**
+     * Read all records, giving the records of each block to a separate processor.
+     *
+     * @param factory the factory creating the processors
+     * @return the processors of all blocks, in block order
+     */
+    @Nonnull
+    public <P extends BmdProcessor> List<P> read(@Nonnull final ProcessorFactory<P> factory) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable runnable) {
+                Thread thread = new Thread(runnable, "bmd-reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final CountDownLatch[] done = new CountDownLatch[file.getBlockCount()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = new CountDownLatch(1);
+        }
+        List<P> processors = new ArrayList<P>(done.length);
+        try {
+            // The blocks are started in order so a block only waits for blocks that are already being read
+            List<Future<P>> futures = new ArrayList<Future<P>>();
+            for (int i = 0; i < done.length; i++) {
+                final int block = i;
+                futures.add(executor.submit(new Callable<P>() {
+                    @Override
+                    public P call() throws Exception {
+                        try {
+                            P processor = factory.createProcessor(block);
+                            readBlock(block, processor, done);
+                            return processor;
+                        }
+                        finally {
+                            done[block].countDown();
+                        }
+                    }
+                }));
+            }
+            for (Future<P> future : futures) {
+                processors.add(getResult(future));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return processors;
+    }
+
+    private void readBlock(int block, BmdProcessor processor, CountDownLatch[] done) throws IOException {
+        BmdReader reader = new BmdReader(file.readBlock(block), processor, classes, block == 0);
+        boolean waited = false;
+        while (reader.hasNext()) {
+            if (!waited && reader.isClassMissing()) {
+                // Classes are written before their instances, wait for the blocks before this one. If the class is still missing the
+                // processor gets a MissingClassException when reading the record.
+                for (int i = 0; i < block; i++) {
+                    try {
+                        done[i].await();
+                    }
+                    catch (InterruptedException interrupted) {
+                        throw new InterruptedIOException("Interrupted while waiting for block " + i);
+                    }
+                }
+                waited = true;
+            }
+            reader.next();
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while reading blocks");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to read block: " + e.getCause());
+        }
+    }
+
+}
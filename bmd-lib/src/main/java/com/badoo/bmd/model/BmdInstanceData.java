@@ -0,0 +1,49 @@
+package com.badoo.bmd.model;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Class containing the data of an BMD instance dump with the values of the instance fields in the layout of HPROF instance dumps (see
+ * BmdReader.readInstanceDumpData()). Unlike BmdInstanceDump no objects are created for the fields.
+ */
+public class BmdInstanceData {
+
+    private final int id;
+    private final int classId;
+    private final byte[] data;
+
+    public BmdInstanceData(int id, int classId, @Nonnull byte[] data) {
+        this.id = id;
+        this.classId = classId;
+        this.data = data;
+    }
+
+    /**
+     * Returns the id of the object.
+     *
+     * @return The object id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the id of the class which the dump is an instance of.
+     *
+     * @return The class id of the dumped instance's class.
+     */
+    public int getClassId() {
+        return classId;
+    }
+
+    /**
+     * Returns the field values, big-endian and with 4 byte object ids. The fields of the class come first, followed by the fields of the
+     * super classes. Fields discarded when the file was created are filled with zeros.
+     *
+     * @return The field values
+     */
+    @Nonnull
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,130 @@
+package com.badoo.bmd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BmdBlockFileTest {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int RECORD_COUNT = 10;
+    private static final int RECORD_LENGTH = 40;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("blocks", ".bmd");
+        BmdBlockOutputStream out = new BmdBlockOutputStream(new FileOutputStream(file), BLOCK_SIZE);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            out.startRecord();
+            out.write(createRecord(i));
+        }
+        out.finish();
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readBlocks() throws IOException {
+        BmdBlockFile blocks = new BmdBlockFile(file);
+        try {
+            assertTrue(blocks.getBlockCount() > 1);
+            assertEquals(RECORD_COUNT * RECORD_LENGTH, blocks.getLength());
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int i = 0; i < blocks.getBlockCount(); i++) {
+                assertEquals(data.size(), blocks.getBlockPosition(i));
+                // Blocks hold only whole records
+                assertEquals(0, blocks.getBlockLength(i) % RECORD_LENGTH);
+                data.write(blocks.readBlock(i));
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                expected.write(createRecord(i));
+            }
+            assertArrayEquals(expected.toByteArray(), data.toByteArray());
+        }
+        finally {
+            blocks.close();
+        }
+    }
+
+    @Test
+    public void corruptIndexOffset() throws IOException {
+        long indexOffset = readIndexOffset();
+        verifyCorrupt(file.length() - BmdBlockOutputStream.TRAILER_SIZE - indexOffset, 0); // Past the index
+        verifyCorrupt(-1, 0);
+        verifyCorrupt(Long.MAX_VALUE, 0);
+    }
+
+    @Test
+    public void corruptBlockCount() throws IOException {
+        long indexOffset = readIndexOffset();
+        verifyCorrupt(indexOffset, -1);
+        verifyCorrupt(indexOffset, Integer.MAX_VALUE); // Overflows when multiplied with the index entry size
+    }
+
+    private long readIndexOffset() throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(file.length() - BmdBlockOutputStream.TRAILER_SIZE);
+            return in.readLong();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes an index offset to the trailer (and optionally a block count to the index) and verifies that opening the file fails with
+     * an IOException.
+     */
+    private void verifyCorrupt(long indexOffset, int blockCount) throws IOException {
+        long originalOffset = readIndexOffset();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(file.length() - BmdBlockOutputStream.TRAILER_SIZE);
+            out.writeLong(indexOffset);
+            if (blockCount != 0) {
+                out.seek(originalOffset);
+                out.writeInt(blockCount);
+            }
+        }
+        finally {
+            out.close();
+        }
+        try {
+            new BmdBlockFile(file).close();
+            fail("Opened a file with a corrupt block index");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt BMD block index"));
+        }
+        finally {
+            setUp(); // Restore the file
+        }
+    }
+
+    private static byte[] createRecord(int index) {
+        byte[] record = new byte[RECORD_LENGTH];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) (index * 31 + i);
+        }
+        return record;
+    }
+}
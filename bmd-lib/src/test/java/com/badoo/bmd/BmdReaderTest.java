@@ -0,0 +1,236 @@
+package com.badoo.bmd;
+
+import com.badoo.bmd.model.BmdBasicType;
+import com.badoo.bmd.model.BmdClassDefinition;
+import com.badoo.bmd.model.BmdInstanceData;
+import com.badoo.bmd.model.BmdInstanceDump;
+import com.badoo.bmd.model.BmdInstanceDumpField;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.write;
+import static com.badoo.hprof.library.util.StreamUtil.writeByte;
+import static com.badoo.hprof.library.util.StreamUtil.writeInt;
+import static com.badoo.hprof.library.util.StreamUtil.writeLong;
+import static com.badoo.hprof.library.util.StreamUtil.writeShort;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BmdReaderTest {
+
+    private static final int BASE_CLASS = 1;
+    private static final int MIDDLE_CLASS = 2;
+    private static final int LEAF_CLASS = 3;
+    private static final int INSTANCE_COUNT = 3;
+
+    @Test
+    public void readInstanceDumpDataFromStream() throws IOException {
+        InstanceComparer comparer = new InstanceComparer();
+        BmdReader reader = new BmdReader(new ByteArrayInputStream(writeFile(true)), comparer);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        comparer.verify();
+    }
+
+    @Test
+    public void readInstanceDumpDataFromArray() throws IOException {
+        // Block readers of ParallelBmdReader decode directly from the block data
+        InstanceComparer comparer = new InstanceComparer();
+        BmdReader reader = new BmdReader(writeFile(true), comparer, new HashMap<Integer, BmdClassDefinition>(), true);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        comparer.verify();
+    }
+
+    @Test
+    public void readAgainAfterSetPosition() throws IOException {
+        InstanceComparer comparer = new InstanceComparer();
+        // Each instance is written once and read again (as ParallelBmdReader does when a class is missing)
+        BmdReader reader = new BmdReader(writeFile(false), comparer, new HashMap<Integer, BmdClassDefinition>(), true);
+        while (reader.hasNext()) {
+            int recordStart = reader.getPosition();
+            reader.next();
+            if (comparer.instances.size() > comparer.records.size()) {
+                reader.setPosition(recordStart);
+            }
+        }
+        comparer.verify();
+    }
+
+    @Test
+    public void layoutOfInstanceData() throws IOException {
+        InstanceComparer comparer = new InstanceComparer();
+        BmdReader reader = new BmdReader(new ByteArrayInputStream(writeFile(true)), comparer);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        // Leaf fields, Leaf filler, Middle fields, Base fields and Base filler
+        ByteBuffer data = ByteBuffer.wrap(comparer.instances.get(1).getData());
+        assertEquals(100 + 1, data.getInt()); // OBJECT
+        assertEquals(-1.5 * 1, data.getDouble(), 0);
+        assertEquals(Long.MIN_VALUE + 1, data.getLong());
+        assertEquals((byte) -1, data.get());
+        assertEquals(0, data.get());
+        assertEquals(0, data.get());
+        assertEquals(0, data.get()); // Filler
+        assertEquals(Short.MIN_VALUE + 1, data.getShort());
+        assertEquals(Float.NaN, data.getFloat(), 0);
+        assertEquals(1, data.get()); // BOOLEAN
+        assertEquals(-1, data.getInt()); // INT
+        assertEquals('\u00e5' + 1, data.getChar());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(0, data.get()); // Filler
+        }
+        assertEquals(0, data.remaining());
+    }
+
+    /**
+     * Writes a file with a three level class hierarchy, where the base and leaf classes have discarded fields, and instances of the leaf
+     * class.
+     *
+     * @param copies true to write each instance twice, so that it can be read with both readInstanceDumpData() and
+     *               readInstanceDumpRecord()
+     */
+    private static byte[] writeFile(boolean copies) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BmdTestWriter writer = new BmdTestWriter(out);
+        writer.writeHeader();
+        writer.writeClassDefinition(BASE_CLASS, 0, 6, BmdBasicType.INT, BmdBasicType.CHAR);
+        writer.writeClassDefinition(MIDDLE_CLASS, BASE_CLASS, 0, BmdBasicType.SHORT, BmdBasicType.FLOAT, BmdBasicType.BOOLEAN);
+        writer.writeClassDefinition(LEAF_CLASS, MIDDLE_CLASS, 3, BmdBasicType.OBJECT, BmdBasicType.DOUBLE, BmdBasicType.LONG,
+            BmdBasicType.BYTE);
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            for (int copy = 0; copy < (copies ? 2 : 1); copy++) {
+                writeInstanceDump(writer, 100 + i, i);
+            }
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an instance of the leaf class with field values derived from the index (including negative and large values).
+     */
+    private static void writeInstanceDump(BmdTestWriter writer, int id, int index) throws IOException {
+        writer.writeInstanceDumpHeader(id, LEAF_CLASS);
+        // Leaf
+        writer.writeInt32(100 + index); // OBJECT
+        writer.writeDouble(-1.5 * index); // DOUBLE
+        writer.writeInt64(Long.MIN_VALUE + index); // LONG
+        writer.writeRawByte(-index); // BYTE
+        // Middle
+        writer.writeInt32(Short.MIN_VALUE + index); // SHORT
+        writer.writeFloat(index == 1 ? Float.NaN : Float.MAX_VALUE / (index + 1)); // FLOAT
+        writer.writeRawByte(index % 2); // BOOLEAN
+        // Base
+        writer.writeInt32(index - 2); // INT
+        char value = (char) ('\u00e5' + index);
+        writer.writeRawByte(value >>> 8); // CHAR
+        writer.writeRawByte(value);
+    }
+
+    /**
+     * Reads every other instance dump with readInstanceDumpData() and the ones in between with readInstanceDumpRecord().
+     */
+    private static class InstanceComparer implements BmdProcessor {
+
+        final List<BmdInstanceData> instances = new ArrayList<BmdInstanceData>();
+        final List<BmdInstanceDump> records = new ArrayList<BmdInstanceDump>();
+        private final Map<Integer, BmdClassDefinition> classes = new HashMap<Integer, BmdClassDefinition>();
+
+        @Override
+        public void onHeader(int version, @Nonnull byte[] data) throws IOException {
+        }
+
+        @Override
+        public void onRecord(BmdTag tag, @Nonnull BmdReader reader) throws IOException {
+            if (tag == BmdTag.CLASS_DEFINITION) {
+                BmdClassDefinition classDef = reader.readClassDefinitionRecord();
+                classes.put(classDef.getId(), classDef);
+            }
+            else if (tag == BmdTag.INSTANCE_DUMP) {
+                if (instances.size() == records.size()) {
+                    instances.add(reader.readInstanceDumpData());
+                }
+                else {
+                    records.add(reader.readInstanceDumpRecord());
+                }
+            }
+        }
+
+        void verify() throws IOException {
+            assertEquals(INSTANCE_COUNT, instances.size());
+            assertEquals(INSTANCE_COUNT, records.size());
+            for (int i = 0; i < INSTANCE_COUNT; i++) {
+                BmdInstanceData instance = instances.get(i);
+                assertEquals(100 + i, instance.getId());
+                assertEquals(LEAF_CLASS, instance.getClassId());
+                assertEquals(records.get(i).getId(), instance.getId());
+                assertArrayEquals(convertInstanceDump(records.get(i)), instance.getData());
+            }
+        }
+
+        /**
+         * Converts the fields of an instance dump to the HPROF layout (as done by the decruncher before readInstanceDumpData()).
+         */
+        private byte[] convertInstanceDump(BmdInstanceDump instance) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int currentClassId = instance.getClassId();
+            while (currentClassId != 0) {
+                BmdClassDefinition currentClass = classes.get(currentClassId);
+                for (BmdInstanceDumpField field : instance.getFields()) {
+                    if (field.getClassDefinition().equals(currentClass)) {
+                        writeFieldValue(buffer, field.getData());
+                    }
+                }
+                if (currentClass.getDiscardedFieldSize() > 0) {
+                    write(buffer, 0, currentClass.getDiscardedFieldSize());
+                }
+                currentClassId = currentClass.getSuperClassId();
+            }
+            return buffer.toByteArray();
+        }
+
+        private void writeFieldValue(OutputStream out, Object value) throws IOException {
+            if (value instanceof Boolean) {
+                writeByte(out, (Boolean) value ? 1 : 0);
+            }
+            else if (value instanceof Byte) {
+                writeByte(out, (Byte) value);
+            }
+            else if (value instanceof Character) {
+                int intValue = (Character) value;
+                writeShort(out, (short) intValue);
+            }
+            else if (value instanceof Double) {
+                writeLong(out, Double.doubleToRawLongBits((Double) value));
+            }
+            else if (value instanceof Integer) {
+                writeInt(out, (Integer) value);
+            }
+            else if (value instanceof Float) {
+                writeInt(out, Float.floatToRawIntBits((Float) value));
+            }
+            else if (value instanceof Long) {
+                writeLong(out, (Long) value);
+            }
+            else if (value instanceof Short) {
+                writeShort(out, (Short) value);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.badoo.bmd;
+
+import com.badoo.bmd.model.BmdBasicType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes BMD records for tests. Field values of instance dumps are written with the encoding methods of DataWriter after
+ * writeInstanceDumpHeader().
+ */
+class BmdTestWriter extends DataWriter {
+
+    BmdTestWriter(OutputStream out) {
+        super(out);
+    }
+
+    void writeHeader() throws IOException {
+        writeInt32(1);
+        writeByteArrayWithLength(new byte[0]);
+    }
+
+    void writeClassDefinition(int id, int superClassId, int discardedFieldSize, BmdBasicType... fieldTypes) throws IOException {
+        startRecord();
+        writeInt32(BmdTag.CLASS_DEFINITION.value);
+        writeInt32(id);
+        writeInt32(superClassId);
+        writeInt32(0); // Name
+        writeInt32(0); // Constant fields
+        writeInt32(0); // Static fields
+        writeInt32(fieldTypes.length);
+        for (BmdBasicType type : fieldTypes) {
+            writeInt32(0); // Name
+            writeInt32(type.id);
+        }
+        writeInt32(discardedFieldSize);
+    }
+
+    void writeInstanceDumpHeader(int id, int classId) throws IOException {
+        startRecord();
+        writeInt32(BmdTag.INSTANCE_DUMP.value);
+        writeInt32(id);
+        writeInt32(classId);
+    }
+}
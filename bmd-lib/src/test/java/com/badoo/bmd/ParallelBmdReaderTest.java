@@ -0,0 +1,200 @@
+package com.badoo.bmd;
+
+import com.badoo.bmd.model.BmdBasicType;
+import com.badoo.bmd.model.BmdInstanceData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelBmdReaderTest {
+
+    private static final int CLASS_COUNT = 20;
+    private static final int INSTANCES_PER_CLASS = 50;
+    private static final int BLOCK_SIZE = 256;
+    private static final int THREADS = 4;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("parallel", ".bmd");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readWithProcessorPerBlock() throws IOException {
+        writeFile(file, false);
+        Map<BmdTag, Integer> expected = readSequential();
+        BmdBlockFile blocks = new BmdBlockFile(file);
+        try {
+            assertTrue(blocks.getBlockCount() > THREADS);
+            ParallelBmdReader.ProcessorFactory<RecordCounter> factory = new ParallelBmdReader.ProcessorFactory<RecordCounter>() {
+                @Nonnull
+                @Override
+                public RecordCounter createProcessor(int block) {
+                    return new RecordCounter();
+                }
+            };
+            List<RecordCounter> counters = new ParallelBmdReader(blocks, THREADS).read(factory);
+            assertEquals(blocks.getBlockCount(), counters.size());
+            RecordCounter merged = new RecordCounter();
+            for (RecordCounter counter : counters) {
+                merged.merge(counter);
+            }
+            assertEquals(expected, merged.counts);
+            assertEquals(CLASS_COUNT * INSTANCES_PER_CLASS, merged.instanceIds.size());
+        }
+        finally {
+            blocks.close();
+        }
+    }
+
+    @Test
+    public void readWithSharedProcessor() throws IOException {
+        writeFile(file, false);
+        Map<BmdTag, Integer> expected = readSequential();
+        BmdBlockFile blocks = new BmdBlockFile(file);
+        try {
+            // Each record, including the instance dumps waiting for the classes of an earlier block, is given to the processor once
+            RecordCounter counter = new RecordCounter();
+            new ParallelBmdReader(blocks, THREADS).read(counter);
+            assertEquals(expected, counter.counts);
+            assertEquals(CLASS_COUNT * INSTANCES_PER_CLASS, counter.instanceIds.size());
+        }
+        finally {
+            blocks.close();
+        }
+    }
+
+    @Test
+    public void missingClass() throws IOException {
+        writeFile(file, true);
+        BmdBlockFile blocks = new BmdBlockFile(file);
+        try {
+            new ParallelBmdReader(blocks, THREADS).read(new RecordCounter());
+            fail("Read an instance dump of a class that is not in the file");
+        }
+        catch (BmdReader.MissingClassException expected) {
+        }
+        finally {
+            blocks.close();
+        }
+    }
+
+    private Map<BmdTag, Integer> readSequential() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            RecordCounter counter = new RecordCounter();
+            BmdReader reader = new BmdReader(in, counter);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return counter.counts;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a file where each class extends the class before it, followed by the instances of the class. The blocks are small so the
+     * class hierarchy of most instances spans several blocks.
+     *
+     * @param missingClass true to add an instance dump of a class that is not in the file
+     */
+    private static void writeFile(File file, boolean missingClass) throws IOException {
+        BmdBlockOutputStream out = new BmdBlockOutputStream(new FileOutputStream(file), BLOCK_SIZE);
+        try {
+            BmdTestWriter writer = new BmdTestWriter(out);
+            writer.writeHeader();
+            int id = 1000;
+            for (int classId = 1; classId <= CLASS_COUNT; classId++) {
+                writer.writeClassDefinition(classId, classId - 1, 0, BmdBasicType.OBJECT, BmdBasicType.INT);
+                for (int i = 0; i < INSTANCES_PER_CLASS; i++) {
+                    writer.writeInstanceDumpHeader(id++, classId);
+                    for (int level = 0; level < classId; level++) {
+                        writer.writeInt32(id); // OBJECT
+                        writer.writeInt32(-level); // INT
+                    }
+                }
+            }
+            if (missingClass) {
+                writer.writeInstanceDumpHeader(id, CLASS_COUNT + 1);
+            }
+            writer.finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Counts the records by tag (before reading them) and checks the instance dumps. Thread safe.
+     */
+    private static class RecordCounter implements BmdProcessor {
+
+        final Map<BmdTag, Integer> counts = new HashMap<BmdTag, Integer>();
+        final Set<Integer> instanceIds = new HashSet<Integer>();
+
+        @Override
+        public synchronized void onHeader(int version, @Nonnull byte[] data) throws IOException {
+            assertEquals(1, version);
+        }
+
+        @Override
+        public void onRecord(BmdTag tag, @Nonnull BmdReader reader) throws IOException {
+            count(tag, 1);
+            if (tag == BmdTag.CLASS_DEFINITION) {
+                reader.readClassDefinitionRecord();
+            }
+            else if (tag == BmdTag.INSTANCE_DUMP) {
+                BmdInstanceData instance = reader.readInstanceDumpData();
+                assertEquals(instance.getClassId() * 8, instance.getData().length);
+                addInstance(instance.getId());
+            }
+            else {
+                fail("Unexpected record " + tag);
+            }
+        }
+
+        synchronized void merge(RecordCounter counter) {
+            for (Map.Entry<BmdTag, Integer> entry : counter.counts.entrySet()) {
+                count(entry.getKey(), entry.getValue());
+            }
+            for (int id : counter.instanceIds) {
+                addInstance(id);
+            }
+        }
+
+        private synchronized void count(BmdTag tag, int count) {
+            Integer current = counts.get(tag);
+            counts.put(tag, current != null ? current + count : count);
+        }
+
+        private synchronized void addInstance(int id) {
+            assertTrue("Instance " + id + " read twice", instanceIds.add(id));
+        }
+    }
+}
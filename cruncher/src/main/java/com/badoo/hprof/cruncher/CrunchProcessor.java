@@ -7,30 +7,40 @@ import com.badoo.hprof.cruncher.config.PreserveClass;
 import com.badoo.hprof.cruncher.util.CodingUtil;
 import com.badoo.hprof.cruncher.util.Stats;
 import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpProcessor;
 import com.badoo.hprof.library.heap.HeapDumpReader;
 import com.badoo.hprof.library.heap.HeapTag;
 import com.badoo.hprof.library.heap.processor.HeapDumpDiscardProcessor;
 import com.badoo.hprof.library.model.*;
 import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.LongIntMap;
 import com.badoo.hprof.library.util.StreamUtil;
-import com.google.common.io.CountingOutputStream;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import static com.badoo.hprof.library.util.StreamUtil.copy;
 import static com.badoo.hprof.library.util.StreamUtil.read;
 import static com.badoo.hprof.library.util.StreamUtil.readByte;
 import static com.badoo.hprof.library.util.StreamUtil.readDouble;
@@ -50,28 +60,78 @@ import static com.badoo.hprof.library.util.StreamUtil.skip;
  * before the instance dump. In order to process it in one pass you must keep all the class definitions and some instance dumps in memory
  * until all class dependencies can be resolved.
  * <p/>
+ * In single pass mode this is exactly what is done: instance dumps are written as soon as the class dumps of their class (and super classes)
+ * have been read and the remaining ones are kept in memory until finishAndWriteOutput() is called. Since most dumps (including the ones
+ * created by Android) contain the class dumps before the instance dumps, very few instances normally need to be kept.
+ * <p/>
+ * If more than one thread is used, the heap dump (segment) records of the second pass are crunched in parallel into separate buffers
+ * which are then written in the original order. The object ids that were not mapped in the first pass are left out of the buffers and
+ * mapped when the buffers are written, so the output is the same as when crunching on a single thread. At most MAX_PENDING_BYTES of
+ * segments are buffered at a time, larger segments are crunched on the calling thread.
+ * <p/>
  * Created by Erik Andre on 22/10/14.
  */
 public class CrunchProcessor extends DiscardProcessor {
 
     private static final int FIRST_ID = 1; // Skipping 0 since this is used as a (null) marker in some cases
     private static final boolean DEBUG = false;
+    private static final int MAX_PENDING_BYTES = 128 * 1024 * 1024; // Maximum total size of the segments buffered for parallel crunching
+    private static final int RECORD_START_INTERVAL = 4 * 1024; // Minimum distance between the saved record starts of crunched segments
+    private static final int LEFT_OUT_ID_SIZE = 4; // Estimated size of the object ids left out of crunched segments
 
     private boolean firstPass = true;
+    private final boolean singlePass;
+    private final int threadCount;
+    private ExecutorService executor;
+    private final LinkedList<Future<CrunchedSegment>> pendingSegments = new LinkedList<Future<CrunchedSegment>>();
+    private long pendingBytes; // Total size of the pending segments (before crunching)
     private final CrunchBdmWriter writer;
     private final boolean collectStats;
-    private long nextStringId = FIRST_ID;
-    private final Map<ID, ID> stringIds = new HashMap<ID, ID>(); // Maps original to updated string ids
+    private int nextStringId = FIRST_ID;
+    private final LongIntMap stringIds = new LongIntMap(); // Maps original to updated string ids
     private int nextObjectId = FIRST_ID;
-    private final Map<ID, ID> objectIds = new HashMap<ID, ID>(); // Maps original to updated object/class ids
+    private final LongIntMap objectIds = new LongIntMap(1 << 16); // Maps original to updated object/class ids
+    private final LongIntMap secondPassStringIds = new LongIntMap(); // Ids first seen in the second pass when crunching in parallel
+    private final LongIntMap secondPassObjectIds = new LongIntMap(); // Ids first seen in the second pass when crunching in parallel
     private final Map<ID, ClassDefinition> classesByOriginalId = new HashMap<ID, ClassDefinition>(); // Maps original class id to the class definition
     private final List<Integer> rootObjectIds = new ArrayList<Integer>();
     private final Set<String> preservedClasses = new HashSet<String>(); // Set containing the name of all classes that should be preserved
-    private final Set<ID> preservedStringIds = new HashSet<ID>(); // Set containing the (mapped) ids of preserved string (these string can be the names of preserved classes, and more)
+    private final Set<ID> dumpedClassIds = new HashSet<ID>(); // Classes for which the CLASS_DUMP record has been read (single pass only)
+    private final Set<ID> resolvedClassIds = new HashSet<ID>(); // Classes where the whole class hierarchy has been dumped (single pass only)
+    private final List<Instance> pendingInstances = new ArrayList<Instance>(); // Instances waiting for their class to be dumped (single pass only)
+    private final Set<Integer> preservedStringIds = new HashSet<Integer>(); // Set containing the (mapped) ids of preserved string (these string can be the names of preserved classes, and more)
 
     public CrunchProcessor(@Nonnull OutputStream out, @Nonnull List<PreserveClass> preservedClasses, boolean collectStats) {
-        this.writer = new CrunchBdmWriter(out);
+        this(out, preservedClasses, collectStats, false);
+    }
+
+    /**
+     * Creates a new CrunchProcessor.
+     *
+     * @param singlePass if true all records are processed in a single pass and startSecondPass() must not be called
+     */
+    public CrunchProcessor(@Nonnull OutputStream out, @Nonnull List<PreserveClass> preservedClasses, boolean collectStats, boolean singlePass) {
+        this(out, preservedClasses, collectStats, singlePass, 1);
+    }
+
+    /**
+     * Creates a new CrunchProcessor.
+     *
+     * @param singlePass  if true all records are processed in a single pass and startSecondPass() must not be called
+     * @param threadCount number of threads used to crunch the heap dump records of the second pass (cannot be combined with singlePass)
+     */
+    public CrunchProcessor(@Nonnull OutputStream out, @Nonnull List<PreserveClass> preservedClasses, boolean collectStats, boolean singlePass,
+                           int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count " + threadCount);
+        }
+        if (singlePass && threadCount > 1) {
+            throw new IllegalArgumentException("Parallel crunching is not supported in single pass mode");
+        }
+        this.writer = new CrunchBdmWriter(out, false);
         this.collectStats = collectStats;
+        this.singlePass = singlePass;
+        this.threadCount = threadCount;
         for (PreserveClass cls : preservedClasses) {
             this.preservedClasses.add(cls.getClassToPreserve());
         }
@@ -81,22 +141,53 @@ public class CrunchProcessor extends DiscardProcessor {
      * Must be called after the first pass (where class data is processed) is finished, before the second pass is started.
      */
     public void startSecondPass() {
+        if (singlePass) {
+            throw new IllegalStateException("Second pass started in single pass mode!");
+        }
         if (stringIds.isEmpty() || classesByOriginalId.isEmpty()) {
             throw new IllegalStateException("Second pass started but no strings or classes were read in the first pass!");
         }
         firstPass = false;
+        if (threadCount > 1) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(@Nonnull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "crunch-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
     }
 
     /**
      * Call after the second has has finished to write any remaining BMD data to the output stream and finish the conversion process.
+     * <p/>
+     * If the conversion fails before this method has returned the output is incomplete (a block compressed file has no block index)
+     * and must be discarded.
      */
     public void finishAndWriteOutput() throws IOException {
+        if (executor != null) {
+            try {
+                writePendingSegments();
+            }
+            finally {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        // Write the instances whose class dumps were read after the instance (single pass only)
+        for (Instance instance : pendingInstances) {
+            writer.writeInstanceDump(instance);
+        }
+        pendingInstances.clear();
         // Write roots
         writer.writeRootObjects(rootObjectIds);
+        writer.finish();
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         if (firstPass) { // 1st pass: read class definitions and strings
             switch (tag) {
                 case Tag.STRING:
@@ -111,8 +202,8 @@ public class CrunchProcessor extends DiscardProcessor {
                     break;
                 case Tag.HEAP_DUMP:
                 case Tag.HEAP_DUMP_SEGMENT:
-                    ClassDumpProcessor dumpProcessor = new ClassDumpProcessor();
-                    HeapDumpReader dumpReader = new HeapDumpReader(reader.getInputStream(), length, dumpProcessor);
+                    HeapDumpProcessor dumpProcessor = singlePass ? new SinglePassDumpProcessor() : new ClassDumpProcessor();
+                    HeapDumpReader dumpReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), dumpProcessor);
                     while (dumpReader.hasNext()) {
                         dumpReader.next();
                     }
@@ -131,8 +222,20 @@ public class CrunchProcessor extends DiscardProcessor {
             switch (tag) {
                 case Tag.HEAP_DUMP:
                 case Tag.HEAP_DUMP_SEGMENT:
+                    if (executor != null) {
+                        if (length <= MAX_PENDING_BYTES) {
+                            // Limit the memory used by the segments that have not been written yet
+                            while (pendingBytes + length > MAX_PENDING_BYTES) {
+                                writeSegment(pendingSegments.removeFirst());
+                            }
+                            submitSegment(read(reader.getInputStream(), length), reader.getIdContext());
+                            break;
+                        }
+                        // Too large to be buffered, crunch it on this thread after the segments that are already submitted
+                        writePendingSegments();
+                    }
                     ObjectDumpProcessor dumpProcessor = new ObjectDumpProcessor();
-                    HeapDumpReader dumpReader = new HeapDumpReader(reader.getInputStream(), length, dumpProcessor);
+                    HeapDumpReader dumpReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), dumpProcessor);
                     while (dumpReader.hasNext()) {
                         dumpReader.next();
                     }
@@ -143,14 +246,14 @@ public class CrunchProcessor extends DiscardProcessor {
         }
     }
 
-    private void readStringRecord(int timestamp, int length, HprofReader reader) throws IOException {
+    private void readStringRecord(int timestamp, long length, HprofReader reader) throws IOException {
         if (collectStats) {
             Stats.increment(Stats.Type.STRING, Stats.Variant.HPROF, length + 9);
         }
         HprofString string = reader.readStringRecord(length, timestamp);
         // We replace the original string id with one starting from 1 as these are more efficient to store
-        final ID mappedStringId = mapStringId(string.getId());
-        string.setId(mappedStringId);
+        final int mappedStringId = mapStringId(string.getId());
+        string.setId(new ID(mappedStringId));
         boolean preserve = keepString(string.getValue());
         if (preserve) {
             preservedStringIds.add(mappedStringId);
@@ -186,15 +289,29 @@ public class CrunchProcessor extends DiscardProcessor {
      * @param originalId the original object id
      * @return an updated object id
      */
-    private ID mapObjectId(ID originalId) {
-        if (originalId.toLong() == 0) {
-            return originalId; // Zero is a special case used when there is no value (null), do not map it to a new id
+    private int mapObjectId(ID originalId) {
+        return mapObjectId(originalId.toLong());
+    }
+
+    private int mapObjectId(long originalId) {
+        if (originalId == 0) {
+            return 0; // Zero is a special case used when there is no value (null), do not map it to a new id
+        }
+        LongIntMap ids = objectIds;
+        if (threadCount > 1 && !firstPass) {
+            // The map of the first pass is read from the worker threads, new ids are added to a separate map
+            int mappedId = objectIds.get(originalId);
+            if (mappedId != LongIntMap.NO_VALUE) {
+                return mappedId;
+            }
+            ids = secondPassObjectIds;
         }
-        if (!objectIds.containsKey(originalId)) {
-            objectIds.put(originalId, new ID(nextObjectId));
+        int mappedId = ids.putIfAbsent(originalId, nextObjectId);
+        if (mappedId == LongIntMap.NO_VALUE) {
+            mappedId = nextObjectId;
             nextObjectId++;
         }
-        return objectIds.get(originalId);
+        return mappedId;
     }
 
     /**
@@ -203,23 +320,110 @@ public class CrunchProcessor extends DiscardProcessor {
      * @param originalId the original string id
      * @return an updated string id
      */
-    private ID mapStringId(ID originalId) {
+    private int mapStringId(ID originalId) {
         if (originalId.toLong() == 0) {
-            return originalId; // Zero is a special case used when there is no value (null), do not map it to a new id
+            return 0; // Zero is a special case used when there is no value (null), do not map it to a new id
         }
-        if (!stringIds.containsKey(originalId)) {
-            stringIds.put(originalId, new ID(nextStringId));
+        LongIntMap ids = stringIds;
+        if (threadCount > 1 && !firstPass) {
+            int mappedId = stringIds.get(originalId.toLong());
+            if (mappedId != LongIntMap.NO_VALUE) {
+                return mappedId;
+            }
+            ids = secondPassStringIds;
+        }
+        int mappedId = ids.putIfAbsent(originalId.toLong(), nextStringId);
+        if (mappedId == LongIntMap.NO_VALUE) {
+            mappedId = nextStringId;
             nextStringId++;
         }
-        return stringIds.get(originalId);
+        return mappedId;
+    }
+
+    private void submitSegment(final byte[] data, final IdContext idContext) throws IOException {
+        pendingBytes += data.length;
+        pendingSegments.add(executor.submit(new Callable<CrunchedSegment>() {
+            @Override
+            public CrunchedSegment call() throws Exception {
+                return crunchSegment(data, idContext);
+            }
+        }));
+        // Write the segments that are done (in order) and limit the number of segments kept in memory
+        while (!pendingSegments.isEmpty() && (pendingSegments.size() > 2 * threadCount || pendingSegments.getFirst().isDone())) {
+            writeSegment(pendingSegments.removeFirst());
+        }
+    }
+
+    private CrunchedSegment crunchSegment(byte[] data, IdContext idContext) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4);
+        List<Integer> roots = new ArrayList<Integer>();
+        CrunchBdmWriter segmentWriter = new CrunchBdmWriter(buffer, true);
+        ObjectDumpProcessor dumpProcessor = new ObjectDumpProcessor(segmentWriter, roots);
+        HeapDumpReader dumpReader = new HeapDumpReader(new ByteArrayInputStream(data), data.length, idContext, dumpProcessor);
+        while (dumpReader.hasNext()) {
+            dumpReader.next();
+        }
+        return new CrunchedSegment(data.length, buffer.toByteArray(), segmentWriter.getRecordStarts(), segmentWriter.getIdOffsets(),
+            segmentWriter.getIds(), roots);
     }
 
-    private boolean shouldPreserve(@Nullable ClassDefinition classDefinition) {
-        if (classDefinition == null) {
-            return false;
+    private void writePendingSegments() throws IOException {
+        while (!pendingSegments.isEmpty()) {
+            writeSegment(pendingSegments.removeFirst());
         }
-        final ID mappedClassNameStringId = mapStringId(classDefinition.getNameStringId());
-        return preservedStringIds.contains(mappedClassNameStringId);
+    }
+
+    private void writeSegment(Future<CrunchedSegment> future) throws IOException {
+        CrunchedSegment segment;
+        try {
+            segment = future.get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for crunched segment");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to crunch segment: " + e.getCause());
+        }
+        writer.writeCrunchedData(segment);
+        pendingBytes -= segment.inputSize;
+        rootObjectIds.addAll(segment.roots);
+    }
+
+    private void readClassDump(@Nonnull HeapDumpReader reader) throws IOException {
+        final long start = reader.getCurrentPosition();
+        ClassDefinition def = reader.readClassDumpRecord(classesByOriginalId);
+        if (collectStats) {
+            final long length = reader.getCurrentPosition() - start;
+            Stats.increment(Stats.Type.CLASS, Stats.Variant.HPROF, length);
+        }
+        writer.writeClassDefinition(def);
+        if (singlePass) {
+            dumpedClassIds.add(def.getObjectId());
+        }
+    }
+
+    /**
+     * Returns true if the class dumps of a class and all its super classes have been read (so that instances of it can be written).
+     */
+    private boolean isClassResolved(@Nonnull ID classId) {
+        if (resolvedClassIds.contains(classId)) {
+            return true;
+        }
+        ID currentId = classId;
+        while (currentId != null && currentId.toLong() != 0) {
+            if (!dumpedClassIds.contains(currentId)) {
+                return false;
+            }
+            currentId = classesByOriginalId.get(currentId).getSuperClassObjectId();
+        }
+        resolvedClassIds.add(classId);
+        return true;
     }
 
     @SuppressWarnings({"ForLoopReplaceableByForEach"})
@@ -227,15 +431,74 @@ public class CrunchProcessor extends DiscardProcessor {
 
         private final byte[] EMPTY = new byte[]{};
 
-        private CountingOutputStream cOut;
-
-        protected CrunchBdmWriter(OutputStream out) {
-            super(new CountingOutputStream(out));
-            cOut = (CountingOutputStream) getOutputStream();
+        private long position; // Number of (uncompressed) bytes written
+        private int[] recordStarts; // Offsets at which crunched data can be split into blocks, null if not saved
+        private int recordStartCount;
+        private long lastRecordStart; // Position of the last saved record start, including the estimated size of the left out ids
+        private int[] idOffsets; // Offsets of the object ids left out of crunched segments, null if not a segment writer
+        private long[] ids; // The original ids left out of crunched segments
+        private int idCount;
+
+        /**
+         * @param out           the output stream
+         * @param segmentWriter true if crunching a segment in parallel, the start offsets of the records are saved (see getRecordStarts())
+         *                      and the object ids that were not mapped in the first pass are left out (see getIdOffsets())
+         */
+        protected CrunchBdmWriter(OutputStream out, boolean segmentWriter) {
+            super(out);
+            if (segmentWriter) {
+                recordStarts = new int[16];
+                idOffsets = new int[16];
+                ids = new long[16];
+            }
         }
 
         public long getCurrentPosition() {
-            return cOut.getCount();
+            return position;
+        }
+
+        /**
+         * Returns the start offsets of the records written so far. To save memory a record start is only saved if it is at least
+         * RECORD_START_INTERVAL bytes after the previous one (counting the left out ids with their estimated size).
+         */
+        @Nonnull
+        public int[] getRecordStarts() {
+            int[] starts = new int[recordStartCount];
+            System.arraycopy(recordStarts, 0, starts, 0, recordStartCount);
+            return starts;
+        }
+
+        /**
+         * Returns the offsets at which object ids were left out, in the order they were written. The ids are mapped (in the same
+         * order as when crunching on a single thread) and inserted by writeCrunchedData().
+         */
+        @Nonnull
+        public int[] getIdOffsets() {
+            int[] offsets = new int[idCount];
+            System.arraycopy(idOffsets, 0, offsets, 0, idCount);
+            return offsets;
+        }
+
+        /**
+         * Returns the original object ids left out at the offsets returned by getIdOffsets().
+         */
+        @Nonnull
+        public long[] getIds() {
+            long[] result = new long[idCount];
+            System.arraycopy(ids, 0, result, 0, idCount);
+            return result;
+        }
+
+        @Override
+        protected void writeRawByte(byte value) throws IOException {
+            super.writeRawByte(value);
+            position++;
+        }
+
+        @Override
+        protected void writeRawBytes(byte[] value, int offset, int length) throws IOException {
+            super.writeRawBytes(value, offset, length);
+            position += length;
         }
 
         public void writeHeader(int version, @Nullable byte[] metadata) throws IOException {
@@ -257,8 +520,30 @@ public class CrunchProcessor extends DiscardProcessor {
             }
         }
 
+        /**
+         * Write records crunched by a segment writer, mapping and inserting the object ids that were left out.
+         */
+        public void writeCrunchedData(@Nonnull CrunchedSegment segment) throws IOException {
+            byte[] data = segment.data;
+            int[] recordStarts = segment.recordStarts;
+            int id = 0;
+            for (int i = 0; i < recordStarts.length; i++) {
+                int position = recordStarts[i];
+                int end = i + 1 < recordStarts.length ? recordStarts[i + 1] : data.length;
+                startRecord();
+                // An id left out at the end offset is the last value of the records before the next record start
+                while (id < segment.idOffsets.length && segment.idOffsets[id] <= end) {
+                    writeRawBytes(data, position, segment.idOffsets[id] - position);
+                    writeInt32(mapObjectId(segment.ids[id]));
+                    position = segment.idOffsets[id];
+                    id++;
+                }
+                writeRawBytes(data, position, end - position);
+            }
+        }
+
         public void writeLegacyRecord(int tag, @Nonnull byte[] data) throws IOException {
-            writeInt32(BmdTag.LEGACY_HPROF_RECORD.value);
+            writeTag(BmdTag.LEGACY_HPROF_RECORD);
             writeInt32(tag);
             writeInt32(data.length);
             writeRawBytes(data);
@@ -267,9 +552,9 @@ public class CrunchProcessor extends DiscardProcessor {
         public void writeClassDefinition(@Nonnull ClassDefinition classDef) throws IOException {
             final long start = getCurrentPosition();
             writeTag(BmdTag.CLASS_DEFINITION);
-            writeInt32(mapObjectId(classDef.getObjectId()).toInt32());
-            writeInt32(mapObjectId(classDef.getSuperClassObjectId()).toInt32());
-            writeInt32(mapStringId(classDef.getNameStringId()).toInt32());
+            writeObjectId(classDef.getObjectId().toLong());
+            writeObjectId(classDef.getSuperClassObjectId().toLong());
+            writeInt32(mapStringId(classDef.getNameStringId()));
             // Write constants and static fields (not filtered)
             int constantFieldCount = classDef.getConstantFields().size();
             writeInt32(constantFieldCount);
@@ -283,7 +568,7 @@ public class CrunchProcessor extends DiscardProcessor {
             writeInt32(staticFieldCount);
             for (int i = 0; i < staticFieldCount; i++) {
                 StaticField field = classDef.getStaticFields().get(i);
-                writeInt32(mapStringId(field.getFieldNameId()).toInt32());
+                writeInt32(mapStringId(field.getFieldNameId()));
                 writeInt32(convertType(field.getType()).id);
                 writeFieldValue(field.getType(), field.getValue());
             }
@@ -305,20 +590,20 @@ public class CrunchProcessor extends DiscardProcessor {
             writeInt32(keptFieldCount);
             for (int i = 0; i < keptFieldCount; i++) {
                 InstanceField field = keptFields.get(i);
-                writeInt32(mapStringId(field.getFieldNameId()).toInt32());
+                writeInt32(mapStringId(field.getFieldNameId()));
                 writeInt32(convertType(field.getType()).id);
             }
             writeInt32(skippedFieldSize);
             if (collectStats) {
-                Stats.increment(Stats.Type.CLASS, Stats.Variant.BMD, writer.getCurrentPosition() - start);
+                Stats.increment(Stats.Type.CLASS, Stats.Variant.BMD, getCurrentPosition() - start);
             }
         }
 
         public void writeInstanceDump(@Nonnull Instance instance) throws IOException {
             final long start = getCurrentPosition();
             writeTag(BmdTag.INSTANCE_DUMP);
-            writeInt32(mapObjectId(instance.getObjectId()).toInt32());
-            writeInt32(mapObjectId(instance.getClassId()).toInt32());
+            writeObjectId(instance.getObjectId().toLong());
+            writeObjectId(instance.getClassId().toLong());
             ClassDefinition currentClass = classesByOriginalId.get(instance.getClassId());
             ByteArrayInputStream in = new ByteArrayInputStream(instance.getInstanceFieldData());
             boolean preserveClass = shouldPreserve(currentClass);
@@ -328,8 +613,7 @@ public class CrunchProcessor extends DiscardProcessor {
                     InstanceField field = currentClass.getInstanceFields().get(i);
                     BasicType type = field.getType();
                     if (type == BasicType.OBJECT) {
-                        int id = readInt(in);
-                        writeInt32(mapObjectId(new ID(id)).toInt32());
+                        writeObjectId(readInt(in));
                     }
                     else if (!preserveClass) { // Other fields are ignored
                         skip(in, type.size);
@@ -360,7 +644,7 @@ public class CrunchProcessor extends DiscardProcessor {
                         writeRawByte(value);
                     }
                     else if (type == BasicType.CHAR) {
-                        copy(in, out, 2);
+                        writeRawBytes(read(in, 2));
                     }
                 }
                 currentClass = classesByOriginalId.get(currentClass.getSuperClassObjectId());
@@ -370,32 +654,32 @@ public class CrunchProcessor extends DiscardProcessor {
                 throw new IllegalStateException("Did not read the expected number of bytes. Available: " + in.available());
             }
             if (collectStats) {
-                Stats.increment(Stats.Type.INSTANCE, Stats.Variant.BMD, writer.getCurrentPosition() - start);
+                Stats.increment(Stats.Type.INSTANCE, Stats.Variant.BMD, getCurrentPosition() - start);
             }
         }
 
         public void writePrimitiveArray(PrimitiveArray array) throws IOException {
             final long start = getCurrentPosition();
             writeTag(BmdTag.PRIMITIVE_ARRAY_PLACEHOLDER);
-            writeInt32(mapObjectId(array.getObjectId()).toInt32());
+            writeObjectId(array.getObjectId().toLong());
             writeInt32(convertType(array.getType()).id);
             writeInt32(array.getCount());
             if (collectStats) {
-                Stats.increment(Stats.Type.ARRAY, Stats.Variant.BMD, writer.getCurrentPosition() - start);
+                Stats.increment(Stats.Type.ARRAY, Stats.Variant.BMD, getCurrentPosition() - start);
             }
         }
 
         public void writeObjectArray(ObjectArray array) throws IOException {
             final long start = getCurrentPosition();
             writeTag(BmdTag.OBJECT_ARRAY);
-            writeInt32(mapObjectId(array.getObjectId()).toInt32());
-            writeInt32(mapObjectId(array.getElementClassId()).toInt32());
+            writeObjectId(array.getObjectId().toLong());
+            writeObjectId(array.getElementClassId().toLong());
             writeInt32(array.getCount());
             for (int i = 0; i < array.getCount(); i++) {
-                writeInt32(mapObjectId(array.getElements()[i]).toInt32());
+                writeObjectId(array.getElements()[i].toLong());
             }
             if (collectStats) {
-                Stats.increment(Stats.Type.ARRAY, Stats.Variant.BMD, writer.getCurrentPosition() - start);
+                Stats.increment(Stats.Type.ARRAY, Stats.Variant.BMD, getCurrentPosition() - start);
             }
         }
 
@@ -404,15 +688,52 @@ public class CrunchProcessor extends DiscardProcessor {
             writeInt32(roots.size());
             for (int i = 0; i < roots.size(); i++) {
                 int integer = roots.get(i);
-                writeInt32(mapObjectId(new ID(integer)).toInt32());
+                writeInt32(mapObjectId(integer));
             }
         }
 
+        /**
+         * Write the updated id of an original object id. A segment writer leaves out the ids that were not mapped in the first pass
+         * since the ids first seen in the second pass must be mapped in the order they are written.
+         */
+        private void writeObjectId(long originalId) throws IOException {
+            if (idOffsets == null) {
+                writeInt32(mapObjectId(originalId));
+                return;
+            }
+            int mappedId = originalId != 0 ? objectIds.get(originalId) : 0;
+            if (mappedId != LongIntMap.NO_VALUE) {
+                writeInt32(mappedId);
+                return;
+            }
+            if (idCount == idOffsets.length) {
+                int[] largerOffsets = new int[idOffsets.length * 2];
+                System.arraycopy(idOffsets, 0, largerOffsets, 0, idCount);
+                idOffsets = largerOffsets;
+                long[] largerIds = new long[ids.length * 2];
+                System.arraycopy(ids, 0, largerIds, 0, idCount);
+                ids = largerIds;
+            }
+            idOffsets[idCount] = (int) position;
+            ids[idCount++] = originalId;
+        }
+
+        private boolean shouldPreserve(@Nullable ClassDefinition classDefinition) {
+            if (classDefinition == null) {
+                return false;
+            }
+            if (idOffsets != null) {
+                // The string ids are only read when crunching in parallel, ids not mapped in the first pass are never preserved
+                return preservedStringIds.contains(stringIds.get(classDefinition.getNameStringId().toLong()));
+            }
+            final int mappedClassNameStringId = mapStringId(classDefinition.getNameStringId());
+            return preservedStringIds.contains(mappedClassNameStringId);
+        }
+
         private void writeFieldValue(BasicType type, byte[] data) throws IOException {
             switch (type) {
                 case OBJECT:
-                    int id = CodingUtil.readInt(data);
-                    writeInt32(mapObjectId(new ID(id)).toInt32());
+                    writeObjectId(CodingUtil.readInt(data));
                     break;
                 case SHORT:
                     writeInt32(CodingUtil.readShort(data));
@@ -467,6 +788,17 @@ public class CrunchProcessor extends DiscardProcessor {
         }
 
         private void writeTag(BmdTag tag) throws IOException {
+            startRecord();
+            long outputPosition = position + (long) LEFT_OUT_ID_SIZE * idCount;
+            if (recordStarts != null && (recordStartCount == 0 || outputPosition - lastRecordStart >= RECORD_START_INTERVAL)) {
+                if (recordStartCount == recordStarts.length) {
+                    int[] larger = new int[recordStarts.length * 2];
+                    System.arraycopy(recordStarts, 0, larger, 0, recordStartCount);
+                    recordStarts = larger;
+                }
+                recordStarts[recordStartCount++] = (int) position;
+                lastRecordStart = outputPosition;
+            }
             writeInt32(tag.value);
         }
     }
@@ -484,13 +816,7 @@ public class CrunchProcessor extends DiscardProcessor {
         public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
             switch (tag) {
                 case HeapTag.CLASS_DUMP:
-                    final long start = reader.getCurrentPosition();
-                    ClassDefinition def = reader.readClassDumpRecord(classesByOriginalId);
-                    if (collectStats) {
-                        final long length = reader.getCurrentPosition() - start;
-                        Stats.increment(Stats.Type.CLASS, Stats.Variant.HPROF, length);
-                    }
-                    writer.writeClassDefinition(def);
+                    readClassDump(reader);
                     break;
                 default:
                     super.onHeapRecord(tag, reader);
@@ -502,6 +828,18 @@ public class CrunchProcessor extends DiscardProcessor {
     // 2st pass dump processor
     private class ObjectDumpProcessor extends HeapDumpDiscardProcessor {
 
+        private final CrunchBdmWriter dumpWriter;
+        private final List<Integer> roots;
+
+        ObjectDumpProcessor() {
+            this(CrunchProcessor.this.writer, rootObjectIds);
+        }
+
+        ObjectDumpProcessor(CrunchBdmWriter dumpWriter, List<Integer> roots) {
+            this.dumpWriter = dumpWriter;
+            this.roots = roots;
+        }
+
         @Override
         public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
             InputStream in = reader.getInputStream();
@@ -509,7 +847,12 @@ public class CrunchProcessor extends DiscardProcessor {
             switch (tag) {
                 case HeapTag.INSTANCE_DUMP: {
                     Instance instance = reader.readInstanceDump();
-                    writer.writeInstanceDump(instance);
+                    if (singlePass && !isClassResolved(instance.getClassId())) {
+                        pendingInstances.add(instance);
+                    }
+                    else {
+                        dumpWriter.writeInstanceDump(instance);
+                    }
                     if (collectStats) {
                         final long length = reader.getCurrentPosition() - start;
                         Stats.increment(Stats.Type.INSTANCE, Stats.Variant.HPROF, length);
@@ -532,55 +875,55 @@ public class CrunchProcessor extends DiscardProcessor {
                     break;
                 // Roots
                 case HeapTag.ROOT_UNKNOWN:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.ROOT_JNI_GLOBAL:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 4); // JNI global ref
                     break;
                 case HeapTag.ROOT_JNI_LOCAL:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 8); // Thread serial + frame number
                     break;
                 case HeapTag.ROOT_JAVA_FRAME:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 8); // Thread serial + frame number
                     break;
                 case HeapTag.ROOT_NATIVE_STACK:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 4); // Thread serial
                     break;
                 case HeapTag.ROOT_STICKY_CLASS:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.ROOT_THREAD_BLOCK:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 4); // Thread serial
                     break;
                 case HeapTag.ROOT_MONITOR_USED:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.ROOT_THREAD_OBJECT:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 8); // Thread serial + stack serial
                     break;
                 case HeapTag.HPROF_ROOT_INTERNED_STRING:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.HPROF_ROOT_FINALIZING:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.HPROF_ROOT_DEBUGGER:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.HPROF_ROOT_REFERENCE_CLEANUP:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.HPROF_ROOT_VM_INTERNAL:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     break;
                 case HeapTag.HPROF_ROOT_JNI_MONITOR:
-                    rootObjectIds.add(readInt(in));
+                    roots.add(readInt(in));
                     skip(in, 8); // Data
                     break;
                 default:
@@ -590,13 +933,47 @@ public class CrunchProcessor extends DiscardProcessor {
 
         private void readObjectArray(HeapDumpReader reader) throws IOException {
             ObjectArray array = reader.readObjectArray();
-            writer.writeObjectArray(array);
+            dumpWriter.writeObjectArray(array);
         }
 
         private void readPrimitiveArray(HeapDumpReader reader) throws IOException {
             PrimitiveArray array = reader.readPrimitiveArray();
-            writer.writePrimitiveArray(array);
+            dumpWriter.writePrimitiveArray(array);
+        }
+
+    }
+
+    // Single pass dump processor, handles both class and object dumps
+    private class SinglePassDumpProcessor extends ObjectDumpProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            if (tag == HeapTag.CLASS_DUMP) {
+                readClassDump(reader);
+            }
+            else {
+                super.onHeapRecord(tag, reader);
+            }
         }
 
     }
+
+    private static class CrunchedSegment {
+
+        final int inputSize;
+        final byte[] data;
+        final int[] recordStarts;
+        final int[] idOffsets;
+        final long[] ids;
+        final List<Integer> roots;
+
+        CrunchedSegment(int inputSize, byte[] data, int[] recordStarts, int[] idOffsets, long[] ids, List<Integer> roots) {
+            this.inputSize = inputSize;
+            this.data = data;
+            this.recordStarts = recordStarts;
+            this.idOffsets = idOffsets;
+            this.ids = ids;
+            this.roots = roots;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.badoo.hprof.cruncher;
 
+import com.badoo.bmd.BmdBlockOutputStream;
 import com.badoo.hprof.cruncher.config.PreserveClass;
 import com.badoo.hprof.cruncher.util.Stats;
 import com.badoo.hprof.library.HprofReader;
@@ -38,18 +39,26 @@ public class HprofCruncher {
     public static class Config {
 
         public static final int NO_TIME_LIMIT = -1;
+        public static final int NO_BLOCK_COMPRESSION = 0;
 
         private final boolean collectStats;
         private final long timeLimit;
         private final long iterationSleep;
         private final List<PreserveClass> preservedClasses;
+        private final boolean singlePass;
+        private final int threadCount;
+        private final int blockSize;
 
 
-        private Config(boolean collectStats, long timeLimit, long iterationSleep, List<PreserveClass> preservedClasses) {
+        private Config(boolean collectStats, long timeLimit, long iterationSleep, List<PreserveClass> preservedClasses, boolean singlePass,
+                       int threadCount, int blockSize) {
             this.collectStats = collectStats;
             this.timeLimit = timeLimit;
             this.iterationSleep = iterationSleep;
             this.preservedClasses = preservedClasses;
+            this.singlePass = singlePass;
+            this.threadCount = threadCount;
+            this.blockSize = blockSize;
         }
 
         public static class Builder {
@@ -58,6 +67,9 @@ public class HprofCruncher {
             private long timeLimit = NO_TIME_LIMIT;
             private long iterationSleep;
             private List<PreserveClass> preservedClasses = new ArrayList<PreserveClass>();
+            private boolean singlePass;
+            private int threadCount = 1;
+            private int blockSize = NO_BLOCK_COMPRESSION;
 
             /**
              * Sets whether stats should be collected to measure how well the crunch operation performs
@@ -121,8 +133,56 @@ public class HprofCruncher {
                 return this;
             }
 
+            /**
+             * Sets whether the HPROF data should be read only once instead of twice. Instance dumps that are read before the class
+             * dumps of their classes will be kept in memory until the whole file has been read, so this mode uses more memory for
+             * dumps where the class dumps are not placed first (Android and the JVM writes them first).
+             *
+             * @param enabled true if the data should be processed in a single pass
+             * @return the builder, for chained calls
+             */
+            public Builder singlePass(boolean enabled) {
+                this.singlePass = enabled;
+                return this;
+            }
+
+            /**
+             * Sets the number of threads used to crunch the heap dump records in the second pass. The output is the same as when
+             * using a single thread except that the objects can be given different (BMD) ids. Cannot be combined with singlePass().
+             *
+             * @param threadCount number of threads to use
+             * @return the builder, for chained calls
+             */
+            public Builder threads(int threadCount) {
+                this.threadCount = threadCount;
+                return this;
+            }
+
+            /**
+             * Sets whether the output is written as a block compressed BMD file (see BmdBlockOutputStream). The blocks are compressed
+             * independently so the file can be decoded in parallel and records can be found without reading the whole file, while the
+             * output is about as small as when compressing the whole file with gzip.
+             *
+             * @param blockSize the uncompressed size of the blocks (for example BmdBlockOutputStream.DEFAULT_BLOCK_SIZE), or
+             *                  NO_BLOCK_COMPRESSION to write an uncompressed BMD file
+             * @return the builder, for chained calls
+             */
+            public Builder blockCompression(int blockSize) {
+                this.blockSize = blockSize;
+                return this;
+            }
+
             public Config build() {
-                return new Config(stats, timeLimit, iterationSleep, preservedClasses);
+                if (threadCount < 1) {
+                    throw new IllegalArgumentException("Invalid thread count " + threadCount);
+                }
+                if (singlePass && threadCount > 1) {
+                    throw new IllegalArgumentException("Multiple threads cannot be used in single pass mode");
+                }
+                if (blockSize < 0) {
+                    throw new IllegalArgumentException("Invalid block size " + blockSize);
+                }
+                return new Config(stats, timeLimit, iterationSleep, preservedClasses, singlePass, threadCount, blockSize);
             }
         }
 
@@ -130,6 +190,9 @@ public class HprofCruncher {
 
     /**
      * Crunch a HPROF file, converting it to BMD format.
+     * <p/>
+     * If an exception is thrown (including a TimeoutException) the output is incomplete and must be discarded, a block compressed
+     * output has no block index.
      *
      * @param source the HPROF data source
      * @param out    Output (BMD)
@@ -148,23 +211,26 @@ public class HprofCruncher {
         if (config.collectStats) {
             out = cOut;
         }
-        CrunchProcessor processor = new CrunchProcessor(out, config.preservedClasses, true);
-        // Start first pass
-        InputStream in = new BufferedInputStream(source.open());
-        try {
-            HprofReader reader = new HprofReader(in, processor);
-            while (reader.hasNext()) {
-                reader.next();
-                checkTimeLimit(limit);
-                iterationSleep(config);
-            }
-            processor.startSecondPass();
+        if (config.blockSize != Config.NO_BLOCK_COMPRESSION) {
+            out = new BmdBlockOutputStream(out, config.blockSize); // Finished by the processor after writing the last record
         }
-        finally {
-            in.close();
+        CrunchProcessor processor = new CrunchProcessor(out, config.preservedClasses, true, config.singlePass, config.threadCount);
+        if (!config.singlePass) {
+            // Start first pass
+            readAll(source, processor, limit, config);
+            processor.startSecondPass();
         }
-        // Start second pass
-        in = new BufferedInputStream(source.open());
+        // Start second pass (or the only pass in single pass mode)
+        readAll(source, processor, limit, config);
+        processor.finishAndWriteOutput();
+        // Print some stats about the conversion
+        Stats.increment(Stats.Type.TOTAL, Stats.Variant.BMD, cOut.getCount());
+        Stats.printStats();
+
+    }
+
+    private static void readAll(HprofSource source, CrunchProcessor processor, long limit, Config config) throws IOException, TimeoutException {
+        InputStream in = new BufferedInputStream(source.open());
         try {
             HprofReader reader = new HprofReader(in, processor);
             while (reader.hasNext()) {
@@ -172,15 +238,10 @@ public class HprofCruncher {
                 checkTimeLimit(limit);
                 iterationSleep(config);
             }
-            processor.finishAndWriteOutput();
         }
         finally {
             in.close();
         }
-        // Print some stats about the conversion
-        Stats.increment(Stats.Type.TOTAL, Stats.Variant.BMD, cOut.getCount());
-        Stats.printStats();
-
     }
 
     private static void iterationSleep(Config config) {
@@ -204,20 +265,24 @@ public class HprofCruncher {
     public static void main(String[] args) {
         String inFile;
         String outFile;
+        int threads = 1;
         if (args != null && args.length >= 2) {
             inFile = args[0];
             outFile = args[1];
+            if (args.length >= 3) {
+                threads = Integer.parseInt(args[2]);
+            }
         }
         else {
             System.err.println("Usage:");
-            System.err.println("java -jar cruncher.jar input.hprof output.bmd");
+            System.err.println("java -jar cruncher.jar input.hprof output.bmd [threads]");
             System.exit(1);
             return;
         }
         OutputStream out = null;
         try {
             out = new FileOutputStream(outFile);
-            Config config = new Config.Builder().stats(true).build();
+            Config config = new Config.Builder().stats(true).threads(threads).build();
             crunch(new HprofFileSource(new File(inFile)), out, config);
             System.exit(0);
         }
@@ -32,7 +32,7 @@ public class Stats {
         Stats.enabled = enabled;
     }
 
-    public static void increment(@Nonnull Type type, @Nonnull Variant variant,  long count) {
+    public static synchronized void increment(@Nonnull Type type, @Nonnull Variant variant,  long count) {
         if (!enabled) {
             return;
         }
@@ -40,7 +40,7 @@ public class Stats {
         sData.put(key, getStat(type, variant) + count);
     }
 
-    public static void printStats() {
+    public static synchronized void printStats() {
         if (!enabled) {
             return;
         }
@@ -52,7 +52,7 @@ public class Stats {
         }
     }
 
-    private static long getStat(@Nonnull Type type, @Nonnull Variant variant) {
+    private static synchronized long getStat(@Nonnull Type type, @Nonnull Variant variant) {
         final String key = getKey(type, variant);
         if (!sData.containsKey(key)) {
             sData.put(key, 0L);
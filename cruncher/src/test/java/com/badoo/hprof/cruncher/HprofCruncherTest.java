@@ -1,5 +1,34 @@
 package com.badoo.hprof.cruncher;
 
+import com.badoo.bmd.BmdBlockFile;
+import com.badoo.bmd.BmdBlockInputStream;
+import com.badoo.bmd.BmdProcessor;
+import com.badoo.bmd.BmdReader;
+import com.badoo.bmd.BmdTag;
+import com.badoo.bmd.ParallelBmdReader;
+import com.badoo.bmd.model.BmdBasicType;
+import com.badoo.bmd.model.BmdClassDefinition;
+import com.badoo.bmd.model.BmdConstantField;
+import com.badoo.bmd.model.BmdInstanceDump;
+import com.badoo.bmd.model.BmdInstanceDumpField;
+import com.badoo.bmd.model.BmdInstanceFieldDefinition;
+import com.badoo.bmd.model.BmdLegacyRecord;
+import com.badoo.bmd.model.BmdObjectArray;
+import com.badoo.bmd.model.BmdPrimitiveArray;
+import com.badoo.bmd.model.BmdStaticField;
+import com.badoo.bmd.model.BmdString;
+import com.badoo.hprof.library.HprofWriter;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapDumpWriter;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ConstantField;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.StaticField;
+
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
@@ -7,10 +36,22 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class HprofCruncherTest {
 
@@ -24,10 +65,435 @@ public class HprofCruncherTest {
         verify(new FileInputStream("../test_files/crunch_test_out.bmd"), new ByteArrayInputStream(out.toByteArray()));
     }
 
+    @Test
+    public void testCrunchSinglePass() throws Exception {
+        HprofSource source = new HprofFileSource(new File("../test_files/crunch_test_in.hprof"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HprofCruncher.crunch(source, out, new HprofCruncher.Config.Builder().singlePass(true).build());
+        // The objects are given different ids and instances can be written after their class so compare the sorted records
+        List<String> expected = normalizeRecords(new FileInputStream("../test_files/crunch_test_out.bmd"));
+        assertEquals(expected, normalizeRecords(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void testCrunchParallel() throws Exception {
+        HprofSource source = new HprofFileSource(new File("../test_files/crunch_test_in.hprof"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HprofCruncher.crunch(source, out, new HprofCruncher.Config.Builder().threads(4).build());
+        // The object ids are mapped in the same order as when crunching on a single thread
+        verify(new FileInputStream("../test_files/crunch_test_out.bmd"), new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void testCrunchParallelSameAsSequential() throws Exception {
+        // Many segments with references to objects in earlier and later segments
+        File hprofFile = File.createTempFile("crunch_test", ".hprof");
+        try {
+            new HprofGenerator(new HprofGenerator.Config.Builder().instances(20000).objectArrays(500).segments(40)
+                .shape(HprofGenerator.GraphShape.RANDOM).build()).generate(hprofFile);
+            HprofSource source = new HprofFileSource(hprofFile);
+            ByteArrayOutputStream sequentialOut = new ByteArrayOutputStream();
+            HprofCruncher.crunch(source, sequentialOut, new HprofCruncher.Config.Builder().build());
+            for (int i = 0; i < 3; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                HprofCruncher.crunch(source, out, new HprofCruncher.Config.Builder().threads(4).build());
+                verify(new ByteArrayInputStream(sequentialOut.toByteArray()), new ByteArrayInputStream(out.toByteArray()));
+            }
+        }
+        finally {
+            hprofFile.delete();
+        }
+    }
+
+    @Test
+    public void testCrunchClassesAfterInstances() throws Exception {
+        // In single pass mode the instances are kept until the class dumps of their class and super classes have been read
+        File file = File.createTempFile("crunch_test", ".hprof");
+        try {
+            writeClassesAfterInstances(file);
+            HprofSource source = new HprofFileSource(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HprofCruncher.crunch(source, out, new HprofCruncher.Config.Builder().build());
+            ByteArrayOutputStream singlePassOut = new ByteArrayOutputStream();
+            HprofCruncher.crunch(source, singlePassOut, new HprofCruncher.Config.Builder().singlePass(true).build());
+            List<String> expected = normalizeRecords(new ByteArrayInputStream(out.toByteArray()));
+            String sub = "(class \"#" + "com.badoo.Sub".hashCode() + "\")";
+            assertTrue(expected.contains("3 INSTANCE_DUMP " + sub + " (instance of " + sub + ") null"));
+            assertTrue(expected.contains("3 INSTANCE_DUMP " + sub + " null (instance of " + sub + ")"));
+            assertEquals(expected, normalizeRecords(new ByteArrayInputStream(singlePassOut.toByteArray())));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCrunchBlockCompressed() throws Exception {
+        HprofSource source = new HprofFileSource(new File("../test_files/crunch_test_in.hprof"));
+        File file = File.createTempFile("crunch_test", ".bmd");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                HprofCruncher.crunch(source, out, new HprofCruncher.Config.Builder().blockCompression(4096).build());
+            }
+            finally {
+                out.close();
+            }
+            byte[] expected = IOUtils.toByteArray(new FileInputStream("../test_files/crunch_test_out.bmd"));
+            // Reading the blocks in order gives the same data as an uncompressed file
+            assertArrayEquals(expected, IOUtils.toByteArray(new BmdBlockInputStream(new FileInputStream(file))));
+            assertEquals(countRecords(new ByteArrayInputStream(expected)), countRecords(new FileInputStream(file)));
+            // Blocks can also be read in any order using the index
+            BmdBlockFile blocks = new BmdBlockFile(file);
+            try {
+                assertTrue(blocks.getBlockCount() > 1);
+                assertEquals(expected.length, blocks.getLength());
+                for (int i = blocks.getBlockCount() - 1; i >= 0; i--) {
+                    byte[] block = blocks.readBlock(i);
+                    int position = (int) blocks.getBlockPosition(i);
+                    assertEquals(i, blocks.findBlock(position));
+                    assertEquals(i, blocks.findBlock(position + block.length - 1));
+                    for (int j = 0; j < block.length; j++) {
+                        assertEquals(expected[position + j], block[j]);
+                    }
+                }
+            }
+            finally {
+                blocks.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCrunchParallelBlockCompressed() throws Exception {
+        // A heap dump with a single (large) segment
+        File hprofFile = File.createTempFile("crunch_test", ".hprof");
+        File file = File.createTempFile("crunch_test", ".bmd");
+        File sequentialFile = File.createTempFile("crunch_test", ".bmd");
+        try {
+            new HprofGenerator(new HprofGenerator.Config.Builder().instances(20000).segments(1).build()).generate(hprofFile);
+            HprofSource source = new HprofFileSource(hprofFile);
+            crunch(source, file, new HprofCruncher.Config.Builder().threads(4).blockCompression(4096).build());
+            crunch(source, sequentialFile, new HprofCruncher.Config.Builder().blockCompression(4096).build());
+            BmdBlockFile sequentialBlocks = new BmdBlockFile(sequentialFile);
+            int sequentialBlockCount = sequentialBlocks.getBlockCount();
+            sequentialBlocks.close();
+            BmdBlockFile blocks = new BmdBlockFile(file);
+            try {
+                // The crunched segment is split into blocks at its records instead of being written as one block
+                assertTrue(blocks.getBlockCount() >= sequentialBlockCount / 2);
+                RecordCounter counter = new RecordCounter();
+                new ParallelBmdReader(blocks, 4).read(counter);
+                assertEquals(countRecords(new FileInputStream(sequentialFile)), counter.counts);
+            }
+            finally {
+                blocks.close();
+            }
+        }
+        finally {
+            hprofFile.delete();
+            file.delete();
+            sequentialFile.delete();
+        }
+    }
+
+    private void crunch(HprofSource source, File file, HprofCruncher.Config config) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            HprofCruncher.crunch(source, out, config);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private Map<BmdTag, Integer> countRecords(InputStream in) throws IOException {
+        RecordCounter counter = new RecordCounter();
+        BmdReader reader = new BmdReader(in, counter);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        return counter.counts;
+    }
+
+    /**
+     * Write a heap dump in which the instances come before the class dumps of their class (com.badoo.Sub) and its super class.
+     */
+    private void writeClassesAfterInstances(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            HprofWriter writer = new HprofWriter(out);
+            writer.writeHprofFileHeader("JAVA PROFILE 1.0.3", 4, 0, 0);
+            String[] names = {"java.lang.Object", "com.badoo.Base", "com.badoo.Sub", "value", "next"};
+            for (int i = 0; i < names.length; i++) {
+                writer.writeStringRecord(new HprofString(new ID(i + 1), names[i], 0));
+            }
+            ClassDefinition[] classes = new ClassDefinition[3];
+            for (int i = 0; i < classes.length; i++) {
+                ClassDefinition cls = new ClassDefinition();
+                cls.setSerialNumber(i + 1);
+                cls.setObjectId(new ID(0x100 + i * 8));
+                cls.setNameStringId(new ID(i + 1));
+                cls.setSuperClassObjectId(new ID(i == 0 ? 0 : 0x100 + (i - 1) * 8));
+                cls.setConstantFields(new ArrayList<ConstantField>());
+                cls.setStaticFields(new ArrayList<StaticField>());
+                cls.setInstanceFields(new ArrayList<InstanceField>());
+                writer.writeLoadClassRecord(cls);
+                classes[i] = cls;
+            }
+            classes[1].setInstanceFields(Collections.singletonList(new InstanceField(BasicType.OBJECT, new ID(4))));
+            classes[1].setInstanceSize(4);
+            classes[2].setInstanceFields(Collections.singletonList(new InstanceField(BasicType.OBJECT, new ID(5))));
+            classes[2].setInstanceSize(8);
+            ByteArrayOutputStream heap = new ByteArrayOutputStream();
+            HeapDumpWriter heapWriter = new HeapDumpWriter(heap, writer.getIdContext());
+            heapWriter.writeUnknownRoot(new ID(0x1000));
+            // Field values: next (com.badoo.Sub) followed by value (com.badoo.Base)
+            heapWriter.writeInstanceDumpRecord(new ID(0x1000), 0, classes[2].getObjectId(), new byte[]{0, 0, 0x10, 0x08, 0, 0, 0, 0});
+            heapWriter.writeInstanceDumpRecord(new ID(0x1008), 0, classes[2].getObjectId(), new byte[]{0, 0, 0, 0, 0, 0, 0x10, 0x00});
+            for (int i = classes.length - 1; i >= 0; i--) {
+                heapWriter.writeClassDumpRecord(classes[i]);
+            }
+            writer.writeRecordHeader(Tag.HEAP_DUMP_SEGMENT, 0, heap.size());
+            heap.writeTo(out);
+            writer.writeRecordHeader(Tag.HEAP_DUMP_END, 0, 0);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private List<String> normalizeRecords(InputStream in) throws IOException {
+        RecordNormalizer normalizer = new RecordNormalizer();
+        BmdReader reader = new BmdReader(in, normalizer);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        return normalizer.getRecords();
+    }
+
     private void verify(InputStream expected, InputStream actual) throws IOException {
         byte[] expectedData = IOUtils.toByteArray(expected);
         byte[] actualData = IOUtils.toByteArray(actual);
         assertArrayEquals("Converted file does not match expected result", expectedData, actualData);
     }
 
-}
\ No newline at end of file
+    /**
+     * Converts the records to strings in which the ids are replaced by a description of what they refer to (for example the class name
+     * of an instance), so that the output of different modes (which give the objects different ids) can be compared. Records of
+     * different kinds (strings, legacy records, class definitions, objects and roots) can be written in a different order, so the
+     * records are grouped by kind.
+     */
+    private static class RecordNormalizer implements BmdProcessor {
+
+        private final List<List<Object>> records = new ArrayList<List<Object>>();
+        private final Map<Integer, String> strings = new HashMap<Integer, String>();
+        private final Map<Integer, Description> objects = new HashMap<Integer, Description>();
+        private String header;
+
+        @Override
+        public void onHeader(int version, @Nonnull byte[] data) throws IOException {
+            header = "HEADER " + version + " " + Arrays.toString(data);
+        }
+
+        @Override
+        public void onRecord(BmdTag tag, @Nonnull BmdReader reader) throws IOException {
+            List<Object> record = new ArrayList<Object>();
+            record.add(tag);
+            switch (tag) {
+                case STRING:
+                    BmdString string = reader.readStringRecord();
+                    strings.put(string.getId(), string.getString());
+                    record.add(string.getString());
+                    break;
+                case HASHED_STRING:
+                    BmdString hashedString = reader.readHashedStringRecord();
+                    strings.put(hashedString.getId(), "#" + hashedString.getHash());
+                    Collections.addAll(record, hashedString.getHash(), hashedString.getLength());
+                    break;
+                case CLASS_DEFINITION:
+                    BmdClassDefinition classDef = reader.readClassDefinitionRecord();
+                    objects.put(classDef.getId(), new Description("class", new StringId(classDef.getName())));
+                    Collections.addAll(record, new ObjectId(classDef.getId()), new ObjectId(classDef.getSuperClassId()),
+                        classDef.getDiscardedFieldSize());
+                    for (BmdConstantField field : classDef.getConstantFields()) {
+                        Collections.addAll(record, field.getIndex(), field.getType(), value(field.getType(), field.getValue()));
+                    }
+                    for (BmdStaticField field : classDef.getStaticFields()) {
+                        Object value = value(field.getType(), field.getValue());
+                        Collections.addAll(record, new StringId(field.getNameId()), field.getType(), value);
+                    }
+                    for (BmdInstanceFieldDefinition field : classDef.getInstanceFields()) {
+                        Collections.addAll(record, new StringId(field.getNameId()), field.getType());
+                    }
+                    break;
+                case INSTANCE_DUMP:
+                    BmdInstanceDump instance = reader.readInstanceDumpRecord();
+                    objects.put(instance.getId(), new Description("instance of", new ObjectId(instance.getClassId())));
+                    record.add(new ObjectId(instance.getClassId()));
+                    for (BmdInstanceDumpField field : instance.getFields()) {
+                        record.add(value(field.getType(), field.getData()));
+                    }
+                    break;
+                case OBJECT_ARRAY:
+                    BmdObjectArray array = reader.readObjectArrayRecord();
+                    objects.put(array.getId(), new Description("array of", new ObjectId(array.getElementClassId())));
+                    record.add(new ObjectId(array.getElementClassId()));
+                    for (int element : array.getElements()) {
+                        record.add(new ObjectId(element));
+                    }
+                    break;
+                case PRIMITIVE_ARRAY_PLACEHOLDER:
+                    BmdPrimitiveArray primitiveArray = reader.readPrimitiveArrayRecord();
+                    objects.put(primitiveArray.getId(), new Description(primitiveArray.getType() + " array", null));
+                    Collections.addAll(record, primitiveArray.getType(), primitiveArray.getElementCount());
+                    break;
+                case LEGACY_HPROF_RECORD:
+                    BmdLegacyRecord legacyRecord = reader.readLegacyRecord();
+                    Collections.addAll(record, legacyRecord.getOriginalTag(), Arrays.toString(legacyRecord.getData()));
+                    break;
+                case ROOT_OBJECTS:
+                    int rootCount = reader.readInt32();
+                    for (int i = 0; i < rootCount; i++) {
+                        record.add(new ObjectId(reader.readInt32()));
+                    }
+                    break;
+            }
+            records.add(record);
+        }
+
+        /**
+         * Returns the normalized records, sorted (grouped by kind).
+         */
+        List<String> getRecords() {
+            List<String> normalized = new ArrayList<String>();
+            for (List<Object> record : records) {
+                StringBuilder builder = new StringBuilder();
+                builder.append(getKind((BmdTag) record.get(0)));
+                for (Object value : record) {
+                    builder.append(' ').append(describe(value));
+                }
+                normalized.add(builder.toString());
+            }
+            Collections.sort(normalized);
+            normalized.add(0, header);
+            return normalized;
+        }
+
+        private String describe(Object value) {
+            if (value instanceof StringId) {
+                return "\"" + strings.get(((StringId) value).id) + "\"";
+            }
+            else if (value instanceof ObjectId) {
+                int id = ((ObjectId) value).id;
+                if (id == 0) {
+                    return "null";
+                }
+                Description description = objects.get(id);
+                if (description == null) {
+                    return "(unknown)";
+                }
+                return "(" + description.kind + (description.reference != null ? " " + describe(description.reference) : "") + ")";
+            }
+            return String.valueOf(value);
+        }
+
+        private static Object value(BmdBasicType type, Object value) {
+            return type == BmdBasicType.OBJECT ? new ObjectId((Integer) value) : value;
+        }
+
+        private static int getKind(BmdTag tag) {
+            switch (tag) {
+                case STRING:
+                case HASHED_STRING:
+                    return 0;
+                case LEGACY_HPROF_RECORD:
+                    return 1;
+                case CLASS_DEFINITION:
+                    return 2;
+                case ROOT_OBJECTS:
+                    return 4;
+                default:
+                    return 3; // Objects
+            }
+        }
+
+        private static class StringId {
+
+            final int id;
+
+            StringId(int id) {
+                this.id = id;
+            }
+        }
+
+        private static class ObjectId {
+
+            final int id;
+
+            ObjectId(int id) {
+                this.id = id;
+            }
+        }
+
+        private static class Description {
+
+            final String kind;
+            final Object reference; // Class name or class of the object
+
+            Description(String kind, Object reference) {
+                this.kind = kind;
+                this.reference = reference;
+            }
+        }
+    }
+
+    private static class RecordCounter implements BmdProcessor {
+
+        final Map<BmdTag, Integer> counts = new HashMap<BmdTag, Integer>();
+
+        @Override
+        public void onHeader(int version, @Nonnull byte[] data) throws IOException {
+        }
+
+        @Override
+        public void onRecord(BmdTag tag, @Nonnull BmdReader reader) throws IOException {
+            switch (tag) {
+                case STRING:
+                    reader.readStringRecord();
+                    break;
+                case HASHED_STRING:
+                    reader.readHashedStringRecord();
+                    break;
+                case CLASS_DEFINITION:
+                    reader.readClassDefinitionRecord();
+                    break;
+                case INSTANCE_DUMP:
+                    reader.readInstanceDumpRecord();
+                    break;
+                case OBJECT_ARRAY:
+                    reader.readObjectArrayRecord();
+                    break;
+                case PRIMITIVE_ARRAY_PLACEHOLDER:
+                    reader.readPrimitiveArrayRecord();
+                    break;
+                case LEGACY_HPROF_RECORD:
+                    reader.readLegacyRecord();
+                    break;
+                case ROOT_OBJECTS:
+                    int rootCount = reader.readInt32();
+                    for (int i = 0; i < rootCount; i++) {
+                        reader.readInt32();
+                    }
+                    break;
+            }
+            synchronized (counts) {
+                counts.put(tag, counts.containsKey(tag) ? counts.get(tag) + 1 : 1);
+            }
+        }
+    }
+
+}
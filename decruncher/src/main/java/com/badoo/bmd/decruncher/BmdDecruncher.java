@@ -13,10 +13,8 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -31,21 +29,20 @@ public class BmdDecruncher {
      * Convert a BMD file to HPROF, recovering as much of the original HPROF data as possible.
      * @param in input stream for the BMD data
      * @param out output stream to write HPROF data to
-     * @param additionalFiles additional string resource files used to recover hashed strings from the BMD file
+     * @param additionalFiles additional string resource files used to recover hashed strings from the BMD file (see
+     *                        StringDictionary.load())
      */
     public static void decrunch(@Nonnull InputStream in, @Nonnull OutputStream out, @Nonnull Collection<String> additionalFiles) throws IOException {
-        Set<String> strings = new HashSet<String>();
-        for (String file : additionalFiles) {
-            if (file.endsWith(".dex") || file.endsWith(".apk")) {
-                strings.addAll(ApkStringReader.readStrings(new File(file)));
-            }
-            else if (file.endsWith(".jar")) {
-                strings.addAll(JarStringReader.readStrings(new File(file)));
-            }
-            else {
-                throw new IllegalArgumentException("Invalid string input file: " + file);
-            }
-        }
+        decrunch(in, out, StringDictionary.load(additionalFiles));
+    }
+
+    /**
+     * Convert a BMD file to HPROF, recovering as much of the original HPROF data as possible.
+     * @param in input stream for the BMD data
+     * @param out output stream to write HPROF data to
+     * @param strings dictionary used to recover hashed strings from the BMD file
+     */
+    public static void decrunch(@Nonnull InputStream in, @Nonnull OutputStream out, @Nonnull StringDictionary strings) throws IOException {
         // Make sure that we are using buffered streams to increase performance
         if (!(out instanceof BufferedOutputStream)) {
             out = new BufferedOutputStream(out);
@@ -59,8 +56,8 @@ public class BmdDecruncher {
             while (reader.hasNext()) {
                 reader.next();
             }
-            // Write all the heap records collected by the processor
-            processor.writeHeapRecords();
+            // Write the end of the heap dump
+            processor.finish();
             out.flush();
         }
         finally {
@@ -73,7 +70,13 @@ public class BmdDecruncher {
             String inFile;
             String outFile;
             List<String> additionalFiles = new ArrayList<String>();
-            if (args != null && args.length >= 2) {
+            if (args != null && args.length >= 2 && args[0].equals("--dictionary")) {
+                List<String> stringFiles = Arrays.asList(args).subList(2, args.length);
+                StringDictionary.create(StringDictionary.readStrings(stringFiles)).write(new File(args[1]));
+                System.exit(0);
+                return;
+            }
+            else if (args != null && args.length >= 2) {
                 List<String> argList = new LinkedList<String>(Arrays.asList(args));
                 inFile = argList.remove(0); // args[0]
                 outFile = argList.remove(0); // args[1]
@@ -82,8 +85,10 @@ public class BmdDecruncher {
             else {
                 System.out.println("Usage:");
                 System.out.println("java -jar decruncher.jar input.bmd output.hprof [string file1] [string file2] ...");
-                System.out.println("String input files can be dex, apk or jar");
+                System.out.println("java -jar decruncher.jar --dictionary output.strings [string file1] [string file2] ...");
+                System.out.println("String input files can be dex, apk, jar or strings (a string dictionary)");
                 System.out.println("Converts BMD to HPROF. String input files are used to restore hashed strings");
+                System.out.println("With --dictionary the strings are saved to a string dictionary, which is faster to load");
                 System.exit(1);
                 return;
             }
@@ -6,8 +6,7 @@ import com.badoo.bmd.BmdTag;
 import com.badoo.bmd.model.BmdBasicType;
 import com.badoo.bmd.model.BmdClassDefinition;
 import com.badoo.bmd.model.BmdConstantField;
-import com.badoo.bmd.model.BmdInstanceDump;
-import com.badoo.bmd.model.BmdInstanceDumpField;
+import com.badoo.bmd.model.BmdInstanceData;
 import com.badoo.bmd.model.BmdInstanceFieldDefinition;
 import com.badoo.bmd.model.BmdLegacyRecord;
 import com.badoo.bmd.model.BmdObjectArray;
@@ -18,21 +17,16 @@ import com.badoo.hprof.library.HprofWriter;
 import com.badoo.hprof.library.Tag;
 import com.badoo.hprof.library.heap.HeapDumpWriter;
 import com.badoo.hprof.library.model.*;
-import com.badoo.hprof.library.util.StreamUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.write;
 import static com.badoo.hprof.library.util.StreamUtil.writeByte;
 import static com.badoo.hprof.library.util.StreamUtil.writeInt;
 import static com.badoo.hprof.library.util.StreamUtil.writeLong;
@@ -47,41 +41,35 @@ import static com.badoo.hprof.library.util.StreamUtil.writeShort;
  * and with zero as content.
  * - Protection domains, stack trace serials and class loader ids are replaced with 0.
  * <p/>
+ * Records are converted as they are read, only the class definitions are kept in memory. The heap records are written in
+ * HEAP_DUMP_SEGMENT records of about SEGMENT_SIZE bytes, finish() must be called after the last record to write the last segment and
+ * the HEAP_DUMP_END record.
+ * <p/>
  * Created by Erik Andre on 02/11/14.
  */
 public class DecrunchProcessor implements BmdProcessor {
 
     private static final boolean DEBUG = false;
     private static final int FILLER_FIELD_NAME = Integer.MAX_VALUE;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final byte[] ZEROS = new byte[8192];
     private final InstanceField BYTE_FILLER_FIELD;
     private final InstanceField INT_FILLER_FIELD;
 
     private final HprofWriter writer;
-    private final Map<Integer, BmdClassDefinition> classes = new HashMap<Integer, BmdClassDefinition>();
-    private final Map<Integer, String> strings;
-    private final List<BmdInstanceDump> instances = new ArrayList<BmdInstanceDump>();
-    private final List<BmdObjectArray> objectArrays = new ArrayList<BmdObjectArray>();
-    private final List<BmdPrimitiveArray> primitiveArrays = new ArrayList<BmdPrimitiveArray>();
-    private final List<Integer> rootObjects = new ArrayList<Integer>();
+    private final StringDictionary strings;
+    private final ByteArrayOutputStream segment = new ByteArrayOutputStream(); // The heap dump segment being written
+    private HeapDumpWriter heapWriter; // Created when the id size is known (in onHeader())
 
     /**
      * Create a new DecrunchProcessor.
      *
      * @param out     The output to write the decrunched data to
-     * @param strings A set of strings from the original app, used to recover strings replaced by hashes in the dump
+     * @param strings Strings from the original app, used to recover strings replaced by hashes in the dump
      */
-    public DecrunchProcessor(@Nonnull OutputStream out, @Nonnull Set<String> strings) {
+    public DecrunchProcessor(@Nonnull OutputStream out, @Nonnull StringDictionary strings) {
         writer = new HprofWriter(out);
-        this.strings = new HashMap<Integer, String>();
-        for (String string : strings) {
-            int hashCode = string.hashCode();
-            if (this.strings.containsKey(hashCode)) {
-                System.err.println("WARN: String input contains strings which maps to the same hash code!");
-                System.err.println("WARN: First: " + this.strings.get(hashCode) + ", second: " + string + ", hash: " + hashCode);
-            }
-            this.strings.put(hashCode, string);
-        }
-        StreamUtil.ID_SIZE = 4;
+        this.strings = strings;
         BYTE_FILLER_FIELD = new InstanceField(BasicType.BYTE, new ID(FILLER_FIELD_NAME));
         INT_FILLER_FIELD = new InstanceField(BasicType.INT, new ID(FILLER_FIELD_NAME));
     }
@@ -100,23 +88,27 @@ public class DecrunchProcessor implements BmdProcessor {
                 break;
             case CLASS_DEFINITION:
                 BmdClassDefinition classDef = reader.readClassDefinitionRecord();
-                classes.put(classDef.getId(), classDef);
-                // Write the load class record now and the class dump later
                 writeLoadClassRecord(classDef);
+                heapWriter.writeClassDumpRecord(convertClassDefinition(classDef));
+                endHeapRecord();
                 break;
             case INSTANCE_DUMP:
-                instances.add(reader.readInstanceDumpRecord(classes));
+                BmdInstanceData instance = reader.readInstanceDumpData();
+                heapWriter.writeInstanceDumpRecord(new ID(instance.getId()), 0, new ID(instance.getClassId()), instance.getData());
+                endHeapRecord();
                 break;
             case OBJECT_ARRAY:
-                objectArrays.add(reader.readObjectArrayRecord());
+                writeObjectArray(heapWriter, reader.readObjectArrayRecord());
+                endHeapRecord();
                 break;
             case PRIMITIVE_ARRAY_PLACEHOLDER:
-                primitiveArrays.add(reader.readPrimitiveArrayRecord());
+                writePrimitiveArray(reader.readPrimitiveArrayRecord());
                 break;
             case ROOT_OBJECTS:
                 int rootCount = reader.readInt32();
                 for (int i = 0; i < rootCount; i++) {
-                    rootObjects.add(reader.readInt32());
+                    heapWriter.writeUnknownRoot(new ID(reader.readInt32()));
+                    endHeapRecord();
                 }
                 break;
             case LEGACY_HPROF_RECORD:
@@ -127,35 +119,11 @@ public class DecrunchProcessor implements BmdProcessor {
     }
 
     /**
-     * Write all heap records (instance dumps, primitive arrays and object arrays) previously collected in the read pass.
+     * Write the last heap dump segment and the end of the heap dump. Must be called after all records have been read.
      */
-    public void writeHeapRecords() throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        HeapDumpWriter heapWriter = new HeapDumpWriter(buffer);
-        // Write class definitions before any instance dumps
-        for (BmdClassDefinition bmdClassDef : classes.values()) {
-            heapWriter.writeClassDumpRecord(convertClassDefinition(bmdClassDef));
-        }
-        // Instance dumps
-        for (BmdInstanceDump instance : instances) {
-            writeInstanceDump(heapWriter, instance);
-        }
-        // Object arrays
-        for (BmdObjectArray array : objectArrays) {
-            writeObjectArray(heapWriter, array);
-        }
-        // Primitive arrays
-        for (BmdPrimitiveArray array : primitiveArrays) {
-            writePrimitiveArray(heapWriter, array);
-        }
-        // GC roots
-        for (Integer root : rootObjects) {
-            heapWriter.writeUnknownRoot(new ID(root));
-        }
-        writer.writeStringRecord(new HprofString(new ID(FILLER_FIELD_NAME), "field_removed", 0)); // This string is used as the name for all discarded instance fields that we have recreated
-        byte[] record = buffer.toByteArray();
-        writer.writeRecordHeader(Tag.HEAP_DUMP, 0, record.length);
-        writer.getOutputStream().write(record);
+    public void finish() throws IOException {
+        writeSegment(0);
+        writer.writeRecordHeader(Tag.HEAP_DUMP_END, 0, 0);
     }
 
     private ClassDefinition convertClassDefinition(BmdClassDefinition bmdClassDef) throws IOException {
@@ -196,18 +164,57 @@ public class DecrunchProcessor implements BmdProcessor {
         // Calculate instance size
         int instanceSize = 0;
         for (InstanceField field : instanceFields) {
-            instanceSize += field.getType().size;
+            instanceSize += writer.getIdContext().sizeOf(field.getType());
         }
         classDef.setInstanceSize(instanceSize);
         return classDef;
     }
 
-    private void writePrimitiveArray(HeapDumpWriter writer, BmdPrimitiveArray array) throws IOException {
+    private void writePrimitiveArray(BmdPrimitiveArray array) throws IOException {
         BasicType elementType = convertType(array.getType());
-        writer.writePrimitiveArrayHeader(new ID(array.getId()), 0, elementType, array.getElementCount());
+        heapWriter.writePrimitiveArrayHeader(new ID(array.getId()), 0, elementType, array.getElementCount());
         // Just write 0's to fill the space
-        byte[] data = new byte[elementType.size * array.getElementCount()];
-        writer.getOutputStream().write(data);
+        long length = (long) elementType.size * array.getElementCount();
+        if (length >= SEGMENT_SIZE) {
+            // Write the data of large arrays directly to the output instead of adding it to the segment
+            writeSegment(length);
+            writeZeros(writer.getOutputStream(), length);
+        }
+        else {
+            writeZeros(segment, length);
+            endHeapRecord();
+        }
+    }
+
+    /**
+     * Called after writing a heap record, writes the current segment if it is full.
+     */
+    private void endHeapRecord() throws IOException {
+        if (segment.size() >= SEGMENT_SIZE) {
+            writeSegment(0);
+        }
+    }
+
+    /**
+     * Write the current segment.
+     *
+     * @param extraLength length of the data that is written directly to the output after the segment
+     */
+    private void writeSegment(long extraLength) throws IOException {
+        if (segment.size() == 0 && extraLength == 0) {
+            return;
+        }
+        writer.writeRecordHeader(Tag.HEAP_DUMP_SEGMENT, 0, segment.size() + extraLength);
+        segment.writeTo(writer.getOutputStream());
+        segment.reset();
+    }
+
+    private static void writeZeros(OutputStream out, long length) throws IOException {
+        while (length > 0) {
+            int count = (int) Math.min(length, ZEROS.length);
+            out.write(ZEROS, 0, count);
+            length -= count;
+        }
     }
 
     private void writeObjectArray(HeapDumpWriter writer, BmdObjectArray array) throws IOException {
@@ -222,27 +229,6 @@ public class DecrunchProcessor implements BmdProcessor {
         return res;
     }
 
-    private void writeInstanceDump(HeapDumpWriter writer, BmdInstanceDump instance) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int currentClassId = instance.getClassId();
-        while (currentClassId != 0) {
-            BmdClassDefinition currentClass = classes.get(currentClassId);
-            // Write all fields for this class
-            for (BmdInstanceDumpField field : instance.getFields()) {
-                if (field.getClassDefinition().equals(currentClass)) {
-                    writeFieldValue(buffer, field.getData());
-                }
-            }
-            // Write filler data for removed fields
-            if (currentClass.getDiscardedFieldSize() > 0) {
-                write(buffer, 0, currentClass.getDiscardedFieldSize());
-            }
-            currentClassId = currentClass.getSuperClassId();
-        }
-        byte[] data = buffer.toByteArray();
-        writer.writeInstanceDumpRecord(new ID(instance.getId()), 0, new ID(instance.getClassId()), data);
-    }
-
     private void writeFieldValue(OutputStream out, Object value) throws IOException {
         if (value instanceof Boolean) {
             writeByte(out, (Boolean) value ? 1 : 0);
@@ -286,7 +272,7 @@ public class DecrunchProcessor implements BmdProcessor {
     private void writeString(BmdString string) throws IOException {
         String stringVal = string.getString();
         if (stringVal == null) { // Check if we can recover the string using the hash code
-            stringVal = strings.get(string.getHash());
+            stringVal = findString(string);
         }
         if (stringVal == null) { // Fall back to using a placeholder
             stringVal = "Hash$" + string.getHash();
@@ -302,10 +288,32 @@ public class DecrunchProcessor implements BmdProcessor {
         writer.writeStringRecord(hprofString);
     }
 
+    private String findString(BmdString string) throws IOException {
+        List<String> candidates = strings.getStrings(string.getHash());
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        // Several strings with the same hash code, use the length of the original string to choose
+        List<String> matching = new ArrayList<String>();
+        for (String candidate : candidates) {
+            if (candidate.getBytes().length == string.getLength()) {
+                matching.add(candidate);
+            }
+        }
+        if (matching.size() != 1) {
+            System.err.println("WARN: Cannot choose between strings with the same hash code: " + candidates + ", hash: "
+                + string.getHash());
+            return matching.isEmpty() ? candidates.get(0) : matching.get(0);
+        }
+        return matching.get(0);
+    }
+
     @Override
     public void onHeader(int version, @Nonnull byte[] data) throws IOException {
         System.out.println("Header version:" + version + ", data=" + new String(data));
         writer.writeHprofFileHeader(new String(data), 4, 0, 0);
+        heapWriter = new HeapDumpWriter(segment, writer.getIdContext());
+        writer.writeStringRecord(new HprofString(new ID(FILLER_FIELD_NAME), "field_removed", 0)); // This string is used as the name for all discarded instance fields that we have recreated
     }
 
     private byte[] getFieldValue(BmdConstantField field) throws IOException {
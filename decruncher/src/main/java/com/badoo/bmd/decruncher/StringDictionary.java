@@ -0,0 +1,288 @@
+package com.badoo.bmd.decruncher;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Dictionary of strings by hash code, used to recover the strings that were replaced by their hash codes when a BMD file was created.
+ * <p/>
+ * Reading the strings of an APK or JAR file is slow, so the dictionary can be created once per application version (with
+ * readStrings() and create()) and saved to a dictionary file. When the dictionary file is read the tables are memory mapped instead
+ * of being read into the Java heap, so loading it takes a few milliseconds.
+ * <p/>
+ * Several strings can have the same hash code, getStrings() returns all of them.
+ * <p/>
+ * <p></p><h3>Usage</h3></p>
+ * <pre>
+ *     StringDictionary.create(StringDictionary.readStrings(Arrays.asList("app.apk"))).write(new File("app.strings"));
+ *     ...
+ *     StringDictionary dictionary = StringDictionary.read(new File("app.strings"));
+ *     List&lt;String&gt; candidates = dictionary.getStrings(hash);
+ * </pre>
+ */
+public class StringDictionary {
+
+    /**
+     * Extension of dictionary files
+     */
+    public static final String FILE_EXTENSION = ".strings";
+
+    private static final int MAGIC = 0x424d4453; // "BMDS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4; // Magic, version, hash count, string count, data size
+
+    private final IntBuffer hashes; // Sorted
+    private final IntBuffer firstStrings; // Index of the first string of each hash, followed by the string count
+    private final IntBuffer stringOffsets; // Offset of each string in the data, followed by the data size
+    private final ByteBuffer data; // UTF-8
+
+    private StringDictionary(IntBuffer hashes, IntBuffer firstStrings, IntBuffer stringOffsets, ByteBuffer data) {
+        this.hashes = hashes;
+        this.firstStrings = firstStrings;
+        this.stringOffsets = stringOffsets;
+        this.data = data;
+    }
+
+    /**
+     * Read the strings (class and field names) of string input files.
+     *
+     * @param files the files, which can be dex, apk or jar files or dictionary files (see FILE_EXTENSION)
+     * @return the strings
+     */
+    @Nonnull
+    public static Set<String> readStrings(@Nonnull Collection<String> files) throws IOException {
+        Set<String> strings = new HashSet<String>();
+        for (String file : files) {
+            if (file.endsWith(".dex") || file.endsWith(".apk")) {
+                strings.addAll(ApkStringReader.readStrings(new File(file)));
+            }
+            else if (file.endsWith(".jar")) {
+                strings.addAll(JarStringReader.readStrings(new File(file)));
+            }
+            else if (file.endsWith(FILE_EXTENSION)) {
+                StringDictionary dictionary = read(new File(file));
+                for (int i = 0; i < dictionary.getStringCount(); i++) {
+                    strings.add(dictionary.getString(i));
+                }
+            }
+            else {
+                throw new IllegalArgumentException("Invalid string input file: " + file);
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Returns the dictionary of string input files. A single dictionary file is memory mapped, other files are read and a new dictionary
+     * is created from their strings.
+     *
+     * @param files the files, which can be dex, apk or jar files or dictionary files (see FILE_EXTENSION)
+     * @return the dictionary
+     */
+    @Nonnull
+    public static StringDictionary load(@Nonnull Collection<String> files) throws IOException {
+        if (files.size() == 1 && files.iterator().next().endsWith(FILE_EXTENSION)) {
+            return read(new File(files.iterator().next()));
+        }
+        return create(readStrings(files));
+    }
+
+    /**
+     * Create a dictionary.
+     *
+     * @param strings the strings
+     * @return the dictionary
+     */
+    @Nonnull
+    public static StringDictionary create(@Nonnull Collection<String> strings) throws IOException {
+        List<String> sorted = new ArrayList<String>(new HashSet<String>(strings));
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                int firstHash = first.hashCode();
+                int secondHash = second.hashCode();
+                if (firstHash != secondHash) {
+                    return firstHash < secondHash ? -1 : 1;
+                }
+                return first.compareTo(second);
+            }
+        });
+        int[] hashes = new int[sorted.size()];
+        int[] firstStrings = new int[sorted.size() + 1];
+        int[] stringOffsets = new int[sorted.size() + 1];
+        List<byte[]> encoded = new ArrayList<byte[]>(sorted.size());
+        int hashCount = 0;
+        int offset = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            int hash = sorted.get(i).hashCode();
+            if (hashCount == 0 || hashes[hashCount - 1] != hash) {
+                hashes[hashCount] = hash;
+                firstStrings[hashCount] = i;
+                hashCount++;
+            }
+            byte[] bytes = sorted.get(i).getBytes("UTF-8");
+            encoded.add(bytes);
+            stringOffsets[i] = offset;
+            offset += bytes.length;
+        }
+        firstStrings[hashCount] = sorted.size();
+        stringOffsets[sorted.size()] = offset;
+        ByteBuffer data = ByteBuffer.allocate(offset);
+        for (byte[] bytes : encoded) {
+            data.put(bytes);
+        }
+        data.flip();
+        return new StringDictionary(IntBuffer.wrap(hashes, 0, hashCount).slice(), IntBuffer.wrap(firstStrings, 0, hashCount + 1).slice(),
+            IntBuffer.wrap(stringOffsets), data);
+    }
+
+    /**
+     * Read a dictionary file. The tables are memory mapped.
+     *
+     * @param dictionaryFile the dictionary file
+     * @return the dictionary
+     */
+    @Nonnull
+    public static StringDictionary read(@Nonnull File dictionaryFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(dictionaryFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(dictionaryFile + " is not a string dictionary (or was created by another version)");
+            }
+            int hashCount = header.getInt();
+            int stringCount = header.getInt();
+            int dataSize = header.getInt();
+            long position = HEADER_SIZE;
+            IntBuffer hashes = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * hashCount).asIntBuffer();
+            position += 4L * hashCount;
+            IntBuffer firstStrings = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (hashCount + 1)).asIntBuffer();
+            position += 4L * (hashCount + 1);
+            IntBuffer stringOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (stringCount + 1)).asIntBuffer();
+            position += 4L * (stringCount + 1);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, dataSize);
+            return new StringDictionary(hashes, firstStrings, stringOffsets, data);
+        }
+        finally {
+            file.close(); // The mapped buffers stay valid after the file is closed
+        }
+    }
+
+    /**
+     * Write the dictionary to a file.
+     *
+     * @param dictionaryFile the file to write to
+     */
+    public void write(@Nonnull File dictionaryFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictionaryFile), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(getHashCount());
+            out.writeInt(getStringCount());
+            out.writeInt(data.limit());
+            writeInts(out, hashes);
+            writeInts(out, firstStrings);
+            writeInts(out, stringOffsets);
+            for (int i = 0; i < data.limit(); i++) {
+                out.writeByte(data.get(i));
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the number of distinct hash codes.
+     */
+    public int getHashCount() {
+        return hashes.limit();
+    }
+
+    /**
+     * Returns the number of strings.
+     */
+    public int getStringCount() {
+        return stringOffsets.limit() - 1;
+    }
+
+    /**
+     * Returns a string.
+     *
+     * @param index the index of the string (0 to getStringCount() - 1)
+     */
+    @Nonnull
+    public String getString(int index) throws IOException {
+        int offset = stringOffsets.get(index);
+        byte[] bytes = new byte[stringOffsets.get(index + 1) - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(offset + i);
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Returns the strings with a hash code.
+     *
+     * @param hash the hash code (as returned by String.hashCode())
+     * @return the strings, sorted (empty if there is no string with the hash code)
+     */
+    @Nonnull
+    public List<String> getStrings(int hash) throws IOException {
+        int position = binarySearch(hashes, hash);
+        if (position == -1) {
+            return Collections.emptyList();
+        }
+        int first = firstStrings.get(position);
+        int last = firstStrings.get(position + 1);
+        List<String> strings = new ArrayList<String>(last - first);
+        for (int i = first; i < last; i++) {
+            strings.add(getString(i));
+        }
+        return strings;
+    }
+
+    private static int binarySearch(IntBuffer values, int key) {
+        int low = 0;
+        int high = values.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = values.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            }
+            else if (value > key) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); i++) {
+            out.writeInt(values.get(i));
+        }
+    }
+
+}
@@ -1,5 +1,13 @@
 package com.badoo.bmd.decruncher;
 
+import com.badoo.bmd.BmdBlockOutputStream;
+import com.badoo.hprof.library.HprofProcessor;
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.util.StreamUtil;
+
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
@@ -11,7 +19,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
 
 import static org.junit.Assert.*;
 
@@ -24,19 +39,67 @@ public class BmdDecruncherTest {
         verify(new FileInputStream("../test_files/decrunch_test_out.hprof"), new ByteArrayInputStream(out.toByteArray()));
     }
 
+    @Test
+    public void testDecrunchBlockCompressed() throws Exception {
+        ByteArrayOutputStream bmd = new ByteArrayOutputStream();
+        OutputStream blockOut = new BmdBlockOutputStream(bmd);
+        blockOut.write(IOUtils.toByteArray(new FileInputStream("../test_files/decrunch_test_in.bmd")));
+        blockOut.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BmdDecruncher.decrunch(new ByteArrayInputStream(bmd.toByteArray()), out, Collections.<String>emptyList());
+        verify(new FileInputStream("../test_files/decrunch_test_out.hprof"), new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Verify that the decrunched file contains the same records as the expected file. The heap records are not written in the same
+     * order (the expected file has all class dumps before the instance dumps and arrays) so the records are compared in sorted order.
+     */
     private void verify(InputStream expected, InputStream actual) throws IOException {
-        expected = new BufferedInputStream(expected);
-        actual = new BufferedInputStream(actual);
-        long position = 0;
-        int a = expected.read();
-        int b = actual.read();
-        while (a != -1 && b != -1) {
-            if (a != b) {
-                fail("Files are different at position " + position + ", expected " + a + " was " + b);
+        assertEquals(readRecords(expected), readRecords(actual));
+    }
+
+    private List<String> readRecords(InputStream in) throws IOException {
+        final List<String> records = new ArrayList<String>();
+        final HeapDumpBaseProcessor heapProcessor = new HeapDumpBaseProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                copyHeapRecord(tag, reader, record);
+                records.add(digest(record.toByteArray()));
+            }
+        };
+        HprofReader reader = new HprofReader(new BufferedInputStream(in), new HprofProcessor() {
+            @Override
+            public void onHeader(@Nonnull String text, int idSize, int timeHigh, int timeLow) throws IOException {
+                records.add("header " + text + " " + idSize);
+            }
+
+            @Override
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+                if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+                    HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), heapProcessor);
+                    while (heapReader.hasNext()) {
+                        heapReader.next();
+                    }
+                }
+                else if (tag != Tag.HEAP_DUMP_END) {
+                    records.add(tag + " " + digest(StreamUtil.read(reader.getInputStream(), (int) length)));
+                }
             }
-            position++;
-            a = expected.read();
-            b = actual.read();
+        });
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        Collections.sort(records);
+        return records;
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("MD5").digest(data)).toString(16);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.badoo.bmd.decruncher;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StringDictionaryTest {
+
+    private static final String NON_ASCII = "\u00e5\u00e4\u00f6";
+    // Aa and BB have the same hash code
+    private static final List<String> STRINGS = Arrays.asList("com.badoo.Test", "mField", "Aa", "BB", NON_ASCII);
+
+    @Test
+    public void testCreate() throws Exception {
+        verify(StringDictionary.create(STRINGS));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("dictionary", StringDictionary.FILE_EXTENSION);
+        try {
+            StringDictionary.create(STRINGS).write(file);
+            verify(StringDictionary.read(file));
+            verify(StringDictionary.load(Collections.singletonList(file.getPath())));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private void verify(StringDictionary dictionary) throws Exception {
+        assertEquals(5, dictionary.getStringCount());
+        assertEquals(4, dictionary.getHashCount());
+        assertEquals(Arrays.asList("Aa", "BB"), dictionary.getStrings("Aa".hashCode()));
+        assertEquals(Collections.singletonList("mField"), dictionary.getStrings("mField".hashCode()));
+        assertEquals(Collections.singletonList(NON_ASCII), dictionary.getStrings(NON_ASCII.hashCode()));
+        assertTrue(dictionary.getStrings("missing".hashCode()).isEmpty());
+    }
+}
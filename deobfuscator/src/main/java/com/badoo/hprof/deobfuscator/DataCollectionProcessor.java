@@ -1,6 +1,7 @@
 package com.badoo.hprof.deobfuscator;
 
 import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.Tag;
 import com.badoo.hprof.library.heap.HeapDumpReader;
 import com.badoo.hprof.library.heap.HeapTag;
@@ -14,19 +15,18 @@ import com.badoo.hprof.library.model.StackFrame;
 import com.badoo.hprof.library.model.StaticField;
 import com.badoo.hprof.library.processor.DiscardProcessor;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.read;
-import static com.badoo.hprof.library.util.StreamUtil.readID;
 import static com.badoo.hprof.library.util.StreamUtil.readInt;
 
 /**
@@ -41,6 +41,8 @@ public class DataCollectionProcessor extends DiscardProcessor {
     private Map<ID, StackFrame> stackFrames = new HashMap<ID, StackFrame>();
     private Set<ID> referencedStringIds = new HashSet<ID>();
     private ID lastStringId = new ID();
+    private List<Long> classDumpSizes = new ArrayList<Long>();
+    private long currentClassDumpSize;
 
 
 
@@ -49,7 +51,9 @@ public class DataCollectionProcessor extends DiscardProcessor {
         @Override
         public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
             if (tag == HeapTag.CLASS_DUMP) {
+                long start = reader.getCurrentPosition() - 1; // Including the tag
                 ClassDefinition cls = reader.readClassDumpRecord(classes);
+                currentClassDumpSize += reader.getCurrentPosition() - start;
                 // Since the names of obfuscated fields are shared between classes we need to deduplicate the references, otherwise we cannot deobfuscate them independently
                 deduplicateStrings(cls);
             } else {
@@ -76,12 +80,19 @@ public class DataCollectionProcessor extends DiscardProcessor {
         return stackFrames;
     }
 
+    /**
+     * Returns the total size (in bytes) of the CLASS_DUMP records of each HEAP_DUMP and HEAP_DUMP_SEGMENT record, in the order they were
+     * read.
+     */
+    public List<Long> getClassDumpSizes() {
+        return classDumpSizes;
+    }
+
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         InputStream in = reader.getInputStream();
         if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
-            byte[] record = read(in, length);
-            readHeapDump(record);
+            readHeapDump(in, length, reader.getIdContext());
         } else if (tag == Tag.STRING) {
             HprofString string = reader.readStringRecord(length, timestamp);
             lastStringId = maxID(lastStringId, string.getId()); // Keep track of the highest string id encountered so that we can add new ids later without having a collision
@@ -104,11 +115,13 @@ public class DataCollectionProcessor extends DiscardProcessor {
     }
 
 
-    private void readHeapDump(byte[] data) throws IOException {
-        HeapDumpReader reader = new HeapDumpReader(new ByteArrayInputStream(data), data.length, classDumpProcessor);
+    private void readHeapDump(InputStream in, long length, IdContext idContext) throws IOException {
+        currentClassDumpSize = 0;
+        HeapDumpReader reader = new HeapDumpReader(in, length, idContext, classDumpProcessor);
         while (reader.hasNext()) {
             reader.next();
         }
+        classDumpSizes.add(currentClassDumpSize);
     }
 
     private void deduplicateStrings(ClassDefinition classDef) {
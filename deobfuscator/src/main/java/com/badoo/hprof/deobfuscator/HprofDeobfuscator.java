@@ -114,7 +114,8 @@ public class HprofDeobfuscator {
             }
             // Start the second pass where we write the modified hprof file to the output stream
             OutputStream out = new FileOutputStream(outFile);
-            StringUpdateProcessor updateProcessor = new StringUpdateProcessor(out, dataCollectionProcessor.getClasses(), hprofStrings.values());
+            StringUpdateProcessor updateProcessor = new StringUpdateProcessor(out, dataCollectionProcessor.getClasses(),
+                hprofStrings.values(), dataCollectionProcessor.getClassDumpSizes());
             hprofReader = new HprofReader(new FileInputStream(hprofFile), updateProcessor);
             while (hprofReader.hasNext()) {
                 hprofReader.next();
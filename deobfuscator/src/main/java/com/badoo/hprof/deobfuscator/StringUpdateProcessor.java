@@ -1,7 +1,6 @@
 package com.badoo.hprof.deobfuscator;
 
 import com.badoo.hprof.library.HprofReader;
-import com.badoo.hprof.library.HprofWriter;
 import com.badoo.hprof.library.Tag;
 import com.badoo.hprof.library.heap.HeapDumpReader;
 import com.badoo.hprof.library.heap.HeapDumpWriter;
@@ -17,6 +16,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -41,93 +41,77 @@ public class StringUpdateProcessor extends CopyProcessor {
         @Override
         public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
             if (tag == HeapTag.CLASS_DUMP) {
-                skipHeapRecord(tag, reader.getInputStream()); // Discard all class definitions since we are writing an updated version instead
+                skipHeapRecord(tag, reader); // Discard all class definitions since we are writing an updated version instead
             }
             else {
-                copyHeapRecord(tag, reader.getInputStream(), out);
+                copyHeapRecord(tag, reader, out);
             }
         }
     }
 
     private final Collection<HprofString> strings;
     private final Map<ID, ClassDefinition> classes;
+    private final List<Long> classDumpSizes;
+    private int heapDumpIndex;
     private boolean writeUpdatedClassDefinitions = true;
-    public StringUpdateProcessor(OutputStream out, Map<ID, ClassDefinition> classes, Collection<HprofString> strings) {
+
+    /**
+     * @param classDumpSizes the size of the CLASS_DUMP records of each heap dump record (see DataCollectionProcessor.getClassDumpSizes())
+     */
+    public StringUpdateProcessor(OutputStream out, Map<ID, ClassDefinition> classes, Collection<HprofString> strings,
+                                 List<Long> classDumpSizes) {
         super(out);
         this.strings = strings;
         this.classes = classes;
+        this.classDumpSizes = classDumpSizes;
     }
 
     @Override
     public void onHeader(@Nonnull String text, int idSize, int timeHigh, int timeLow) throws IOException {
         super.onHeader(text, idSize, timeHigh, timeLow);
         // Write all updated strings
-        HprofWriter writer = new HprofWriter(out);
         for (HprofString string : strings) {
             writer.writeStringRecord(string);
         }
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
-
-
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         if (tag == Tag.STRING) {
             skip(reader.getInputStream(), length); // Discard all the original strings
         }
         else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
-
-
-            ByteArrayOutputStream buffer ;
-
+            // The size of the removed class definitions is known from the first pass, so the filtered records can be written directly
+            long filteredLength = length - classDumpSizes.get(heapDumpIndex++);
             if (writeUpdatedClassDefinitions) {
                 // Write the updated class definitions before continuing with the existing data
-                buffer = writeClassesToBAOS(tag, timestamp);
+                byte[] classData = writeClasses();
+                writer.writeRecordHeader(tag, timestamp, classData.length + filteredLength);
+                out.write(classData);
                 writeUpdatedClassDefinitions = false;
             }
-            else
-            {
-                buffer = new ByteArrayOutputStream();
+            else {
+                writer.writeRecordHeader(tag, timestamp, filteredLength);
             }
             // Filter the heap dump, removing any class definition
-
-            HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, new ClassDefinitionRemoverProcessor(buffer));
+            HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(),
+                new ClassDefinitionRemoverProcessor(out));
             while (heapReader.hasNext()) {
                 heapReader.next();
             }
-            byte[] data = buffer.toByteArray();
-            writer.writeRecordHeader(tag, timestamp, data.length);
-            out.write(data);
         }
         else {
             super.onRecord(tag, timestamp, length, reader);
         }
     }
 
-    private void writeClasses(int tag, int timestamp) throws IOException {
-        // Write all class  definitions to a buffer in order to calculate the size. Uses more memory but avoids an extra pass to calculate size before writing the data
+    private byte[] writeClasses() throws IOException {
+        // Write all class definitions to a buffer in order to calculate the size (they are a small part of the heap dump)
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        HeapDumpWriter bufferWrite = new HeapDumpWriter(buffer);
+        HeapDumpWriter bufferWriter = new HeapDumpWriter(buffer, writer.getIdContext());
         for (ClassDefinition cls : classes.values()) {
-            bufferWrite.writeClassDumpRecord(cls);
+            bufferWriter.writeClassDumpRecord(cls);
         }
-        byte[] data = buffer.toByteArray();
-        writer.writeRecordHeader(tag, timestamp, data.length);
-        out.write(data);
+        return buffer.toByteArray();
     }
-
-
-    private ByteArrayOutputStream writeClassesToBAOS(int tag, int timestamp) throws IOException {
-        // Write all class  definitions to a buffer in order to calculate the size. Uses more memory but avoids an extra pass to calculate size before writing the data
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        HeapDumpWriter bufferWrite = new HeapDumpWriter(buffer);
-        for (ClassDefinition cls : classes.values()) {
-            bufferWrite.writeClassDumpRecord(cls);
-        }
-        return buffer;
-//        byte[] data = buffer.toByteArray();
-//        writer.writeRecordHeader(tag, timestamp, data.length);
-//        out.write(data);
-    }
-
 }
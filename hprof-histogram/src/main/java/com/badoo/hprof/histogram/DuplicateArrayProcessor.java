@@ -0,0 +1,347 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.LongIdClassDefinition;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.LongIntMap;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+import com.badoo.hprof.library.util.StreamUtil;
+import com.google.common.primitives.Chars;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.readInt;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Finds primitive arrays with identical content (for example the char[] of duplicated strings or the byte[] of bitmaps that have been
+ * decoded more than once) in a single pass over a HPROF file.
+ * <p/>
+ * The content of each primitive array is hashed while it is read and the hash, id and file offset of the array are kept in primitive
+ * arrays (29 bytes per array and 8 bytes per String, nothing is kept for other objects). Arrays are then grouped by hash (using a
+ * LongIntMap and a chain of array positions per hash) and the content of the arrays in each group is compared to rule out hash
+ * collisions. The String instances
+ * referencing the duplicated arrays (through the String.value field, the same as StringFactory) are counted in the same pass.
+ * <p/>
+ * <pre>
+ *     DuplicateReport report = DuplicateArrayProcessor.process(hprofFile);
+ *     report.writeText(System.out, 20);
+ * </pre>
+ */
+public class DuplicateArrayProcessor extends DiscardProcessor {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int PREVIEW_LENGTH = 40;
+
+    private final MappedFileInputStream in;
+    private final DuplicateHeapProcessor heapProcessor = new DuplicateHeapProcessor();
+    private final StringOffsets strings = new StringOffsets();
+    private final Map<Long, LongIdClassDefinition> stringClasses = new HashMap<Long, LongIdClassDefinition>();
+    private final LongIntMap valueOffsets = new LongIntMap(); // String class id -> offset of the value field
+    private IdContext idContext;
+    // Primitive arrays
+    private long[] hashes = new long[1024];
+    private long[] ids = new long[1024];
+    private long[] offsets = new long[1024]; // Offset of the array data
+    private int[] lengths = new int[1024];
+    private byte[] types = new byte[1024];
+    private int count;
+    private long totalSize;
+    // The value field of all strings
+    private long[] stringValues = new long[1024];
+    private int stringCount;
+    private byte[] buffer = new byte[1 << 16];
+    private byte[] compareBuffer = new byte[1 << 16];
+
+    private DuplicateArrayProcessor(@Nonnull MappedFileInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Find the duplicated primitive arrays of a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the duplicates
+     * @throws IOException
+     */
+    @Nonnull
+    public static DuplicateReport process(@Nonnull File hprofFile) throws IOException {
+        MappedFileInputStream in = new MappedFileInputStream(hprofFile);
+        try {
+            DuplicateArrayProcessor processor = new DuplicateArrayProcessor(in);
+            HprofReader reader = new HprofReader(in, processor);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return processor.createReport();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+        idContext = reader.getIdContext();
+        if (tag == Tag.STRING) {
+            int idSize = idContext.getIdSize();
+            strings.add(idContext.readIdAsLong(in), in.getPosition(), (int) (length - idSize));
+            skip(in, length - idSize);
+        }
+        else if (tag == Tag.LOAD_CLASS) {
+            LongIdClassDefinition cls = reader.readLongIdLoadClassRecord();
+            String name = strings.read(cls.getNameStringId(), in);
+            if ("java.lang.String".equals(name) || "java/lang/String".equals(name)) {
+                stringClasses.put(cls.getObjectId(), cls);
+            }
+        }
+        else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+            HeapDumpReader heapReader = new HeapDumpReader(in, length, idContext, heapProcessor);
+            while (heapReader.hasNext()) {
+                heapReader.next();
+            }
+        }
+        else {
+            super.onRecord(tag, timestamp, length, reader);
+        }
+    }
+
+    private class DuplicateHeapProcessor extends HeapDumpBaseProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            switch (tag) {
+                case HeapTag.CLASS_DUMP: {
+                    long start = in.getPosition();
+                    long classId = reader.readIdAsLong();
+                    in.setPosition(start);
+                    if (stringClasses.containsKey(classId)) {
+                        addStringClass(reader.readLongIdClassDumpRecord(stringClasses));
+                    }
+                    else {
+                        skipHeapRecord(tag, reader);
+                    }
+                    break;
+                }
+                case HeapTag.INSTANCE_DUMP: {
+                    skip(in, idContext.getIdSize() + U4_SIZE); // Object id + stack trace serial
+                    int valueOffset = valueOffsets.get(idContext.readIdAsLong(in));
+                    int size = readInt(in);
+                    if (valueOffset != LongIntMap.NO_VALUE && valueOffset + idContext.getIdSize() <= size) {
+                        long start = in.getPosition();
+                        skip(in, valueOffset);
+                        addStringValue(idContext.readIdAsLong(in));
+                        in.setPosition(start + size);
+                    }
+                    else {
+                        skip(in, size);
+                    }
+                    break;
+                }
+                case HeapTag.PRIMITIVE_ARRAY_DUMP:
+                    addPrimitiveArray();
+                    break;
+                default:
+                    skipHeapRecord(tag, reader);
+            }
+        }
+    }
+
+    private void addStringClass(LongIdClassDefinition cls) throws IOException {
+        int offset = 0;
+        for (InstanceField field : cls.getInstanceFields()) {
+            if (field.getType() == BasicType.OBJECT && "value".equals(strings.read(field.getFieldNameId().toLong(), in))) {
+                valueOffsets.put(cls.getObjectId(), offset);
+                return;
+            }
+            offset += idContext.sizeOf(field.getType());
+        }
+    }
+
+    private void addStringValue(long arrayId) {
+        if (stringCount == stringValues.length) {
+            stringValues = grow(stringValues);
+        }
+        stringValues[stringCount++] = arrayId;
+    }
+
+    private void addPrimitiveArray() throws IOException {
+        long objectId = idContext.readIdAsLong(in);
+        skip(in, U4_SIZE); // Stack trace serial
+        int length = readInt(in);
+        BasicType type = BasicType.fromType(in.read());
+        long offset = in.getPosition();
+        long hash = mix(mix(FNV_OFFSET, type.type), length);
+        long remaining = (long) length * idContext.sizeOf(type);
+        totalSize += remaining;
+        while (remaining > 0) {
+            int read = (int) Math.min(remaining, buffer.length);
+            readFully(buffer, read);
+            for (int i = 0; i < read; i++) {
+                hash = mix(hash, buffer[i] & 0xff);
+            }
+            remaining -= read;
+        }
+        if (count == ids.length) {
+            hashes = grow(hashes);
+            ids = grow(ids);
+            offsets = grow(offsets);
+            int[] grownLengths = new int[count * 2];
+            byte[] grownTypes = new byte[count * 2];
+            System.arraycopy(lengths, 0, grownLengths, 0, count);
+            System.arraycopy(types, 0, grownTypes, 0, count);
+            lengths = grownLengths;
+            types = grownTypes;
+        }
+        hashes[count] = hash;
+        ids[count] = objectId;
+        offsets[count] = offset;
+        lengths[count] = length;
+        types[count] = (byte) type.type;
+        count++;
+    }
+
+    private DuplicateReport createReport() throws IOException {
+        // Chain the arrays with the same hash, heads holds the last array with each hash
+        LongIntMap heads = new LongIntMap(count);
+        int[] next = new int[count];
+        for (int i = 0; i < count; i++) {
+            next[i] = heads.put(hashes[i], i);
+        }
+        List<long[]> groupIds = new ArrayList<long[]>();
+        List<Integer> groupArrays = new ArrayList<Integer>(); // The first array of each group
+        LongIntMap groupIndexes = new LongIntMap(); // Array id -> group, for counting the strings
+        List<Integer> members = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            if (next[i] == LongIntMap.NO_VALUE || heads.get(hashes[i]) != i) {
+                continue; // Not the head of a chain with duplicates
+            }
+            members.clear();
+            for (int member = i; member != LongIntMap.NO_VALUE; member = next[member]) {
+                members.add(member);
+            }
+            // All arrays in the chain are most likely equal, but it is only a hash
+            while (members.size() > 1) {
+                int first = members.get(members.size() - 1); // The first array in the file
+                List<Integer> equal = new ArrayList<Integer>();
+                for (int j = members.size() - 1; j >= 0; j--) {
+                    if (j == members.size() - 1 || isEqual(first, members.get(j))) {
+                        equal.add(members.remove(j));
+                    }
+                }
+                if (equal.size() > 1) {
+                    long[] objectIds = new long[equal.size()];
+                    for (int j = 0; j < objectIds.length; j++) {
+                        objectIds[j] = ids[equal.get(j)];
+                        groupIndexes.put(objectIds[j], groupIds.size());
+                    }
+                    groupIds.add(objectIds);
+                    groupArrays.add(first);
+                }
+            }
+        }
+        // Count the strings using each group
+        long[] groupStrings = new long[groupIds.size()];
+        for (int i = 0; i < stringCount; i++) {
+            int group = groupIndexes.get(stringValues[i]);
+            if (group != LongIntMap.NO_VALUE) {
+                groupStrings[group]++;
+            }
+        }
+        List<DuplicateReport.Group> groups = new ArrayList<DuplicateReport.Group>(groupIds.size());
+        for (int i = 0; i < groupIds.size(); i++) {
+            int array = groupArrays.get(i);
+            BasicType type = BasicType.fromType(types[array]);
+            // char[] is used by older versions of String and byte[] (Latin-1) by compact strings
+            boolean isText = type == BasicType.CHAR || (type == BasicType.BYTE && groupStrings[i] > 0);
+            groups.add(new DuplicateReport.Group(type, lengths[array], (long) lengths[array] * idContext.sizeOf(type), groupIds.get(i),
+                groupStrings[i], isText ? readPreview(array, type) : ""));
+        }
+        Collections.sort(groups, new Comparator<DuplicateReport.Group>() {
+            @Override
+            public int compare(DuplicateReport.Group a, DuplicateReport.Group b) {
+                if (a.getWastedSize() != b.getWastedSize()) {
+                    return a.getWastedSize() > b.getWastedSize() ? -1 : 1;
+                }
+                return a.getObjectIds()[0] < b.getObjectIds()[0] ? -1 : (a.getObjectIds()[0] == b.getObjectIds()[0] ? 0 : 1);
+            }
+        });
+        return new DuplicateReport(groups, count, totalSize);
+    }
+
+    private String readPreview(int array, BasicType type) throws IOException {
+        int length = Math.min(lengths[array], PREVIEW_LENGTH);
+        in.setPosition(offsets[array]);
+        byte[] data = StreamUtil.read(in, length * type.size);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            char c = type == BasicType.CHAR ? Chars.fromBytes(data[2 * i], data[2 * i + 1]) : (char) (data[i] & 0xff);
+            builder.append(Character.isISOControl(c) ? '.' : c);
+        }
+        return builder.toString();
+    }
+
+    private boolean isEqual(int a, int b) throws IOException {
+        if (types[a] != types[b] || lengths[a] != lengths[b]) {
+            return false;
+        }
+        long remaining = (long) lengths[a] * idContext.sizeOf(BasicType.fromType(types[a]));
+        long position = 0;
+        while (remaining > 0) {
+            int length = (int) Math.min(remaining, buffer.length);
+            in.setPosition(offsets[a] + position);
+            readFully(buffer, length);
+            in.setPosition(offsets[b] + position);
+            readFully(compareBuffer, length);
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] != compareBuffer[i]) {
+                    return false;
+                }
+            }
+            position += length;
+            remaining -= length;
+        }
+        return true;
+    }
+
+    private void readFully(byte[] data, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(data, read, length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+}
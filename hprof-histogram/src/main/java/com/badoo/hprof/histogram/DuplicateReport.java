@@ -0,0 +1,207 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.model.BasicType;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The primitive arrays of a HPROF file that have identical content, grouped by content (see DuplicateArrayProcessor). The wasted size of
+ * a group is the size of all arrays in the group except one, which is the memory that could be saved by sharing a single copy.
+ */
+public class DuplicateReport {
+
+    /**
+     * A group of primitive arrays with identical content.
+     */
+    public static class Group {
+
+        private final BasicType type;
+        private final int length;
+        private final long size;
+        private final long[] objectIds;
+        private final long stringCount;
+        private final String preview;
+
+        public Group(@Nonnull BasicType type, int length, long size, @Nonnull long[] objectIds, long stringCount, @Nonnull String preview) {
+            this.type = type;
+            this.length = length;
+            this.size = size;
+            this.objectIds = objectIds;
+            this.stringCount = stringCount;
+            this.preview = preview;
+        }
+
+        /**
+         * Returns the element type of the arrays.
+         */
+        @Nonnull
+        public BasicType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the number of elements in each array.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the size of each array in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the number of copies.
+         */
+        public int getCount() {
+            return objectIds.length;
+        }
+
+        /**
+         * Returns the size of all copies except one.
+         */
+        public long getWastedSize() {
+            return (objectIds.length - 1) * size;
+        }
+
+        /**
+         * Returns the ids of all copies (in file order).
+         */
+        @Nonnull
+        public long[] getObjectIds() {
+            return objectIds;
+        }
+
+        /**
+         * Returns the number of String instances using the copies as value.
+         */
+        public long getStringCount() {
+            return stringCount;
+        }
+
+        /**
+         * Returns the start of the content as text for char[] arrays and byte[] arrays used by strings (empty for other arrays).
+         */
+        @Nonnull
+        public String getPreview() {
+            return preview;
+        }
+
+        @Override
+        public String toString() {
+            return "Group{" +
+                    "type=" + type +
+                    ", length=" + length +
+                    ", count=" + objectIds.length +
+                    ", stringCount=" + stringCount +
+                    ", preview='" + preview + '\'' +
+                    '}';
+        }
+    }
+
+    private final List<Group> groups;
+    private final long arrayCount;
+    private final long arraySize;
+
+    DuplicateReport(@Nonnull List<Group> groups, long arrayCount, long arraySize) {
+        this.groups = groups;
+        this.arrayCount = arrayCount;
+        this.arraySize = arraySize;
+    }
+
+    /**
+     * Returns the groups of duplicated arrays, sorted by wasted size (largest first).
+     */
+    @Nonnull
+    public List<Group> getGroups() {
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * Returns the total number of primitive arrays.
+     */
+    public long getArrayCount() {
+        return arrayCount;
+    }
+
+    /**
+     * Returns the total size of all primitive arrays in bytes.
+     */
+    public long getArraySize() {
+        return arraySize;
+    }
+
+    /**
+     * Returns the number of arrays that are copies of other arrays.
+     */
+    public long getDuplicateCount() {
+        long count = 0;
+        for (Group group : groups) {
+            count += group.getCount() - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total wasted size of all groups.
+     */
+    public long getWastedSize() {
+        long size = 0;
+        for (Group group : groups) {
+            size += group.getWastedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Write the summary and the groups as a text table.
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of groups to write (0 for all)
+     */
+    public void writeText(@Nonnull PrintStream out, int top) {
+        out.printf("Primitive arrays:  %,d (%,d bytes)%n", arrayCount, arraySize);
+        out.printf("Duplicates:        %,d in %,d groups%n", getDuplicateCount(), groups.size());
+        out.printf("Wasted:            %,d bytes%n", getWastedSize());
+        out.println();
+        out.printf("%6s %8s %12s %15s %8s  %-10s %s%n", "#", "Copies", "Size", "Wasted", "Strings", "Type", "Content");
+        int count = getCount(top);
+        for (int i = 0; i < count; i++) {
+            Group group = groups.get(i);
+            String type = group.getType().name().toLowerCase() + "[" + group.getLength() + "]";
+            out.printf("%6d %,8d %,12d %,15d %,8d  %-10s %s%n", i + 1, group.getCount(), group.getSize(), group.getWastedSize(),
+                group.getStringCount(), type, group.getPreview());
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the groups as CSV (with a header line).
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of groups to write (0 for all)
+     */
+    public void writeCsv(@Nonnull PrintStream out, int top) {
+        out.println("type,length,copies,size,wasted_size,strings,first_object_id,content");
+        int count = getCount(top);
+        for (int i = 0; i < count; i++) {
+            Group group = groups.get(i);
+            out.println(group.getType().name().toLowerCase() + "[]," + group.getLength() + "," + group.getCount() + "," + group.getSize()
+                + "," + group.getWastedSize() + "," + group.getStringCount() + ",0x" + Long.toHexString(group.getObjectIds()[0]) + ","
+                + Histogram.escapeCsv(group.getPreview()));
+        }
+        out.flush();
+    }
+
+    private int getCount(int top) {
+        return top > 0 ? Math.min(top, groups.size()) : groups.size();
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.badoo.hprof.histogram;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Class level difference between two HPROF files (for example taken before and after running a scenario to find leaks): the change in
+ * instance count, shallow size and (optionally) retained size of each class. Classes are matched by name, since class ids are not the
+ * same in different dumps. Optionally includes an ObjectDiff listing the objects that are new in the second file.
+ * <p/>
+ * <pre>
+ *     HeapDiff diff = HeapDiff.create(HistogramProcessor.process(before), HistogramProcessor.process(after), null, null, null);
+ *     diff.writeText(System.out, 20);
+ * </pre>
+ */
+public class HeapDiff {
+
+    /**
+     * Returned by the retained size getters if the retained sizes were not computed
+     */
+    public static final long NOT_SET = -1;
+
+    /**
+     * The change of a class.
+     */
+    public static class Entry {
+
+        private final String name;
+        private long instancesBefore;
+        private long instancesAfter;
+        private long sizeBefore;
+        private long sizeAfter;
+        private long retainedSizeBefore = NOT_SET;
+        private long retainedSizeAfter = NOT_SET;
+
+        Entry(@Nonnull String name) {
+            this.name = name;
+        }
+
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        public long getInstancesBefore() {
+            return instancesBefore;
+        }
+
+        public long getInstancesAfter() {
+            return instancesAfter;
+        }
+
+        public long getInstanceChange() {
+            return instancesAfter - instancesBefore;
+        }
+
+        public long getShallowSizeBefore() {
+            return sizeBefore;
+        }
+
+        public long getShallowSizeAfter() {
+            return sizeAfter;
+        }
+
+        public long getShallowSizeChange() {
+            return sizeAfter - sizeBefore;
+        }
+
+        public long getRetainedSizeBefore() {
+            return retainedSizeBefore;
+        }
+
+        public long getRetainedSizeAfter() {
+            return retainedSizeAfter;
+        }
+
+        /**
+         * Returns the change in retained size or NOT_SET if the retained size is not known in both files.
+         */
+        public long getRetainedSizeChange() {
+            if (retainedSizeBefore == NOT_SET || retainedSizeAfter == NOT_SET) {
+                return NOT_SET;
+            }
+            return retainedSizeAfter - retainedSizeBefore;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", instancesBefore=" + instancesBefore +
+                    ", instancesAfter=" + instancesAfter +
+                    ", sizeBefore=" + sizeBefore +
+                    ", sizeAfter=" + sizeAfter +
+                    ", retainedSizeBefore=" + retainedSizeBefore +
+                    ", retainedSizeAfter=" + retainedSizeAfter +
+                    '}';
+        }
+    }
+
+    private final Histogram before;
+    private final Histogram after;
+    private final List<Entry> entries;
+    private final boolean hasRetainedSizes;
+    private final ObjectDiff objectDiff;
+
+    private HeapDiff(Histogram before, Histogram after, List<Entry> entries, boolean hasRetainedSizes, ObjectDiff objectDiff) {
+        this.before = before;
+        this.after = after;
+        this.entries = entries;
+        this.hasRetainedSizes = hasRetainedSizes;
+        this.objectDiff = objectDiff;
+    }
+
+    /**
+     * Compare the histograms of two files. Only classes that have changed are included.
+     *
+     * @param before         the histogram of the first file
+     * @param after          the histogram of the second file
+     * @param retainedBefore the retained sizes of the first file (see RetainedSizes) or null
+     * @param retainedAfter  the retained sizes of the second file or null
+     * @param objectDiff     the objects that are new in the second file or null
+     * @return the difference
+     */
+    @Nonnull
+    public static HeapDiff create(@Nonnull Histogram before, @Nonnull Histogram after, @Nullable Map<String, Long> retainedBefore,
+                                  @Nullable Map<String, Long> retainedAfter, @Nullable ObjectDiff objectDiff) {
+        Map<String, Entry> entries = new TreeMap<String, Entry>();
+        for (Histogram.Entry entry : before.getEntries()) {
+            Entry diff = getEntry(entries, entry.getName());
+            diff.instancesBefore += entry.getInstances();
+            diff.sizeBefore += entry.getShallowSize();
+        }
+        for (Histogram.Entry entry : after.getEntries()) {
+            Entry diff = getEntry(entries, entry.getName());
+            diff.instancesAfter += entry.getInstances();
+            diff.sizeAfter += entry.getShallowSize();
+        }
+        boolean hasRetainedSizes = retainedBefore != null && retainedAfter != null;
+        List<Entry> changed = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (hasRetainedSizes) {
+                Long retained = retainedBefore.get(entry.name);
+                entry.retainedSizeBefore = retained != null ? retained : (entry.instancesBefore == 0 ? 0 : NOT_SET);
+                retained = retainedAfter.get(entry.name);
+                entry.retainedSizeAfter = retained != null ? retained : (entry.instancesAfter == 0 ? 0 : NOT_SET);
+            }
+            if (entry.getInstanceChange() != 0 || entry.getShallowSizeChange() != 0
+                || (entry.getRetainedSizeChange() != NOT_SET && entry.getRetainedSizeChange() != 0)) {
+                changed.add(entry);
+            }
+        }
+        Collections.sort(changed, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                long changeA = Math.abs(a.getShallowSizeChange());
+                long changeB = Math.abs(b.getShallowSizeChange());
+                if (changeA != changeB) {
+                    return changeA > changeB ? -1 : 1;
+                }
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return new HeapDiff(before, after, changed, hasRetainedSizes, objectDiff);
+    }
+
+    private static Entry getEntry(Map<String, Entry> entries, String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(name);
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the classes that have changed, sorted by the (absolute) change in shallow size, largest first.
+     */
+    @Nonnull
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Nonnull
+    public Histogram getBefore() {
+        return before;
+    }
+
+    @Nonnull
+    public Histogram getAfter() {
+        return after;
+    }
+
+    /**
+     * Returns the objects that are new in the second file, or null if objects were not compared.
+     */
+    @Nullable
+    public ObjectDiff getObjectDiff() {
+        return objectDiff;
+    }
+
+    /**
+     * Write the summary, the changed classes and the new objects (if compared) as text.
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of classes and objects to write (0 for all)
+     */
+    public void writeText(@Nonnull PrintStream out, int top) {
+        out.printf("%-18s %18s %18s %18s%n", "", "Before", "After", "Change");
+        writeSummary(out, "File size:", before.getFileSize(), after.getFileSize());
+        writeSummary(out, "Classes:", before.getClassCount(), after.getClassCount());
+        writeSummary(out, "Instances:", before.getInstanceCount(), after.getInstanceCount());
+        writeSummary(out, "Instance size:", before.getInstanceSize(), after.getInstanceSize());
+        writeSummary(out, "Object arrays:", before.getObjectArrayCount(), after.getObjectArrayCount());
+        writeSummary(out, "Object array size:", before.getObjectArraySize(), after.getObjectArraySize());
+        writeSummary(out, "Primitive arrays:", before.getPrimitiveArrayCount(), after.getPrimitiveArrayCount());
+        writeSummary(out, "Primitive size:", before.getPrimitiveArraySize(), after.getPrimitiveArraySize());
+        writeSummary(out, "GC roots:", before.getGcRootCount(), after.getGcRootCount());
+        out.println();
+        if (hasRetainedSizes) {
+            out.printf("%6s %15s %12s %18s %15s %18s  %s%n", "#", "Instances", "Change", "Shallow size", "Change", "Retained change",
+                "Class");
+        }
+        else {
+            out.printf("%6s %15s %12s %18s %15s  %s%n", "#", "Instances", "Change", "Shallow size", "Change", "Class");
+        }
+        int count = getCount(top, entries.size());
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            if (hasRetainedSizes) {
+                long retained = entry.getRetainedSizeChange();
+                out.printf("%6d %,15d %+,12d %,18d %+,15d %18s  %s%n", i + 1, entry.getInstancesAfter(), entry.getInstanceChange(),
+                    entry.getShallowSizeAfter(), entry.getShallowSizeChange(), retained != NOT_SET ? String.format("%+,d", retained) : "-",
+                    entry.getName());
+            }
+            else {
+                out.printf("%6d %,15d %+,12d %,18d %+,15d  %s%n", i + 1, entry.getInstancesAfter(), entry.getInstanceChange(),
+                    entry.getShallowSizeAfter(), entry.getShallowSizeChange(), entry.getName());
+            }
+        }
+        if (objectDiff != null) {
+            out.println();
+            out.printf("New objects:       %,d (%,d objects not found in the second file)%n", objectDiff.getNewObjectCount(),
+                objectDiff.getRemovedObjectCount());
+            out.println();
+            out.printf("%6s %15s  %s%n", "#", "New objects", "Class");
+            List<String> classes = objectDiff.getNewObjectClasses();
+            count = getCount(top, classes.size());
+            for (int i = 0; i < count; i++) {
+                String name = classes.get(i);
+                out.printf("%6d %,15d  %s%n", i + 1, objectDiff.getNewObjectCounts().get(name), name);
+            }
+            out.println();
+            out.printf("%6s %18s  %s%n", "#", "Object id", "Class");
+            List<ObjectDiff.NewObject> objects = objectDiff.getNewObjects();
+            count = getCount(top, objects.size());
+            for (int i = 0; i < count; i++) {
+                ObjectDiff.NewObject object = objects.get(i);
+                out.printf("%6d %18s  %s%n", i + 1, "0x" + Long.toHexString(object.getObjectId()), object.getClassName());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the changed classes as CSV (with a header line). The retained sizes are empty if they are not known.
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of classes to write (0 for all)
+     */
+    public void writeCsv(@Nonnull PrintStream out, int top) {
+        out.println("class,instances_before,instances_after,shallow_size_before,shallow_size_after,"
+            + "retained_size_before,retained_size_after");
+        int count = getCount(top, entries.size());
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            out.println(Histogram.escapeCsv(entry.getName()) + "," + entry.getInstancesBefore() + "," + entry.getInstancesAfter() + ","
+                + entry.getShallowSizeBefore() + "," + entry.getShallowSizeAfter() + "," + toCsv(entry.getRetainedSizeBefore()) + ","
+                + toCsv(entry.getRetainedSizeAfter()));
+        }
+        out.flush();
+    }
+
+    private static void writeSummary(PrintStream out, String name, long before, long after) {
+        out.printf("%-18s %,18d %,18d %+,18d%n", name, before, after, after - before);
+    }
+
+    private static String toCsv(long value) {
+        return value != NOT_SET ? Long.toString(value) : "";
+    }
+
+    private static int getCount(int top, int size) {
+        return top > 0 ? Math.min(top, size) : size;
+    }
+
+}
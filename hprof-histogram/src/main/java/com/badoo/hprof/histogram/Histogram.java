@@ -0,0 +1,174 @@
+package com.badoo.hprof.histogram;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Class histogram of a HPROF file (the number of instances and the shallow size of each class) together with a summary of the content
+ * of the file. Object arrays are listed by array class and primitive arrays by type (for example "byte[]"). The entries are sorted by
+ * shallow size, largest first.
+ * <p/>
+ * Shallow sizes are the sizes of the instance field data and array elements as stored in the file, object headers are not included.
+ */
+public class Histogram {
+
+    /**
+     * The instance count and shallow size of a class.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final long instances;
+        private final long shallowSize;
+
+        public Entry(@Nonnull String name, long instances, long shallowSize) {
+            this.name = name;
+            this.instances = instances;
+            this.shallowSize = shallowSize;
+        }
+
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        public long getInstances() {
+            return instances;
+        }
+
+        public long getShallowSize() {
+            return shallowSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", instances=" + instances +
+                    ", shallowSize=" + shallowSize +
+                    '}';
+        }
+    }
+
+    // Set by HistogramProcessor
+    List<Entry> entries = Collections.emptyList();
+    long fileSize;
+    long classCount;
+    long instanceCount;
+    long instanceSize;
+    long objectArrayCount;
+    long objectArraySize;
+    long primitiveArrayCount;
+    long primitiveArraySize;
+    long gcRootCount;
+    long stringCount;
+
+    Histogram() {
+    }
+
+    /**
+     * Returns the histogram entries, sorted by shallow size (largest first).
+     */
+    @Nonnull
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Returns the number of CLASS_DUMP records.
+     */
+    public long getClassCount() {
+        return classCount;
+    }
+
+    public long getInstanceCount() {
+        return instanceCount;
+    }
+
+    public long getInstanceSize() {
+        return instanceSize;
+    }
+
+    public long getObjectArrayCount() {
+        return objectArrayCount;
+    }
+
+    public long getObjectArraySize() {
+        return objectArraySize;
+    }
+
+    public long getPrimitiveArrayCount() {
+        return primitiveArrayCount;
+    }
+
+    public long getPrimitiveArraySize() {
+        return primitiveArraySize;
+    }
+
+    public long getGcRootCount() {
+        return gcRootCount;
+    }
+
+    public long getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Write the summary and histogram as a text table.
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of entries to write (0 for all)
+     */
+    public void writeText(@Nonnull PrintStream out, int top) {
+        out.printf("File size:         %,d bytes%n", fileSize);
+        out.printf("Classes:           %,d%n", classCount);
+        out.printf("Instances:         %,d (%,d bytes)%n", instanceCount, instanceSize);
+        out.printf("Object arrays:     %,d (%,d bytes)%n", objectArrayCount, objectArraySize);
+        out.printf("Primitive arrays:  %,d (%,d bytes)%n", primitiveArrayCount, primitiveArraySize);
+        out.printf("GC roots:          %,d%n", gcRootCount);
+        out.printf("Strings:           %,d%n", stringCount);
+        out.println();
+        out.printf("%6s %15s %18s  %s%n", "#", "Instances", "Shallow size", "Class");
+        int count = getCount(top);
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            out.printf("%6d %,15d %,18d  %s%n", i + 1, entry.getInstances(), entry.getShallowSize(), entry.getName());
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the histogram as CSV (with a header line), for processing by other tools.
+     *
+     * @param out the stream to write to
+     * @param top the maximum number of entries to write (0 for all)
+     */
+    public void writeCsv(@Nonnull PrintStream out, int top) {
+        out.println("class,instances,shallow_size");
+        int count = getCount(top);
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            out.println(escapeCsv(entry.getName()) + "," + entry.getInstances() + "," + entry.getShallowSize());
+        }
+        out.flush();
+    }
+
+    private int getCount(int top) {
+        return top > 0 ? Math.min(top, entries.size()) : entries.size();
+    }
+
+    static String escapeCsv(String value) {
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.LongIntMap;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.readInt;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Creates a class Histogram in a single pass over a HPROF file. Only the counts and sizes of each class are kept (in primitive arrays),
+ * together with the file offsets of the STRING records (see StringOffsets) so that the class names can be read once the pass is done.
+ * The memory used depends on the number of classes and strings in the file but not on the number of objects, so very large dumps can be
+ * processed.
+ * <p/>
+ * <pre>
+ *     Histogram histogram = HistogramProcessor.process(hprofFile);
+ *     histogram.writeText(System.out, 20);
+ * </pre>
+ */
+public class HistogramProcessor extends DiscardProcessor {
+
+    private static final BasicType[] TYPES = BasicType.values();
+
+    private final MappedFileInputStream in;
+    private final HistogramHeapProcessor heapProcessor = new HistogramHeapProcessor();
+    private final Histogram histogram = new Histogram();
+    private final StringOffsets strings = new StringOffsets();
+    // Classes (of instances and object arrays), by class object id
+    private final LongIntMap classes = new LongIntMap();
+    private long[] classIds = new long[256];
+    private long[] classNameIds = new long[256];
+    private long[] classInstances = new long[256];
+    private long[] classSizes = new long[256];
+    private int classCount;
+    // Primitive arrays, by BasicType.ordinal()
+    private final long[] primitiveArrays = new long[TYPES.length];
+    private final long[] primitiveArraySizes = new long[TYPES.length];
+
+    private HistogramProcessor(@Nonnull MappedFileInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Create the class histogram of a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the histogram
+     * @throws IOException
+     */
+    @Nonnull
+    public static Histogram process(@Nonnull File hprofFile) throws IOException {
+        MappedFileInputStream in = new MappedFileInputStream(hprofFile);
+        try {
+            HistogramProcessor processor = new HistogramProcessor(in);
+            HprofReader reader = new HprofReader(in, processor);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return processor.createHistogram(in.getSize());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+        if (tag == Tag.STRING) {
+            int idSize = reader.getIdContext().getIdSize();
+            strings.add(reader.getIdContext().readIdAsLong(in), in.getPosition(), (int) (length - idSize));
+            skip(in, length - idSize);
+        }
+        else if (tag == Tag.LOAD_CLASS) {
+            IdContext idContext = reader.getIdContext();
+            skip(in, U4_SIZE); // Serial number
+            int slot = getClassSlot(idContext.readIdAsLong(in));
+            skip(in, U4_SIZE); // Stack trace serial
+            classNameIds[slot] = idContext.readIdAsLong(in);
+        }
+        else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+            HeapDumpReader heapReader = new HeapDumpReader(in, length, reader.getIdContext(), heapProcessor);
+            while (heapReader.hasNext()) {
+                heapReader.next();
+            }
+        }
+        else {
+            super.onRecord(tag, timestamp, length, reader);
+        }
+    }
+
+    private class HistogramHeapProcessor extends HeapDumpBaseProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            IdContext idContext = reader.getIdContext();
+            switch (tag) {
+                case HeapTag.INSTANCE_DUMP: {
+                    skip(in, idContext.getIdSize() + U4_SIZE); // Object id + stack trace serial
+                    int slot = getClassSlot(idContext.readIdAsLong(in));
+                    int size = readInt(in);
+                    skip(in, size);
+                    classInstances[slot]++;
+                    classSizes[slot] += size;
+                    histogram.instanceCount++;
+                    histogram.instanceSize += size;
+                    break;
+                }
+                case HeapTag.OBJECT_ARRAY_DUMP: {
+                    skip(in, idContext.getIdSize() + U4_SIZE); // Object id + stack trace serial
+                    int count = readInt(in);
+                    int slot = getClassSlot(idContext.readIdAsLong(in));
+                    long size = (long) count * idContext.getIdSize();
+                    skip(in, size);
+                    classInstances[slot]++;
+                    classSizes[slot] += size;
+                    histogram.objectArrayCount++;
+                    histogram.objectArraySize += size;
+                    break;
+                }
+                case HeapTag.PRIMITIVE_ARRAY_DUMP: {
+                    skip(in, idContext.getIdSize() + U4_SIZE); // Object id + stack trace serial
+                    int count = readInt(in);
+                    BasicType type = BasicType.fromType(in.read());
+                    long size = (long) count * idContext.sizeOf(type);
+                    skip(in, size);
+                    primitiveArrays[type.ordinal()]++;
+                    primitiveArraySizes[type.ordinal()] += size;
+                    histogram.primitiveArrayCount++;
+                    histogram.primitiveArraySize += size;
+                    break;
+                }
+                case HeapTag.CLASS_DUMP:
+                    histogram.classCount++;
+                    skipHeapRecord(tag, reader);
+                    break;
+                default:
+                    if (HeapTag.isGcRoot(tag)) {
+                        histogram.gcRootCount++;
+                    }
+                    skipHeapRecord(tag, reader);
+            }
+        }
+    }
+
+    private int getClassSlot(long classId) {
+        int slot = classes.putIfAbsent(classId, classCount);
+        if (slot != LongIntMap.NO_VALUE) {
+            return slot;
+        }
+        if (classCount == classIds.length) {
+            classIds = grow(classIds);
+            classNameIds = grow(classNameIds);
+            classInstances = grow(classInstances);
+            classSizes = grow(classSizes);
+        }
+        classIds[classCount] = classId;
+        return classCount++;
+    }
+
+    private Histogram createHistogram(long fileSize) throws IOException {
+        List<Histogram.Entry> entries = new ArrayList<Histogram.Entry>();
+        for (int i = 0; i < classCount; i++) {
+            if (classInstances[i] > 0) {
+                entries.add(new Histogram.Entry(getClassName(i), classInstances[i], classSizes[i]));
+            }
+        }
+        for (BasicType type : TYPES) {
+            if (primitiveArrays[type.ordinal()] > 0) {
+                entries.add(new Histogram.Entry(type.name().toLowerCase() + "[]", primitiveArrays[type.ordinal()],
+                    primitiveArraySizes[type.ordinal()]));
+            }
+        }
+        Collections.sort(entries, new Comparator<Histogram.Entry>() {
+            @Override
+            public int compare(Histogram.Entry a, Histogram.Entry b) {
+                if (a.getShallowSize() != b.getShallowSize()) {
+                    return a.getShallowSize() > b.getShallowSize() ? -1 : 1;
+                }
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        histogram.entries = entries;
+        histogram.stringCount = strings.size();
+        histogram.fileSize = fileSize;
+        return histogram;
+    }
+
+    private String getClassName(int slot) throws IOException {
+        String name = strings.read(classNameIds[slot], in);
+        return name != null ? name : "unknown class 0x" + Long.toHexString(classIds[slot]);
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.badoo.hprof.histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An application that prints the class histogram (number of instances and shallow size per class) and a summary of an HPROF file. The
+ * file is read in a single pass without loading any objects, so it can be used on very large dumps (for example as part of a CI job).
+ * <p/>
+ * With --diff the file is compared to an earlier HPROF file instead (see HeapDiff), --retained adds the change in retained size of each
+ * class and --objects N lists up to N objects that are new in the file (see ObjectDiff). With --duplicates the primitive arrays with
+ * identical content are listed instead (see DuplicateReport).
+ * <p/>
+ * Usage: HprofHistogram [--csv] [--top N] [--duplicates | --diff before.hprof [--retained] [--objects N]] file.hprof
+ */
+public class HprofHistogram {
+
+    public static void main(String[] args) {
+        boolean csv = false;
+        int top = 0;
+        String beforeFileName = null;
+        boolean retained = false;
+        boolean duplicates = false;
+        int objects = -1;
+        String fileName = "in.hprof";
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("--csv".equals(args[i])) {
+                csv = true;
+            }
+            else if ("--top".equals(args[i]) && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            }
+            else if ("--diff".equals(args[i]) && i + 1 < args.length) {
+                beforeFileName = args[++i];
+            }
+            else if ("--duplicates".equals(args[i])) {
+                duplicates = true;
+            }
+            else if ("--retained".equals(args[i])) {
+                retained = true;
+            }
+            else if ("--objects".equals(args[i]) && i + 1 < args.length) {
+                objects = Integer.parseInt(args[++i]);
+            }
+            else {
+                fileName = args[i];
+            }
+        }
+        try {
+            File file = new File(fileName);
+            if (duplicates) {
+                DuplicateReport report = DuplicateArrayProcessor.process(file);
+                if (csv) {
+                    report.writeCsv(System.out, top);
+                }
+                else {
+                    report.writeText(System.out, top);
+                }
+            }
+            else if (beforeFileName != null) {
+                File beforeFile = new File(beforeFileName);
+                Map<String, Long> retainedBefore = retained ? RetainedSizes.compute(beforeFile) : null;
+                Map<String, Long> retainedAfter = retained ? RetainedSizes.compute(file) : null;
+                ObjectDiff objectDiff = objects >= 0 ? ObjectDiff.compare(beforeFile, file, objects) : null;
+                HeapDiff diff = HeapDiff.create(HistogramProcessor.process(beforeFile), HistogramProcessor.process(file), retainedBefore,
+                    retainedAfter, objectDiff);
+                if (csv) {
+                    diff.writeCsv(System.out, top);
+                }
+                else {
+                    diff.writeText(System.out, top);
+                }
+            }
+            else {
+                Histogram histogram = HistogramProcessor.process(file);
+                if (csv) {
+                    histogram.writeCsv(System.out, top);
+                }
+                else {
+                    histogram.writeText(System.out, top);
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Failed to process " + fileName + ": " + e.getMessage());
+            e.printStackTrace(System.err);
+            throw new RuntimeException(e);
+        }
+    }
+
+}
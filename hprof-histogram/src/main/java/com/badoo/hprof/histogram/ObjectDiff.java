@@ -0,0 +1,204 @@
+package com.badoo.hprof.histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Object level difference between two HPROF files: the objects in the second file that have no matching object in the first file. Since
+ * object ids change when objects are moved by the garbage collector, objects are matched by class and content instead (see
+ * ObjectSignatureProcessor), each object in the first file can match one object in the second file.
+ * <p/>
+ * The signatures of both files are sorted on disk (see SignatureRuns) and then merged, so files that are larger than the heap can be
+ * compared.
+ * <p/>
+ * <pre>
+ *     ObjectDiff diff = ObjectDiff.compare(beforeFile, afterFile, 100);
+ *     for (ObjectDiff.NewObject object : diff.getNewObjects()) {
+ *         ...
+ *     }
+ * </pre>
+ */
+public class ObjectDiff {
+
+    /**
+     * An object in the second file without a matching object in the first file.
+     */
+    public static class NewObject {
+
+        private final long objectId;
+        private final String className;
+
+        public NewObject(long objectId, @Nonnull String className) {
+            this.objectId = objectId;
+            this.className = className;
+        }
+
+        /**
+         * Returns the id of the object in the second file.
+         */
+        public long getObjectId() {
+            return objectId;
+        }
+
+        @Nonnull
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public String toString() {
+            return "NewObject{" +
+                    "objectId=0x" + Long.toHexString(objectId) +
+                    ", className='" + className + '\'' +
+                    '}';
+        }
+    }
+
+    private final List<NewObject> newObjects = new ArrayList<NewObject>();
+    private final Map<String, Long> newObjectCounts = new HashMap<String, Long>();
+    private long newObjectCount;
+    private long removedObjectCount;
+
+    private ObjectDiff() {
+    }
+
+    /**
+     * Compare the objects of two HPROF files, using the default run size and temporary directory.
+     *
+     * @param before the first HPROF file
+     * @param after  the second HPROF file
+     * @param limit  the maximum number of new objects to list (all new objects are counted)
+     * @return the difference
+     * @throws IOException
+     */
+    @Nonnull
+    public static ObjectDiff compare(@Nonnull File before, @Nonnull File after, int limit) throws IOException {
+        return compare(before, after, limit, SignatureRuns.DEFAULT_RUN_SIZE, null);
+    }
+
+    /**
+     * Compare the objects of two HPROF files.
+     *
+     * @param before    the first HPROF file
+     * @param after     the second HPROF file
+     * @param limit     the maximum number of new objects to list (all new objects are counted)
+     * @param runSize   the number of objects to sort in memory (20 bytes each)
+     * @param directory the directory to create the temporary files in (or null for the default temporary directory)
+     * @return the difference
+     * @throws IOException
+     */
+    @Nonnull
+    public static ObjectDiff compare(@Nonnull File before, @Nonnull File after, int limit, int runSize, @Nullable File directory)
+        throws IOException {
+        SignatureRuns beforeRuns = new SignatureRuns(runSize, directory);
+        SignatureRuns afterRuns = new SignatureRuns(runSize, directory);
+        try {
+            ObjectSignatureProcessor.process(before, beforeRuns);
+            List<String> names = ObjectSignatureProcessor.process(after, afterRuns);
+            return merge(beforeRuns.open(), afterRuns.open(), names, limit);
+        }
+        finally {
+            beforeRuns.close();
+            afterRuns.close();
+        }
+    }
+
+    private static ObjectDiff merge(SignatureRuns.Cursor before, SignatureRuns.Cursor after, List<String> names, int limit)
+        throws IOException {
+        ObjectDiff diff = new ObjectDiff();
+        try {
+            boolean hasBefore = before.next();
+            while (after.next()) {
+                long signature = after.getSignature();
+                while (hasBefore && before.getSignature() < signature) {
+                    diff.removedObjectCount++;
+                    hasBefore = before.next();
+                }
+                if (hasBefore && before.getSignature() == signature) {
+                    hasBefore = before.next(); // Matched
+                }
+                else {
+                    diff.addNewObject(after.getObjectId(), names.get(after.getName()), limit);
+                }
+            }
+            while (hasBefore) {
+                diff.removedObjectCount++;
+                hasBefore = before.next();
+            }
+        }
+        finally {
+            before.close();
+            after.close();
+        }
+        return diff;
+    }
+
+    private void addNewObject(long objectId, String className, int limit) {
+        newObjectCount++;
+        Long count = newObjectCounts.get(className);
+        newObjectCounts.put(className, count == null ? 1 : count + 1);
+        if (newObjects.size() < limit) {
+            newObjects.add(new NewObject(objectId, className));
+        }
+    }
+
+    /**
+     * Returns the number of objects in the second file without a matching object in the first file.
+     */
+    public long getNewObjectCount() {
+        return newObjectCount;
+    }
+
+    /**
+     * Returns the number of objects in the first file without a matching object in the second file.
+     */
+    public long getRemovedObjectCount() {
+        return removedObjectCount;
+    }
+
+    /**
+     * Returns the new objects (up to the limit given when comparing), in signature order.
+     */
+    @Nonnull
+    public List<NewObject> getNewObjects() {
+        return Collections.unmodifiableList(newObjects);
+    }
+
+    /**
+     * Returns the number of new objects of each class.
+     */
+    @Nonnull
+    public Map<String, Long> getNewObjectCounts() {
+        return Collections.unmodifiableMap(newObjectCounts);
+    }
+
+    /**
+     * Returns the names of the classes with new objects, the class with the most new objects first.
+     */
+    @Nonnull
+    public List<String> getNewObjectClasses() {
+        List<String> classes = new ArrayList<String>(newObjectCounts.keySet());
+        Collections.sort(classes, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long countA = newObjectCounts.get(a);
+                long countB = newObjectCounts.get(b);
+                if (countA != countB) {
+                    return countA > countB ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        });
+        return classes;
+    }
+
+}
@@ -0,0 +1,282 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.LongIdClassDefinition;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.LongIntMap;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.readInt;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Computes a signature (a 64 bit hash) of each instance and array in a HPROF file, in a single pass. The signature is based on the class
+ * name and the content of the object but not on any object ids, so the same object has the same signature in two different dumps even
+ * if it has been moved by the garbage collector. References are only included as null or not null.
+ * <p/>
+ * The signatures are added to SignatureRuns, only the class definitions and the offsets of the strings are kept in memory.
+ */
+class ObjectSignatureProcessor extends DiscardProcessor {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int[] NO_REFERENCES = new int[0];
+
+    private final MappedFileInputStream in;
+    private final SignatureRuns runs;
+    private final SignatureHeapProcessor heapProcessor = new SignatureHeapProcessor();
+    private final StringOffsets strings = new StringOffsets();
+    private final Map<Long, LongIdClassDefinition> classes = new HashMap<Long, LongIdClassDefinition>();
+    private final Map<Long, int[]> referenceOffsets = new HashMap<Long, int[]>();
+    private final LongIntMap classNames = new LongIntMap(); // Class id -> name index
+    private final int[] primitiveArrayNames = new int[BasicType.values().length];
+    private final List<String> names = new ArrayList<String>();
+    private long[] nameHashes = new long[256];
+    private byte[] buffer = new byte[1024];
+
+    private ObjectSignatureProcessor(@Nonnull MappedFileInputStream in, @Nonnull SignatureRuns runs) {
+        this.in = in;
+        this.runs = runs;
+        for (BasicType type : BasicType.values()) {
+            primitiveArrayNames[type.ordinal()] = addName(type.name().toLowerCase() + "[]");
+        }
+    }
+
+    /**
+     * Add the signatures of all objects in a HPROF file to runs.
+     *
+     * @param hprofFile the HPROF file
+     * @param runs      the runs to add the signatures to
+     * @return the class names of the objects, the name of each signature is an index in this list
+     * @throws IOException
+     */
+    @Nonnull
+    static List<String> process(@Nonnull File hprofFile, @Nonnull SignatureRuns runs) throws IOException {
+        MappedFileInputStream in = new MappedFileInputStream(hprofFile);
+        try {
+            ObjectSignatureProcessor processor = new ObjectSignatureProcessor(in, runs);
+            HprofReader reader = new HprofReader(in, processor);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return processor.names;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+        if (tag == Tag.STRING) {
+            int idSize = reader.getIdContext().getIdSize();
+            strings.add(reader.getIdContext().readIdAsLong(in), in.getPosition(), (int) (length - idSize));
+            skip(in, length - idSize);
+        }
+        else if (tag == Tag.LOAD_CLASS) {
+            LongIdClassDefinition cls = reader.readLongIdLoadClassRecord();
+            classes.put(cls.getObjectId(), cls);
+            String name = strings.read(cls.getNameStringId(), in);
+            classNames.put(cls.getObjectId(), addName(name != null ? name : getUnknownClassName(cls.getObjectId())));
+        }
+        else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+            HeapDumpReader heapReader = new HeapDumpReader(in, length, reader.getIdContext(), heapProcessor);
+            while (heapReader.hasNext()) {
+                heapReader.next();
+            }
+        }
+        else {
+            super.onRecord(tag, timestamp, length, reader);
+        }
+    }
+
+    private class SignatureHeapProcessor extends HeapDumpBaseProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            switch (tag) {
+                case HeapTag.CLASS_DUMP: {
+                    long start = in.getPosition();
+                    boolean loaded = classes.containsKey(reader.readIdAsLong());
+                    in.setPosition(start);
+                    if (loaded) {
+                        reader.readLongIdClassDumpRecord(classes);
+                    }
+                    else {
+                        skipHeapRecord(tag, reader);
+                    }
+                    break;
+                }
+                case HeapTag.INSTANCE_DUMP:
+                    addInstance(reader.getIdContext());
+                    break;
+                case HeapTag.OBJECT_ARRAY_DUMP:
+                    addObjectArray(reader.getIdContext());
+                    break;
+                case HeapTag.PRIMITIVE_ARRAY_DUMP:
+                    addPrimitiveArray(reader.getIdContext());
+                    break;
+                default:
+                    skipHeapRecord(tag, reader);
+            }
+        }
+    }
+
+    private void addInstance(IdContext idContext) throws IOException {
+        long objectId = idContext.readIdAsLong(in);
+        skip(in, U4_SIZE); // Stack trace serial
+        long classId = idContext.readIdAsLong(in);
+        int length = readInt(in);
+        int name = getClassName(classId);
+        long hash = mix(nameHashes[name], length);
+        int[] references = getReferenceOffsets(classId, idContext);
+        byte[] data = read(length);
+        int idSize = idContext.getIdSize();
+        int next = 0; // Next reference
+        for (int i = 0; i < length; i++) {
+            if (next < references.length && references[next] == i && i + idSize <= length) {
+                boolean isNull = true;
+                for (int j = i; j < i + idSize; j++) {
+                    isNull &= data[j] == 0;
+                }
+                hash = mix(hash, isNull ? 0 : 1);
+                i += idSize - 1;
+                next++;
+            }
+            else {
+                hash = mix(hash, data[i] & 0xff);
+            }
+        }
+        runs.add(hash, objectId, name);
+    }
+
+    private void addObjectArray(IdContext idContext) throws IOException {
+        long objectId = idContext.readIdAsLong(in);
+        skip(in, U4_SIZE); // Stack trace serial
+        int count = readInt(in);
+        int name = getClassName(idContext.readIdAsLong(in));
+        long hash = mix(nameHashes[name], count);
+        for (int i = 0; i < count; i++) {
+            hash = mix(hash, idContext.readIdAsLong(in) == 0 ? 0 : 1);
+        }
+        runs.add(hash, objectId, name);
+    }
+
+    private void addPrimitiveArray(IdContext idContext) throws IOException {
+        long objectId = idContext.readIdAsLong(in);
+        skip(in, U4_SIZE); // Stack trace serial
+        int count = readInt(in);
+        BasicType type = BasicType.fromType(in.read());
+        int name = primitiveArrayNames[type.ordinal()];
+        long hash = mix(nameHashes[name], count);
+        long remaining = (long) count * idContext.sizeOf(type);
+        while (remaining > 0) {
+            int length = (int) Math.min(remaining, 1 << 16);
+            byte[] data = read(length);
+            for (int i = 0; i < length; i++) {
+                hash = mix(hash, data[i] & 0xff);
+            }
+            remaining -= length;
+        }
+        runs.add(hash, objectId, name);
+    }
+
+    private int getClassName(long classId) {
+        int name = classNames.get(classId);
+        if (name == LongIntMap.NO_VALUE) {
+            name = addName(getUnknownClassName(classId));
+            classNames.put(classId, name);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the offsets of the reference fields in the instance data of a class, or no offsets if the class dump of the class (or one
+     * of its super classes) has not been read.
+     */
+    private int[] getReferenceOffsets(long classId, IdContext idContext) {
+        int[] offsets = referenceOffsets.get(classId);
+        if (offsets != null) {
+            return offsets;
+        }
+        List<Integer> references = new ArrayList<Integer>();
+        int offset = 0;
+        LongIdClassDefinition cls = classes.get(classId);
+        while (cls != null) {
+            if (cls.getInstanceFields() == null) {
+                return NO_REFERENCES; // Not known yet
+            }
+            for (InstanceField field : cls.getInstanceFields()) {
+                if (field.getType() == BasicType.OBJECT) {
+                    references.add(offset);
+                }
+                offset += idContext.sizeOf(field.getType());
+            }
+            cls = classes.get(cls.getSuperClassObjectId());
+        }
+        offsets = new int[references.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = references.get(i);
+        }
+        referenceOffsets.put(classId, offsets);
+        return offsets;
+    }
+
+    private int addName(String name) {
+        int index = names.size();
+        if (index == nameHashes.length) {
+            long[] grown = new long[index * 2];
+            System.arraycopy(nameHashes, 0, grown, 0, index);
+            nameHashes = grown;
+        }
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < name.length(); i++) {
+            hash = mix(hash, name.charAt(i));
+        }
+        nameHashes[index] = hash;
+        names.add(name);
+        return index;
+    }
+
+    private byte[] read(int length) throws IOException {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        return buffer;
+    }
+
+    private static String getUnknownClassName(long classId) {
+        return "unknown class 0x" + Long.toHexString(classId);
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.graph.DominatorTree;
+import com.badoo.hprof.library.graph.ReferenceGraph;
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.index.HprofRandomAccessReader;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.HprofString;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Computes the retained size of each class in a HPROF file (see DominatorTree.getClassRetainedSize()). Unlike the histogram this needs
+ * the index and reference graph of the file (which are created next to the file if needed) and memory in proportion to the number of
+ * objects.
+ */
+public class RetainedSizes {
+
+    private RetainedSizes() {
+    }
+
+    /**
+     * Compute the retained sizes of the classes of a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the retained size of each class by name (classes with the same name are added together)
+     * @throws IOException
+     */
+    @Nonnull
+    public static Map<String, Long> compute(@Nonnull File hprofFile) throws IOException {
+        HprofIndex index = HprofIndex.load(hprofFile);
+        DominatorTree tree = DominatorTree.compute(ReferenceGraph.load(hprofFile, index));
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        HprofRandomAccessReader reader = new HprofRandomAccessReader(hprofFile, index);
+        try {
+            for (int i = 0; i < index.getClassCount(); i++) {
+                long classId = index.getClassId(i);
+                String name = getClassName(reader, classId);
+                Long size = sizes.get(name);
+                sizes.put(name, (size != null ? size : 0) + tree.getClassRetainedSize(classId));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return sizes;
+    }
+
+    private static String getClassName(HprofRandomAccessReader reader, long classId) throws IOException {
+        ClassDefinition cls = reader.readClass(classId);
+        HprofString name = cls != null ? reader.readString(cls.getNameStringId().toLong()) : null;
+        return name != null ? name.getValue() : "unknown class 0x" + Long.toHexString(classId);
+    }
+
+}
@@ -0,0 +1,269 @@
+package com.badoo.hprof.histogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A large number of object signatures (signature, object id and class name index) sorted by signature using an external merge sort.
+ * Signatures are collected in memory until runSize is reached, the collected signatures are then sorted and written to a temporary file
+ * (a run). Once all signatures have been added the runs are merged while reading them (see open()), so the memory used only depends on
+ * the run size and the number of runs.
+ */
+class SignatureRuns implements Closeable {
+
+    /**
+     * Default number of signatures per run (20 MB of memory)
+     */
+    static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File directory;
+    private final long[] signatures;
+    private final long[] objectIds;
+    private final int[] names;
+    private int count;
+    private final List<File> runFiles = new ArrayList<File>();
+    private final List<Integer> runCounts = new ArrayList<Integer>();
+    private long size;
+
+    /**
+     * @param runSize   the maximum number of signatures to sort in memory
+     * @param directory the directory to create the temporary run files in (or null for the default temporary directory)
+     */
+    SignatureRuns(int runSize, File directory) {
+        if (runSize <= 0) {
+            throw new IllegalArgumentException("Invalid run size " + runSize);
+        }
+        this.directory = directory;
+        signatures = new long[runSize];
+        objectIds = new long[runSize];
+        names = new int[runSize];
+    }
+
+    void add(long signature, long objectId, int name) throws IOException {
+        if (count == signatures.length) {
+            writeRun();
+        }
+        signatures[count] = signature;
+        objectIds[count] = objectId;
+        names[count] = name;
+        count++;
+        size++;
+    }
+
+    /**
+     * Returns the number of signatures added.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of runs written so far.
+     */
+    int getRunCount() {
+        return runFiles.size();
+    }
+
+    /**
+     * Write the signatures that are still in memory and merge all runs. Can only be called once.
+     *
+     * @return a cursor returning all signatures in ascending order
+     */
+    @Nonnull
+    Cursor open() throws IOException {
+        if (count > 0) {
+            writeRun();
+        }
+        return new Cursor(runFiles, runCounts);
+    }
+
+    /**
+     * Delete all run files.
+     */
+    @Override
+    public void close() {
+        for (File file : runFiles) {
+            file.delete();
+        }
+    }
+
+    private void writeRun() throws IOException {
+        sort(0, count - 1);
+        File file = File.createTempFile("signatures", ".run", directory);
+        file.deleteOnExit();
+        runFiles.add(file);
+        runCounts.add(count);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            for (int i = 0; i < count; i++) {
+                out.writeLong(signatures[i]);
+                out.writeLong(objectIds[i]);
+                out.writeInt(names[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+        count = 0;
+    }
+
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            // Quicksort with median of three pivot, recursing into the smaller part
+            int mid = (low + high) >>> 1;
+            if (signatures[mid] < signatures[low]) {
+                swap(mid, low);
+            }
+            if (signatures[high] < signatures[low]) {
+                swap(high, low);
+            }
+            if (signatures[high] < signatures[mid]) {
+                swap(high, mid);
+            }
+            long pivot = signatures[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (signatures[i] < pivot) {
+                    i++;
+                }
+                while (signatures[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            }
+            else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && signatures[j] < signatures[j - 1]; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        long signature = signatures[a];
+        signatures[a] = signatures[b];
+        signatures[b] = signature;
+        long objectId = objectIds[a];
+        objectIds[a] = objectIds[b];
+        objectIds[b] = objectId;
+        int name = names[a];
+        names[a] = names[b];
+        names[b] = name;
+    }
+
+    /**
+     * Reads the signatures of all runs in ascending order.
+     */
+    static class Cursor implements Closeable {
+
+        private final PriorityQueue<Run> queue;
+        private final List<Run> runs = new ArrayList<Run>();
+        private Run current;
+
+        private Cursor(List<File> files, List<Integer> counts) throws IOException {
+            queue = new PriorityQueue<Run>(Math.max(1, files.size()), new Comparator<Run>() {
+                @Override
+                public int compare(Run a, Run b) {
+                    return a.signature < b.signature ? -1 : (a.signature == b.signature ? 0 : 1);
+                }
+            });
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    Run run = new Run(files.get(i), counts.get(i));
+                    runs.add(run);
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+            }
+            catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Move to the next signature.
+         *
+         * @return false if there are no more signatures
+         */
+        boolean next() throws IOException {
+            if (current != null && current.next()) {
+                queue.add(current);
+            }
+            current = queue.poll();
+            return current != null;
+        }
+
+        long getSignature() {
+            return current.signature;
+        }
+
+        long getObjectId() {
+            return current.objectId;
+        }
+
+        int getName() {
+            return current.name;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Run run : runs) {
+                run.in.close();
+            }
+        }
+    }
+
+    private static class Run {
+
+        final DataInputStream in;
+        int remaining;
+        long signature;
+        long objectId;
+        int name;
+
+        Run(File file, int count) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            remaining = count;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            signature = in.readLong();
+            objectId = in.readLong();
+            name = in.readInt();
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.util.LongIntMap;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.badoo.hprof.library.util.StreamUtil.readString;
+
+/**
+ * The file offsets of the STRING records of a HPROF file, so that strings can be read when they are needed instead of keeping all of
+ * them in memory (12 bytes per string).
+ */
+class StringOffsets {
+
+    private final LongIntMap strings = new LongIntMap();
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int count;
+
+    /**
+     * Add a string.
+     *
+     * @param id     the string id
+     * @param offset the file offset of the string data (after the id)
+     * @param length the length of the string data in bytes
+     */
+    void add(long id, long offset, int length) {
+        if (count == offsets.length) {
+            long[] grownOffsets = new long[count * 2];
+            int[] grownLengths = new int[count * 2];
+            System.arraycopy(offsets, 0, grownOffsets, 0, count);
+            System.arraycopy(lengths, 0, grownLengths, 0, count);
+            offsets = grownOffsets;
+            lengths = grownLengths;
+        }
+        strings.put(id, count);
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    /**
+     * Returns the number of strings.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Read a string. The position of the stream is restored afterwards.
+     *
+     * @param id the string id
+     * @param in the stream of the HPROF file
+     * @return the string or null if there is no string with the id
+     */
+    @Nullable
+    String read(long id, @Nonnull MappedFileInputStream in) throws IOException {
+        int string = strings.get(id);
+        if (string == LongIntMap.NO_VALUE) {
+            return null;
+        }
+        long position = in.getPosition();
+        in.setPosition(offsets[string]);
+        String value = readString(in, lengths[string]);
+        in.setPosition(position);
+        return value;
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.HprofWriter;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapDumpWriter;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ConstantField;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.StaticField;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DuplicateArrayProcessorTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("duplicates", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void duplicatedByteArrays() throws IOException {
+        // Primitive array i is filled with (byte) i, so arrays i, i + 256 and i + 512 are equal
+        new HprofGenerator(new HprofGenerator.Config.Builder().instances(100).primitiveArrays(600).arrayLength(16).segments(2).build())
+            .generate(file);
+        DuplicateReport report = DuplicateArrayProcessor.process(file);
+        assertEquals(600, report.getArrayCount());
+        assertEquals(600 * 16, report.getArraySize());
+        assertEquals(256, report.getGroups().size());
+        assertEquals(600 - 256, report.getDuplicateCount());
+        assertEquals((600 - 256) * 16, report.getWastedSize());
+        for (int i = 0; i < report.getGroups().size(); i++) {
+            DuplicateReport.Group group = report.getGroups().get(i);
+            assertEquals(BasicType.BYTE, group.getType());
+            assertEquals(i < 88 ? 3 : 2, group.getCount()); // Largest waste first
+            assertEquals(0, group.getStringCount());
+            assertEquals("", group.getPreview());
+        }
+    }
+
+    @Test
+    public void duplicatedStrings() throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            HprofWriter writer = new HprofWriter(out);
+            writer.writeHprofFileHeader("JAVA PROFILE 1.0.3", 4, 0, 0);
+            writer.writeStringRecord(new HprofString(new ID(1), "java.lang.String", 0));
+            writer.writeStringRecord(new HprofString(new ID(2), "count", 0));
+            writer.writeStringRecord(new HprofString(new ID(3), "value", 0));
+            ClassDefinition cls = new ClassDefinition();
+            cls.setObjectId(new ID(100));
+            cls.setNameStringId(new ID(1));
+            cls.setSuperClassObjectId(new ID(0));
+            cls.setConstantFields(new ArrayList<ConstantField>());
+            cls.setStaticFields(new ArrayList<StaticField>());
+            cls.setInstanceFields(Arrays.asList(new InstanceField(BasicType.INT, new ID(2)),
+                new InstanceField(BasicType.OBJECT, new ID(3))));
+            cls.setInstanceSize(8);
+            writer.writeLoadClassRecord(cls);
+            ByteArrayOutputStream heap = new ByteArrayOutputStream();
+            HeapDumpWriter heapWriter = new HeapDumpWriter(heap, writer.getIdContext());
+            heapWriter.writeClassDumpRecord(cls);
+            writeCharArray(heapWriter, 1, "hello");
+            writeCharArray(heapWriter, 2, "world");
+            writeCharArray(heapWriter, 3, "hello");
+            writeString(heapWriter, 10, 1);
+            writeString(heapWriter, 11, 2);
+            writeString(heapWriter, 12, 3);
+            writeString(heapWriter, 13, 1);
+            writer.writeRecordHeader(Tag.HEAP_DUMP, 0, heap.size());
+            out.write(heap.toByteArray());
+            writer.writeRecordHeader(Tag.HEAP_DUMP_END, 0, 0);
+        }
+        finally {
+            out.close();
+        }
+        DuplicateReport report = DuplicateArrayProcessor.process(file);
+        assertEquals(3, report.getArrayCount());
+        assertEquals(1, report.getGroups().size());
+        DuplicateReport.Group group = report.getGroups().get(0);
+        assertEquals(BasicType.CHAR, group.getType());
+        assertEquals(5, group.getLength());
+        assertEquals(10, group.getWastedSize());
+        assertArrayEquals(new long[]{1, 3}, group.getObjectIds());
+        assertEquals(3, group.getStringCount());
+        assertEquals("hello", group.getPreview());
+    }
+
+    private static void writeCharArray(HeapDumpWriter writer, long id, String value) throws IOException {
+        writer.writePrimitiveArrayHeader(new ID(id), 0, BasicType.CHAR, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            StreamUtil.writeShort(writer.getOutputStream(), (short) value.charAt(i));
+        }
+    }
+
+    private static void writeString(HeapDumpWriter writer, long id, long valueId) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StreamUtil.writeInt(data, 5); // count
+        StreamUtil.writeInt(data, (int) valueId); // value
+        writer.writeInstanceDumpRecord(id, 0, 100, data.toByteArray());
+    }
+
+}
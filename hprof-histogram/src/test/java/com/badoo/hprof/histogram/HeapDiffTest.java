@@ -0,0 +1,98 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.graph.ReferenceGraph;
+import com.badoo.hprof.library.index.HprofIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeapDiffTest {
+
+    private File before;
+    private File after;
+
+    @Before
+    public void setUp() throws IOException {
+        before = File.createTempFile("before", ".hprof");
+        after = File.createTempFile("after", ".hprof");
+        generate(before, 400, 10);
+        generate(after, 600, 15);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : new File[]{before, after}) {
+            HprofIndex.getIndexFile(file).delete();
+            ReferenceGraph.getGraphFile(file).delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void classDiff() throws IOException {
+        HeapDiff diff = HeapDiff.create(HistogramProcessor.process(before), HistogramProcessor.process(after), null, null, null);
+        List<HeapDiff.Entry> entries = diff.getEntries();
+        assertEquals(4 + 1, entries.size()); // byte[] has not changed
+        for (HeapDiff.Entry entry : entries) {
+            if (entry.getName().equals("java.lang.Object[]")) {
+                assertEquals(10, entry.getInstancesBefore());
+                assertEquals(15, entry.getInstancesAfter());
+                assertEquals(5 * 16 * 4, entry.getShallowSizeChange());
+            }
+            else {
+                assertTrue(entry.getName(), entry.getName().startsWith("com.badoo.generated.Class"));
+                assertEquals(100, entry.getInstancesBefore());
+                assertEquals(50, entry.getInstanceChange());
+                assertEquals(50 * 12, entry.getShallowSizeChange());
+            }
+            assertEquals(HeapDiff.NOT_SET, entry.getRetainedSizeChange());
+        }
+        assertEquals("java.lang.Object[]", entries.get(entries.size() - 1).getName()); // Largest change first
+    }
+
+    @Test
+    public void retainedSizeDiff() throws IOException {
+        HeapDiff diff = HeapDiff.create(HistogramProcessor.process(before), HistogramProcessor.process(after),
+            RetainedSizes.compute(before), RetainedSizes.compute(after), null);
+        for (HeapDiff.Entry entry : diff.getEntries()) {
+            assertTrue(entry.getName(), entry.getRetainedSizeBefore() >= entry.getShallowSizeBefore());
+            assertTrue(entry.getName(), entry.getRetainedSizeAfter() >= entry.getShallowSizeAfter());
+        }
+    }
+
+    @Test
+    public void objectDiff() throws IOException {
+        // The last instance of the first chain no longer ends the chain, all instances after it are new
+        ObjectDiff diff = ObjectDiff.compare(before, after, 10, 50, null);
+        assertEquals(201 + 5, diff.getNewObjectCount());
+        assertEquals(1, diff.getRemovedObjectCount());
+        assertEquals(10, diff.getNewObjects().size());
+        assertEquals(Long.valueOf(5), diff.getNewObjectCounts().get("java.lang.Object[]"));
+        long instances = 0;
+        for (String name : diff.getNewObjectClasses()) {
+            if (name.startsWith("com.badoo.generated.Class")) {
+                instances += diff.getNewObjectCounts().get(name);
+            }
+        }
+        assertEquals(201, instances);
+        // The same file has no new objects
+        diff = ObjectDiff.compare(after, after, 10, 64, null);
+        assertEquals(0, diff.getNewObjectCount());
+        assertEquals(0, diff.getRemovedObjectCount());
+    }
+
+    private static void generate(File file, int instances, int objectArrays) throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().classes(4).instances(instances).objectArrays(objectArrays)
+            .primitiveArrays(10).shape(HprofGenerator.GraphShape.CHAIN).build()).generate(file);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.badoo.hprof.histogram;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramProcessorTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("histogram", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void histogram4ByteIds() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().classes(10).instances(1000).objectArrays(100).primitiveArrays(50)
+            .arrayLength(16).segments(3).build()).generate(file);
+        Histogram histogram = HistogramProcessor.process(file);
+        verify(histogram, 4, 10, 1000, 100, 50, 16);
+        assertEquals(file.length(), histogram.getFileSize());
+        assertEquals(13, histogram.getClassCount());
+        assertEquals(1 + 100 + 50, histogram.getGcRootCount());
+    }
+
+    @Test
+    public void histogram8ByteIds() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().idSize(8).classes(7).instances(700).objectArrays(20).primitiveArrays(30)
+            .arrayLength(5).build()).generate(file);
+        verify(HistogramProcessor.process(file), 8, 7, 700, 20, 30, 5);
+    }
+
+    @Test
+    public void writeCsv() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().classes(4).instances(40).objectArrays(1).primitiveArrays(2).arrayLength(100)
+            .build()).generate(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistogramProcessor.process(file).writeCsv(new PrintStream(out), 2);
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("class,instances,shallow_size", lines[0]);
+        assertEquals("java.lang.Object[],1,400", lines[1]);
+        assertEquals("byte[],2,200", lines[2]);
+    }
+
+    private void verify(Histogram histogram, int idSize, int classes, int instances, int objectArrays, int primitiveArrays,
+                        int arrayLength) {
+        int instanceSize = 2 * idSize + 4;
+        assertEquals(instances, histogram.getInstanceCount());
+        assertEquals((long) instances * instanceSize, histogram.getInstanceSize());
+        assertEquals(objectArrays, histogram.getObjectArrayCount());
+        assertEquals((long) objectArrays * arrayLength * idSize, histogram.getObjectArraySize());
+        assertEquals(primitiveArrays, histogram.getPrimitiveArrayCount());
+        assertEquals((long) primitiveArrays * arrayLength, histogram.getPrimitiveArraySize());
+        List<Histogram.Entry> entries = histogram.getEntries();
+        assertEquals(classes + 2, entries.size());
+        long previous = Long.MAX_VALUE;
+        long total = 0;
+        for (Histogram.Entry entry : entries) {
+            assertTrue(entry.getShallowSize() <= previous);
+            previous = entry.getShallowSize();
+            total += entry.getShallowSize();
+            if (entry.getName().equals("java.lang.Object[]")) {
+                assertEquals(objectArrays, entry.getInstances());
+            }
+            else if (entry.getName().equals("byte[]")) {
+                assertEquals(primitiveArrays, entry.getInstances());
+            }
+            else {
+                assertTrue(entry.getName(), entry.getName().startsWith("com.badoo.generated.Class"));
+                assertEquals(instances / classes, entry.getInstances());
+                assertEquals(instances / classes * instanceSize, entry.getShallowSize());
+            }
+        }
+        assertEquals(histogram.getInstanceSize() + histogram.getObjectArraySize() + histogram.getPrimitiveArraySize(), total);
+    }
+
+}
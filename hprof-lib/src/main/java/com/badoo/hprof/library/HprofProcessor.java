@@ -26,9 +26,10 @@ public interface HprofProcessor {
      *
      * @param tag       A tag indicating what type of record it is (See Tag)
      * @param timestamp Number of microseconds since the timestamp in the header
-     * @param length    Number of bytes in the record (excluding the record header)
+     * @param length    Number of bytes in the record (excluding the record header). Stored as an unsigned 32-bit value in the file, so it can
+     *                  be larger than Integer.MAX_VALUE for heap dumps that are not split into segments
      * @param reader    The reader from which the rest of the record can be read
      */
-    void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException;
+    void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException;
 
 }
@@ -1,9 +1,9 @@
 package com.badoo.hprof.library;
 
-import com.badoo.hprof.library.model.BasicType;
 import com.badoo.hprof.library.model.ClassDefinition;
 import com.badoo.hprof.library.model.HprofString;
 import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.LongIdClassDefinition;
 import com.badoo.hprof.library.model.StackFrame;
 import com.badoo.hprof.library.util.StreamUtil;
 
@@ -14,9 +14,7 @@ import java.io.InputStream;
 import javax.annotation.Nonnull;
 import javax.naming.OperationNotSupportedException;
 
-import static com.badoo.hprof.library.util.StreamUtil.ID_SIZE;
 import static com.badoo.hprof.library.util.StreamUtil.readByte;
-import static com.badoo.hprof.library.util.StreamUtil.readID;
 import static com.badoo.hprof.library.util.StreamUtil.readInt;
 import static com.badoo.hprof.library.util.StreamUtil.readString;
 
@@ -36,6 +34,13 @@ import static com.badoo.hprof.library.util.StreamUtil.readString;
  *         reader.next();
  *     }
  * </pre>
+ * <p>
+ * For large files, pass a MappedFileInputStream instead of a FileInputStream to read the data from a memory mapped file.
+ * </p>
+ * <p>
+ * The id size of the file is read from the file header and is available from getIdContext() (for creating HeapDumpReaders), each reader
+ * keeps its own id size so several files can be read at the same time.
+ * </p>
  * <p/>
  * Created by Erik Andre on 12/07/2014.
  */
@@ -45,6 +50,7 @@ public class HprofReader {
     private final HprofProcessor processor;
     private int readCount;
     private int nextTag;
+    private IdContext idContext;
 
     public HprofReader(@Nonnull InputStream in, @Nonnull HprofProcessor processor) {
         this.in = in;
@@ -88,6 +94,20 @@ public class HprofReader {
         return in;
     }
 
+    /**
+     * Returns the IdContext (id size) of the file being read.
+     *
+     * @return The IdContext
+     * @throws IllegalStateException if the file header has not been read yet
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        if (idContext == null) {
+            throw new IllegalStateException("The file header has not been read yet");
+        }
+        return idContext;
+    }
+
     /**
      * Read a LOAD_CLASS record and create a class definition for the loaded class.
      *
@@ -97,9 +117,9 @@ public class HprofReader {
     @Nonnull
     public ClassDefinition readLoadClassRecord() throws IOException {
         int serialNumber = readInt(in);
-        ID classObjectId = readID(in);
+        ID classObjectId = idContext.readId(in);
         int stackTraceSerial = readInt(in);
-        ID classNameStringId = readID(in);
+        ID classNameStringId = idContext.readId(in);
         ClassDefinition cls = new ClassDefinition();
         cls.setSerialNumber(serialNumber);
         cls.setObjectId(classObjectId);
@@ -108,6 +128,22 @@ public class HprofReader {
         return cls;
     }
 
+    /**
+     * Read a LOAD_CLASS record and create a class definition (with long ids) for the loaded class.
+     *
+     * @return A LongIdClassDefinition with some fields filled in (Serial number, class object id, stack trace serial & class name string id)
+     * @throws IOException
+     */
+    @Nonnull
+    public LongIdClassDefinition readLongIdLoadClassRecord() throws IOException {
+        LongIdClassDefinition cls = new LongIdClassDefinition();
+        cls.setSerialNumber(readInt(in));
+        cls.setObjectId(idContext.readIdAsLong(in));
+        cls.setStackTraceSerial(readInt(in));
+        cls.setNameStringId(idContext.readIdAsLong(in));
+        return cls;
+    }
+
     /**
      * Read a STRING record and create a HprofString based on its contents.
      *
@@ -117,9 +153,9 @@ public class HprofReader {
      * @throws IOException
      */
     @Nonnull
-    public HprofString readStringRecord(int recordLength, int timestamp) throws IOException {
-        ID id = readID(in);
-        String string = readString(in, recordLength - ID_SIZE);
+    public HprofString readStringRecord(long recordLength, int timestamp) throws IOException {
+        ID id = idContext.readId(in);
+        String string = readString(in, (int) (recordLength - idContext.getIdSize()));
         return new HprofString(id, string, timestamp);
     }
 
@@ -128,7 +164,7 @@ public class HprofReader {
 
     public StackFrame readStackFrame() throws IOException {
 
-        StackFrame stackFrame = new StackFrame(readID(in),readID(in), readID(in),readID(in),readInt(in),readInt(in));
+        StackFrame stackFrame = new StackFrame(idContext.readId(in), idContext.readId(in), idContext.readId(in), idContext.readId(in),readInt(in),readInt(in));
 
         return  stackFrame;
 
@@ -138,21 +174,14 @@ public class HprofReader {
     private void readRecord() throws IOException {
         int tagValue = nextTag;
         int time = readInt(in);
-        int size = readInt(in);
+        long size = readInt(in) & 0xffffffffL; // The length is unsigned
         processor.onRecord(tagValue, time, size, this);
     }
 
     private void readHprofFileHeader() throws IOException {
         String text = StreamUtil.readNullTerminatedString(in);
         int idSize = readInt(in);
-        // updating id size
-        StreamUtil.ID_SIZE = idSize;
-        BasicType.OBJECT.size=ID_SIZE;
-
-
-//        if (idSize != 4) { // Currently only 4-byte ids are supported
-//            throw new UnsupportedOperationException("Only hprof files with 4-byte ids can be read! This file has ids of " + idSize + " bytes");
-//        }
+        idContext = IdContext.forIdSize(idSize);
         int timeHigh = readInt(in);
         int timeLow = readInt(in);
         processor.onHeader(text, idSize, timeHigh, timeLow);
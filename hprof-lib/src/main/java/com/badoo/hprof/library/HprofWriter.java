@@ -8,10 +8,8 @@ import java.io.OutputStream;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.ID_SIZE;
 import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
 import static com.badoo.hprof.library.util.StreamUtil.write;
-import static com.badoo.hprof.library.util.StreamUtil.writeID;
 import static com.badoo.hprof.library.util.StreamUtil.writeInt;
 import static com.badoo.hprof.library.util.StreamUtil.writeNullTerminatedString;
 
@@ -26,16 +24,36 @@ import static com.badoo.hprof.library.util.StreamUtil.writeNullTerminatedString;
  *         // Write hprof records
  *     }
  * </pre>
+ * The id size given in the file header is used for all ids written (see getIdContext()). When writing records without a file header,
+ * use the constructor that takes an IdContext.
+ * <p/>
  * Created by Erik Andre on 13/07/2014.
  */
 public class HprofWriter {
 
+    /**
+     * Max length of a record (the length is stored as an unsigned 32-bit value)
+     */
+    public static final long MAX_RECORD_LENGTH = 0xffffffffL;
+
     private final OutputStream out;
+    private IdContext idContext;
 
     public HprofWriter(@Nonnull OutputStream out) {
         this.out = out;
     }
 
+    /**
+     * Creates a writer for records with a given id size, for when the file header is not written by this writer.
+     *
+     * @param out       The OutputStream to write to
+     * @param idContext The id size of the file
+     */
+    public HprofWriter(@Nonnull OutputStream out, @Nonnull IdContext idContext) {
+        this.out = out;
+        this.idContext = idContext;
+    }
+
     /**
      * Write the header that is present in the beginning of all hprof files.
      *
@@ -46,6 +64,7 @@ public class HprofWriter {
      * @throws IOException
      */
     public void writeHprofFileHeader(@Nonnull String text, int idSize, int timeHigh, int timeLow) throws IOException {
+        idContext = IdContext.forIdSize(idSize);
         writeNullTerminatedString(out, text);
         writeInt(out, idSize);
         writeInt(out, timeHigh);
@@ -57,13 +76,16 @@ public class HprofWriter {
      *
      * @param tag       The tag, see definitions in Tag
      * @param timestamp Timestamp for the record
-     * @param length    Length in bytes of the record (not including the header)
+     * @param length    Length in bytes of the record (not including the header), written as an unsigned 32-bit value
      * @throws IOException
      */
-    public void writeRecordHeader(int tag, int timestamp, int length) throws IOException {
+    public void writeRecordHeader(int tag, int timestamp, long length) throws IOException {
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("Invalid record length " + length);
+        }
         out.write(tag);
         writeInt(out, timestamp);
-        writeInt(out, length);
+        writeInt(out, (int) length);
     }
 
     /**
@@ -73,8 +95,9 @@ public class HprofWriter {
      */
     public void writeStringRecord(@Nonnull HprofString string) throws IOException {
         byte[] stringData = string.getValue().getBytes();
-        writeRecordHeader(Tag.STRING, string.getTimestamp(), stringData.length + ID_SIZE);
-        writeID(out, string.getId());
+        IdContext idContext = getIdContext();
+        writeRecordHeader(Tag.STRING, string.getTimestamp(), stringData.length + idContext.getIdSize());
+        idContext.writeId(out, string.getId());
         write(out, stringData);
     }
 
@@ -85,11 +108,26 @@ public class HprofWriter {
      * @throws IOException
      */
     public void writeLoadClassRecord(@Nonnull ClassDefinition cls) throws IOException {
-        writeRecordHeader(Tag.LOAD_CLASS, cls.getTimestamp(), 2 * (U4_SIZE + ID_SIZE));
+        IdContext idContext = getIdContext();
+        writeRecordHeader(Tag.LOAD_CLASS, cls.getTimestamp(), 2 * (U4_SIZE + idContext.getIdSize()));
         writeInt(out, cls.getSerialNumber());
-        writeID(out, cls.getObjectId());
+        idContext.writeId(out, cls.getObjectId());
         writeInt(out, cls.getStackTraceSerial());
-        writeID(out, cls.getNameStringId());
+        idContext.writeId(out, cls.getNameStringId());
+    }
+
+    /**
+     * Returns the IdContext (id size) used when writing ids.
+     *
+     * @return The IdContext
+     * @throws IllegalStateException if the file header has not been written and no IdContext was given when creating the writer
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        if (idContext == null) {
+            throw new IllegalStateException("The file header must be written before any records");
+        }
+        return idContext;
     }
 
     /**
@@ -0,0 +1,124 @@
+package com.badoo.hprof.library;
+
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the id size of a HPROF file (as given in the file header) and reads and writes ids of that size. Each HprofReader, HeapDumpReader,
+ * HprofWriter and HeapDumpWriter has its own IdContext so that files with different id sizes can be processed at the same time.
+ * <p/>
+ * <pre>
+ *     IdContext idContext = hprofReader.getIdContext(); // Available once the file header has been read
+ *     ID id = idContext.readId(in);
+ * </pre>
+ */
+public final class IdContext {
+
+    /**
+     * Context for files with 4 byte ids (Android and 32-bit JVMs)
+     */
+    public static final IdContext ID_4 = new IdContext(StreamUtil.U4_SIZE);
+
+    /**
+     * Context for files with 8 byte ids (64-bit JVMs)
+     */
+    public static final IdContext ID_8 = new IdContext(StreamUtil.U8_SIZE);
+
+    private final int idSize;
+
+    private IdContext(int idSize) {
+        this.idSize = idSize;
+    }
+
+    /**
+     * Returns the context for an id size.
+     *
+     * @param idSize the id size in bytes
+     * @return the context
+     */
+    @Nonnull
+    public static IdContext forIdSize(int idSize) {
+        switch (idSize) {
+            case StreamUtil.U4_SIZE:
+                return ID_4;
+            case StreamUtil.U8_SIZE:
+                return ID_8;
+            default:
+                if (idSize <= 0 || idSize > StreamUtil.U8_SIZE) {
+                    throw new IllegalArgumentException("Unsupported id size " + idSize);
+                }
+                return new IdContext(idSize);
+        }
+    }
+
+    /**
+     * Returns the size of all ids in bytes.
+     */
+    public int getIdSize() {
+        return idSize;
+    }
+
+    /**
+     * Returns the size in bytes of a field or array element of a basic type (the size of an OBJECT is the id size).
+     *
+     * @param type the type
+     * @return the size in bytes
+     */
+    public int sizeOf(@Nonnull BasicType type) {
+        return type == BasicType.OBJECT ? idSize : type.size;
+    }
+
+    /**
+     * Read an id.
+     *
+     * @param in the InputStream to read from
+     * @return the id
+     */
+    @Nonnull
+    public ID readId(@Nonnull InputStream in) throws IOException {
+        return new ID(StreamUtil.readIdAsLong(in, idSize), idSize);
+    }
+
+    /**
+     * Read an id without creating an ID object.
+     *
+     * @param in the InputStream to read from
+     * @return the id value
+     */
+    public long readIdAsLong(@Nonnull InputStream in) throws IOException {
+        return StreamUtil.readIdAsLong(in, idSize);
+    }
+
+    /**
+     * Write an id.
+     *
+     * @param out the OutputStream to write to
+     * @param id  the id, null is written as 0
+     */
+    public void writeId(@Nonnull OutputStream out, @Nullable ID id) throws IOException {
+        StreamUtil.writeID(out, id != null ? id.toLong() : 0, idSize);
+    }
+
+    /**
+     * Write an id.
+     *
+     * @param out the OutputStream to write to
+     * @param id  the id value
+     */
+    public void writeId(@Nonnull OutputStream out, long id) throws IOException {
+        StreamUtil.writeID(out, id, idSize);
+    }
+
+    @Override
+    public String toString() {
+        return "IdContext{idSize=" + idSize + '}';
+    }
+}
@@ -0,0 +1,456 @@
+package com.badoo.hprof.library.generator;
+
+import com.badoo.hprof.library.HprofWriter;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpWriter;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ConstantField;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.StaticField;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U1_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.U2_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+
+/**
+ * Generates synthetic (but valid) HPROF files of any size, for testing and benchmarking without having to store large heap dumps.
+ * <p/>
+ * The generated file contains:
+ * <p/>
+ * - A STRING and LOAD_CLASS record for java.lang.Object, java.lang.Object[], java.lang.Class and each generated class, followed by any number of
+ * additional STRING records.
+ * - One or more HEAP_DUMP_SEGMENT records (followed by a HEAP_DUMP_END record). The first segment starts with the class dumps and GC
+ * roots, the instances and arrays are spread evenly over all segments.
+ * <p/>
+ * All generated classes extend java.lang.Object and have the instance fields "left" and "right" (object references) and "value" (int).
+ * How the instances reference each other is decided by the GraphShape. Each object array references instances (picked at random) and
+ * each primitive array is a byte array. Instance 0 and all arrays are GC roots. The same Config always produces the same output.
+ * <p/>
+ * <p></p><h3>Usage</h3></p>
+ * <pre>
+ *     HprofGenerator.Config config = new HprofGenerator.Config.Builder().instances(10000000).segments(8).idSize(8).build();
+ *     new HprofGenerator(config).generate(file);
+ * </pre>
+ */
+public class HprofGenerator {
+
+    private static final String HEADER = "JAVA PROFILE 1.0.3";
+    private static final int RECORD_HEADER_SIZE = U1_SIZE + 2 * U4_SIZE;
+    private static final String[] FIELD_NAMES = {"left", "right", "value"};
+    // Classes written before the generated classes (java.lang.Class is required by MAT)
+    private static final String[] SYSTEM_CLASS_NAMES = {"java.lang.Object", "java.lang.Object[]", "java.lang.Class"};
+    private static final long OBJECT_ID_BASE = 0x100000;
+    // String ids are allocated from 1, class ids from CLASS_ID_BASE (below the object ids)
+    private static final long CLASS_ID_BASE = 0x80000;
+    // Number of generated classes whose ids fit between CLASS_ID_BASE and OBJECT_ID_BASE
+    private static final int MAX_CLASSES = (int) ((OBJECT_ID_BASE - CLASS_ID_BASE) / 8) - SYSTEM_CLASS_NAMES.length;
+
+    /**
+     * Describes how the generated instances reference each other.
+     */
+    public enum GraphShape {
+        /**
+         * Each instance references the next instance ("left") forming a single long chain
+         */
+        CHAIN,
+        /**
+         * The instances form a binary tree, instance i references instance 2i + 1 ("left") and 2i + 2 ("right")
+         */
+        TREE,
+        /**
+         * Each instance references two randomly selected instances
+         */
+        RANDOM
+    }
+
+    /**
+     * Configuration of the content of the generated HPROF file.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static class Config {
+
+        private final int classes;
+        private final long instances;
+        private final long objectArrays;
+        private final long primitiveArrays;
+        private final int arrayLength;
+        private final int strings;
+        private final int segments;
+        private final int idSize;
+        private final GraphShape shape;
+        private final long seed;
+
+        private Config(int classes, long instances, long objectArrays, long primitiveArrays, int arrayLength, int strings, int segments,
+                       int idSize, GraphShape shape, long seed) {
+            this.classes = classes;
+            this.instances = instances;
+            this.objectArrays = objectArrays;
+            this.primitiveArrays = primitiveArrays;
+            this.arrayLength = arrayLength;
+            this.strings = strings;
+            this.segments = segments;
+            this.idSize = idSize;
+            this.shape = shape;
+            this.seed = seed;
+        }
+
+        public static class Builder {
+
+            private int classes = 10;
+            private long instances = 1000;
+            private long objectArrays = 100;
+            private long primitiveArrays = 100;
+            private int arrayLength = 16;
+            private int strings = 100;
+            private int segments = 1;
+            private int idSize = U4_SIZE;
+            private GraphShape shape = GraphShape.TREE;
+            private long seed;
+
+            /**
+             * Sets the number of generated classes, at most 65533 (not including the system classes java.lang.Object, java.lang.Object[]
+             * and java.lang.Class)
+             */
+            public Builder classes(int classes) {
+                this.classes = classes;
+                return this;
+            }
+
+            /**
+             * Sets the number of instances, the instances are spread evenly over the generated classes
+             */
+            public Builder instances(long instances) {
+                this.instances = instances;
+                return this;
+            }
+
+            /**
+             * Sets the number of object arrays (java.lang.Object[])
+             */
+            public Builder objectArrays(long objectArrays) {
+                this.objectArrays = objectArrays;
+                return this;
+            }
+
+            /**
+             * Sets the number of primitive (byte) arrays
+             */
+            public Builder primitiveArrays(long primitiveArrays) {
+                this.primitiveArrays = primitiveArrays;
+                return this;
+            }
+
+            /**
+             * Sets the length of all object and primitive arrays
+             */
+            public Builder arrayLength(int arrayLength) {
+                this.arrayLength = arrayLength;
+                return this;
+            }
+
+            /**
+             * Sets the number of STRING records to write in addition to the class and field names
+             */
+            public Builder strings(int strings) {
+                this.strings = strings;
+                return this;
+            }
+
+            /**
+             * Sets the number of HEAP_DUMP_SEGMENT records that the heap dump is split into
+             */
+            public Builder segments(int segments) {
+                this.segments = segments;
+                return this;
+            }
+
+            /**
+             * Sets the size of all ids (4 or 8 bytes)
+             */
+            public Builder idSize(int idSize) {
+                this.idSize = idSize;
+                return this;
+            }
+
+            /**
+             * Sets how the instances reference each other
+             */
+            public Builder shape(@Nonnull GraphShape shape) {
+                this.shape = shape;
+                return this;
+            }
+
+            /**
+             * Sets the seed used for all random data (references of object arrays and RANDOM graphs)
+             */
+            public Builder seed(long seed) {
+                this.seed = seed;
+                return this;
+            }
+
+            public Config build() {
+                if (idSize != U4_SIZE && idSize != StreamUtil.U8_SIZE) {
+                    throw new IllegalArgumentException("Invalid id size " + idSize);
+                }
+                if (classes < 1 || instances < 1 || objectArrays < 0 || primitiveArrays < 0 || arrayLength < 0 || strings < 0) {
+                    throw new IllegalArgumentException("Invalid object counts");
+                }
+                if (classes > MAX_CLASSES) {
+                    throw new IllegalArgumentException("Too many classes " + classes + ", at most " + MAX_CLASSES + " are supported");
+                }
+                if (segments < 1 || segments > instances) {
+                    throw new IllegalArgumentException("Invalid segment count " + segments);
+                }
+                Config config = new Config(classes, instances, objectArrays, primitiveArrays, arrayLength, strings, segments, idSize, shape, seed);
+                long lastObjectId = config.getObjectId(instances + objectArrays + primitiveArrays);
+                if (idSize == U4_SIZE && lastObjectId > 0xffffffffL) {
+                    throw new IllegalArgumentException("Too many objects for 4 byte ids");
+                }
+                for (int i = 0; i < segments; i++) {
+                    if (config.getSegmentLength(i) > HprofWriter.MAX_RECORD_LENGTH) {
+                        throw new IllegalArgumentException("Heap dump segment too large, increase the number of segments");
+                    }
+                }
+                return config;
+            }
+        }
+
+        /**
+         * Returns the total size of the generated HPROF file in bytes.
+         */
+        public long getFileSize() {
+            long size = HEADER.length() + 1 + 3 * U4_SIZE;
+            for (int i = 0; i < classes + SYSTEM_CLASS_NAMES.length; i++) {
+                size += RECORD_HEADER_SIZE + idSize + getClassName(i).getBytes().length; // STRING
+                size += RECORD_HEADER_SIZE + 2 * (U4_SIZE + idSize); // LOAD_CLASS
+            }
+            for (int i = 0; i < FIELD_NAMES.length; i++) {
+                size += RECORD_HEADER_SIZE + idSize + FIELD_NAMES[i].getBytes().length;
+            }
+            for (int i = 0; i < strings; i++) {
+                size += RECORD_HEADER_SIZE + idSize + getExtraString(i).getBytes().length;
+            }
+            for (int i = 0; i < segments; i++) {
+                size += RECORD_HEADER_SIZE + getSegmentLength(i);
+            }
+            return size + RECORD_HEADER_SIZE; // HEAP_DUMP_END
+        }
+
+        /**
+         * Returns the number of objects (instances, object arrays and primitive arrays).
+         */
+        public long getObjectCount() {
+            return instances + objectArrays + primitiveArrays;
+        }
+
+        long getSegmentLength(int segment) {
+            long length = 0;
+            if (segment == 0) {
+                long classDumpSize = U1_SIZE + idSize + U4_SIZE + 6 * idSize + U4_SIZE + 3 * U2_SIZE;
+                length += SYSTEM_CLASS_NAMES.length * classDumpSize; // The system classes have no fields
+                length += classes * (classDumpSize + FIELD_NAMES.length * (idSize + U1_SIZE));
+                length += (1 + objectArrays + primitiveArrays) * (U1_SIZE + idSize); // Roots
+            }
+            length += (getSegmentStart(instances, segment + 1) - getSegmentStart(instances, segment))
+                * (U1_SIZE + 2 * idSize + 2 * U4_SIZE + getInstanceDataSize());
+            length += (getSegmentStart(objectArrays, segment + 1) - getSegmentStart(objectArrays, segment))
+                * (U1_SIZE + 2 * idSize + 2 * U4_SIZE + (long) arrayLength * idSize);
+            length += (getSegmentStart(primitiveArrays, segment + 1) - getSegmentStart(primitiveArrays, segment))
+                * (U1_SIZE + idSize + 2 * U4_SIZE + U1_SIZE + arrayLength);
+            return length;
+        }
+
+        long getSegmentStart(long count, int segment) {
+            return count * segment / segments;
+        }
+
+        int getInstanceDataSize() {
+            return 2 * idSize + U4_SIZE;
+        }
+
+        /**
+         * Object id of an instance or array, instances come first followed by the object arrays and then the primitive arrays.
+         */
+        long getObjectId(long index) {
+            // Use aligned "addresses" above 4 GB for 8 byte ids so that they don't fit in an int
+            long base = idSize == U4_SIZE ? OBJECT_ID_BASE : (1L << 32);
+            return base + index * 8;
+        }
+    }
+
+    private final Config config;
+
+    public HprofGenerator(@Nonnull Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Generate a HPROF file.
+     *
+     * @param file the file to write to
+     * @throws IOException
+     */
+    public void generate(@Nonnull File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        try {
+            generate(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generate HPROF data and write it to an OutputStream.
+     *
+     * @param out the output
+     * @throws IOException
+     */
+    public void generate(@Nonnull OutputStream out) throws IOException {
+        final int idSize = config.idSize;
+        HprofWriter writer = new HprofWriter(out);
+        writer.writeHprofFileHeader(HEADER, idSize, 0, 0);
+        // Strings and classes
+        long nextStringId = 1;
+        int classCount = config.classes + SYSTEM_CLASS_NAMES.length;
+        ClassDefinition[] classes = new ClassDefinition[classCount];
+        for (int i = 0; i < classCount; i++) {
+            ID nameId = new ID(nextStringId++);
+            writer.writeStringRecord(new HprofString(nameId, getClassName(i), 0));
+            ClassDefinition cls = new ClassDefinition();
+            cls.setSerialNumber(i + 1);
+            cls.setObjectId(new ID(getClassId(i)));
+            cls.setNameStringId(nameId);
+            cls.setSuperClassObjectId(new ID(i == 0 ? 0 : getClassId(0)));
+            cls.setConstantFields(new ArrayList<ConstantField>());
+            cls.setStaticFields(new ArrayList<StaticField>());
+            cls.setInstanceFields(new ArrayList<InstanceField>());
+            writer.writeLoadClassRecord(cls);
+            classes[i] = cls;
+        }
+        InstanceField[] fields = new InstanceField[FIELD_NAMES.length];
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            ID nameId = new ID(nextStringId++);
+            writer.writeStringRecord(new HprofString(nameId, FIELD_NAMES[i], 0));
+            fields[i] = new InstanceField(i < 2 ? BasicType.OBJECT : BasicType.INT, nameId);
+        }
+        for (int i = SYSTEM_CLASS_NAMES.length; i < classCount; i++) {
+            classes[i].setInstanceFields(Arrays.asList(fields));
+            classes[i].setInstanceSize(config.getInstanceDataSize());
+        }
+        for (int i = 0; i < config.strings; i++) {
+            writer.writeStringRecord(new HprofString(new ID(nextStringId++), getExtraString(i), 0));
+        }
+        // Heap dump
+        Random random = new Random(config.seed);
+        HeapDumpWriter heapWriter = new HeapDumpWriter(out, writer.getIdContext());
+        byte[] instanceData = new byte[config.getInstanceDataSize()];
+        long[] elements = new long[config.arrayLength];
+        byte[] primitiveData = new byte[config.arrayLength];
+        for (int segment = 0; segment < config.segments; segment++) {
+            writer.writeRecordHeader(Tag.HEAP_DUMP_SEGMENT, 0, config.getSegmentLength(segment));
+            if (segment == 0) {
+                for (ClassDefinition cls : classes) {
+                    heapWriter.writeClassDumpRecord(cls);
+                }
+                heapWriter.writeUnknownRoot(new ID(config.getObjectId(0)));
+                for (long i = config.instances; i < config.getObjectCount(); i++) {
+                    heapWriter.writeUnknownRoot(new ID(config.getObjectId(i)));
+                }
+            }
+            for (long i = config.getSegmentStart(config.instances, segment); i < config.getSegmentStart(config.instances, segment + 1); i++) {
+                long classId = getClassId(SYSTEM_CLASS_NAMES.length + (int) (i % config.classes));
+                writeInstanceData(instanceData, i, random);
+                heapWriter.writeInstanceDumpRecord(config.getObjectId(i), 0, classId, instanceData);
+            }
+            for (long i = config.getSegmentStart(config.objectArrays, segment); i < config.getSegmentStart(config.objectArrays, segment + 1); i++) {
+                for (int j = 0; j < elements.length; j++) {
+                    elements[j] = config.getObjectId(nextLong(random, config.instances));
+                }
+                heapWriter.writeObjectArray(config.getObjectId(config.instances + i), 0, getClassId(1), elements);
+            }
+            long primitiveStart = config.instances + config.objectArrays;
+            for (long i = config.getSegmentStart(config.primitiveArrays, segment); i < config.getSegmentStart(config.primitiveArrays, segment + 1); i++) {
+                Arrays.fill(primitiveData, (byte) i);
+                heapWriter.writePrimitiveArrayHeader(new ID(config.getObjectId(primitiveStart + i)), 0, BasicType.BYTE, primitiveData.length);
+                StreamUtil.write(out, primitiveData);
+            }
+        }
+        writer.writeRecordHeader(Tag.HEAP_DUMP_END, 0, 0);
+        out.flush();
+    }
+
+    private void writeInstanceData(byte[] data, long index, Random random) {
+        long left = 0;
+        long right = 0;
+        switch (config.shape) {
+            case CHAIN:
+                left = index + 1 < config.instances ? config.getObjectId(index + 1) : 0;
+                break;
+            case TREE:
+                left = 2 * index + 1 < config.instances ? config.getObjectId(2 * index + 1) : 0;
+                right = 2 * index + 2 < config.instances ? config.getObjectId(2 * index + 2) : 0;
+                break;
+            case RANDOM:
+                left = config.getObjectId(nextLong(random, config.instances));
+                right = config.getObjectId(nextLong(random, config.instances));
+                break;
+        }
+        int pos = putId(data, 0, left);
+        pos = putId(data, pos, right);
+        putInt(data, pos, (int) index);
+    }
+
+    private int putId(byte[] data, int pos, long id) {
+        if (config.idSize == U4_SIZE) {
+            return putInt(data, pos, (int) id);
+        }
+        putInt(data, pos, (int) (id >>> 32));
+        return putInt(data, pos + U4_SIZE, (int) id);
+    }
+
+    private static int putInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+        return pos + U4_SIZE;
+    }
+
+    private static long nextLong(Random random, long bound) {
+        if (bound <= Integer.MAX_VALUE) {
+            return random.nextInt((int) bound);
+        }
+        return (random.nextLong() & Long.MAX_VALUE) % bound;
+    }
+
+    private static long getClassId(int index) {
+        return CLASS_ID_BASE + index * 8;
+    }
+
+    private static String getClassName(int index) {
+        if (index < SYSTEM_CLASS_NAMES.length) {
+            return SYSTEM_CLASS_NAMES[index];
+        }
+        return "com.badoo.generated.Class" + (index - SYSTEM_CLASS_NAMES.length);
+    }
+
+    private static String getExtraString(int index) {
+        return "generated string " + index;
+    }
+}
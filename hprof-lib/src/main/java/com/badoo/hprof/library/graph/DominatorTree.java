@@ -0,0 +1,305 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.index.HprofIndex;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Dominator tree and retained sizes of the objects in a ReferenceGraph. Object A dominates object B if every path from a GC root to B
+ * goes through A, the retained size of A is the total shallow size of all objects dominated by A (including A itself), which is the
+ * amount of memory that would be freed if A was garbage collected.
+ * <p/>
+ * The tree is computed with the Lengauer-Tarjan algorithm (with path compression), using a virtual root node that references all GC
+ * roots. Only int and long arrays are used (about 50 bytes per object on top of the graph) and all traversals are iterative, so very
+ * large graphs can be processed.
+ * <p/>
+ * <pre>
+ *     DominatorTree tree = DominatorTree.compute(graph);
+ *     long retained = tree.getRetainedSize(graph.getNode(objectId));
+ * </pre>
+ */
+public class DominatorTree {
+
+    /**
+     * Returned by getImmediateDominator() for objects that are only dominated by the (virtual) root, such as the GC roots themselves
+     */
+    public static final int ROOT = -1;
+
+    /**
+     * Returned by getImmediateDominator() for objects that cannot be reached from any GC root
+     */
+    public static final int UNREACHABLE = -2;
+
+    private final ReferenceGraph graph;
+    private final int[] dominators;
+    private final long[] retainedSizes;
+    private long[] classRetainedSizes;
+
+    private DominatorTree(ReferenceGraph graph, int[] dominators, long[] retainedSizes) {
+        this.graph = graph;
+        this.dominators = dominators;
+        this.retainedSizes = retainedSizes;
+    }
+
+    /**
+     * Compute the dominator tree of a graph.
+     *
+     * @param graph the graph
+     * @return the dominator tree
+     */
+    @Nonnull
+    public static DominatorTree compute(@Nonnull ReferenceGraph graph) {
+        int nodeCount = graph.getNodeCount();
+        int root = nodeCount; // The virtual root
+        // Depth first search from the virtual root, numbering the reachable nodes in pre-order (starting from 1, 0 means not visited)
+        int[] number = new int[nodeCount + 1];
+        int[] vertex = new int[nodeCount + 2]; // Number to node
+        int[] parent = new int[nodeCount + 2]; // Number of the parent in the DFS tree (by number)
+        int[] stack = new int[nodeCount + 1];
+        int count = depthFirstSearch(graph, number, vertex, parent, stack);
+        boolean[] isRoot = new boolean[nodeCount];
+        for (int i = 0; i < graph.getRootCount(); i++) {
+            isRoot[graph.getRoot(i)] = true;
+        }
+        // Everything below is indexed by number
+        int[] semi = new int[count + 1];
+        int[] label = new int[count + 1];
+        int[] ancestor = new int[count + 1];
+        int[] idom = new int[count + 1];
+        int[] bucket = new int[count + 1]; // Head of the bucket list of each node
+        int[] nextInBucket = new int[count + 1];
+        for (int i = 1; i <= count; i++) {
+            semi[i] = i;
+            label[i] = i;
+        }
+        ReferenceGraph referrers = graph.reverse();
+        for (int w = count; w >= 2; w--) {
+            int node = vertex[w];
+            // Semi-dominator, the virtual root (number 1) is the only referrer of the GC roots that is not in the graph
+            if (isRoot[node]) {
+                semi[w] = 1;
+            }
+            for (int i = 0; i < referrers.getReferenceCount(node); i++) {
+                int v = number[referrers.getReference(node, i)];
+                if (v != 0) {
+                    int u = eval(v, ancestor, semi, label, stack);
+                    if (semi[u] < semi[w]) {
+                        semi[w] = semi[u];
+                    }
+                }
+            }
+            nextInBucket[w] = bucket[semi[w]];
+            bucket[semi[w]] = w;
+            int p = parent[w];
+            ancestor[w] = p; // Link
+            // Implicitly define the immediate dominators of the nodes in the bucket of the parent
+            for (int v = bucket[p]; v != 0; v = nextInBucket[v]) {
+                int u = eval(v, ancestor, semi, label, stack);
+                idom[v] = semi[u] < semi[v] ? u : p;
+            }
+            bucket[p] = 0;
+        }
+        for (int w = 2; w <= count; w++) {
+            if (idom[w] != semi[w]) {
+                idom[w] = idom[idom[w]];
+            }
+        }
+        // Convert to nodes and sum up the retained sizes, children always have higher numbers than their dominators
+        int[] dominators = new int[nodeCount];
+        long[] retainedSizes = new long[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            dominators[i] = UNREACHABLE;
+        }
+        for (int w = count; w >= 2; w--) {
+            int node = vertex[w];
+            int dominator = vertex[idom[w]];
+            retainedSizes[node] += graph.getShallowSize(node);
+            if (dominator == root) {
+                dominators[node] = ROOT;
+            }
+            else {
+                dominators[node] = dominator;
+                retainedSizes[dominator] += retainedSizes[node];
+            }
+        }
+        return new DominatorTree(graph, dominators, retainedSizes);
+    }
+
+    /**
+     * Returns the graph that the tree was computed from.
+     */
+    @Nonnull
+    public ReferenceGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the immediate dominator of a node.
+     *
+     * @return the dominating node, ROOT or UNREACHABLE
+     */
+    public int getImmediateDominator(int node) {
+        return dominators[node];
+    }
+
+    /**
+     * Returns true if the node can be reached from a GC root.
+     */
+    public boolean isReachable(int node) {
+        return dominators[node] != UNREACHABLE;
+    }
+
+    /**
+     * Returns the retained size of a node in bytes (0 for objects that cannot be reached from any GC root).
+     */
+    public long getRetainedSize(int node) {
+        return retainedSizes[node];
+    }
+
+    /**
+     * Returns the retained size of all instances (and object arrays) of a class. Instances that are dominated by other instances of the
+     * same class are only counted once.
+     *
+     * @param classId the class id
+     * @return the retained size in bytes or 0 if there is no such class
+     */
+    public long getClassRetainedSize(long classId) {
+        int position = graph.getIndex().findClass(classId);
+        if (position == HprofIndex.NOT_FOUND) {
+            return 0;
+        }
+        return getClassRetainedSizes()[position];
+    }
+
+    private synchronized long[] getClassRetainedSizes() {
+        if (classRetainedSizes == null) {
+            classRetainedSizes = computeClassRetainedSizes();
+        }
+        return classRetainedSizes;
+    }
+
+    /**
+     * Walk the dominator tree keeping track of how many instances of each class are on the path from the root. An instance only adds to
+     * the retained size of its class if there is no other instance of the class above it in the tree.
+     */
+    private long[] computeClassRetainedSizes() {
+        HprofIndex index = graph.getIndex();
+        int nodeCount = graph.getNodeCount();
+        int[] classPositions = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int classNode = graph.getClassNode(node);
+            classPositions[node] = classNode != ReferenceGraph.NO_CLASS ? index.findClass(graph.getObjectId(classNode)) : HprofIndex.NOT_FOUND;
+        }
+        // Children of each node in CSR form (the last entry is the virtual root)
+        int[] offsets = new int[nodeCount + 2];
+        for (int node = 0; node < nodeCount; node++) {
+            if (dominators[node] != UNREACHABLE) {
+                offsets[getParent(node, nodeCount) + 1]++;
+            }
+        }
+        for (int i = 0; i <= nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] children = new int[offsets[nodeCount + 1]];
+        int[] next = new int[nodeCount + 1];
+        System.arraycopy(offsets, 0, next, 0, nodeCount + 1);
+        for (int node = 0; node < nodeCount; node++) {
+            if (dominators[node] != UNREACHABLE) {
+                children[next[getParent(node, nodeCount)]++] = node;
+            }
+        }
+        // Depth first walk, next[] is reused as the position of the next child of each node on the stack
+        long[] sizes = new long[index.getClassCount()];
+        int[] active = new int[index.getClassCount()];
+        int[] stack = new int[nodeCount + 1];
+        int depth = 0;
+        stack[depth++] = nodeCount;
+        next[nodeCount] = offsets[nodeCount];
+        while (depth > 0) {
+            int node = stack[depth - 1];
+            if (next[node] < offsets[node + 1]) {
+                int child = children[next[node]++];
+                int cls = classPositions[child];
+                if (cls != HprofIndex.NOT_FOUND) {
+                    if (active[cls] == 0) {
+                        sizes[cls] += retainedSizes[child];
+                    }
+                    active[cls]++;
+                }
+                next[child] = offsets[child];
+                stack[depth++] = child;
+            }
+            else {
+                depth--;
+                if (node != nodeCount && classPositions[node] != HprofIndex.NOT_FOUND) {
+                    active[classPositions[node]]--;
+                }
+            }
+        }
+        return sizes;
+    }
+
+    private int getParent(int node, int root) {
+        return dominators[node] == ROOT ? root : dominators[node];
+    }
+
+    private static int depthFirstSearch(ReferenceGraph graph, int[] number, int[] vertex, int[] parent, int[] stack) {
+        int root = graph.getNodeCount();
+        int[] edge = new int[graph.getNodeCount() + 1]; // Next reference to visit for each node on the stack
+        int count = 0;
+        int depth = 0;
+        number[root] = ++count;
+        vertex[count] = root;
+        stack[depth++] = root;
+        while (depth > 0) {
+            int node = stack[depth - 1];
+            int referenceCount = node == root ? graph.getRootCount() : graph.getReferenceCount(node);
+            if (edge[depth - 1] < referenceCount) {
+                int i = edge[depth - 1]++;
+                int child = node == root ? graph.getRoot(i) : graph.getReference(node, i);
+                if (number[child] == 0) {
+                    number[child] = ++count;
+                    vertex[count] = child;
+                    parent[count] = number[node];
+                    edge[depth] = 0;
+                    stack[depth++] = child;
+                }
+            }
+            else {
+                depth--;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the node with the lowest semi-dominator on the path from v to the root of its tree in the forest (all by number).
+     */
+    private static int eval(int v, int[] ancestor, int[] semi, int[] label, int[] stack) {
+        if (ancestor[v] == 0) {
+            return v;
+        }
+        compress(v, ancestor, semi, label, stack);
+        return label[v];
+    }
+
+    /**
+     * Path compression, done iteratively since the paths can be very long.
+     */
+    private static void compress(int v, int[] ancestor, int[] semi, int[] label, int[] stack) {
+        int depth = 0;
+        while (ancestor[ancestor[v]] != 0) {
+            stack[depth++] = v;
+            v = ancestor[v];
+        }
+        while (depth > 0) {
+            int u = stack[--depth];
+            int a = ancestor[u];
+            if (semi[label[a]] < semi[label[u]]) {
+                label[u] = label[a];
+            }
+            ancestor[u] = ancestor[a];
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.index.HprofIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the shortest reference path from a GC root to an object, which is what keeps the object from being garbage collected (for
+ * example a leaked Activity). The path is found with a breadth first search over the reverse graph, starting from the object and
+ * stopping at the first GC root reached.
+ * <p/>
+ * The search state is kept in int arrays (three ints per object) that are reused between searches, so searches are cheap but can only
+ * run one at a time.
+ * <p/>
+ * <pre>
+ *     GcRootPathFinder finder = new GcRootPathFinder(graph);
+ *     int[] path = finder.findPath(graph.getNode(activityId));
+ *     // path[0] is a GC root, path[path.length - 1] is the activity
+ * </pre>
+ */
+public class GcRootPathFinder {
+
+    private final ReferenceGraph graph;
+    private final ReferenceGraph referrers;
+    private final int[] parents;
+    private final int[] visited; // The search each node was last visited in
+    private final int[] queue;
+    private int search;
+
+    /**
+     * @param graph the reference graph (the reverse graph is created from it)
+     */
+    public GcRootPathFinder(@Nonnull ReferenceGraph graph) {
+        this.graph = graph;
+        this.referrers = graph.reverse();
+        int nodeCount = graph.getNodeCount();
+        parents = new int[nodeCount];
+        visited = new int[nodeCount];
+        queue = new int[nodeCount];
+    }
+
+    /**
+     * Returns the graph that paths are found in.
+     */
+    @Nonnull
+    public ReferenceGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Find the shortest path from a GC root to a node.
+     *
+     * @param node the node to find the path to
+     * @return the nodes on the path, starting with the GC root (see ReferenceGraph.findRoot()) and ending with the node itself, or null if
+     * the node cannot be reached from any GC root
+     */
+    @Nullable
+    public synchronized int[] findPath(int node) {
+        if (node < 0 || node >= graph.getNodeCount()) {
+            throw new IllegalArgumentException("No such node " + node);
+        }
+        if (search == Integer.MAX_VALUE) {
+            search = 0;
+            for (int i = 0; i < visited.length; i++) {
+                visited[i] = 0;
+            }
+        }
+        search++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = node;
+        visited[node] = search;
+        parents[node] = HprofIndex.NOT_FOUND;
+        while (head < tail) {
+            int current = queue[head++];
+            if (graph.findRoot(current) != HprofIndex.NOT_FOUND) {
+                return createPath(current);
+            }
+            for (int i = 0; i < referrers.getReferenceCount(current); i++) {
+                int referrer = referrers.getReference(current, i);
+                if (visited[referrer] != search) {
+                    visited[referrer] = search;
+                    parents[referrer] = current; // The next node towards the target
+                    queue[tail++] = referrer;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int[] createPath(int root) {
+        int length = 0;
+        for (int node = root; node != HprofIndex.NOT_FOUND; node = parents[node]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int i = 0;
+        for (int node = root; node != HprofIndex.NOT_FOUND; node = parents[node]) {
+            path[i++] = node;
+        }
+        return path;
+    }
+
+}
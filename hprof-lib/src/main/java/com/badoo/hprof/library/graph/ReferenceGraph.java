@@ -0,0 +1,405 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.util.FileUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The object graph of a HPROF file, stored in compressed sparse row (CSR) form using only int arrays. Each object (class, instance or
+ * array) is a node, numbered by the position of the object in the HprofIndex of the file. The references of node n are
+ * references[offsets[n]] to references[offsets[n + 1] - 1]. The graph is the shared base for analysing a dump (retained sizes, paths
+ * to GC roots, reachability) and the reverse graph (referrers instead of references) can be created with reverse().
+ * <p/>
+ * A graph is built with ReferenceGraphBuilder and can be saved to a side file next to the HPROF file. When the graph is loaded from a
+ * side file the arrays are memory mapped instead of being read into the Java heap (the same as for HprofIndex).
+ * <p/>
+ * References are:
+ * <ul>
+ * <li>Instance: the class and all non-null object fields</li>
+ * <li>Object array: the array class and all non-null elements</li>
+ * <li>Class: the super class, class loader and all non-null static object fields</li>
+ * </ul>
+ * References to objects that are not in the file are dropped. The shallow size of an object is the size of its data in the file (field
+ * values, array elements or static field values), not including the object header of the VM. The GC roots are sorted by node and each
+ * root node has the type of its first root record in the file (objects can be roots for several reasons).
+ * <p/>
+ * <pre>
+ *     ReferenceGraph graph = ReferenceGraph.load(hprofFile, HprofIndex.load(hprofFile)); // Reads the side file, or builds and saves the graph
+ *     for (int i = 0; i < graph.getReferenceCount(node); i++) {
+ *         int referencedNode = graph.getReference(node, i);
+ *     }
+ * </pre>
+ */
+public class ReferenceGraph {
+
+    /**
+     * Returned by getClassNode() for objects that have no class (classes and primitive arrays)
+     */
+    public static final int NO_CLASS = -1;
+
+    /**
+     * Extension added to the name of the HPROF file to get the name of the graph side file
+     */
+    public static final String FILE_EXTENSION = ".graph";
+
+    private static final int MAGIC = 0x48475246; // "HGRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * 4 + 2 * 8 + 3 * 4; // Magic, version, file size, last modified, 3 x count
+
+    private final HprofIndex index;
+    private final long fileSize;
+    private final long lastModified;
+    private final IntBuffer offsets;
+    private final IntBuffer references;
+    private final IntBuffer roots;
+    private final IntBuffer rootTypes;
+    private final IntBuffer shallowSizes;
+    private final IntBuffer classNodes;
+
+    /**
+     * @param hprofFile    the HPROF file that the graph was built from
+     * @param offsets      the start of the references of each node (one entry per node plus one for the end of the last node)
+     * @param references   the referenced nodes
+     * @param roots        the GC root nodes (sorted, without duplicates)
+     * @param rootTypes    the type of each GC root (the heap tag of the root record)
+     * @param shallowSizes the shallow size of each node
+     * @param classNodes   the class node of each node or NO_CLASS
+     */
+    ReferenceGraph(@Nonnull HprofIndex index, @Nonnull File hprofFile, @Nonnull int[] offsets, @Nonnull int[] references,
+                   @Nonnull int[] roots, @Nonnull int[] rootTypes, @Nonnull int[] shallowSizes, @Nonnull int[] classNodes) {
+        this(index, hprofFile.length(), hprofFile.lastModified(), IntBuffer.wrap(offsets), IntBuffer.wrap(references),
+            IntBuffer.wrap(roots), IntBuffer.wrap(rootTypes), IntBuffer.wrap(shallowSizes), IntBuffer.wrap(classNodes));
+    }
+
+    private ReferenceGraph(HprofIndex index, long fileSize, long lastModified, IntBuffer offsets, IntBuffer references, IntBuffer roots,
+                           IntBuffer rootTypes, IntBuffer shallowSizes, IntBuffer classNodes) {
+        if (offsets.limit() != index.getObjectCount() + 1 || shallowSizes.limit() != index.getObjectCount()
+            || classNodes.limit() != index.getObjectCount() || rootTypes.limit() != roots.limit()) {
+            throw new IllegalArgumentException("The graph does not match the index");
+        }
+        this.index = index;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.offsets = offsets;
+        this.references = references;
+        this.roots = roots;
+        this.rootTypes = rootTypes;
+        this.shallowSizes = shallowSizes;
+        this.classNodes = classNodes;
+    }
+
+    /**
+     * Returns the graph side file for a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the graph file (which might not exist)
+     */
+    @Nonnull
+    public static File getGraphFile(@Nonnull File hprofFile) {
+        return new File(hprofFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the graph of a HPROF file. If there is an up to date graph side file it is loaded, otherwise the graph is built (in a single
+     * pass over the HPROF file) and saved to the side file. A side file that cannot be read (created by another version or not
+     * completely written) is replaced.
+     *
+     * @param hprofFile the HPROF file
+     * @param index     the index of the HPROF file
+     * @return the graph
+     * @throws IOException
+     */
+    @Nonnull
+    public static ReferenceGraph load(@Nonnull File hprofFile, @Nonnull HprofIndex index) throws IOException {
+        File graphFile = getGraphFile(hprofFile);
+        if (graphFile.exists()) {
+            try {
+                ReferenceGraph graph = read(graphFile, index);
+                if (graph != null && graph.isGraphOf(hprofFile)) {
+                    return graph;
+                }
+            }
+            catch (IOException e) {
+                // Created by another version or not completely written, build a new graph
+            }
+        }
+        ReferenceGraph graph = ReferenceGraphBuilder.build(hprofFile, index);
+        graph.write(graphFile);
+        return graph;
+    }
+
+    /**
+     * Read a graph from a side file. The arrays are memory mapped.
+     *
+     * @param graphFile the graph file
+     * @param index     the index of the HPROF file that the graph was built from
+     * @return the graph or null if the graph was built with another index
+     * @throws IOException
+     */
+    @Nullable
+    public static ReferenceGraph read(@Nonnull File graphFile, @Nonnull HprofIndex index) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(graphFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Graph file is truncated");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(graphFile + " is not a reference graph (or was created by another version)");
+            }
+            long fileSize = header.getLong();
+            long lastModified = header.getLong();
+            int nodeCount = header.getInt();
+            int referenceCount = header.getInt();
+            int rootCount = header.getInt();
+            if (nodeCount != index.getObjectCount()) {
+                return null;
+            }
+            long position = HEADER_SIZE;
+            IntBuffer offsets = mapInts(channel, position, nodeCount + 1);
+            position += 4L * (nodeCount + 1);
+            IntBuffer references = mapInts(channel, position, referenceCount);
+            position += 4L * referenceCount;
+            IntBuffer roots = mapInts(channel, position, rootCount);
+            position += 4L * rootCount;
+            IntBuffer rootTypes = mapInts(channel, position, rootCount);
+            position += 4L * rootCount;
+            IntBuffer shallowSizes = mapInts(channel, position, nodeCount);
+            position += 4L * nodeCount;
+            IntBuffer classNodes = mapInts(channel, position, nodeCount);
+            return new ReferenceGraph(index, fileSize, lastModified, offsets, references, roots, rootTypes, shallowSizes, classNodes);
+        }
+        finally {
+            file.close(); // The mapped buffers stay valid after the file is closed
+        }
+    }
+
+    /**
+     * Write the graph to a side file. The graph is written to a temporary file that replaces the side file when it is complete.
+     *
+     * @param graphFile the file to write to
+     * @throws IOException
+     */
+    public void write(@Nonnull File graphFile) throws IOException {
+        File tempFile = FileUtil.getTempFile(graphFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(getNodeCount());
+            out.writeInt(getTotalReferenceCount());
+            out.writeInt(getRootCount());
+            writeInts(out, offsets);
+            writeInts(out, references);
+            writeInts(out, roots);
+            writeInts(out, rootTypes);
+            writeInts(out, shallowSizes);
+            writeInts(out, classNodes);
+            out.close();
+            written = true;
+        }
+        finally {
+            if (!written) {
+                FileUtil.discardTempFile(out, graphFile);
+            }
+        }
+        FileUtil.replaceFile(graphFile);
+    }
+
+    /**
+     * Returns true if this graph was built from a HPROF file (the size and modification time of the file must match).
+     *
+     * @param hprofFile the HPROF file
+     */
+    public boolean isGraphOf(@Nonnull File hprofFile) {
+        return hprofFile.length() == fileSize && hprofFile.lastModified() == lastModified;
+    }
+
+    /**
+     * Returns the index that the node numbers refer to.
+     */
+    @Nonnull
+    public HprofIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of nodes (the number of objects in the index).
+     */
+    public int getNodeCount() {
+        return shallowSizes.limit();
+    }
+
+    /**
+     * Find the node of an object.
+     *
+     * @param objectId the object id
+     * @return the node or HprofIndex.NOT_FOUND if there is no such object
+     */
+    public int getNode(long objectId) {
+        return index.findObject(objectId);
+    }
+
+    /**
+     * Returns the object id of a node.
+     */
+    public long getObjectId(int node) {
+        return index.getObjectId(node);
+    }
+
+    /**
+     * Returns the number of references from a node.
+     */
+    public int getReferenceCount(int node) {
+        return offsets.get(node + 1) - offsets.get(node);
+    }
+
+    /**
+     * Returns a referenced node.
+     *
+     * @param node the referencing node
+     * @param i    the reference (0 to getReferenceCount(node) - 1)
+     */
+    public int getReference(int node, int i) {
+        return references.get(offsets.get(node) + i);
+    }
+
+    /**
+     * Returns the total number of references in the graph.
+     */
+    public int getTotalReferenceCount() {
+        return offsets.get(offsets.limit() - 1);
+    }
+
+    /**
+     * Returns the number of GC root nodes.
+     */
+    public int getRootCount() {
+        return roots.limit();
+    }
+
+    /**
+     * Returns a GC root node.
+     *
+     * @param i the root (0 to getRootCount() - 1)
+     */
+    public int getRoot(int i) {
+        return roots.get(i);
+    }
+
+    /**
+     * Returns the type of a GC root.
+     *
+     * @param i the root (0 to getRootCount() - 1)
+     * @return the heap tag of the root record (for example HeapTag.ROOT_STICKY_CLASS)
+     */
+    public int getRootType(int i) {
+        return rootTypes.get(i);
+    }
+
+    /**
+     * Find the GC root of a node.
+     *
+     * @param node the node
+     * @return the root (0 to getRootCount() - 1) or HprofIndex.NOT_FOUND if the node is not a GC root
+     */
+    public int findRoot(int node) {
+        int low = 0;
+        int high = roots.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int root = roots.get(mid);
+            if (root < node) {
+                low = mid + 1;
+            }
+            else if (root > node) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return HprofIndex.NOT_FOUND;
+    }
+
+    /**
+     * Returns the shallow size of a node in bytes (Integer.MAX_VALUE for arrays of 2 GB or more).
+     */
+    public int getShallowSize(int node) {
+        return shallowSizes.get(node);
+    }
+
+    /**
+     * Returns the node of the class of an instance or object array.
+     *
+     * @return the class node or NO_CLASS if the node is a class, primitive array or if the class is not in the file
+     */
+    public int getClassNode(int node) {
+        return classNodes.get(node);
+    }
+
+    /**
+     * Create the reverse graph, where the references of each node are the nodes referencing it. Roots, shallow sizes and classes are the
+     * same as in this graph. The reverse graph is always kept in the Java heap.
+     *
+     * @return the reverse graph
+     */
+    @Nonnull
+    public ReferenceGraph reverse() {
+        int nodeCount = getNodeCount();
+        int referenceCount = getTotalReferenceCount();
+        int[] reverseOffsets = new int[nodeCount + 1];
+        for (int i = 0; i < referenceCount; i++) {
+            reverseOffsets[references.get(i) + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            reverseOffsets[i + 1] += reverseOffsets[i];
+        }
+        int[] reverseReferences = new int[referenceCount];
+        int[] next = new int[nodeCount];
+        System.arraycopy(reverseOffsets, 0, next, 0, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            int end = offsets.get(node + 1);
+            for (int i = offsets.get(node); i < end; i++) {
+                reverseReferences[next[references.get(i)]++] = node;
+            }
+        }
+        return new ReferenceGraph(index, fileSize, lastModified, IntBuffer.wrap(reverseOffsets), IntBuffer.wrap(reverseReferences), roots,
+            rootTypes, shallowSizes, classNodes);
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); i++) {
+            out.writeInt(values.get(i));
+        }
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+        long size = 4L * count;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Graph table of " + size + " bytes is too large to be mapped");
+        }
+        if (position + size > channel.size()) {
+            throw new IOException("Graph file is truncated");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+    }
+
+}
@@ -0,0 +1,372 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.index.HprofRandomAccessReader;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.GcRoot;
+import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.StaticField;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.readIdAsLong;
+import static com.badoo.hprof.library.util.StreamUtil.readInt;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Builds the ReferenceGraph of a HPROF file in a single pass over the file. The class definitions are read first (using the index) so
+ * that the object fields of each instance can be read directly from the file, without reading the instance itself.
+ * <p/>
+ * While building, the references are stored in the order they are read, together with the position of the references of each node.
+ * They are then copied into CSR form (in node order) so the peak memory usage is about 8 bytes per reference plus 20 bytes per object.
+ */
+public class ReferenceGraphBuilder extends DiscardProcessor {
+
+    private final HprofIndex index;
+    private final File hprofFile;
+    private final MappedFileInputStream in;
+    private final Map<Long, ClassLayout> layouts = new HashMap<Long, ClassLayout>();
+    private final ObjectProcessor heapProcessor = new ObjectProcessor();
+    private final int[] referenceStarts;
+    private final int[] referenceCounts;
+    private final int[] shallowSizes;
+    private final int[] classNodes;
+    private int[] references = new int[1024];
+    private int referenceCount;
+    private int[] roots = new int[256];
+    private int[] rootTypes = new int[256];
+    private int rootCount;
+
+    /**
+     * Reference offsets and data size of the instances of a class (including the fields of all super classes) together with the static
+     * references and size of the class itself.
+     */
+    private static class ClassLayout {
+
+        final int dataSize;
+        final int[] referenceOffsets;
+        final long[] staticReferences;
+        final int staticSize;
+
+        ClassLayout(int dataSize, int[] referenceOffsets, long[] staticReferences, int staticSize) {
+            this.dataSize = dataSize;
+            this.referenceOffsets = referenceOffsets;
+            this.staticReferences = staticReferences;
+            this.staticSize = staticSize;
+        }
+    }
+
+    private ReferenceGraphBuilder(@Nonnull HprofIndex index, @Nonnull File hprofFile, @Nonnull MappedFileInputStream in) {
+        this.index = index;
+        this.hprofFile = hprofFile;
+        this.in = in;
+        int objectCount = index.getObjectCount();
+        referenceStarts = new int[objectCount];
+        referenceCounts = new int[objectCount];
+        shallowSizes = new int[objectCount];
+        classNodes = new int[objectCount];
+        Arrays.fill(classNodes, ReferenceGraph.NO_CLASS);
+    }
+
+    /**
+     * Build the reference graph of a HPROF file (in the Java heap, see ReferenceGraph.load() for using a graph side file).
+     *
+     * @param hprofFile the HPROF file
+     * @param index     the index of the HPROF file
+     * @return the graph
+     * @throws IOException
+     */
+    @Nonnull
+    public static ReferenceGraph build(@Nonnull File hprofFile, @Nonnull HprofIndex index) throws IOException {
+        Map<Long, ClassDefinition> classes = readClasses(hprofFile, index);
+        MappedFileInputStream in = new MappedFileInputStream(hprofFile);
+        try {
+            ReferenceGraphBuilder builder = new ReferenceGraphBuilder(index, hprofFile, in);
+            builder.createLayouts(classes, index.getIdContext());
+            HprofReader reader = new HprofReader(in, builder);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return builder.createGraph();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+        if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+            HeapDumpReader heapReader = new HeapDumpReader(in, length, reader.getIdContext(), heapProcessor);
+            while (heapReader.hasNext()) {
+                heapReader.next();
+            }
+        }
+        else {
+            super.onRecord(tag, timestamp, length, reader);
+        }
+    }
+
+    private class ObjectProcessor extends HeapDumpBaseProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            long start = in.getPosition(); // Position after the tag
+            IdContext idContext = reader.getIdContext();
+            switch (tag) {
+                case HeapTag.CLASS_DUMP:
+                    readClass(idContext);
+                    break;
+                case HeapTag.INSTANCE_DUMP:
+                    readInstance(idContext);
+                    return; // All of the record has been read
+                case HeapTag.OBJECT_ARRAY_DUMP:
+                    readObjectArray(idContext);
+                    return;
+                case HeapTag.PRIMITIVE_ARRAY_DUMP:
+                    readPrimitiveArray(idContext);
+                    return;
+                default:
+                    if (HeapTag.isGcRoot(tag)) {
+                        GcRoot root = reader.readGcRoot(tag);
+                        addRoot(index.findObject(root.getObjectId().toLong()), tag);
+                    }
+                    else {
+                        skipHeapRecord(tag, reader);
+                    }
+                    return;
+            }
+            // Go back to the start of the record and skip all of it
+            in.setPosition(start);
+            skipHeapRecord(tag, reader);
+        }
+    }
+
+    private void readClass(IdContext idContext) throws IOException {
+        long classId = idContext.readIdAsLong(in);
+        int node = index.findObject(classId);
+        startNode(node);
+        skip(in, U4_SIZE); // Stack trace serial
+        addReference(node, idContext.readIdAsLong(in)); // Super class
+        addReference(node, idContext.readIdAsLong(in)); // Class loader
+        ClassLayout layout = layouts.get(classId);
+        if (layout != null) {
+            for (long staticReference : layout.staticReferences) {
+                addReference(node, staticReference);
+            }
+            shallowSizes[node] = layout.staticSize;
+        }
+    }
+
+    private void readInstance(IdContext idContext) throws IOException {
+        int node = index.findObject(idContext.readIdAsLong(in));
+        startNode(node);
+        skip(in, U4_SIZE); // Stack trace serial
+        long classId = idContext.readIdAsLong(in);
+        int size = readInt(in);
+        long dataStart = in.getPosition();
+        shallowSizes[node] = size;
+        int classNode = index.findObject(classId);
+        classNodes[node] = classNode;
+        addReference(node, classNode);
+        ClassLayout layout = layouts.get(classId);
+        if (layout != null && layout.dataSize <= size) {
+            int idSize = idContext.getIdSize();
+            int offset = 0;
+            for (int i = 0; i < layout.referenceOffsets.length; i++) {
+                skip(in, layout.referenceOffsets[i] - offset);
+                addReference(node, idContext.readIdAsLong(in));
+                offset = layout.referenceOffsets[i] + idSize;
+            }
+        }
+        in.setPosition(dataStart + size);
+    }
+
+    private void readObjectArray(IdContext idContext) throws IOException {
+        int node = index.findObject(idContext.readIdAsLong(in));
+        startNode(node);
+        skip(in, U4_SIZE); // Stack trace serial
+        int count = readInt(in);
+        int classNode = index.findObject(idContext.readIdAsLong(in));
+        classNodes[node] = classNode;
+        shallowSizes[node] = clampSize((long) count * idContext.getIdSize());
+        addReference(node, classNode);
+        for (int i = 0; i < count; i++) {
+            addReference(node, idContext.readIdAsLong(in));
+        }
+    }
+
+    private void readPrimitiveArray(IdContext idContext) throws IOException {
+        int node = index.findObject(idContext.readIdAsLong(in));
+        startNode(node);
+        skip(in, U4_SIZE); // Stack trace serial
+        int count = readInt(in);
+        BasicType type = BasicType.fromType(in.read());
+        long size = (long) count * idContext.sizeOf(type);
+        shallowSizes[node] = clampSize(size);
+        in.setPosition(in.getPosition() + size);
+    }
+
+    /**
+     * Shallow sizes are stored as ints, arrays larger than 2 GB get the size Integer.MAX_VALUE.
+     */
+    private static int clampSize(long size) {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private void startNode(int node) {
+        if (node == HprofIndex.NOT_FOUND) {
+            throw new IllegalStateException("Object not found in the index, the index is out of date");
+        }
+        referenceStarts[node] = referenceCount;
+    }
+
+    private void addReference(int node, long objectId) {
+        if (objectId != 0) {
+            addReference(node, index.findObject(objectId));
+        }
+    }
+
+    private void addReference(int node, int referencedNode) {
+        if (referencedNode == HprofIndex.NOT_FOUND) {
+            return;
+        }
+        if (referenceCount == references.length) {
+            references = grow(references);
+        }
+        references[referenceCount++] = referencedNode;
+        referenceCounts[node]++;
+    }
+
+    private void addRoot(int node, int type) {
+        if (node == HprofIndex.NOT_FOUND) {
+            return;
+        }
+        if (rootCount == roots.length) {
+            roots = grow(roots);
+            rootTypes = grow(rootTypes);
+        }
+        roots[rootCount] = node;
+        rootTypes[rootCount] = type;
+        rootCount++;
+    }
+
+    private void createLayouts(Map<Long, ClassDefinition> classes, IdContext idContext) throws IOException {
+        for (ClassDefinition cls : classes.values()) {
+            // Instance fields, the fields of the class come first followed by the fields of the super class (and so on)
+            int[] offsets = new int[8];
+            int count = 0;
+            int offset = 0;
+            ClassDefinition current = cls;
+            while (current != null) {
+                if (current.getInstanceFields() != null) {
+                    for (InstanceField field : current.getInstanceFields()) {
+                        if (field.getType() == BasicType.OBJECT) {
+                            if (count == offsets.length) {
+                                offsets = grow(offsets);
+                            }
+                            offsets[count++] = offset;
+                        }
+                        offset += idContext.sizeOf(field.getType());
+                    }
+                }
+                current = current.getSuperClassObjectId() != null ? classes.get(current.getSuperClassObjectId().toLong()) : null;
+            }
+            int[] referenceOffsets = new int[count];
+            System.arraycopy(offsets, 0, referenceOffsets, 0, count);
+            // Static fields
+            int staticSize = 0;
+            int staticCount = 0;
+            long[] staticReferences = new long[cls.getStaticFields() != null ? cls.getStaticFields().size() : 0];
+            if (cls.getStaticFields() != null) {
+                for (StaticField field : cls.getStaticFields()) {
+                    staticSize += field.getValue().length;
+                    if (field.getType() == BasicType.OBJECT) {
+                        staticReferences[staticCount++] = readIdAsLong(new ByteArrayInputStream(field.getValue()), idContext.getIdSize());
+                    }
+                }
+            }
+            long[] references = new long[staticCount];
+            System.arraycopy(staticReferences, 0, references, 0, staticCount);
+            layouts.put(cls.getObjectId().toLong(), new ClassLayout(offset, referenceOffsets, references, staticSize));
+        }
+    }
+
+    private ReferenceGraph createGraph() {
+        int nodeCount = referenceStarts.length;
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] = offsets[i] + referenceCounts[i];
+        }
+        int[] sortedReferences = new int[referenceCount];
+        for (int i = 0; i < nodeCount; i++) {
+            System.arraycopy(references, referenceStarts[i], sortedReferences, offsets[i], referenceCounts[i]);
+        }
+        references = null;
+        // Sort the roots by node (and then by the order they were read in) and remove duplicates (objects can be roots for several
+        // reasons), keeping the type of the first root record of each object
+        long[] sortedRoots = new long[rootCount];
+        for (int i = 0; i < rootCount; i++) {
+            sortedRoots[i] = ((long) roots[i] << 32) | i;
+        }
+        Arrays.sort(sortedRoots);
+        int uniqueRoots = 0;
+        for (int i = 0; i < rootCount; i++) {
+            int node = (int) (sortedRoots[i] >>> 32);
+            if (uniqueRoots == 0 || (int) (sortedRoots[uniqueRoots - 1] >>> 32) != node) {
+                sortedRoots[uniqueRoots++] = sortedRoots[i];
+            }
+        }
+        int[] graphRoots = new int[uniqueRoots];
+        int[] graphRootTypes = new int[uniqueRoots];
+        for (int i = 0; i < uniqueRoots; i++) {
+            graphRoots[i] = (int) (sortedRoots[i] >>> 32);
+            graphRootTypes[i] = rootTypes[(int) sortedRoots[i]];
+        }
+        return new ReferenceGraph(index, hprofFile, offsets, sortedReferences, graphRoots, graphRootTypes, shallowSizes, classNodes);
+    }
+
+    private static Map<Long, ClassDefinition> readClasses(File hprofFile, HprofIndex index) throws IOException {
+        Map<Long, ClassDefinition> classes = new HashMap<Long, ClassDefinition>();
+        HprofRandomAccessReader reader = new HprofRandomAccessReader(hprofFile, index);
+        try {
+            for (int i = 0; i < index.getClassCount(); i++) {
+                ClassDefinition cls = reader.readClass(index.getClassId(i));
+                if (cls != null) {
+                    classes.put(cls.getObjectId().toLong(), cls);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return classes;
+    }
+
+    private static int[] grow(int[] array) {
+        if (array.length == Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many references");
+        }
+        int[] grown = new int[(int) Math.min(array.length * 2L, Integer.MAX_VALUE - 8)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+}
@@ -1,15 +1,20 @@
 package com.badoo.hprof.library.heap;
 
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.model.BasicType;
 import com.badoo.hprof.library.model.ClassDefinition;
 import com.badoo.hprof.library.model.ConstantField;
+import com.badoo.hprof.library.model.GcRoot;
 import com.badoo.hprof.library.model.ID;
 import com.badoo.hprof.library.model.Instance;
 import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.LongIdClassDefinition;
+import com.badoo.hprof.library.model.LongIdInstance;
+import com.badoo.hprof.library.model.LongIdObjectArray;
 import com.badoo.hprof.library.model.ObjectArray;
 import com.badoo.hprof.library.model.PrimitiveArray;
 import com.badoo.hprof.library.model.StaticField;
-import com.badoo.hprof.library.util.StreamUtil;
+import com.badoo.hprof.library.util.MappedFileInputStream;
 import com.google.common.io.CountingInputStream;
 
 import java.io.IOException;
@@ -20,10 +25,8 @@ import java.util.Map;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.ID_SIZE;
 import static com.badoo.hprof.library.util.StreamUtil.read;
 import static com.badoo.hprof.library.util.StreamUtil.readByte;
-import static com.badoo.hprof.library.util.StreamUtil.readID;
 import static com.badoo.hprof.library.util.StreamUtil.readInt;
 import static com.badoo.hprof.library.util.StreamUtil.readShort;
 import static com.badoo.hprof.library.util.StreamUtil.skip;
@@ -35,7 +38,7 @@ import static com.badoo.hprof.library.util.StreamUtil.skip;
  * <p/>
  * <pre>
  *     // InputStream positioned at the beginning of the HEAP_DUMP or HEAP_DUMP section
- *     HeapDumpReader reader = new HeapDumpReader(in, length, processor);
+ *     HeapDumpReader reader = new HeapDumpReader(in, length, hprofReader.getIdContext(), processor);
  *     while (reader.hasNext()) {
  *         reader.next(); // Will result in a callback to the provided processor
  *     }
@@ -45,22 +48,46 @@ import static com.badoo.hprof.library.util.StreamUtil.skip;
  */
 public class HeapDumpReader {
 
-    private final CountingInputStream in;
+    private final InputStream in;
     private final HeapDumpProcessor processor;
-    private final int length;
+    private final long length;
+    private final MappedFileInputStream mappedIn;
+    private final long mappedStart;
+    private final IdContext idContext;
 
     /**
      * Creates a reader to process a number of heap dump records (See HeapTag for types).
      *
      * @param in        InputStream to read the heap records from
      * @param length    Total length in bytes of the heap records to process
+     * @param idContext The id size of the file the heap records are read from (see HprofReader.getIdContext())
      * @param processor A callback interface that is invoked when a new record is encountered
      * @throws IOException
      */
-    public HeapDumpReader(@Nonnull InputStream in, int length, @Nonnull HeapDumpProcessor processor) throws IOException {
-        this.in = new CountingInputStream(in);
+    public HeapDumpReader(@Nonnull InputStream in, long length, @Nonnull IdContext idContext, @Nonnull HeapDumpProcessor processor)
+        throws IOException {
+        if (in instanceof MappedFileInputStream) {
+            // The position can be taken from the mapped file, no need to count the bytes read (and lose the fast path in StreamUtil)
+            this.mappedIn = (MappedFileInputStream) in;
+            this.mappedStart = mappedIn.getPosition();
+            this.in = in;
+        }
+        else {
+            this.mappedIn = null;
+            this.mappedStart = 0;
+            this.in = new CountingInputStream(in);
+        }
         this.processor = processor;
         this.length = length;
+        this.idContext = idContext;
+    }
+
+    /**
+     * Returns the id size used when reading the heap records.
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        return idContext;
     }
 
     /**
@@ -80,7 +107,7 @@ public class HeapDumpReader {
      * @throws IOException
      */
     public boolean hasNext() throws IOException {
-        return in.getCount() < length;
+        return getCurrentPosition() < length;
     }
 
     /**
@@ -103,68 +130,65 @@ public class HeapDumpReader {
 
 //        System.out.println("readClassDumpRecord");
 
-        ID objectId = readID(in);
+        ID objectId = readID();
         ClassDefinition cls = loadedClasses.get(objectId);
         if (cls == null) {
             throw new IllegalStateException("No class loaded for id " + objectId);
         }
         cls.setObjectId(objectId);
         cls.setStackTraceSerial(readInt(in));
-        cls.setSuperClassObjectId(readID(in));
-        cls.setClassLoaderObjectId(readID(in));
-        cls.setSignersObjectId(readID(in));
-        cls.setProtectionDomainObjectId(readID(in));
+        cls.setSuperClassObjectId(readID());
+        cls.setClassLoaderObjectId(readID());
+        cls.setSignersObjectId(readID());
+        cls.setProtectionDomainObjectId(readID());
 
-        skip(in, 2 * ID_SIZE); // Reserved data
+        skip(in, 2 * idContext.getIdSize()); // Reserved data
 //        skip(in, 8); // Reserved data
         cls.setInstanceSize(readInt(in));
-        // Read constants fields
-        short constantCount = readShort(in);
-        if (constantCount > 0) {
-            List<ConstantField> constantFields = new ArrayList<ConstantField>();
-            cls.setConstantFields(constantFields);
-            for (int i = 0; i < constantCount; i++) {
-                short poolIndex = readShort(in);
-                BasicType type = BasicType.fromType(readByte(in));
-                byte[] value = read(in, type.size);
-                constantFields.add(new ConstantField(poolIndex, type, value));
-
-            }
-        }
-        // Read static fields
-        short staticCount = readShort(in);
-        if (staticCount > 0) {
-            ArrayList<StaticField> staticFields = new ArrayList<StaticField>();
-            cls.setStaticFields(staticFields);
-            for (int i = 0; i < staticCount; i++) {
-                ID nameId = readID(in);
-                BasicType type = BasicType.fromType(readByte(in));
-                byte[] value = read(in, type.size);
-                staticFields.add(new StaticField(type, value, nameId));
-            }
-        }
-        // Read instance fields
-        short fieldCount = readShort(in);
-        if (fieldCount > 0) {
-            ArrayList<InstanceField> instanceFields = new ArrayList<InstanceField>();
-            cls.setInstanceFields(instanceFields);
-            for (int i = 0; i < fieldCount; i++) {
-                ID nameId = readID(in);
-                BasicType type = BasicType.fromType(readByte(in));
-                instanceFields.add(new InstanceField(type, nameId));
-            }
-        }
+        cls.setConstantFields(readConstantFields());
+        cls.setStaticFields(readStaticFields());
+        cls.setInstanceFields(readInstanceFields());
 //        System.out.println("cls=" + cls);
         return cls;
     }
 
+    /**
+     * Read a class dump record into a class definition using long ids. The class definition should already have been created from a
+     * LOAD_CLASS record (see HprofReader.readLongIdLoadClassRecord()).
+     *
+     * @param loadedClasses Map of class ids and loaded classes. The class dump being read must be in this map
+     */
+    @Nonnull
+    public LongIdClassDefinition readLongIdClassDumpRecord(Map<Long, LongIdClassDefinition> loadedClasses) throws IOException {
+        long objectId = readIdAsLong();
+        LongIdClassDefinition cls = loadedClasses.get(objectId);
+        if (cls == null) {
+            throw new IllegalStateException("No class loaded for id " + Long.toHexString(objectId));
+        }
+        cls.setObjectId(objectId);
+        cls.setStackTraceSerial(readInt(in));
+        cls.setSuperClassObjectId(readIdAsLong());
+        cls.setClassLoaderObjectId(readIdAsLong());
+        cls.setSignersObjectId(readIdAsLong());
+        cls.setProtectionDomainObjectId(readIdAsLong());
+        skip(in, 2 * idContext.getIdSize()); // Reserved data
+        cls.setInstanceSize(readInt(in));
+        cls.setConstantFields(readConstantFields());
+        cls.setStaticFields(readStaticFields());
+        cls.setInstanceFields(readInstanceFields());
+        return cls;
+    }
+
     /**
      * Returns the current position of the underlying stream (in bytes from the start of the heap dump record).
      *
      * @return the current position
      */
     public long getCurrentPosition() {
-        return in.getCount();
+        if (mappedIn != null) {
+            return mappedIn.getPosition() - mappedStart;
+        }
+        return ((CountingInputStream) in).getCount();
     }
 
     /**
@@ -174,12 +198,12 @@ public class HeapDumpReader {
      */
     @Nonnull
     public Instance readInstanceDump() throws IOException {
-        ID objectId = readID(in);
+        ID objectId = readID();
         int stackTraceSerial = readInt(in);
-        ID classId = readID(in);
+        ID classId = readID();
         int length = readInt(in);
         byte[] data = read(in, length);
-        return new Instance(objectId, stackTraceSerial, classId, data);
+        return new Instance(objectId, stackTraceSerial, classId, data, idContext);
     }
 
     /**
@@ -189,11 +213,11 @@ public class HeapDumpReader {
      */
     @Nonnull
     public PrimitiveArray readPrimitiveArray() throws IOException {
-        ID objectId = readID(in);
+        ID objectId = readID();
         int stackTraceSerial = readInt(in);
         int count = readInt(in);
         BasicType type = BasicType.fromType(in.read());
-        byte[] arrayData = read(in, count * type.size);
+        byte[] arrayData = read(in, count * idContext.sizeOf(type));
         return new PrimitiveArray(objectId, stackTraceSerial, type, count, arrayData);
     }
 
@@ -204,15 +228,145 @@ public class HeapDumpReader {
      */
     @Nonnull
     public ObjectArray readObjectArray() throws IOException {
-        ID objectId = readID(in);
+        ID objectId = readID();
         int stackTraceSerial = readInt(in);
         int count = readInt(in);
-        ID elementClassId = readID(in);
+        ID elementClassId = readID();
         ID[] elements = new ID[count];
         for (int i = 0; i < count; i++) {
-            elements[i] = readID(in);
+            elements[i] = readID();
         }
         return new ObjectArray(objectId, stackTraceSerial, elementClassId, count, elements);
     }
 
+    /**
+     * Reads and returns a GC root record.
+     *
+     * @param tag the tag of the record (see HeapTag.isGcRoot())
+     * @return a GC root record.
+     */
+    @Nonnull
+    public GcRoot readGcRoot(int tag) throws IOException {
+        ID objectId = readID();
+        int threadSerial = GcRoot.NOT_SET;
+        int frameNumber = GcRoot.NOT_SET;
+        int stackTraceSerial = GcRoot.NOT_SET;
+        ID jniGlobalRefId = null;
+        switch (tag) {
+            case HeapTag.ROOT_JNI_GLOBAL:
+                jniGlobalRefId = readID();
+                break;
+            case HeapTag.ROOT_JNI_LOCAL:
+            case HeapTag.ROOT_JAVA_FRAME:
+            case HeapTag.HPROF_ROOT_JNI_MONITOR:
+                threadSerial = readInt(in);
+                frameNumber = readInt(in);
+                break;
+            case HeapTag.ROOT_NATIVE_STACK:
+            case HeapTag.ROOT_THREAD_BLOCK:
+                threadSerial = readInt(in);
+                break;
+            case HeapTag.ROOT_THREAD_OBJECT:
+                threadSerial = readInt(in);
+                stackTraceSerial = readInt(in);
+                break;
+            default:
+                if (!HeapTag.isGcRoot(tag)) {
+                    throw new IllegalArgumentException("Heap tag " + Integer.toHexString(tag) + " is not a GC root");
+                }
+                break; // Only the object id
+        }
+        return new GcRoot(tag, objectId, threadSerial, frameNumber, stackTraceSerial, jniGlobalRefId);
+    }
+
+    /**
+     * Read an id without wrapping it in an ID object.
+     *
+     * @return the id read
+     */
+    public long readIdAsLong() throws IOException {
+        return idContext.readIdAsLong(in);
+    }
+
+    /**
+     * Reads and returns an instance dump record with long ids.
+     *
+     * @return A LongIdInstance object containing all data from the record.
+     */
+    @Nonnull
+    public LongIdInstance readLongIdInstanceDump() throws IOException {
+        long objectId = readIdAsLong();
+        int stackTraceSerial = readInt(in);
+        long classId = readIdAsLong();
+        int length = readInt(in);
+        byte[] data = read(in, length);
+        return new LongIdInstance(objectId, stackTraceSerial, classId, data);
+    }
+
+    /**
+     * Reads and returns an object array record with long ids.
+     *
+     * @return an object array record.
+     */
+    @Nonnull
+    public LongIdObjectArray readLongIdObjectArray() throws IOException {
+        long objectId = readIdAsLong();
+        int stackTraceSerial = readInt(in);
+        int count = readInt(in);
+        long elementClassId = readIdAsLong();
+        long[] elements = new long[count];
+        for (int i = 0; i < count; i++) {
+            elements[i] = readIdAsLong();
+        }
+        return new LongIdObjectArray(objectId, stackTraceSerial, elementClassId, elements);
+    }
+
+    private List<ConstantField> readConstantFields() throws IOException {
+        short constantCount = readShort(in);
+        if (constantCount <= 0) {
+            return null;
+        }
+        List<ConstantField> constantFields = new ArrayList<ConstantField>();
+        for (int i = 0; i < constantCount; i++) {
+            short poolIndex = readShort(in);
+            BasicType type = BasicType.fromType(readByte(in));
+            byte[] value = read(in, idContext.sizeOf(type));
+            constantFields.add(new ConstantField(poolIndex, type, value));
+        }
+        return constantFields;
+    }
+
+    private List<StaticField> readStaticFields() throws IOException {
+        short staticCount = readShort(in);
+        if (staticCount <= 0) {
+            return null;
+        }
+        List<StaticField> staticFields = new ArrayList<StaticField>();
+        for (int i = 0; i < staticCount; i++) {
+            ID nameId = readID();
+            BasicType type = BasicType.fromType(readByte(in));
+            byte[] value = read(in, idContext.sizeOf(type));
+            staticFields.add(new StaticField(type, value, nameId));
+        }
+        return staticFields;
+    }
+
+    private List<InstanceField> readInstanceFields() throws IOException {
+        short fieldCount = readShort(in);
+        if (fieldCount <= 0) {
+            return null;
+        }
+        List<InstanceField> instanceFields = new ArrayList<InstanceField>();
+        for (int i = 0; i < fieldCount; i++) {
+            ID nameId = readID();
+            BasicType type = BasicType.fromType(readByte(in));
+            instanceFields.add(new InstanceField(type, nameId));
+        }
+        return instanceFields;
+    }
+
+    private ID readID() throws IOException {
+        return idContext.readId(in);
+    }
+
 }
@@ -1,8 +1,10 @@
 package com.badoo.hprof.library.heap;
 
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.model.BasicType;
 import com.badoo.hprof.library.model.ClassDefinition;
 import com.badoo.hprof.library.model.ConstantField;
+import com.badoo.hprof.library.model.GcRoot;
 import com.badoo.hprof.library.model.ID;
 import com.badoo.hprof.library.model.InstanceField;
 import com.badoo.hprof.library.model.StaticField;
@@ -12,10 +14,8 @@ import java.io.OutputStream;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.ID_SIZE;
 import static com.badoo.hprof.library.util.StreamUtil.write;
 import static com.badoo.hprof.library.util.StreamUtil.writeByte;
-import static com.badoo.hprof.library.util.StreamUtil.writeID;
 import static com.badoo.hprof.library.util.StreamUtil.writeInt;
 import static com.badoo.hprof.library.util.StreamUtil.writeShort;
 
@@ -27,9 +27,27 @@ import static com.badoo.hprof.library.util.StreamUtil.writeShort;
 public class HeapDumpWriter {
 
     private final OutputStream out;
+    private final IdContext idContext;
 
-    public HeapDumpWriter(@Nonnull OutputStream out) {
+    /**
+     * Creates a new HeapDumpWriter.
+     *
+     * @param out       The OutputStream to write the records to
+     * @param idContext The id size of the file being written (see HprofWriter.getIdContext())
+     */
+    public HeapDumpWriter(@Nonnull OutputStream out, @Nonnull IdContext idContext) {
         this.out = out;
+        this.idContext = idContext;
+    }
+
+    /**
+     * Returns the IdContext used when writing ids.
+     *
+     * @return The IdContext
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        return idContext;
     }
 
     /**
@@ -116,6 +134,42 @@ public class HeapDumpWriter {
         }
     }
 
+    /**
+     * Write an instance dump (INSTANCE_DUMP) record using long ids.
+     *
+     * @param objectId         Object id of the instance
+     * @param stackTraceSerial Stack trace serial number
+     * @param classId          Id of the instance's class
+     * @param data             Instance data (packed instance field values)
+     */
+    public void writeInstanceDumpRecord(long objectId, int stackTraceSerial, long classId, @Nonnull byte[] data) throws IOException {
+        out.write(HeapTag.INSTANCE_DUMP);
+        writeID(out, objectId);
+        writeInt(out, stackTraceSerial);
+        writeID(out, classId);
+        writeInt(out, data.length);
+        write(out, data);
+    }
+
+    /**
+     * Write an object array (OBJECT_ARRAY_DUMP) to the heap dump using long ids.
+     *
+     * @param objectId         The array object id
+     * @param stackTraceSerial Stack trace serial number
+     * @param elementClassId   Class id of the elements
+     * @param elements         An array containing the object ids of the elements
+     */
+    public void writeObjectArray(long objectId, int stackTraceSerial, long elementClassId, @Nonnull long[] elements) throws IOException {
+        out.write(HeapTag.OBJECT_ARRAY_DUMP);
+        writeID(out, objectId);
+        writeInt(out, stackTraceSerial);
+        writeInt(out, elements.length);
+        writeID(out, elementClassId);
+        for (long element : elements) {
+            writeID(out, element);
+        }
+    }
+
     /**
      * Write the header for a primitive array (PRIMITIVE_ARRAY_DUMP) record. This must be followed by the array contents.
      *
@@ -141,4 +195,52 @@ public class HeapDumpWriter {
         out.write(HeapTag.ROOT_UNKNOWN);
         writeID(out, objectId);
     }
+
+    /**
+     * Write a GC root record of any type (see HeapDumpReader.readGcRoot()).
+     *
+     * @param root The root to write
+     */
+    public void writeGcRoot(@Nonnull GcRoot root) throws IOException {
+        int type = root.getType();
+        out.write(type);
+        writeID(out, root.getObjectId());
+        switch (type) {
+            case HeapTag.ROOT_JNI_GLOBAL:
+                if (root.getJniGlobalRefId() != null) {
+                    writeID(out, root.getJniGlobalRefId());
+                }
+                else {
+                    writeID(out, 0);
+                }
+                break;
+            case HeapTag.ROOT_JNI_LOCAL:
+            case HeapTag.ROOT_JAVA_FRAME:
+            case HeapTag.HPROF_ROOT_JNI_MONITOR:
+                writeInt(out, root.getThreadSerial());
+                writeInt(out, root.getFrameNumber());
+                break;
+            case HeapTag.ROOT_NATIVE_STACK:
+            case HeapTag.ROOT_THREAD_BLOCK:
+                writeInt(out, root.getThreadSerial());
+                break;
+            case HeapTag.ROOT_THREAD_OBJECT:
+                writeInt(out, root.getThreadSerial());
+                writeInt(out, root.getStackTraceSerial());
+                break;
+            default:
+                if (!HeapTag.isGcRoot(type)) {
+                    throw new IllegalArgumentException("Heap tag " + Integer.toHexString(type) + " is not a GC root");
+                }
+                break;
+        }
+    }
+
+    private void writeID(OutputStream out, ID id) throws IOException {
+        idContext.writeId(out, id);
+    }
+
+    private void writeID(OutputStream out, long id) throws IOException {
+        idContext.writeId(out, id);
+    }
 }
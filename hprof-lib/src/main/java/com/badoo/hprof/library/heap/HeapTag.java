@@ -35,6 +35,32 @@ public final class HeapTag {
     private HeapTag() {
     }
 
+    /**
+     * Returns true if the tag is the tag of a GC root record (including the Android specific roots).
+     */
+    public static boolean isGcRoot(int tag) {
+        switch (tag) {
+            case ROOT_UNKNOWN:
+            case ROOT_JNI_GLOBAL:
+            case ROOT_JNI_LOCAL:
+            case ROOT_JAVA_FRAME:
+            case ROOT_NATIVE_STACK:
+            case ROOT_STICKY_CLASS:
+            case ROOT_THREAD_BLOCK:
+            case ROOT_MONITOR_USED:
+            case ROOT_THREAD_OBJECT:
+            case HPROF_ROOT_INTERNED_STRING:
+            case HPROF_ROOT_FINALIZING:
+            case HPROF_ROOT_DEBUGGER:
+            case HPROF_ROOT_REFERENCE_CLEANUP:
+            case HPROF_ROOT_VM_INTERNAL:
+            case HPROF_ROOT_JNI_MONITOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Nonnull
     public static String tagToString(int tag) {
         switch (tag) {
@@ -22,6 +22,6 @@ public class HeapDumpCopyProcessor extends HeapDumpBaseProcessor {
 
     @Override
     public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
-        copyHeapRecord(tag, reader.getInputStream(), out);
+        copyHeapRecord(tag, reader, out);
     }
 }
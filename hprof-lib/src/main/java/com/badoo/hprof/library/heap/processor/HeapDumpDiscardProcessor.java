@@ -15,6 +15,6 @@ public class HeapDumpDiscardProcessor extends HeapDumpBaseProcessor {
 
     @Override
     public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
-        skipHeapRecord(tag, reader.getInputStream());
+        skipHeapRecord(tag, reader);
     }
 }
@@ -0,0 +1,429 @@
+package com.badoo.hprof.library.index;
+
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.util.FileUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Index of the object, class and string records in a HPROF file, making it possible to read single records without scanning the
+ * whole file (see HprofRandomAccessReader). The index is created with HprofIndexBuilder and can be saved to a side file next to
+ * the HPROF file.
+ * <p/>
+ * All lookup tables are sorted arrays of primitive values. When the index is loaded from a side file the arrays are memory mapped
+ * instead of being read into the Java heap, so opening the index of a large dump is fast and uses very little memory.
+ * <p/>
+ * The index contains:
+ * <ul>
+ * <li>Object id to file offset and record type (CLASS_DUMP, INSTANCE_DUMP, OBJECT_ARRAY_DUMP or PRIMITIVE_ARRAY_DUMP)</li>
+ * <li>Class id to instance count</li>
+ * <li>String id to file offset</li>
+ * <li>Class id to the file offset of the LOAD_CLASS record</li>
+ * </ul>
+ * Ids are stored as returned by IdContext.readIdAsLong() (4 byte ids are sign extended, the same as ID.toLong()).
+ * <p/>
+ * <p></p><h3>Usage</h3></p>
+ * <pre>
+ *     HprofIndex index = HprofIndex.load(hprofFile); // Reads the side file, or builds and saves the index if needed
+ *     int pos = index.findObject(objectId);
+ *     if (pos != HprofIndex.NOT_FOUND) {
+ *         long offset = index.getObjectOffset(pos);
+ *     }
+ * </pre>
+ */
+public class HprofIndex {
+
+    /**
+     * Returned by findObject() when there is no object with the given id
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * Extension added to the name of the HPROF file to get the name of the index side file
+     */
+    public static final String FILE_EXTENSION = ".index";
+
+    private static final int MAGIC = 0x48494458; // "HIDX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 3 * 4 + 2 * 8 + 4 * 4; // Magic, version, id size, file size, last modified, 4 x count
+    private static final int TYPE_BITS = 8; // The record type is stored in the low bits of each object offset
+
+    private final int idSize;
+    private final long fileSize;
+    private final long lastModified;
+    private final LongBuffer objectIds;
+    private final LongBuffer objectOffsets;
+    private final LongBuffer classIds;
+    private final IntBuffer instanceCounts;
+    private final LongBuffer stringIds;
+    private final LongBuffer stringOffsets;
+    private final LongBuffer loadClassIds;
+    private final LongBuffer loadClassOffsets;
+
+    private HprofIndex(int idSize, long fileSize, long lastModified, LongBuffer objectIds, LongBuffer objectOffsets, LongBuffer classIds,
+                       IntBuffer instanceCounts, LongBuffer stringIds, LongBuffer stringOffsets, LongBuffer loadClassIds,
+                       LongBuffer loadClassOffsets) {
+        this.idSize = idSize;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.objectIds = objectIds;
+        this.objectOffsets = objectOffsets;
+        this.classIds = classIds;
+        this.instanceCounts = instanceCounts;
+        this.stringIds = stringIds;
+        this.stringOffsets = stringOffsets;
+        this.loadClassIds = loadClassIds;
+        this.loadClassOffsets = loadClassOffsets;
+    }
+
+    /**
+     * Creates an index from sorted arrays (see HprofIndexBuilder).
+     */
+    static HprofIndex create(int idSize, long fileSize, long lastModified, long[] objectIds, long[] objectOffsets, int objectCount,
+                             long[] classIds, int[] instanceCounts, int classCount, long[] stringIds, long[] stringOffsets, int stringCount,
+                             long[] loadClassIds, long[] loadClassOffsets, int loadClassCount) {
+        return new HprofIndex(idSize, fileSize, lastModified,
+            LongBuffer.wrap(objectIds, 0, objectCount).slice(), LongBuffer.wrap(objectOffsets, 0, objectCount).slice(),
+            LongBuffer.wrap(classIds, 0, classCount).slice(), IntBuffer.wrap(instanceCounts, 0, classCount).slice(),
+            LongBuffer.wrap(stringIds, 0, stringCount).slice(), LongBuffer.wrap(stringOffsets, 0, stringCount).slice(),
+            LongBuffer.wrap(loadClassIds, 0, loadClassCount).slice(), LongBuffer.wrap(loadClassOffsets, 0, loadClassCount).slice());
+    }
+
+    /**
+     * Packs the file offset and record type of an object into a single value.
+     */
+    static long packOffset(long offset, int type) {
+        return (offset << TYPE_BITS) | (type & 0xff);
+    }
+
+    /**
+     * Returns the index side file for a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the index file (which might not exist)
+     */
+    @Nonnull
+    public static File getIndexFile(@Nonnull File hprofFile) {
+        return new File(hprofFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the index of a HPROF file. If there is an up to date index side file it is loaded, otherwise the index is built
+     * (in a single pass over the HPROF file) and saved to the side file. A side file that cannot be read (created by another version
+     * or not completely written) is replaced.
+     *
+     * @param hprofFile the HPROF file
+     * @return the index
+     * @throws IOException
+     */
+    @Nonnull
+    public static HprofIndex load(@Nonnull File hprofFile) throws IOException {
+        File indexFile = getIndexFile(hprofFile);
+        if (indexFile.exists()) {
+            try {
+                HprofIndex index = read(indexFile);
+                if (index.isIndexOf(hprofFile)) {
+                    return index;
+                }
+            }
+            catch (IOException e) {
+                // Created by another version or not completely written, build a new index
+            }
+        }
+        HprofIndex index = HprofIndexBuilder.build(hprofFile);
+        index.write(indexFile);
+        return index;
+    }
+
+    /**
+     * Read an index from a side file. The lookup tables are memory mapped.
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException
+     */
+    @Nonnull
+    public static HprofIndex read(@Nonnull File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(indexFile + " is not a HPROF index (or was created by another version)");
+            }
+            int idSize = header.getInt();
+            long fileSize = header.getLong();
+            long lastModified = header.getLong();
+            int objectCount = header.getInt();
+            int classCount = header.getInt();
+            int stringCount = header.getInt();
+            int loadClassCount = header.getInt();
+            long position = HEADER_SIZE;
+            LongBuffer objectIds = mapLongs(channel, position, objectCount);
+            position += 8L * objectCount;
+            LongBuffer objectOffsets = mapLongs(channel, position, objectCount);
+            position += 8L * objectCount;
+            LongBuffer classIds = mapLongs(channel, position, classCount);
+            position += 8L * classCount;
+            IntBuffer instanceCounts = map(channel, position, 4L * classCount).asIntBuffer();
+            position += 4L * classCount;
+            LongBuffer stringIds = mapLongs(channel, position, stringCount);
+            position += 8L * stringCount;
+            LongBuffer stringOffsets = mapLongs(channel, position, stringCount);
+            position += 8L * stringCount;
+            LongBuffer loadClassIds = mapLongs(channel, position, loadClassCount);
+            position += 8L * loadClassCount;
+            LongBuffer loadClassOffsets = mapLongs(channel, position, loadClassCount);
+            return new HprofIndex(idSize, fileSize, lastModified, objectIds, objectOffsets, classIds, instanceCounts, stringIds,
+                stringOffsets, loadClassIds, loadClassOffsets);
+        }
+        finally {
+            file.close(); // The mapped buffers stay valid after the file is closed
+        }
+    }
+
+    /**
+     * Write the index to a side file. The index is written to a temporary file that replaces the side file when it is complete.
+     *
+     * @param indexFile the file to write to
+     * @throws IOException
+     */
+    public void write(@Nonnull File indexFile) throws IOException {
+        File tempFile = FileUtil.getTempFile(indexFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(idSize);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(getObjectCount());
+            out.writeInt(getClassCount());
+            out.writeInt(getStringCount());
+            out.writeInt(getLoadClassCount());
+            writeLongs(out, objectIds);
+            writeLongs(out, objectOffsets);
+            writeLongs(out, classIds);
+            for (int i = 0; i < instanceCounts.limit(); i++) {
+                out.writeInt(instanceCounts.get(i));
+            }
+            writeLongs(out, stringIds);
+            writeLongs(out, stringOffsets);
+            writeLongs(out, loadClassIds);
+            writeLongs(out, loadClassOffsets);
+            out.close();
+            written = true;
+        }
+        finally {
+            if (!written) {
+                FileUtil.discardTempFile(out, indexFile);
+            }
+        }
+        FileUtil.replaceFile(indexFile);
+    }
+
+    /**
+     * Returns true if this index was created from a HPROF file (the size and modification time of the file must match).
+     *
+     * @param hprofFile the HPROF file
+     */
+    public boolean isIndexOf(@Nonnull File hprofFile) {
+        return hprofFile.length() == fileSize && hprofFile.lastModified() == lastModified;
+    }
+
+    /**
+     * Returns the id size of the indexed file.
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        return IdContext.forIdSize(idSize);
+    }
+
+    /**
+     * Returns the number of indexed objects (classes, instances and arrays).
+     */
+    public int getObjectCount() {
+        return objectIds.limit();
+    }
+
+    /**
+     * Find an object.
+     *
+     * @param objectId the object id
+     * @return the position of the object in the index or NOT_FOUND
+     */
+    public int findObject(long objectId) {
+        return binarySearch(objectIds, objectId);
+    }
+
+    /**
+     * Returns the id of an object.
+     *
+     * @param position the position of the object in the index (0 to getObjectCount() - 1)
+     */
+    public long getObjectId(int position) {
+        return objectIds.get(position);
+    }
+
+    /**
+     * Returns the file offset of the heap record (the position of the heap tag) of an object.
+     *
+     * @param position the position of the object in the index (see findObject())
+     */
+    public long getObjectOffset(int position) {
+        return objectOffsets.get(position) >>> TYPE_BITS;
+    }
+
+    /**
+     * Returns the record type (heap tag, see HeapTag) of an object.
+     *
+     * @param position the position of the object in the index (see findObject())
+     */
+    public int getObjectType(int position) {
+        return (int) (objectOffsets.get(position) & 0xff);
+    }
+
+    /**
+     * Returns the number of classes (CLASS_DUMP records).
+     */
+    public int getClassCount() {
+        return classIds.limit();
+    }
+
+    /**
+     * Find a class.
+     *
+     * @param classId the class id
+     * @return the position of the class in the index (in the range 0 to getClassCount() - 1) or NOT_FOUND
+     */
+    public int findClass(long classId) {
+        return binarySearch(classIds, classId);
+    }
+
+    /**
+     * Returns the id of a class.
+     *
+     * @param position the position of the class in the index (0 to getClassCount() - 1)
+     */
+    public long getClassId(int position) {
+        return classIds.get(position);
+    }
+
+    /**
+     * Returns the number of instances of a class (not including instances of sub classes).
+     *
+     * @param classId the class id
+     * @return the number of instances or 0 if there is no such class
+     */
+    public int getInstanceCount(long classId) {
+        int position = binarySearch(classIds, classId);
+        return position != NOT_FOUND ? instanceCounts.get(position) : 0;
+    }
+
+    /**
+     * Returns the number of STRING records.
+     */
+    public int getStringCount() {
+        return stringIds.limit();
+    }
+
+    /**
+     * Returns the id of a string.
+     *
+     * @param position the position of the string in the index (0 to getStringCount() - 1)
+     */
+    public long getStringId(int position) {
+        return stringIds.get(position);
+    }
+
+    /**
+     * Returns the file offset of a STRING record (the position of the record tag).
+     *
+     * @param stringId the string id
+     * @return the offset or -1 if there is no such string
+     */
+    public long getStringOffset(long stringId) {
+        int position = binarySearch(stringIds, stringId);
+        return position != NOT_FOUND ? stringOffsets.get(position) : -1;
+    }
+
+    /**
+     * Returns the number of LOAD_CLASS records.
+     */
+    public int getLoadClassCount() {
+        return loadClassIds.limit();
+    }
+
+    /**
+     * Returns the class id of a LOAD_CLASS record.
+     *
+     * @param position the position of the record in the index (0 to getLoadClassCount() - 1)
+     */
+    public long getLoadClassId(int position) {
+        return loadClassIds.get(position);
+    }
+
+    /**
+     * Returns the file offset of the LOAD_CLASS record (the position of the record tag) of a class.
+     *
+     * @param classId the class id
+     * @return the offset or -1 if the class is not loaded
+     */
+    public long getLoadClassOffset(long classId) {
+        int position = binarySearch(loadClassIds, classId);
+        return position != NOT_FOUND ? loadClassOffsets.get(position) : -1;
+    }
+
+    private static int binarySearch(LongBuffer values, long key) {
+        int low = 0;
+        int high = values.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = values.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            }
+            else if (value > key) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static void writeLongs(DataOutputStream out, LongBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); i++) {
+            out.writeLong(values.get(i));
+        }
+    }
+
+    private static LongBuffer mapLongs(FileChannel channel, long position, int count) throws IOException {
+        return map(channel, position, 8L * count).asLongBuffer();
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Index table of " + size + " bytes is too large to be mapped");
+        }
+        if (position + size > channel.size()) {
+            throw new IOException("Index file is truncated");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.BIG_ENDIAN);
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.badoo.hprof.library.index;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.LongIntMap;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import static com.badoo.hprof.library.util.StreamUtil.U4_SIZE;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Builds a HprofIndex in a single pass over a HPROF file. The file is read through a MappedFileInputStream so that the file offset of
+ * each record is known. While building, the index is kept in primitive arrays (16 bytes per object).
+ * <p/>
+ * <pre>
+ *     HprofIndex index = HprofIndexBuilder.build(hprofFile);
+ *     index.write(HprofIndex.getIndexFile(hprofFile));
+ * </pre>
+ */
+public class HprofIndexBuilder extends DiscardProcessor {
+
+    private static final int RECORD_HEADER_SIZE = 1 + 2 * U4_SIZE; // Tag + timestamp + length
+
+    private final MappedFileInputStream in;
+    private final ObjectIndexProcessor heapProcessor = new ObjectIndexProcessor();
+    private final LongIntMap instanceCounts = new LongIntMap();
+    private long[] objectIds = new long[1024];
+    private long[] objectOffsets = new long[1024];
+    private int objectCount;
+    private long[] classIds = new long[256];
+    private int classCount;
+    private long[] stringIds = new long[1024];
+    private long[] stringOffsets = new long[1024];
+    private int stringCount;
+    private long[] loadClassIds = new long[256];
+    private long[] loadClassOffsets = new long[256];
+    private int loadClassCount;
+
+    private HprofIndexBuilder(@Nonnull MappedFileInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Build the index of a HPROF file.
+     *
+     * @param hprofFile the HPROF file
+     * @return the index
+     * @throws IOException
+     */
+    @Nonnull
+    public static HprofIndex build(@Nonnull File hprofFile) throws IOException {
+        long lastModified = hprofFile.lastModified();
+        MappedFileInputStream in = new MappedFileInputStream(hprofFile);
+        try {
+            HprofIndexBuilder builder = new HprofIndexBuilder(in);
+            HprofReader reader = new HprofReader(in, builder);
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return builder.createIndex(reader.getIdContext(), in.getSize(), lastModified);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+        if (tag == Tag.STRING) {
+            long offset = in.getPosition() - RECORD_HEADER_SIZE;
+            addString(reader.getIdContext().readIdAsLong(in), offset);
+            skip(in, length - reader.getIdContext().getIdSize());
+        }
+        else if (tag == Tag.LOAD_CLASS) {
+            long offset = in.getPosition() - RECORD_HEADER_SIZE;
+            skip(in, U4_SIZE); // Serial number
+            addLoadClass(reader.getIdContext().readIdAsLong(in), offset);
+            skip(in, length - U4_SIZE - reader.getIdContext().getIdSize());
+        }
+        else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
+            HeapDumpReader heapReader = new HeapDumpReader(in, length, reader.getIdContext(), heapProcessor);
+            while (heapReader.hasNext()) {
+                heapReader.next();
+            }
+        }
+        else {
+            super.onRecord(tag, timestamp, length, reader);
+        }
+    }
+
+    private class ObjectIndexProcessor extends HeapDumpBaseProcessor {
+
+        @Override
+        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+            switch (tag) {
+                case HeapTag.CLASS_DUMP:
+                case HeapTag.INSTANCE_DUMP:
+                case HeapTag.OBJECT_ARRAY_DUMP:
+                case HeapTag.PRIMITIVE_ARRAY_DUMP: {
+                    long offset = in.getPosition() - 1; // The tag has already been read
+                    IdContext idContext = reader.getIdContext();
+                    long objectId = idContext.readIdAsLong(in);
+                    addObject(objectId, HprofIndex.packOffset(offset, tag));
+                    if (tag == HeapTag.CLASS_DUMP) {
+                        addClass(objectId);
+                    }
+                    else if (tag == HeapTag.INSTANCE_DUMP) {
+                        skip(in, U4_SIZE); // Stack trace serial
+                        long classId = idContext.readIdAsLong(in);
+                        int count = instanceCounts.get(classId);
+                        instanceCounts.put(classId, count == LongIntMap.NO_VALUE ? 1 : count + 1);
+                    }
+                    // Go back to the start of the record and skip all of it
+                    in.setPosition(offset + 1);
+                    skipHeapRecord(tag, reader);
+                    break;
+                }
+                default:
+                    skipHeapRecord(tag, reader);
+            }
+        }
+    }
+
+    private void addObject(long id, long packedOffset) {
+        if (objectCount == objectIds.length) {
+            objectIds = grow(objectIds);
+            objectOffsets = grow(objectOffsets);
+        }
+        objectIds[objectCount] = id;
+        objectOffsets[objectCount] = packedOffset;
+        objectCount++;
+    }
+
+    private void addClass(long id) {
+        if (classCount == classIds.length) {
+            classIds = grow(classIds);
+        }
+        classIds[classCount++] = id;
+    }
+
+    private void addString(long id, long offset) {
+        if (stringCount == stringIds.length) {
+            stringIds = grow(stringIds);
+            stringOffsets = grow(stringOffsets);
+        }
+        stringIds[stringCount] = id;
+        stringOffsets[stringCount] = offset;
+        stringCount++;
+    }
+
+    private void addLoadClass(long id, long offset) {
+        if (loadClassCount == loadClassIds.length) {
+            loadClassIds = grow(loadClassIds);
+            loadClassOffsets = grow(loadClassOffsets);
+        }
+        loadClassIds[loadClassCount] = id;
+        loadClassOffsets[loadClassCount] = offset;
+        loadClassCount++;
+    }
+
+    private HprofIndex createIndex(IdContext idContext, long fileSize, long lastModified) {
+        sort(objectIds, objectOffsets, 0, objectCount - 1);
+        sort(stringIds, stringOffsets, 0, stringCount - 1);
+        sort(classIds, classIds, 0, classCount - 1);
+        sort(loadClassIds, loadClassOffsets, 0, loadClassCount - 1);
+        int[] counts = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            int count = instanceCounts.get(classIds[i]);
+            counts[i] = count == LongIntMap.NO_VALUE ? 0 : count;
+        }
+        return HprofIndex.create(idContext.getIdSize(), fileSize, lastModified, objectIds, objectOffsets, objectCount, classIds, counts,
+            classCount, stringIds, stringOffsets, stringCount, loadClassIds, loadClassOffsets, loadClassCount);
+    }
+
+    private static long[] grow(long[] array) {
+        if (array.length == Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many records to index");
+        }
+        long[] grown = new long[(int) Math.min(array.length * 2L, Integer.MAX_VALUE - 8)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Sort keys (and the values at the same positions) in ascending order, keys and values may be the same array.
+     */
+    private static void sort(long[] keys, long[] values, int low, int high) {
+        while (high - low > 16) {
+            // Quicksort with median of three pivot, recursing into the smaller part
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < keys[low]) {
+                swap(keys, values, low, mid);
+            }
+            if (keys[high] < keys[low]) {
+                swap(keys, values, low, high);
+            }
+            if (keys[high] < keys[mid]) {
+                swap(keys, values, mid, high);
+            }
+            long pivot = keys[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            }
+            else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        // Insertion sort for small ranges
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j - 1] > keys[j]; j--) {
+                swap(keys, values, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(long[] keys, long[] values, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        if (values != keys) {
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+}
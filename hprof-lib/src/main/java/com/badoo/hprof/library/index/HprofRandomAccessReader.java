@@ -0,0 +1,228 @@
+package com.badoo.hprof.library.index;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpDiscardProcessor;
+import com.badoo.hprof.library.model.BasicType;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.model.ObjectArray;
+import com.badoo.hprof.library.model.PrimitiveArray;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.MappedFileInputStream;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.badoo.hprof.library.util.StreamUtil.readByte;
+import static com.badoo.hprof.library.util.StreamUtil.readInt;
+import static com.badoo.hprof.library.util.StreamUtil.skip;
+
+/**
+ * Reads single records of a HPROF file on demand, using a HprofIndex to find them. The file is memory mapped so only the records that
+ * are read are loaded into memory.
+ * <p/>
+ * A reader is not thread safe, create one reader per thread to read from several threads at the same time.
+ * <p/>
+ * <pre>
+ *     HprofRandomAccessReader reader = new HprofRandomAccessReader(hprofFile, HprofIndex.load(hprofFile));
+ *     Instance instance = reader.readInstance(objectId);
+ *     reader.close();
+ * </pre>
+ */
+public class HprofRandomAccessReader implements Closeable {
+
+    private final HprofIndex index;
+    private final MappedFileInputStream in;
+    private final HprofReader hprofReader;
+    private final HeapDumpReader heapReader;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param hprofFile the HPROF file
+     * @param index     the index of the HPROF file
+     * @throws IOException
+     */
+    public HprofRandomAccessReader(@Nonnull File hprofFile, @Nonnull HprofIndex index) throws IOException {
+        if (!index.isIndexOf(hprofFile)) {
+            throw new IllegalArgumentException("The index does not belong to " + hprofFile + " (or the file has been modified)");
+        }
+        this.index = index;
+        this.in = new MappedFileInputStream(hprofFile);
+        this.hprofReader = new HprofReader(in, new DiscardProcessor() {});
+        hprofReader.next(); // Read the file header
+        this.heapReader = new HeapDumpReader(in, in.getSize(), hprofReader.getIdContext(), new HeapDumpDiscardProcessor());
+    }
+
+    /**
+     * Returns the index used by this reader.
+     */
+    @Nonnull
+    public HprofIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the id size of the file.
+     */
+    @Nonnull
+    public IdContext getIdContext() {
+        return hprofReader.getIdContext();
+    }
+
+    /**
+     * Returns the record type (see HeapTag) of an object.
+     *
+     * @param objectId the object id
+     * @return the record type or -1 if there is no object with the id
+     */
+    public int getObjectType(long objectId) {
+        int position = index.findObject(objectId);
+        return position != HprofIndex.NOT_FOUND ? index.getObjectType(position) : -1;
+    }
+
+    /**
+     * Read an instance.
+     *
+     * @param objectId the object id
+     * @return the instance or null if there is no object with the id
+     * @throws IllegalArgumentException if the object is not an instance
+     */
+    @Nullable
+    public Instance readInstance(long objectId) throws IOException {
+        if (!seekObject(objectId, HeapTag.INSTANCE_DUMP)) {
+            return null;
+        }
+        return heapReader.readInstanceDump();
+    }
+
+    /**
+     * Read an object array.
+     *
+     * @param objectId the object id
+     * @return the array or null if there is no object with the id
+     * @throws IllegalArgumentException if the object is not an object array
+     */
+    @Nullable
+    public ObjectArray readObjectArray(long objectId) throws IOException {
+        if (!seekObject(objectId, HeapTag.OBJECT_ARRAY_DUMP)) {
+            return null;
+        }
+        return heapReader.readObjectArray();
+    }
+
+    /**
+     * Read a primitive array.
+     *
+     * @param objectId the object id
+     * @return the array or null if there is no object with the id
+     * @throws IllegalArgumentException if the object is not a primitive array
+     */
+    @Nullable
+    public PrimitiveArray readPrimitiveArray(long objectId) throws IOException {
+        if (!seekObject(objectId, HeapTag.PRIMITIVE_ARRAY_DUMP)) {
+            return null;
+        }
+        return heapReader.readPrimitiveArray();
+    }
+
+    /**
+     * Read the size of the elements of a primitive array without reading the elements.
+     *
+     * @param objectId the object id
+     * @return the size in bytes or -1 if there is no object with the id
+     * @throws IllegalArgumentException if the object is not a primitive array
+     */
+    public long readPrimitiveArraySize(long objectId) throws IOException {
+        if (!seekObject(objectId, HeapTag.PRIMITIVE_ARRAY_DUMP)) {
+            return -1;
+        }
+        IdContext idContext = getIdContext();
+        skip(in, idContext.getIdSize() + StreamUtil.U4_SIZE); // Object id and stack trace serial
+        int count = readInt(in);
+        BasicType type = BasicType.fromType(in.read());
+        return (long) count * idContext.sizeOf(type);
+    }
+
+    /**
+     * Read a class definition (from the LOAD_CLASS and CLASS_DUMP records of the class).
+     *
+     * @param classId the class id
+     * @return the class or null if the class is not loaded
+     */
+    @Nullable
+    public ClassDefinition readClass(long classId) throws IOException {
+        long offset = index.getLoadClassOffset(classId);
+        if (offset == -1) {
+            return null;
+        }
+        in.setPosition(offset);
+        if (readByte(in) != Tag.LOAD_CLASS) {
+            throw new IllegalStateException("No LOAD_CLASS record at " + offset + ", the index is out of date");
+        }
+        readInt(in); // Timestamp
+        readInt(in); // Length
+        ClassDefinition cls = hprofReader.readLoadClassRecord();
+        if (seekObject(classId, HeapTag.CLASS_DUMP)) {
+            heapReader.readClassDumpRecord(Collections.singletonMap(cls.getObjectId(), cls));
+        }
+        return cls;
+    }
+
+    /**
+     * Read a string.
+     *
+     * @param stringId the string id
+     * @return the string or null if there is no string with the id
+     */
+    @Nullable
+    public HprofString readString(long stringId) throws IOException {
+        long offset = index.getStringOffset(stringId);
+        if (offset == -1) {
+            return null;
+        }
+        in.setPosition(offset);
+        if (readByte(in) != Tag.STRING) {
+            throw new IllegalStateException("No STRING record at " + offset + ", the index is out of date");
+        }
+        int timestamp = readInt(in);
+        long length = readInt(in) & 0xffffffffL;
+        return hprofReader.readStringRecord(length, timestamp);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean seekObject(long objectId, int expectedType) throws IOException {
+        int position = index.findObject(objectId);
+        if (position == HprofIndex.NOT_FOUND) {
+            return false;
+        }
+        int type = index.getObjectType(position);
+        if (type != expectedType) {
+            throw new IllegalArgumentException("Object " + Long.toHexString(objectId) + " is not of type " + Integer.toHexString(expectedType)
+                + " (" + Integer.toHexString(type) + ")");
+        }
+        long offset = index.getObjectOffset(position);
+        in.setPosition(offset);
+        if (readByte(in) != type) {
+            throw new IllegalStateException("No heap record of type " + Integer.toHexString(type) + " at " + offset
+                + ", the index is out of date");
+        }
+        return true;
+    }
+
+}
@@ -11,7 +11,7 @@ public enum BasicType {
 
     /**
      * Tag identifying an Object reference.
-     * This number is based on the length of the identifier used. for 8byte ID, 4 should be converted to 8
+     * The size of a reference is the id size of the file (see IdContext.sizeOf()), the size given here is for 4 byte ids.
      */
     OBJECT(2, 4),
     /**
@@ -53,9 +53,9 @@ public enum BasicType {
     public final int type;
 
     /**
-     * Size in bytes for a field of this type
+     * Size in bytes for a field of this type (use IdContext.sizeOf() for the size of an OBJECT)
      */
-    public int size;
+    public final int size;
 
     BasicType(int type, int size) {
         this.type = type;
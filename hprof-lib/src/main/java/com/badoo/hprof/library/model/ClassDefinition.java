@@ -1,6 +1,5 @@
 package com.badoo.hprof.library.model;
 
-import com.badoo.hprof.library.util.StreamUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,6 +29,7 @@ public class ClassDefinition extends Record {
     private List<StaticField> staticFields;
     private List<InstanceField> instanceFields;
 
+    private ClassLayout layout; // Cached by ClassLayout.get()
 
     public int getSerialNumber() {
         return serialNumber;
@@ -57,6 +57,7 @@ public class ClassDefinition extends Record {
 
     public void setSuperClassObjectId(ID superClassObjectId) {
         this.superClassObjectId = superClassObjectId;
+        layout = null;
     }
 
     public ID getClassLoaderObjectId() {
@@ -111,6 +112,7 @@ public class ClassDefinition extends Record {
             instanceFields = new ArrayList<InstanceField>();
         }
         instanceFields.add(field);
+        layout = null;
     }
 
     public List<ConstantField> getConstantFields() {
@@ -135,6 +137,15 @@ public class ClassDefinition extends Record {
 
     public void setInstanceFields(List<InstanceField> instanceFields) {
         this.instanceFields = instanceFields;
+        layout = null;
+    }
+
+    ClassLayout getLayout() {
+        return layout;
+    }
+
+    void setLayout(ClassLayout layout) {
+        this.layout = layout;
     }
 
     public void setSerialNumber(int serialNumber) {
@@ -187,33 +198,13 @@ public class ClassDefinition extends Record {
     @Override
     public int hashCode() {
         int result = serialNumber;
-
-
-        int objIdInt=0;
-        int nameStringIdInt=0;
-        int superClassObjectIdInt=0;
-        int classLoaderObjectIdInt=0;
-        int signersObjectIdInt=0;
-        int protectionDomainObjectIdInt=0;
-
-        int maxIterations = Math.min(4,StreamUtil.ID_SIZE); // 4 for integer size
-        for (int i=0;i< maxIterations;i++)
-        {
-            objIdInt |= objectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            nameStringIdInt |= nameStringId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            superClassObjectIdInt |= superClassObjectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            classLoaderObjectIdInt |= classLoaderObjectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            signersObjectIdInt |= signersObjectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            protectionDomainObjectIdInt |= protectionDomainObjectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-
-        }
-        result = 31 * result + objIdInt;
-        result = 31 * result + nameStringIdInt;
+        result = 31 * result + (objectId != null ? objectId.hashCode() : 0);
+        result = 31 * result + (nameStringId != null ? nameStringId.hashCode() : 0);
         result = 31 * result + stackTraceSerial;
-        result = 31 * result + superClassObjectIdInt;
-        result = 31 * result + classLoaderObjectIdInt;
-        result = 31 * result + signersObjectIdInt;
-        result = 31 * result + protectionDomainObjectIdInt;
+        result = 31 * result + (superClassObjectId != null ? superClassObjectId.hashCode() : 0);
+        result = 31 * result + (classLoaderObjectId != null ? classLoaderObjectId.hashCode() : 0);
+        result = 31 * result + (signersObjectId != null ? signersObjectId.hashCode() : 0);
+        result = 31 * result + (protectionDomainObjectId != null ? protectionDomainObjectId.hashCode() : 0);
         result = 31 * result + instanceSize;
         result = 31 * result + (constantFields != null ? constantFields.hashCode() : 0);
         result = 31 * result + (staticFields != null ? staticFields.hashCode() : 0);
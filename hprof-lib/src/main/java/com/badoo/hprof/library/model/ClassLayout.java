@@ -0,0 +1,101 @@
+package com.badoo.hprof.library.model;
+
+import com.badoo.hprof.library.IdContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The layout of the instance field data of a class: the byte offset of each instance field, including the fields of all super classes.
+ * The fields of the class itself come first, followed by the fields of the super class and so on (the same order as in INSTANCE_DUMP
+ * records).
+ * <p/>
+ * The layout of a class is computed the first time it is needed and then kept in the ClassDefinition (see get()), so reading a field
+ * of an Instance does not have to walk the class hierarchy. The layout is recomputed if the instance fields or super class of the
+ * class are changed, but not if the definitions of the super classes are changed.
+ */
+public final class ClassLayout {
+
+    /**
+     * Returned by getOffset() for fields that are not part of the layout
+     */
+    public static final int NOT_FOUND = -1;
+
+    private final int idSize;
+    private final List<InstanceField> fields;
+    private final Map<InstanceField, Integer> offsets;
+    private final int dataSize;
+
+    private ClassLayout(int idSize, List<InstanceField> fields, Map<InstanceField, Integer> offsets, int dataSize) {
+        this.idSize = idSize;
+        this.fields = fields;
+        this.offsets = offsets;
+        this.dataSize = dataSize;
+    }
+
+    /**
+     * Returns the layout of the instances of a class.
+     *
+     * @param cls       the class
+     * @param classes   map containing all classes (or at least the ones between this class and the root)
+     * @param idContext the id size of the instance field data
+     * @return the layout
+     */
+    @Nonnull
+    public static ClassLayout get(@Nonnull ClassDefinition cls, @Nonnull Map<ID, ClassDefinition> classes, @Nonnull IdContext idContext) {
+        ClassLayout layout = cls.getLayout();
+        if (layout == null || layout.idSize != idContext.getIdSize()) {
+            layout = create(cls, classes, idContext);
+            cls.setLayout(layout);
+        }
+        return layout;
+    }
+
+    private static ClassLayout create(ClassDefinition cls, Map<ID, ClassDefinition> classes, IdContext idContext) {
+        List<InstanceField> fields = new ArrayList<InstanceField>();
+        Map<InstanceField, Integer> offsets = new IdentityHashMap<InstanceField, Integer>();
+        int offset = 0;
+        ClassDefinition current = cls;
+        while (current != null) {
+            for (InstanceField field : current.getInstanceFields()) {
+                fields.add(field);
+                offsets.put(field, offset);
+                offset += idContext.sizeOf(field.getType());
+            }
+            current = classes.get(current.getSuperClassObjectId());
+        }
+        return new ClassLayout(idContext.getIdSize(), Collections.unmodifiableList(fields), offsets, offset);
+    }
+
+    /**
+     * Returns the byte offset of a field in the instance field data.
+     *
+     * @param field the field (compared by identity)
+     * @return the offset or NOT_FOUND if the field is not a field of the class or its super classes
+     */
+    public int getOffset(@Nonnull InstanceField field) {
+        Integer offset = offsets.get(field);
+        return offset != null ? offset : NOT_FOUND;
+    }
+
+    /**
+     * Returns all instance fields in the order they are stored in the instance field data.
+     */
+    @Nonnull
+    public List<InstanceField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the size of the instance field data in bytes.
+     */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+}
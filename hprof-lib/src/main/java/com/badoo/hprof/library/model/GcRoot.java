@@ -0,0 +1,87 @@
+package com.badoo.hprof.library.model;
+
+import com.badoo.hprof.library.heap.HeapTag;
+
+import javax.annotation.Nullable;
+
+/**
+ * Model class for HPROF GC root records (ROOT_* heap tags). The type of the root is the heap tag of the record, the thread serial,
+ * frame number and stack trace serial are only set for the types of roots that have them (NOT_SET otherwise). The JNI global ref id is
+ * only set for ROOT_JNI_GLOBAL roots.
+ */
+public class GcRoot {
+
+    public static final int NOT_SET = -1;
+
+    private final int type;
+    private final ID objectId;
+    private final int threadSerial;
+    private final int frameNumber;
+    private final int stackTraceSerial;
+    private final ID jniGlobalRefId;
+
+    public GcRoot(int type, ID objectId, int threadSerial, int frameNumber, int stackTraceSerial) {
+        this(type, objectId, threadSerial, frameNumber, stackTraceSerial, null);
+    }
+
+    public GcRoot(int type, ID objectId, int threadSerial, int frameNumber, int stackTraceSerial, @Nullable ID jniGlobalRefId) {
+        this.type = type;
+        this.objectId = objectId;
+        this.threadSerial = threadSerial;
+        this.frameNumber = frameNumber;
+        this.stackTraceSerial = stackTraceSerial;
+        this.jniGlobalRefId = jniGlobalRefId;
+    }
+
+    /**
+     * Returns the type of root (the heap tag of the record, for example HeapTag.ROOT_JNI_GLOBAL).
+     */
+    public int getType() {
+        return type;
+    }
+
+    public ID getObjectId() {
+        return objectId;
+    }
+
+    /**
+     * Returns the serial of the thread holding the reference (or NOT_SET).
+     */
+    public int getThreadSerial() {
+        return threadSerial;
+    }
+
+    /**
+     * Returns the frame number (or stack depth for JNI monitors) of the reference (or NOT_SET).
+     */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Returns the stack trace serial of a thread object root (or NOT_SET).
+     */
+    public int getStackTraceSerial() {
+        return stackTraceSerial;
+    }
+
+    /**
+     * Returns the JNI global ref id of a JNI global root (or null).
+     */
+    @Nullable
+    public ID getJniGlobalRefId() {
+        return jniGlobalRefId;
+    }
+
+    @Override
+    public String toString() {
+        return "GcRoot{" +
+                "type=" + HeapTag.tagToString(type) +
+                ", objectId=" + objectId +
+                ", threadSerial=" + threadSerial +
+                ", frameNumber=" + frameNumber +
+                ", stackTraceSerial=" + stackTraceSerial +
+                ", jniGlobalRefId=" + jniGlobalRefId +
+                '}';
+    }
+}
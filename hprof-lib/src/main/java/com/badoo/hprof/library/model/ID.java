@@ -2,39 +2,64 @@ package com.badoo.hprof.library.model;
 
 import com.badoo.hprof.library.util.StreamUtil;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-
-import static com.badoo.hprof.library.util.StreamUtil.ID_SIZE;
-
+/**
+ * Object, class or string id. This is a thin wrapper around a long value (see IdContext.readIdAsLong() and HeapDumpReader.readIdAsLong()
+ * for reading ids without allocating any objects). For 4 byte ids the value is sign extended, the same as returned by toLong().
+ * <p/>
+ * Two ids are equal if they have the same value. The size is only kept as information about how the id was read (ids created without
+ * a size are 4 bytes if the value fits in 32 bits), it is not used when writing ids (the writer's IdContext decides the size).
+ */
 public final class ID {
 
-    private final byte[] idBytes;//todo why is int it a long field?
-
+    private final long value;
+    private final int size;
 
     public ID() {
-        this.idBytes = new byte[StreamUtil.ID_SIZE];
+        this(0);
     }
+
     public ID(byte[] idBytes)
     {
-        this.idBytes = idBytes;
+        long value = 0;
+        for (byte b : idBytes) {
+            value = (value << 8) | (b & 0xffL);
+        }
+        this.size = idBytes.length;
+        this.value = size == StreamUtil.U4_SIZE ? (long) (int) value : value;
     }
 
     public ID(long idBytesLong)
     {
-        this();
-
-        for(int j =0;j< ID_SIZE;j++)
-        {
-            idBytes[ID_SIZE-j-1] = (byte) ((idBytesLong >>> (8*j))& 0xFFL);
-        }
+        this(idBytesLong, (idBytesLong >>> 32) == 0 || idBytesLong == (int) idBytesLong ? StreamUtil.U4_SIZE : StreamUtil.U8_SIZE);
+    }
 
+    /**
+     * Create an id from a long value.
+     *
+     * @param value the id value
+     * @param size  size of the id in bytes (4 or 8)
+     */
+    public ID(long value, int size) {
+        this.size = size;
+        this.value = size == StreamUtil.U4_SIZE ? (long) (int) value : value;
     }
 
     public byte[] getIdBytes() {
+        byte[] idBytes = new byte[size];
+        for (int j = 0; j < size; j++) {
+            idBytes[size - j - 1] = (byte) ((value >>> (8 * j)) & 0xFFL);
+        }
         return idBytes;
     }
 
+    /**
+     * Returns the size of this id in bytes.
+     *
+     * @return the id size
+     */
+    public int getSize() {
+        return size;
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -43,13 +68,19 @@ public final class ID {
 
         ID id = (ID) o;
 
-        return Arrays.equals(idBytes, id.idBytes);
+        return value == id.value;
 
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(idBytes);
+        // Same as Arrays.hashCode(getIdBytes()) of a 4 byte id (or 8 byte id if the value does not fit in an int), without allocating the array
+        int bytes = value == (int) value ? StreamUtil.U4_SIZE : StreamUtil.U8_SIZE;
+        int result = 1;
+        for (int j = bytes - 1; j >= 0; j--) {
+            result = 31 * result + (byte) (value >>> (8 * j));
+        }
+        return result;
     }
 
     @Override
@@ -60,18 +91,12 @@ public final class ID {
 
     public long toLong()
     {
-        long hash=0l;
-        if(StreamUtil.ID_SIZE == StreamUtil.U8_SIZE)
-            hash = ByteBuffer.wrap(idBytes).getLong();
-        else if(StreamUtil.ID_SIZE == StreamUtil.U4_SIZE)
-            hash = ByteBuffer.wrap(idBytes).getInt();
-        return hash;
-
+        return value;
     }
 
     public int toInt32() {
-        if (idBytes.length == StreamUtil.U4_SIZE) {
-            return ByteBuffer.wrap(idBytes).getInt();
+        if (value == (int) value) {
+            return (int) value;
         } else {
             throw new IllegalStateException("trying to convert a 8 byte id to ");
         }
@@ -1,14 +1,13 @@
 package com.badoo.hprof.library.model;
 
-import java.io.ByteArrayInputStream;
+import com.badoo.hprof.library.IdContext;
+
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.*;
-
 /**
  * Class containing the data of a class instance dump (INSTANCE_DUMP) heap record.
  * <p/>
@@ -21,12 +20,19 @@ public class Instance {
     private int stackTraceSerialId;
     private ID classId;
     private byte[] instanceFieldData;
+    private final IdContext idContext;
 
-    public  Instance(ID objectId, int stackTraceSerialId, ID classId, @Nonnull byte[] instanceFieldData) {
+    /**
+     * Creates an instance.
+     *
+     * @param idContext id size of the object fields in the instance field data
+     */
+    public Instance(ID objectId, int stackTraceSerialId, ID classId, @Nonnull byte[] instanceFieldData, @Nonnull IdContext idContext) {
         this.objectId = objectId;
         this.stackTraceSerialId = stackTraceSerialId;
         this.classId = classId;
         this.instanceFieldData = instanceFieldData;
+        this.idContext = idContext;
     }
 
     public ID getObjectId() {
@@ -82,21 +88,9 @@ public class Instance {
 
     @Override
     public int hashCode() {
-
-        int objIdInt=0;
-        int classIdInt=0;
-
-        int maxIterations = Math.min(4,ID_SIZE); // 4 for integer size
-        for (int i=0;i< maxIterations;i++)
-        {
-            objIdInt |= objectId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-            classIdInt |= classId.getIdBytes()[i] << (8 * (maxIterations-i-1));
-
-        }
-
-        int result = objIdInt;
+        int result = objectId.hashCode();
         result = 31 * result + stackTraceSerialId;
-        result = 31 * result + classIdInt;
+        result = 31 * result + classId.hashCode();
         result = 31 * result + Arrays.hashCode(instanceFieldData);
         return result;
     }
@@ -109,24 +103,8 @@ public class Instance {
      * @return the field value
      */
     public ID getObjectField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.OBJECT) {
-            throw new IllegalArgumentException("Field is not of type OBJECT");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readID(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.OBJECT, classes);
+        return new ID(readLong(offset, idContext.getIdSize()), idContext.getIdSize());
     }
 
     /**
@@ -137,24 +115,8 @@ public class Instance {
      * @return the field value
      */
     public int getByteField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.BYTE) {
-            throw new IllegalArgumentException("Field is not of type BYTE");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readByte(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.BYTE, classes);
+        return instanceFieldData[offset] & 0xff;
     }
 
     /**
@@ -165,24 +127,8 @@ public class Instance {
      * @return the field value
      */
     public int getIntField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.INT) {
-            throw new IllegalArgumentException("Field is not of type INT");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readInt(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.INT, classes);
+        return (int) readLong(offset, 4);
     }
 
     /**
@@ -193,24 +139,8 @@ public class Instance {
      * @return the field value
      */
     public int getShortField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.SHORT) {
-            throw new IllegalArgumentException("Field is not of type SHORT");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readShort(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.SHORT, classes);
+        return (short) readLong(offset, 2);
     }
 
     /**
@@ -221,24 +151,8 @@ public class Instance {
      * @return the field value
      */
     public char getCharField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.INT) {
-            throw new IllegalArgumentException("Field is not of type INT");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return (char) readShort(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.CHAR, classes);
+        return (char) readLong(offset, 2);
     }
 
     /**
@@ -249,24 +163,8 @@ public class Instance {
      * @return the field value
      */
     public long getLongField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.LONG) {
-            throw new IllegalArgumentException("Field is not of type LONG");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readLong(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.LONG, classes);
+        return readLong(offset, 8);
     }
 
     /**
@@ -277,24 +175,8 @@ public class Instance {
      * @return the field value
      */
     public boolean getBooleanField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.BOOLEAN) {
-            throw new IllegalArgumentException("Field is not of type BOOLEAN");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readByte(in) != 0;
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.BOOLEAN, classes);
+        return instanceFieldData[offset] != 0;
     }
 
     /**
@@ -305,24 +187,8 @@ public class Instance {
      * @return the field value
      */
     public double getDoubleField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.DOUBLE) {
-            throw new IllegalArgumentException("Field is not of type DOUBLE");
-        }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readDouble(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
-        }
-        throw new IllegalStateException("Failed to find field");
+        int offset = getFieldOffset(field, BasicType.DOUBLE, classes);
+        return Double.longBitsToDouble(readLong(offset, 8));
     }
 
     /**
@@ -333,24 +199,45 @@ public class Instance {
      * @return the field value
      */
     public float getFloatField(InstanceField field, Map<ID, ClassDefinition> classes) throws IOException {
-        if (field.getType() != BasicType.FLOAT) {
-            throw new IllegalArgumentException("Field is not of type FLOAT");
+        int offset = getFieldOffset(field, BasicType.FLOAT, classes);
+        return Float.intBitsToFloat((int) readLong(offset, 4));
+    }
+
+    /**
+     * Returns the layout of the instance field data of this instance.
+     *
+     * @param classes map containing all classes (or at least the ones between this class and the root)
+     * @return the layout
+     */
+    @Nonnull
+    public ClassLayout getLayout(Map<ID, ClassDefinition> classes) {
+        ClassDefinition cls = classes.get(classId);
+        if (cls == null) {
+            throw new IllegalStateException("Class " + classId + " not found");
+        }
+        return ClassLayout.get(cls, classes, idContext);
+    }
+
+    private int getFieldOffset(InstanceField field, BasicType type, Map<ID, ClassDefinition> classes) {
+        if (field.getType() != type) {
+            throw new IllegalArgumentException("Field is not of type " + type);
         }
-        // Iterate over all the instance fields until we find one that is matching
-        ByteArrayInputStream in = new ByteArrayInputStream(instanceFieldData);
-        ClassDefinition currentClass = classes.get(classId);
-        while (currentClass != null) {
-            for (InstanceField currentField : currentClass.getInstanceFields()) {
-                if (currentField == field) { // This is the one we are looking for
-                    return readFloat(in);
-                }
-                else {
-                    skip(in, currentField.getType().size);
-                }
-            }
-            currentClass = classes.get(currentClass.getSuperClassObjectId());
+        int offset = getLayout(classes).getOffset(field);
+        if (offset == ClassLayout.NOT_FOUND) {
+            throw new IllegalStateException("Failed to find field");
+        }
+        return offset;
+    }
+
+    /**
+     * Read a big endian value of 1 to 8 bytes from the instance field data (without sign extension).
+     */
+    private long readLong(int offset, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (instanceFieldData[offset + i] & 0xffL);
         }
-        throw new IllegalStateException("Failed to find field");
+        return value;
     }
 
     @Override
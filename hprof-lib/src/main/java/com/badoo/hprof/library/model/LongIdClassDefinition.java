@@ -0,0 +1,138 @@
+package com.badoo.hprof.library.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Variant of ClassDefinition where the class, super class, class loader etc ids are stored as raw long values instead of ID objects.
+ * The field definitions are shared with ClassDefinition since there are only a few of them per class.
+ */
+public class LongIdClassDefinition extends Record {
+
+    // Fields from LOAD_CLASS
+    private int serialNumber;
+    private long objectId;
+    private long nameStringId;
+    private int stackTraceSerial;
+
+    // Fields from CLASS_DUMP
+    private long superClassObjectId;
+    private long classLoaderObjectId;
+    private long signersObjectId;
+    private long protectionDomainObjectId;
+    private int instanceSize;
+    private List<ConstantField> constantFields;
+    private List<StaticField> staticFields;
+    private List<InstanceField> instanceFields;
+
+    public int getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(int serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public long getObjectId() {
+        return objectId;
+    }
+
+    public void setObjectId(long objectId) {
+        this.objectId = objectId;
+    }
+
+    public long getNameStringId() {
+        return nameStringId;
+    }
+
+    public void setNameStringId(long nameStringId) {
+        this.nameStringId = nameStringId;
+    }
+
+    public int getStackTraceSerial() {
+        return stackTraceSerial;
+    }
+
+    public void setStackTraceSerial(int stackTraceSerial) {
+        this.stackTraceSerial = stackTraceSerial;
+    }
+
+    public long getSuperClassObjectId() {
+        return superClassObjectId;
+    }
+
+    public void setSuperClassObjectId(long superClassObjectId) {
+        this.superClassObjectId = superClassObjectId;
+    }
+
+    public long getClassLoaderObjectId() {
+        return classLoaderObjectId;
+    }
+
+    public void setClassLoaderObjectId(long classLoaderObjectId) {
+        this.classLoaderObjectId = classLoaderObjectId;
+    }
+
+    public long getSignersObjectId() {
+        return signersObjectId;
+    }
+
+    public void setSignersObjectId(long signersObjectId) {
+        this.signersObjectId = signersObjectId;
+    }
+
+    public long getProtectionDomainObjectId() {
+        return protectionDomainObjectId;
+    }
+
+    public void setProtectionDomainObjectId(long protectionDomainObjectId) {
+        this.protectionDomainObjectId = protectionDomainObjectId;
+    }
+
+    public int getInstanceSize() {
+        return instanceSize;
+    }
+
+    public void setInstanceSize(int instanceSize) {
+        this.instanceSize = instanceSize;
+    }
+
+    public List<ConstantField> getConstantFields() {
+        return constantFields != null ? constantFields : Collections.<ConstantField>emptyList();
+    }
+
+    public void setConstantFields(List<ConstantField> constantFields) {
+        this.constantFields = constantFields;
+    }
+
+    public List<StaticField> getStaticFields() {
+        return staticFields != null ? staticFields : Collections.<StaticField>emptyList();
+    }
+
+    public void setStaticFields(List<StaticField> staticFields) {
+        this.staticFields = staticFields;
+    }
+
+    public List<InstanceField> getInstanceFields() {
+        return instanceFields != null ? instanceFields : Collections.<InstanceField>emptyList();
+    }
+
+    public void setInstanceFields(List<InstanceField> instanceFields) {
+        this.instanceFields = instanceFields;
+    }
+
+    @Override
+    public String toString() {
+        return "LongIdClassDefinition{" +
+                "serialNumber=" + serialNumber +
+                ", objectId=" + Long.toHexString(objectId) +
+                ", nameStringId=" + Long.toHexString(nameStringId) +
+                ", stackTraceSerial=" + stackTraceSerial +
+                ", superClassObjectId=" + Long.toHexString(superClassObjectId) +
+                ", instanceSize=" + instanceSize +
+                ", constantFields=" + constantFields +
+                ", staticFields=" + staticFields +
+                ", instanceFields=" + instanceFields +
+                '}';
+    }
+}
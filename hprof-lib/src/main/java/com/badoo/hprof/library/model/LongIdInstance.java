@@ -0,0 +1,51 @@
+package com.badoo.hprof.library.model;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Variant of Instance where the object and class ids are stored as raw long values instead of ID objects
+ * (see HeapDumpReader.readLongIdInstanceDump()).
+ */
+public class LongIdInstance {
+
+    private final long objectId;
+    private final int stackTraceSerialId;
+    private final long classId;
+    private final byte[] instanceFieldData;
+
+    public LongIdInstance(long objectId, int stackTraceSerialId, long classId, @Nonnull byte[] instanceFieldData) {
+        this.objectId = objectId;
+        this.stackTraceSerialId = stackTraceSerialId;
+        this.classId = classId;
+        this.instanceFieldData = instanceFieldData;
+    }
+
+    public long getObjectId() {
+        return objectId;
+    }
+
+    public int getStackTraceSerialId() {
+        return stackTraceSerialId;
+    }
+
+    public long getClassId() {
+        return classId;
+    }
+
+    @Nonnull
+    public byte[] getInstanceFieldData() {
+        return instanceFieldData;
+    }
+
+    @Override
+    public String toString() {
+        return "LongIdInstance{" +
+                "objectId=" + Long.toHexString(objectId) +
+                ", stackTraceSerialId=" + stackTraceSerialId +
+                ", classId=" + Long.toHexString(classId) +
+                ", instanceFieldData=" + Arrays.toString(instanceFieldData) +
+                '}';
+    }
+}
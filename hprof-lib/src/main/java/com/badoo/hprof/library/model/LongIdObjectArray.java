@@ -0,0 +1,43 @@
+package com.badoo.hprof.library.model;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Variant of ObjectArray where the array, element class and element ids are stored as raw long values instead of ID objects
+ * (see HeapDumpReader.readLongIdObjectArray()).
+ */
+public class LongIdObjectArray {
+
+    private final long objectId;
+    private final int stackTraceSerial;
+    private final long elementClassId;
+    private final long[] elements;
+
+    public LongIdObjectArray(long objectId, int stackTraceSerial, long elementClassId, @Nonnull long[] elements) {
+        this.objectId = objectId;
+        this.stackTraceSerial = stackTraceSerial;
+        this.elementClassId = elementClassId;
+        this.elements = elements;
+    }
+
+    public long getObjectId() {
+        return objectId;
+    }
+
+    public int getStackTraceSerial() {
+        return stackTraceSerial;
+    }
+
+    public long getElementClassId() {
+        return elementClassId;
+    }
+
+    public int getCount() {
+        return elements.length;
+    }
+
+    @Nonnull
+    public long[] getElements() {
+        return elements;
+    }
+}
@@ -10,11 +10,14 @@ import java.io.OutputStream;
 
 import javax.annotation.Nonnull;
 
-import static com.badoo.hprof.library.util.StreamUtil.copy;
+import static com.badoo.hprof.library.util.StreamUtil.transfer;
 
 /**
  * A HprofProcessor implementation that reads all records and writes them to an OutputStream without modification.
  * <p/>
+ * The record data is never read into memory, when reading from a file (FileInputStream or MappedFileInputStream) and writing to an
+ * unbuffered FileOutputStream it is transferred directly between the files (see StreamUtil.transfer()).
+ * <p/>
  * Created by Erik Andre on 13/07/2014.
  */
 public class CopyProcessor implements HprofProcessor {
@@ -33,8 +36,8 @@ public class CopyProcessor implements HprofProcessor {
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         writer.writeRecordHeader(tag, timestamp, length);
-        copy(reader.getInputStream(), out, length);
+        transfer(reader.getInputStream(), out, length);
     }
 }
@@ -23,7 +23,7 @@ public abstract class DiscardProcessor implements HprofProcessor {
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         skip(reader.getInputStream(), length);
     }
 }
@@ -0,0 +1,59 @@
+package com.badoo.hprof.library.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Utility methods for writing side files (index and graph files) so that a file is never left partially written.
+ */
+public class FileUtil {
+
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * Returns the temporary file to write to before replacing a file with replaceFile().
+     */
+    @Nonnull
+    public static File getTempFile(@Nonnull File file) {
+        return new File(file.getPath() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Close and delete the temporary file of a file (see getTempFile()) when writing it failed. Errors when closing are ignored since
+     * the file is discarded.
+     *
+     * @param out  the stream writing to the temporary file
+     * @param file the file that was being written
+     */
+    public static void discardTempFile(@Nonnull Closeable out, @Nonnull File file) {
+        try {
+            out.close();
+        }
+        catch (IOException ignored) {
+        }
+        getTempFile(file).delete();
+    }
+
+    /**
+     * Replace a file with its completely written temporary file (see getTempFile()).
+     *
+     * @param file the file to replace
+     * @throws IOException if the temporary file cannot be renamed (the temporary file is deleted)
+     */
+    public static void replaceFile(@Nonnull File file) throws IOException {
+        File tempFile = getTempFile(file);
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+        // Renaming to an existing file fails on some platforms
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+}
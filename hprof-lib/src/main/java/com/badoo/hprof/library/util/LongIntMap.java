@@ -0,0 +1,193 @@
+package com.badoo.hprof.library.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash map from long keys to int values. Keys and values are stored in primitive arrays so no objects
+ * are allocated per entry, which makes it suitable for mapping object ids in large heap dumps.
+ */
+public class LongIntMap {
+
+    /**
+     * Value returned by get() and putIfAbsent() when there is no mapping for the key
+     */
+    public static final int NO_VALUE = -1;
+
+    private static final long EMPTY = 0; // Key 0 is stored separately since it marks empty slots
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean hasZeroKey;
+    private int zeroValue = NO_VALUE;
+
+    public LongIntMap() {
+        this(1024);
+    }
+
+    /**
+     * Creates a new map
+     *
+     * @param expectedSize the number of entries that the map can hold before it has to grow
+     */
+    public LongIntMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid size " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the value mapped to a key.
+     *
+     * @param key the key
+     * @return the value or NO_VALUE if the map does not contain the key
+     */
+    public int get(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : NO_VALUE;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Returns true if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Map a key to a value, replacing any existing mapping.
+     *
+     * @return the previous value or NO_VALUE if the key was not mapped before
+     */
+    public int put(long key, int value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Map a key to a value only if the key is not already mapped (using a single lookup).
+     *
+     * @return the existing value or NO_VALUE if the key was not mapped before (and the new value was added)
+     */
+    public int putIfAbsent(long key, int value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries (the allocated capacity is kept).
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasZeroKey = false;
+        zeroValue = NO_VALUE;
+        size = 0;
+    }
+
+    private int put(long key, int value, boolean replace) {
+        if (key == EMPTY) {
+            int previous = hasZeroKey ? zeroValue : NO_VALUE;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+                zeroValue = value;
+            }
+            else if (replace) {
+                zeroValue = value;
+            }
+            return previous;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                if (replace) {
+                    values[slot] = value;
+                }
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+        return NO_VALUE;
+    }
+
+    private void rehash(int newCapacity) {
+        if (newCapacity <= 0) {
+            throw new IllegalStateException("LongIntMap cannot grow beyond " + keys.length + " entries");
+        }
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        // Object ids are usually aligned addresses, mix the bits so that the low bits used for the slot index are well distributed
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
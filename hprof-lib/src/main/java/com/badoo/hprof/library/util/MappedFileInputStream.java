@@ -0,0 +1,222 @@
+package com.badoo.hprof.library.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * InputStream backed by a memory mapped file. Can be used in place of a (buffered) FileInputStream when creating a HprofReader
+ * or HeapDumpReader, in which case the primitive values and ids are decoded directly from the mapped buffer instead of one
+ * byte at the time (see StreamUtil).
+ * <p/>
+ * Since a single MappedByteBuffer cannot be larger than 2 GB, the file is mapped as a series of windows which are switched
+ * as the stream position moves past the end of the current one.
+ * <p/>
+ * <pre>
+ *     HprofReader reader = new HprofReader(new MappedFileInputStream(file), processor);
+ *     while (reader.hasNext()) {
+ *         reader.next();
+ *     }
+ * </pre>
+ */
+public class MappedFileInputStream extends InputStream {
+
+    /**
+     * Default size of each mapped window (1 GB)
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private long mark;
+
+    public MappedFileInputStream(@Nonnull File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new MappedFileInputStream.
+     *
+     * @param file       The file to map
+     * @param windowSize Maximum number of bytes to map at the same time
+     * @throws IOException
+     */
+    public MappedFileInputStream(@Nonnull File file, int windowSize) throws IOException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid window size " + windowSize);
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * Returns the current position in the file.
+     *
+     * @return the current position
+     */
+    public long getPosition() {
+        return windowStart + buffer.position();
+    }
+
+    /**
+     * Move to a new position in the file.
+     *
+     * @param position The new position (in bytes from the start of the file)
+     */
+    public void setPosition(long position) throws IOException {
+        if (position < 0 || position > size) {
+            throw new IllegalArgumentException("Position " + position + " is outside of file (size " + size + ")");
+        }
+        if (position < windowStart || position >= windowStart + buffer.limit()) {
+            map(position - (position % windowSize));
+        }
+        buffer.position((int) (position - windowStart));
+    }
+
+    /**
+     * Returns the size of the mapped file.
+     *
+     * @return the file size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Transfer a number of bytes, starting at the current position, to a channel without copying them to the Java heap.
+     * The position is moved past the transferred bytes.
+     *
+     * @param target The channel to transfer to
+     * @param length Number of bytes to transfer
+     * @throws IOException
+     */
+    public void transferTo(@Nonnull WritableByteChannel target, long length) throws IOException {
+        long position = getPosition();
+        StreamUtil.transferFully(channel, position, length, target);
+        setPosition(position + length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !nextWindow()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !nextWindow()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long position = getPosition();
+        long skipped = Math.min(n, size - position);
+        setPosition(position + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, size - getPosition());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = getPosition();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        setPosition(mark);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Read a big-endian int directly from the mapped buffer.
+     *
+     * @return The int read
+     */
+    public int readInt() throws IOException {
+        if (buffer.remaining() >= 4) {
+            return buffer.getInt();
+        }
+        return (read() << 24) | (read() << 16) | (read() << 8) | read();
+    }
+
+    /**
+     * Read a big-endian long directly from the mapped buffer.
+     *
+     * @return The long read
+     */
+    public long readLong() throws IOException {
+        if (buffer.remaining() >= 8) {
+            return buffer.getLong();
+        }
+        return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    /**
+     * Read a big-endian short directly from the mapped buffer.
+     *
+     * @return The short read
+     */
+    public short readShort() throws IOException {
+        if (buffer.remaining() >= 2) {
+            return buffer.getShort();
+        }
+        return (short) ((read() << 8) | read());
+    }
+
+    private boolean nextWindow() throws IOException {
+        long next = windowStart + buffer.limit();
+        if (next >= size) {
+            return false;
+        }
+        map(next);
+        return true;
+    }
+
+    private void map(long start) throws IOException {
+        long length = Math.min(windowSize, size - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        windowStart = start;
+    }
+
+}
@@ -3,9 +3,14 @@ package com.badoo.hprof.library.util;
 import com.badoo.hprof.library.model.ID;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import javax.annotation.Nonnull;
@@ -18,7 +23,15 @@ import javax.annotation.Nonnull;
 @SuppressWarnings("UnusedDeclaration")
 public class StreamUtil {
 
-    private static final byte[] buffer = new byte[1024];
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // Transfers smaller than this are copied through the buffer since a channel transfer is a system call
+    private static final int CHANNEL_TRANSFER_THRESHOLD = COPY_BUFFER_SIZE;
+    private static final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_BUFFER_SIZE];
+        }
+    };
 
     /**
      * Read a null-terminated string.
@@ -105,31 +118,83 @@ public class StreamUtil {
      * @throws IOException
      */
     public static int readInt(InputStream in) throws IOException {
+        if (in instanceof MappedFileInputStream) {
+            return ((MappedFileInputStream) in).readInt();
+        }
         return (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
     }
 
 
-    public static int ID_SIZE = 8;//todo wtf, this should not be static
-
     public static final int U1_SIZE = 1;
     public static final int U2_SIZE = 2;
     public static final int U4_SIZE = 4;
     public static final int U8_SIZE = 8;
 
+    /**
+     * Read an id.
+     *
+     * @param in     The InputStream to read the id from
+     * @param idSize Size of the id in bytes
+     * @return The id read
+     * @throws IOException
+     */
+    public static ID readID(InputStream in, int idSize) throws IOException {
+        return new ID(readIdAsLong(in, idSize), idSize);
+    }
 
-    public static ID readID(InputStream in) throws IOException {
-
-
-        return new ID(read(in,ID_SIZE));
+    /**
+     * Read an id without wrapping it in an ID object. 4 byte ids are sign extended (same value as returned by ID.toLong()).
+     *
+     * @param in     The InputStream to read the id from
+     * @param idSize Size of the id in bytes
+     * @return The id read
+     * @throws IOException
+     */
+    public static long readIdAsLong(InputStream in, int idSize) throws IOException {
+        if (idSize == U4_SIZE) {
+            return readInt(in);
+        }
+        else if (idSize == U8_SIZE) {
+            return readLong(in);
+        }
+        long value = 0;
+        for (int i = 0; i < idSize; i++) {
+            value = (value << 8) | in.read();
+        }
+        return value;
     }
 
+    /**
+     * Write an id.
+     *
+     * @param out    The OutputStream to write the id to
+     * @param id     The id to write (null is written as 0)
+     * @param idSize Size of the id in bytes
+     * @throws IOException
+     */
+    public static void writeID(OutputStream out, ID id, int idSize) throws IOException {
+        writeID(out, id != null ? id.toLong() : 0, idSize);
+    }
 
-    public static void writeID(OutputStream out, ID id) throws IOException
-    {
-        if (id == null) {
-            write(out, new ID(0).getIdBytes());
-        } else {
-            write(out, id.getIdBytes());
+    /**
+     * Write an id.
+     *
+     * @param out    The OutputStream to write the id to
+     * @param id     The id to write
+     * @param idSize Size of the id in bytes
+     * @throws IOException
+     */
+    public static void writeID(OutputStream out, long id, int idSize) throws IOException {
+        if (idSize == U4_SIZE) {
+            writeInt(out, (int) id);
+        }
+        else if (idSize == U8_SIZE) {
+            writeLong(out, id);
+        }
+        else {
+            for (int i = idSize - 1; i >= 0; i--) {
+                out.write((int) (id >>> (8 * i)));
+            }
         }
     }
 
@@ -171,6 +236,9 @@ public class StreamUtil {
      * @throws IOException
      */
     public static long readLong(InputStream in) throws IOException {
+        if (in instanceof MappedFileInputStream) {
+            return ((MappedFileInputStream) in).readLong();
+        }
         return ((long) in.read() << 56) | ((long) in.read() << 48) | ((long) in.read() << 40) | ((long) in.read() << 32) | ((long) in.read() << 24) | ((long) in.read() << 16) | ((long) in.read() << 8) | (long) in.read();
     }
 
@@ -187,6 +255,9 @@ public class StreamUtil {
      * @throws IOException
      */
     public static short readShort(InputStream in) throws IOException {
+        if (in instanceof MappedFileInputStream) {
+            return ((MappedFileInputStream) in).readShort();
+        }
         return (short) ((in.read() << 8) | in.read());
     }
 
@@ -239,6 +310,82 @@ public class StreamUtil {
         return buffer;
     }
 
+    /**
+     * Copy a number of bytes from an InputStream to an OutputStream, without reading all the data into memory at once.
+     *
+     * @param in     The InputStream
+     * @param out    The OutputStream
+     * @param length Number of bytes to copy
+     * @throws IOException
+     */
+    public static void copyLarge(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = copyBuffer.get(); // Reused for all copies on the same thread
+        long copied = 0;
+        while (copied != length) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of stream, " + (length - copied) + " bytes missing");
+            }
+            out.write(buffer, 0, read);
+            copied += read;
+        }
+    }
+
+    /**
+     * Move a number of bytes from an InputStream to an OutputStream without reading them into a buffer of the same size. If the
+     * input is a FileInputStream or MappedFileInputStream and the output is a FileOutputStream the bytes are transferred between the
+     * file channels (see FileChannel.transferTo()) and never copied to the Java heap, otherwise they are copied through a small buffer
+     * which is reused between calls.
+     * <p/>
+     * Note that buffered streams (e.g. BufferedOutputStream) always use the buffer copy since the position of the underlying file
+     * is not known.
+     *
+     * @param in     The InputStream
+     * @param out    The OutputStream
+     * @param length Number of bytes to transfer
+     * @throws IOException
+     */
+    public static void transfer(InputStream in, OutputStream out, long length) throws IOException {
+        if (length >= CHANNEL_TRANSFER_THRESHOLD && out instanceof FileOutputStream) {
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            if (in instanceof MappedFileInputStream) {
+                ((MappedFileInputStream) in).transferTo(target, length);
+                return;
+            }
+            if (in instanceof FileInputStream) {
+                FileChannel source = ((FileInputStream) in).getChannel();
+                long position = source.position();
+                transferFully(source, position, length, target);
+                source.position(position + length);
+                return;
+            }
+        }
+        copyLarge(in, out, length);
+    }
+
+    /**
+     * Transfer a number of bytes from a file channel to another channel (without changing the position of the source channel).
+     *
+     * @param source   The channel to transfer from
+     * @param position Position in the source channel of the first byte to transfer
+     * @param length   Number of bytes to transfer
+     * @param target   The channel to transfer to
+     * @throws IOException
+     */
+    static void transferFully(FileChannel source, long position, long length, WritableByteChannel target) throws IOException {
+        if (source.size() - position < length) {
+            throw new EOFException("Unexpected end of file, " + (length - (source.size() - position)) + " bytes missing");
+        }
+        long transferred = 0;
+        while (transferred != length) {
+            long count = source.transferTo(position + transferred, length - transferred, target);
+            if (count <= 0) {
+                throw new IOException("Failed to transfer data, " + (length - transferred) + " bytes remaining");
+            }
+            transferred += count;
+        }
+    }
+
     /**
      * Read a number of bytes.
      *
@@ -256,6 +403,21 @@ public class StreamUtil {
         return data;
     }
 
+    /**
+     * Read a number of bytes (for record lengths, which are unsigned 32-bit values).
+     *
+     * @param in     The InputStream to read from
+     * @param length Number of bytes to read, must not be larger than Integer.MAX_VALUE
+     * @return An array containing the bytes read
+     * @throws IOException
+     */
+    public static byte[] read(InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Record of " + length + " bytes is too large to be read into memory");
+        }
+        return read(in, (int) length);
+    }
+
     /**
      * Write a number of bytes
      *
@@ -275,15 +437,14 @@ public class StreamUtil {
      * @param count Number of times to write the value
      */
     public static void write(final OutputStream out, final int value, final int count) throws IOException {
-        if (count > buffer.length) {
-            // Fallback
-            for (int i = 0; i < count; i++) {
-                writeByte(out, value);
-            }
-        }
-        else {
-            Arrays.fill(buffer, (byte) value);
-            out.write(buffer, 0, count);
+        byte[] buffer = copyBuffer.get(); // Not shared between threads
+        int filled = Math.min(buffer.length, count);
+        Arrays.fill(buffer, 0, filled, (byte) value);
+        int written = 0;
+        while (written < count) {
+            int length = Math.min(filled, count - written);
+            out.write(buffer, 0, length);
+            written += length;
         }
     }
 
@@ -300,4 +461,17 @@ public class StreamUtil {
         }
     }
 
+    /**
+     * Skip a number of bytes from an InputStream (for record lengths, which are unsigned 32-bit values).
+     *
+     * @param in     The InputStream to read from
+     * @param length The number of bytes to skip
+     */
+    public static void skip(final InputStream in, final long length) throws IOException {
+        long skipped = 0;
+        while (skipped != length) {
+            skipped += in.skip(length - skipped);
+        }
+    }
+
 }
@@ -72,7 +72,7 @@ public class HprofReaderTest {
         HprofProcessor processor = new DiscardProcessor() {
 
             @Override
-            public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
                 assertEquals(Tag.STRING, tag);
                 HprofString string = reader.readStringRecord(length, timestamp);
                 switch (calls.get()) {
@@ -117,7 +117,7 @@ public class HprofReaderTest {
         HprofProcessor processor = new DiscardProcessor() {
 
             @Override
-            public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
                 called.set(true);
                 ClassDefinition readCls = reader.readLoadClassRecord();
                 assertEquals(SERIAL, readCls.getSerialNumber());
@@ -0,0 +1,121 @@
+package com.badoo.hprof.library;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.processor.CopyProcessor;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for records larger than 2 GB (record lengths are unsigned 32-bit values). The data is generated while it is being read so
+ * nothing is stored on disk or in memory.
+ */
+public class LargeRecordTest {
+
+    private static final int ARRAY_LENGTH = 64 * 1024 * 1024;
+    private static final int ARRAYS = 80; // 40 arrays per segment, 2.5 GB per segment and 5 GB in total
+
+    private final HprofGenerator.Config config = new HprofGenerator.Config.Builder()
+        .classes(1)
+        .instances(2)
+        .objectArrays(0)
+        .primitiveArrays(ARRAYS)
+        .arrayLength(ARRAY_LENGTH)
+        .strings(0)
+        .segments(2)
+        .build();
+
+    @Test
+    public void readLargeSegments() throws Exception {
+        final List<Long> segmentLengths = new ArrayList<Long>();
+        final long[] primitiveArrays = new long[1];
+        DiscardProcessor processor = new DiscardProcessor() {
+            @Override
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+                if (tag == Tag.HEAP_DUMP_SEGMENT) {
+                    segmentLengths.add(length);
+                    HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), new HeapDumpBaseProcessor() {
+                        @Override
+                        public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                            if (tag == HeapTag.PRIMITIVE_ARRAY_DUMP) {
+                                primitiveArrays[0]++;
+                            }
+                            skipHeapRecord(tag, reader);
+                        }
+                    });
+                    while (heapReader.hasNext()) {
+                        heapReader.next();
+                    }
+                    assertEquals(length, heapReader.getCurrentPosition());
+                }
+                else {
+                    super.onRecord(tag, timestamp, length, reader);
+                }
+            }
+        };
+        read(processor);
+        assertEquals(2, segmentLengths.size());
+        for (long length : segmentLengths) {
+            assertTrue(length > Integer.MAX_VALUE);
+            assertTrue(length <= HprofWriter.MAX_RECORD_LENGTH);
+        }
+        assertEquals(ARRAYS, primitiveArrays[0]);
+    }
+
+    @Test
+    public void copyLargeSegments() throws Exception {
+        CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+        read(new CopyProcessor(out));
+        assertTrue(config.getFileSize() > 0xffffffffL);
+        assertEquals(config.getFileSize(), out.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeTooLargeRecord() throws IOException {
+        new HprofWriter(ByteStreams.nullOutputStream()).writeRecordHeader(Tag.HEAP_DUMP, 0, HprofWriter.MAX_RECORD_LENGTH + 1);
+    }
+
+    private void read(HprofProcessor processor) throws Exception {
+        final PipedOutputStream out = new PipedOutputStream();
+        InputStream in = new PipedInputStream(out, 1024 * 1024);
+        final Exception[] error = new Exception[1];
+        Thread generator = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    new HprofGenerator(config).generate(out);
+                    out.close();
+                }
+                catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        };
+        generator.start();
+        HprofReader reader = new HprofReader(in, processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        generator.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.badoo.hprof.library.generator;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HprofGeneratorTest {
+
+    @Test
+    public void generate4ByteIds() throws IOException {
+        HprofGenerator.Config config = new HprofGenerator.Config.Builder()
+            .classes(5)
+            .instances(1000)
+            .objectArrays(20)
+            .primitiveArrays(30)
+            .arrayLength(7)
+            .strings(50)
+            .segments(3)
+            .build();
+        verify(config, 5, 1000, 20, 30, 3);
+    }
+
+    @Test
+    public void generate8ByteIds() throws IOException {
+        HprofGenerator.Config config = new HprofGenerator.Config.Builder()
+            .idSize(8)
+            .instances(500)
+            .shape(HprofGenerator.GraphShape.RANDOM)
+            .segments(2)
+            .build();
+        verify(config, 10, 500, 100, 100, 2);
+    }
+
+    @Test
+    public void generateIsDeterministic() throws IOException {
+        HprofGenerator.Config config = new HprofGenerator.Config.Builder().shape(HprofGenerator.GraphShape.RANDOM).seed(42).build();
+        assertArrayEquals(generate(config), generate(config));
+    }
+
+    @Test
+    public void readDifferentIdSizesConcurrently() throws Exception {
+        // The id size is kept per reader so files with different id sizes can be read at the same time
+        final HprofGenerator.Config config4 = new HprofGenerator.Config.Builder().instances(2000).segments(4).build();
+        final HprofGenerator.Config config8 = new HprofGenerator.Config.Builder().idSize(8).instances(2000).segments(4).build();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> result4 = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 20; i++) {
+                        verify(config4, 10, 2000, 100, 100, 4);
+                    }
+                    return null;
+                }
+            });
+            Future<?> result8 = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 20; i++) {
+                        verify(config8, 10, 2000, 100, 100, 4);
+                    }
+                    return null;
+                }
+            });
+            result4.get();
+            result8.get();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIdSize() {
+        new HprofGenerator.Config.Builder().idSize(2).build();
+    }
+
+    @Test
+    public void maxClasses() {
+        // Class ids are allocated below the object ids, the last generated class must not get the id of the first object
+        new HprofGenerator.Config.Builder().classes(65533).build();
+        try {
+            new HprofGenerator.Config.Builder().classes(65534).build();
+            fail("Class ids overlapping the object ids were accepted");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void verify(HprofGenerator.Config config, int classes, long instances, long objectArrays, long primitiveArrays, int segments)
+        throws IOException {
+        byte[] data = generate(config);
+        assertEquals(config.getFileSize(), data.length);
+        final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        final Map<ID, ClassDefinition> loadedClasses = new HashMap<ID, ClassDefinition>();
+        final Set<ID> objectIds = new HashSet<ID>();
+        final Set<ID> references = new HashSet<ID>();
+        final HeapDumpBaseProcessor heapProcessor = new HeapDumpBaseProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                increment(counts, 0x100 + tag);
+                switch (tag) {
+                    case HeapTag.CLASS_DUMP:
+                        reader.readClassDumpRecord(loadedClasses);
+                        break;
+                    case HeapTag.INSTANCE_DUMP:
+                        Instance instance = reader.readInstanceDump();
+                        objectIds.add(instance.getObjectId());
+                        ByteArrayInputStream in = new ByteArrayInputStream(instance.getInstanceFieldData());
+                        references.add(reader.getIdContext().readId(in));
+                        references.add(reader.getIdContext().readId(in));
+                        break;
+                    case HeapTag.OBJECT_ARRAY_DUMP:
+                        objectIds.add(reader.readObjectArray().getObjectId());
+                        break;
+                    case HeapTag.PRIMITIVE_ARRAY_DUMP:
+                        objectIds.add(reader.readPrimitiveArray().getObjectId());
+                        break;
+                    default:
+                        skipHeapRecord(tag, reader);
+                }
+            }
+        };
+        DiscardProcessor processor = new DiscardProcessor() {
+            @Override
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+                increment(counts, tag);
+                if (tag == Tag.LOAD_CLASS) {
+                    ClassDefinition cls = reader.readLoadClassRecord();
+                    loadedClasses.put(cls.getObjectId(), cls);
+                }
+                else if (tag == Tag.HEAP_DUMP_SEGMENT) {
+                    HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), heapProcessor);
+                    while (heapReader.hasNext()) {
+                        heapReader.next();
+                    }
+                    assertEquals(length, heapReader.getCurrentPosition());
+                }
+                else {
+                    super.onRecord(tag, timestamp, length, reader);
+                }
+            }
+        };
+        HprofReader reader = new HprofReader(new ByteArrayInputStream(data), processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals(classes + 3, (int) counts.get(Tag.LOAD_CLASS));
+        assertEquals(segments, (int) counts.get(Tag.HEAP_DUMP_SEGMENT));
+        assertEquals(1, (int) counts.get(Tag.HEAP_DUMP_END));
+        assertEquals(classes + 3, (int) counts.get(0x100 + HeapTag.CLASS_DUMP));
+        assertEquals(instances, (long) counts.get(0x100 + HeapTag.INSTANCE_DUMP));
+        assertEquals(objectArrays, (long) counts.get(0x100 + HeapTag.OBJECT_ARRAY_DUMP));
+        assertEquals(primitiveArrays, (long) counts.get(0x100 + HeapTag.PRIMITIVE_ARRAY_DUMP));
+        assertEquals(1 + objectArrays + primitiveArrays, (long) counts.get(0x100 + HeapTag.ROOT_UNKNOWN));
+        assertEquals(config.getObjectCount(), objectIds.size());
+        // All instance references point to generated instances (or null)
+        references.remove(new ID(0));
+        assertTrue(objectIds.containsAll(references));
+    }
+
+    private static byte[] generate(HprofGenerator.Config config) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HprofGenerator(config).generate(out);
+        return out.toByteArray();
+    }
+
+    private static void increment(Map<Integer, Integer> counts, int key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,149 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.index.HprofIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DominatorTreeTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("dominators", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        HprofIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void chainRetainedSizes() throws IOException {
+        int count = 1000;
+        DominatorTree tree = compute(new HprofGenerator.Config.Builder().classes(1).instances(count).objectArrays(0).primitiveArrays(0)
+            .shape(HprofGenerator.GraphShape.CHAIN).build());
+        ReferenceGraph graph = tree.getGraph();
+        int instanceSize = 2 * 4 + 4; // left, right and value
+        List<Long> retainedSizes = new ArrayList<Long>();
+        int classNode = -1;
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            if (graph.getIndex().getObjectType(node) == HeapTag.INSTANCE_DUMP) {
+                retainedSizes.add(tree.getRetainedSize(node));
+                classNode = graph.getClassNode(node);
+            }
+        }
+        // Each instance retains the rest of the chain
+        Collections.sort(retainedSizes);
+        for (int i = 0; i < count; i++) {
+            assertEquals((long) (i + 1) * instanceSize, (long) retainedSizes.get(i));
+        }
+        // All instances are retained by the first instance so they are only counted once
+        assertEquals((long) count * instanceSize, tree.getClassRetainedSize(graph.getObjectId(classNode)));
+    }
+
+    @Test
+    public void randomGraph() throws IOException {
+        DominatorTree tree = compute(new HprofGenerator.Config.Builder().classes(3).instances(300).objectArrays(10).primitiveArrays(10)
+            .arrayLength(3).shape(HprofGenerator.GraphShape.RANDOM).seed(42).build());
+        verifyWithBruteForce(tree);
+    }
+
+    @Test
+    public void treeGraph() throws IOException {
+        DominatorTree tree = compute(new HprofGenerator.Config.Builder().idSize(8).instances(200).objectArrays(2).primitiveArrays(5)
+            .arrayLength(2).build());
+        verifyWithBruteForce(tree);
+    }
+
+    private DominatorTree compute(HprofGenerator.Config config) throws IOException {
+        new HprofGenerator(config).generate(file);
+        return DominatorTree.compute(ReferenceGraphBuilder.build(file, HprofIndex.load(file)));
+    }
+
+    /**
+     * Verify the dominators and retained size of each node by removing each node from the graph and checking which nodes can no longer be
+     * reached.
+     */
+    private static void verifyWithBruteForce(DominatorTree tree) {
+        ReferenceGraph graph = tree.getGraph();
+        int nodeCount = graph.getNodeCount();
+        boolean[] reachable = reachable(graph, -1);
+        boolean[][] dominates = new boolean[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            assertEquals(reachable[node], tree.isReachable(node));
+            if (!reachable[node]) {
+                assertEquals(DominatorTree.UNREACHABLE, tree.getImmediateDominator(node));
+                assertEquals(0, tree.getRetainedSize(node));
+                continue;
+            }
+            boolean[] reachableWithout = reachable(graph, node);
+            dominates[node] = new boolean[nodeCount];
+            long retainedSize = 0;
+            for (int other = 0; other < nodeCount; other++) {
+                if (reachable[other] && !reachableWithout[other]) {
+                    dominates[node][other] = true;
+                    retainedSize += graph.getShallowSize(other);
+                }
+            }
+            assertEquals(retainedSize, tree.getRetainedSize(node));
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (!reachable[node]) {
+                continue;
+            }
+            // The dominators of a node are its ancestors in the tree
+            boolean[] ancestors = new boolean[nodeCount];
+            for (int dominator = tree.getImmediateDominator(node); dominator != DominatorTree.ROOT; dominator = tree.getImmediateDominator(dominator)) {
+                ancestors[dominator] = true;
+            }
+            for (int other = 0; other < nodeCount; other++) {
+                if (other != node && reachable[other]) {
+                    assertEquals(dominates[other][node], ancestors[other]);
+                }
+            }
+            assertFalse(ancestors[node]);
+        }
+        assertTrue(graph.getRootCount() > 0);
+    }
+
+    private static boolean[] reachable(ReferenceGraph graph, int removed) {
+        boolean[] visited = new boolean[graph.getNodeCount()];
+        int[] queue = new int[graph.getNodeCount()];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < graph.getRootCount(); i++) {
+            int root = graph.getRoot(i);
+            if (root != removed && !visited[root]) {
+                visited[root] = true;
+                queue[tail++] = root;
+            }
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < graph.getReferenceCount(node); i++) {
+                int referenced = graph.getReference(node, i);
+                if (referenced != removed && !visited[referenced]) {
+                    visited[referenced] = true;
+                    queue[tail++] = referenced;
+                }
+            }
+        }
+        return visited;
+    }
+}
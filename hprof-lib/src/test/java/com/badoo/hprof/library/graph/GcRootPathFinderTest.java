@@ -0,0 +1,114 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.index.HprofIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GcRootPathFinderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("paths", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        HprofIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void chainPaths() throws IOException {
+        int count = 100;
+        GcRootPathFinder finder = create(new HprofGenerator.Config.Builder().classes(1).instances(count).objectArrays(0).primitiveArrays(0)
+            .shape(HprofGenerator.GraphShape.CHAIN).build());
+        ReferenceGraph graph = finder.getGraph();
+        int instances = 0;
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            if (graph.getIndex().getObjectType(node) == HeapTag.INSTANCE_DUMP) {
+                instances++;
+                int[] path = finder.findPath(node);
+                verifyPath(graph, node, path);
+            }
+        }
+        assertEquals(count, instances);
+    }
+
+    @Test
+    public void randomGraphPaths() throws IOException {
+        GcRootPathFinder finder = create(new HprofGenerator.Config.Builder().classes(3).instances(300).objectArrays(10).primitiveArrays(10)
+            .arrayLength(3).shape(HprofGenerator.GraphShape.RANDOM).seed(7).build());
+        ReferenceGraph graph = finder.getGraph();
+        int[] distances = distancesFromRoots(graph);
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            int[] path = finder.findPath(node);
+            if (distances[node] == -1) {
+                assertNull(path);
+            }
+            else {
+                verifyPath(graph, node, path);
+                assertEquals(distances[node] + 1, path.length); // The path must be a shortest path
+            }
+        }
+    }
+
+    private GcRootPathFinder create(HprofGenerator.Config config) throws IOException {
+        new HprofGenerator(config).generate(file);
+        return new GcRootPathFinder(ReferenceGraphBuilder.build(file, HprofIndex.load(file)));
+    }
+
+    private static void verifyPath(ReferenceGraph graph, int node, int[] path) {
+        assertTrue(path.length > 0);
+        assertNotEquals(HprofIndex.NOT_FOUND, graph.findRoot(path[0]));
+        assertEquals(node, path[path.length - 1]);
+        for (int i = 1; i < path.length; i++) {
+            boolean found = false;
+            for (int j = 0; j < graph.getReferenceCount(path[i - 1]); j++) {
+                found |= graph.getReference(path[i - 1], j) == path[i];
+            }
+            assertTrue(found);
+        }
+    }
+
+    /**
+     * Breadth first search from all GC roots, returning the number of references from the closest root to each node (-1 if unreachable).
+     */
+    private static int[] distancesFromRoots(ReferenceGraph graph) {
+        int[] distances = new int[graph.getNodeCount()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = -1;
+        }
+        int[] queue = new int[graph.getNodeCount()];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < graph.getRootCount(); i++) {
+            distances[graph.getRoot(i)] = 0;
+            queue[tail++] = graph.getRoot(i);
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < graph.getReferenceCount(node); i++) {
+                int referenced = graph.getReference(node, i);
+                if (distances[referenced] == -1) {
+                    distances[referenced] = distances[node] + 1;
+                    queue[tail++] = referenced;
+                }
+            }
+        }
+        return distances;
+    }
+}
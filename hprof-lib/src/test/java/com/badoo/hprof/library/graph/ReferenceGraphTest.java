@@ -0,0 +1,187 @@
+package com.badoo.hprof.library.graph;
+
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.index.HprofRandomAccessReader;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.model.ObjectArray;
+import com.badoo.hprof.library.util.FileUtil;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceGraphTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("graph", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        HprofIndex.getIndexFile(file).delete();
+        ReferenceGraph.getGraphFile(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void buildGraph4ByteIds() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().instances(500).segments(2).build()).generate(file);
+        verify(4, 1 + 100 + 100);
+    }
+
+    @Test
+    public void buildGraph8ByteIds() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().idSize(8).instances(500).objectArrays(20).primitiveArrays(5)
+            .shape(HprofGenerator.GraphShape.RANDOM).build()).generate(file);
+        verify(8, 1 + 20 + 5);
+    }
+
+    @Test
+    public void writeAndLoadGraph() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().instances(300).objectArrays(10).primitiveArrays(5)
+            .shape(HprofGenerator.GraphShape.RANDOM).build()).generate(file);
+        HprofIndex index = HprofIndex.load(file);
+        File graphFile = ReferenceGraph.getGraphFile(file);
+        assertFalse(graphFile.exists());
+        ReferenceGraph built = ReferenceGraph.load(file, index); // Builds and saves the graph
+        assertTrue(graphFile.exists());
+        ReferenceGraph loaded = ReferenceGraph.load(file, index); // Memory maps the saved graph
+        assertTrue(loaded.isGraphOf(file));
+        assertGraphEquals(built, loaded);
+        assertGraphEquals(built.reverse(), loaded.reverse());
+        // A modified HPROF file must not use the old graph
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertFalse(loaded.isGraphOf(file));
+    }
+
+    @Test
+    public void rebuildCorruptGraphFile() throws IOException {
+        new HprofGenerator(new HprofGenerator.Config.Builder().instances(300).build()).generate(file);
+        HprofIndex index = HprofIndex.load(file);
+        File graphFile = ReferenceGraph.getGraphFile(file);
+        ReferenceGraph built = ReferenceGraph.load(file, index);
+        // Truncated file
+        RandomAccessFile out = new RandomAccessFile(graphFile, "rw");
+        out.setLength(out.length() / 2);
+        out.close();
+        assertGraphEquals(built, ReferenceGraph.load(file, index));
+        assertGraphEquals(built, ReferenceGraph.read(graphFile, index));
+        // File of another version
+        out = new RandomAccessFile(graphFile, "rw");
+        out.seek(4);
+        out.writeInt(0);
+        out.close();
+        assertGraphEquals(built, ReferenceGraph.load(file, index));
+        assertGraphEquals(built, ReferenceGraph.read(graphFile, index));
+        assertFalse(FileUtil.getTempFile(graphFile).exists());
+    }
+
+    private static void assertGraphEquals(ReferenceGraph expected, ReferenceGraph actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getTotalReferenceCount(), actual.getTotalReferenceCount());
+        for (int node = 0; node < expected.getNodeCount(); node++) {
+            assertEquals(getReferences(expected, node), getReferences(actual, node));
+            assertEquals(expected.getShallowSize(node), actual.getShallowSize(node));
+            assertEquals(expected.getClassNode(node), actual.getClassNode(node));
+        }
+        assertEquals(expected.getRootCount(), actual.getRootCount());
+        for (int i = 0; i < expected.getRootCount(); i++) {
+            assertEquals(expected.getRoot(i), actual.getRoot(i));
+            assertEquals(expected.getRootType(i), actual.getRootType(i));
+        }
+    }
+
+    private void verify(int idSize, int rootCount) throws IOException {
+        HprofIndex index = HprofIndex.load(file);
+        ReferenceGraph graph = ReferenceGraphBuilder.build(file, index);
+        assertEquals(index.getObjectCount(), graph.getNodeCount());
+        assertEquals(rootCount, graph.getRootCount());
+        for (int i = 0; i < graph.getRootCount(); i++) {
+            assertEquals(HeapTag.ROOT_UNKNOWN, graph.getRootType(i));
+            assertEquals(i, graph.findRoot(graph.getRoot(i)));
+        }
+        HprofRandomAccessReader reader = new HprofRandomAccessReader(file, index);
+        try {
+            for (int node = 0; node < graph.getNodeCount(); node++) {
+                long objectId = graph.getObjectId(node);
+                List<Long> expected = new ArrayList<Long>();
+                int type = index.getObjectType(node);
+                if (type == HeapTag.INSTANCE_DUMP) {
+                    Instance instance = reader.readInstance(objectId);
+                    expected.add(instance.getClassId().toLong());
+                    ByteArrayInputStream in = new ByteArrayInputStream(instance.getInstanceFieldData());
+                    for (int i = 0; i < 2; i++) { // Fields "left" and "right"
+                        long id = StreamUtil.readIdAsLong(in, idSize);
+                        if (id != 0) {
+                            expected.add(id);
+                        }
+                    }
+                    assertEquals(instance.getInstanceFieldData().length, graph.getShallowSize(node));
+                    assertEquals(instance.getClassId().toLong(), graph.getObjectId(graph.getClassNode(node)));
+                }
+                else if (type == HeapTag.OBJECT_ARRAY_DUMP) {
+                    ObjectArray array = reader.readObjectArray(objectId);
+                    expected.add(array.getElementClassId().toLong());
+                    for (ID element : array.getElements()) {
+                        if (element.toLong() != 0) {
+                            expected.add(element.toLong());
+                        }
+                    }
+                    assertEquals(array.getElements().length * idSize, graph.getShallowSize(node));
+                }
+                else if (type == HeapTag.PRIMITIVE_ARRAY_DUMP) {
+                    assertEquals(ReferenceGraph.NO_CLASS, graph.getClassNode(node));
+                    assertEquals(reader.readPrimitiveArray(objectId).getArrayData().length, graph.getShallowSize(node));
+                }
+                else {
+                    continue; // Classes only reference their super class (if any)
+                }
+                assertEquals(sorted(expected), getReferences(graph, node));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        // Every reference must be found in the reverse graph
+        ReferenceGraph reverse = graph.reverse();
+        assertEquals(graph.getTotalReferenceCount(), reverse.getTotalReferenceCount());
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            for (int i = 0; i < graph.getReferenceCount(node); i++) {
+                int referenced = graph.getReference(node, i);
+                assertTrue(getReferences(reverse, referenced).contains(graph.getObjectId(node)));
+            }
+        }
+    }
+
+    private static List<Long> getReferences(ReferenceGraph graph, int node) {
+        List<Long> references = new ArrayList<Long>();
+        for (int i = 0; i < graph.getReferenceCount(node); i++) {
+            references.add(graph.getObjectId(graph.getReference(node, i)));
+        }
+        return sorted(references);
+    }
+
+    private static List<Long> sorted(List<Long> list) {
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -1,19 +1,24 @@
 package com.badoo.hprof.library.heap;
 
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.heap.processor.HeapDumpDiscardProcessor;
 import com.badoo.hprof.library.model.ClassDefinition;
-
+import com.badoo.hprof.library.model.GcRoot;
 import com.badoo.hprof.library.model.ID;
-import com.badoo.hprof.library.util.StreamUtil;
+import com.badoo.hprof.library.model.LongIdInstance;
+import com.badoo.hprof.library.model.LongIdObjectArray;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
@@ -32,7 +37,6 @@ public class HeapDumpReaderTest {
 
     @Before
     public void setUp() throws Exception {
-        StreamUtil.ID_SIZE = 4;
         OBJECT_ID = new ID(1);
         SUPER_CLASS_OBJECT_ID = new ID(3);
         CLASS_LOADER_OBJECT_ID = new ID(4);
@@ -52,7 +56,7 @@ public class HeapDumpReaderTest {
         srcClass.setProtectionDomainObjectId(PROTECTION_DOMAIN_OBJECT_ID);
         srcClass.setInstanceSize(INSTANCE_SIZE);
         ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-        HeapDumpWriter writer = new HeapDumpWriter(outBuffer);
+        HeapDumpWriter writer = new HeapDumpWriter(outBuffer, IdContext.ID_4);
         writer.writeClassDumpRecord(srcClass);
         // Verify
         final AtomicBoolean called = new AtomicBoolean(false);
@@ -74,11 +78,112 @@ public class HeapDumpReaderTest {
                 assertEquals(INSTANCE_SIZE, dstClass.getInstanceSize());
             }
         };
-        HeapDumpReader reader = new HeapDumpReader(inBuffer, data.length, processor);
+        HeapDumpReader reader = new HeapDumpReader(inBuffer, data.length, IdContext.ID_4, processor);
         while (reader.hasNext()) {
             reader.next();
         }
         assertTrue(called.get());
     }
 
+    @Test
+    public void readLongIdRecords() throws IOException {
+        // Write data
+        ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+        HeapDumpWriter writer = new HeapDumpWriter(outBuffer, IdContext.ID_4);
+        writer.writeInstanceDumpRecord(OBJECT_ID, STACK_TRACE_SERIAL, SUPER_CLASS_OBJECT_ID, new byte[]{1, 2, 3});
+        writer.writeObjectArray(0xfffffff0L, STACK_TRACE_SERIAL, 3, new long[]{1, 0, 0xfffffff0L});
+        // Verify
+        final List<Object> records = new ArrayList<Object>();
+        byte[] data = outBuffer.toByteArray();
+        HeapDumpProcessor processor = new HeapDumpDiscardProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                if (tag == HeapTag.INSTANCE_DUMP) {
+                    records.add(reader.readLongIdInstanceDump());
+                }
+                else {
+                    records.add(reader.readLongIdObjectArray());
+                }
+            }
+        };
+        HeapDumpReader reader = new HeapDumpReader(new ByteArrayInputStream(data), data.length, IdContext.ID_4, processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals(2, records.size());
+        LongIdInstance instance = (LongIdInstance) records.get(0);
+        assertEquals(OBJECT_ID.toLong(), instance.getObjectId());
+        assertEquals(SUPER_CLASS_OBJECT_ID.toLong(), instance.getClassId());
+        assertEquals(STACK_TRACE_SERIAL, instance.getStackTraceSerialId());
+        assertArrayEquals(new byte[]{1, 2, 3}, instance.getInstanceFieldData());
+        LongIdObjectArray array = (LongIdObjectArray) records.get(1);
+        // 4 byte ids are sign extended, same as ID.toLong()
+        assertEquals(new ID(0xfffffff0L).toLong(), array.getObjectId());
+        assertEquals(3, array.getElementClassId());
+        assertArrayEquals(new long[]{1, 0, new ID(0xfffffff0L).toLong()}, array.getElements());
+    }
+
+    @Test
+    public void readGcRoots() throws IOException {
+        int[] types = {HeapTag.ROOT_UNKNOWN, HeapTag.ROOT_JNI_GLOBAL, HeapTag.ROOT_JNI_LOCAL, HeapTag.ROOT_JAVA_FRAME,
+            HeapTag.ROOT_NATIVE_STACK, HeapTag.ROOT_STICKY_CLASS, HeapTag.ROOT_THREAD_BLOCK, HeapTag.ROOT_MONITOR_USED,
+            HeapTag.ROOT_THREAD_OBJECT, HeapTag.HPROF_ROOT_INTERNED_STRING, HeapTag.HPROF_ROOT_FINALIZING, HeapTag.HPROF_ROOT_DEBUGGER,
+            HeapTag.HPROF_ROOT_REFERENCE_CLEANUP, HeapTag.HPROF_ROOT_VM_INTERNAL, HeapTag.HPROF_ROOT_JNI_MONITOR};
+        // Write data
+        ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+        HeapDumpWriter writer = new HeapDumpWriter(outBuffer, IdContext.ID_8);
+        for (int i = 0; i < types.length; i++) {
+            writer.writeGcRoot(new GcRoot(types[i], new ID(0x100000000L + i), 10 + i, 20 + i, 30 + i, new ID(0x200000000L + i)));
+        }
+        // Verify
+        final List<GcRoot> roots = new ArrayList<GcRoot>();
+        byte[] data = outBuffer.toByteArray();
+        HeapDumpProcessor processor = new HeapDumpDiscardProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                assertTrue(HeapTag.isGcRoot(tag));
+                roots.add(reader.readGcRoot(tag));
+            }
+        };
+        HeapDumpReader reader = new HeapDumpReader(new ByteArrayInputStream(data), data.length, IdContext.ID_8, processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals(types.length, roots.size());
+        for (int i = 0; i < types.length; i++) {
+            GcRoot root = roots.get(i);
+            assertEquals(types[i], root.getType());
+            assertEquals(new ID(0x100000000L + i), root.getObjectId());
+            boolean hasThread = types[i] == HeapTag.ROOT_JNI_LOCAL || types[i] == HeapTag.ROOT_JAVA_FRAME
+                || types[i] == HeapTag.HPROF_ROOT_JNI_MONITOR || types[i] == HeapTag.ROOT_NATIVE_STACK
+                || types[i] == HeapTag.ROOT_THREAD_BLOCK || types[i] == HeapTag.ROOT_THREAD_OBJECT;
+            boolean hasFrame = types[i] == HeapTag.ROOT_JNI_LOCAL || types[i] == HeapTag.ROOT_JAVA_FRAME
+                || types[i] == HeapTag.HPROF_ROOT_JNI_MONITOR;
+            assertEquals(hasThread ? 10 + i : GcRoot.NOT_SET, root.getThreadSerial());
+            assertEquals(hasFrame ? 20 + i : GcRoot.NOT_SET, root.getFrameNumber());
+            assertEquals(types[i] == HeapTag.ROOT_THREAD_OBJECT ? 30 + i : GcRoot.NOT_SET, root.getStackTraceSerial());
+            assertEquals(types[i] == HeapTag.ROOT_JNI_GLOBAL ? new ID(0x200000000L + i) : null, root.getJniGlobalRefId());
+        }
+        // Writing the roots that were read must give the same data
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        writer = new HeapDumpWriter(rewritten, IdContext.ID_8);
+        for (GcRoot root : roots) {
+            writer.writeGcRoot(root);
+        }
+        assertArrayEquals(data, rewritten.toByteArray());
+        // The records must also be skipped correctly
+        final AtomicInteger skipped = new AtomicInteger();
+        reader = new HeapDumpReader(new ByteArrayInputStream(data), data.length, IdContext.ID_8, new HeapDumpDiscardProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                skipped.incrementAndGet();
+                super.onHeapRecord(tag, reader);
+            }
+        });
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals(types.length, skipped.get());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.badoo.hprof.library.index;
+
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpBaseProcessor;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.model.ObjectArray;
+import com.badoo.hprof.library.model.PrimitiveArray;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.badoo.hprof.library.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HprofIndexTest {
+
+    private File file;
+    private final List<Instance> instances = new ArrayList<Instance>();
+    private final List<ObjectArray> objectArrays = new ArrayList<ObjectArray>();
+    private final List<PrimitiveArray> primitiveArrays = new ArrayList<PrimitiveArray>();
+    private final List<HprofString> strings = new ArrayList<HprofString>();
+    private final Map<Long, Integer> instanceCounts = new HashMap<Long, Integer>();
+    private int classCount;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("indexed", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        HprofIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void index4ByteIds() throws IOException {
+        generate(new HprofGenerator.Config.Builder().instances(3000).segments(3).shape(HprofGenerator.GraphShape.RANDOM).build());
+        verify(HprofIndexBuilder.build(file));
+    }
+
+    @Test
+    public void index8ByteIds() throws IOException {
+        generate(new HprofGenerator.Config.Builder().idSize(8).instances(3000).segments(2).build());
+        verify(HprofIndexBuilder.build(file));
+    }
+
+    @Test
+    public void loadIndexFile() throws IOException {
+        generate(new HprofGenerator.Config.Builder().instances(1000).build());
+        File indexFile = HprofIndex.getIndexFile(file);
+        assertFalse(indexFile.exists());
+        verify(HprofIndex.load(file)); // Built and saved
+        assertTrue(indexFile.exists());
+        long indexModified = indexFile.lastModified();
+        verify(HprofIndex.load(file)); // Read from the index file
+        assertEquals(indexModified, indexFile.lastModified());
+        verify(HprofIndex.read(indexFile));
+    }
+
+    @Test
+    public void detectModifiedFile() throws IOException {
+        generate(new HprofGenerator.Config.Builder().instances(1000).build());
+        HprofIndex index = HprofIndex.load(file);
+        generate(new HprofGenerator.Config.Builder().instances(2000).build());
+        assertFalse(index.isIndexOf(file));
+        verify(HprofIndex.load(file)); // The index is rebuilt
+    }
+
+    @Test
+    public void rebuildTruncatedIndexFile() throws IOException {
+        generate(new HprofGenerator.Config.Builder().instances(1000).build());
+        File indexFile = HprofIndex.getIndexFile(file);
+        HprofIndex.load(file);
+        RandomAccessFile out = new RandomAccessFile(indexFile, "rw");
+        out.setLength(out.length() / 2);
+        out.close();
+        verify(HprofIndex.load(file)); // The index is rebuilt
+        verify(HprofIndex.read(indexFile));
+        assertFalse(FileUtil.getTempFile(indexFile).exists());
+    }
+
+    @Test
+    public void rebuildIndexFileOfOtherVersion() throws IOException {
+        generate(new HprofGenerator.Config.Builder().instances(1000).build());
+        File indexFile = HprofIndex.getIndexFile(file);
+        HprofIndex.load(file);
+        RandomAccessFile out = new RandomAccessFile(indexFile, "rw");
+        out.seek(4);
+        out.writeInt(1); // Version
+        out.close();
+        verify(HprofIndex.load(file)); // The index is rebuilt
+        verify(HprofIndex.read(indexFile));
+    }
+
+    private void verify(HprofIndex index) throws IOException {
+        assertEquals(instances.size() + objectArrays.size() + primitiveArrays.size() + classCount, index.getObjectCount());
+        assertEquals(classCount, index.getClassCount());
+        assertEquals(strings.size(), index.getStringCount());
+        assertEquals(classCount, index.getLoadClassCount());
+        for (int i = 0; i < index.getClassCount(); i++) {
+            long classId = index.getClassId(i);
+            Integer expected = instanceCounts.get(classId);
+            assertEquals(expected != null ? expected : 0, index.getInstanceCount(classId));
+        }
+        HprofRandomAccessReader reader = new HprofRandomAccessReader(file, index);
+        try {
+            // Read in reverse order to make sure that the records are not read sequentially
+            for (int i = instances.size() - 1; i >= 0; i--) {
+                Instance expected = instances.get(i);
+                Instance instance = reader.readInstance(expected.getObjectId().toLong());
+                assertEquals(expected.getObjectId(), instance.getObjectId());
+                assertEquals(expected.getClassId(), instance.getClassId());
+                assertArrayEquals(expected.getInstanceFieldData(), instance.getInstanceFieldData());
+            }
+            for (int i = objectArrays.size() - 1; i >= 0; i--) {
+                ObjectArray expected = objectArrays.get(i);
+                ObjectArray array = reader.readObjectArray(expected.getObjectId().toLong());
+                assertEquals(expected.getElementClassId(), array.getElementClassId());
+                assertArrayEquals(expected.getElements(), array.getElements());
+            }
+            for (int i = primitiveArrays.size() - 1; i >= 0; i--) {
+                PrimitiveArray expected = primitiveArrays.get(i);
+                PrimitiveArray array = reader.readPrimitiveArray(expected.getObjectId().toLong());
+                assertEquals(expected.getType(), array.getType());
+                assertArrayEquals(expected.getArrayData(), array.getArrayData());
+                assertEquals(expected.getArrayData().length, reader.readPrimitiveArraySize(expected.getObjectId().toLong()));
+            }
+            for (int i = strings.size() - 1; i >= 0; i--) {
+                HprofString expected = strings.get(i);
+                assertEquals(expected.getValue(), reader.readString(expected.getId().toLong()).getValue());
+            }
+            for (int i = 0; i < index.getClassCount(); i++) {
+                ClassDefinition cls = reader.readClass(index.getClassId(i));
+                assertEquals(index.getClassId(i), cls.getObjectId().toLong());
+                assertNotNull(reader.readString(cls.getNameStringId().toLong()));
+                assertNotNull(cls.getSuperClassObjectId()); // Set from the CLASS_DUMP record
+            }
+            assertNull(reader.readInstance(1));
+            assertNull(reader.readString(-1));
+            assertEquals(HeapTag.OBJECT_ARRAY_DUMP, reader.getObjectType(objectArrays.get(0).getObjectId().toLong()));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private void generate(HprofGenerator.Config config) throws IOException {
+        new HprofGenerator(config).generate(file);
+        instances.clear();
+        objectArrays.clear();
+        primitiveArrays.clear();
+        strings.clear();
+        instanceCounts.clear();
+        classCount = 0;
+        // Read all records sequentially
+        final HeapDumpBaseProcessor heapProcessor = new HeapDumpBaseProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                if (tag == HeapTag.INSTANCE_DUMP) {
+                    Instance instance = reader.readInstanceDump();
+                    instances.add(instance);
+                    Integer count = instanceCounts.get(instance.getClassId().toLong());
+                    instanceCounts.put(instance.getClassId().toLong(), count == null ? 1 : count + 1);
+                }
+                else if (tag == HeapTag.OBJECT_ARRAY_DUMP) {
+                    objectArrays.add(reader.readObjectArray());
+                }
+                else if (tag == HeapTag.PRIMITIVE_ARRAY_DUMP) {
+                    primitiveArrays.add(reader.readPrimitiveArray());
+                }
+                else {
+                    if (tag == HeapTag.CLASS_DUMP) {
+                        classCount++;
+                    }
+                    skipHeapRecord(tag, reader);
+                }
+            }
+        };
+        InputStream in = new FileInputStream(file);
+        HprofReader reader = new HprofReader(in, new DiscardProcessor() {
+            @Override
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+                if (tag == Tag.STRING) {
+                    strings.add(reader.readStringRecord(length, timestamp));
+                }
+                else if (tag == Tag.HEAP_DUMP_SEGMENT) {
+                    HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), heapProcessor);
+                    while (heapReader.hasNext()) {
+                        heapReader.next();
+                    }
+                }
+                else {
+                    super.onRecord(tag, timestamp, length, reader);
+                }
+            }
+        });
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        in.close();
+    }
+}
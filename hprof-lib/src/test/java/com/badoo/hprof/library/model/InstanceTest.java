@@ -0,0 +1,115 @@
+package com.badoo.hprof.library.model;
+
+import com.badoo.hprof.library.IdContext;
+import com.badoo.hprof.library.util.StreamUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InstanceTest {
+
+    private final Map<ID, ClassDefinition> classes = new HashMap<ID, ClassDefinition>();
+    private ClassDefinition cls;
+    private ClassDefinition superCls;
+    private InstanceField objectField;
+    private InstanceField byteField;
+    private InstanceField intField;
+    private InstanceField shortField;
+    private InstanceField charField;
+    private InstanceField longField;
+    private InstanceField booleanField;
+    private InstanceField doubleField;
+    private InstanceField floatField;
+
+    @Before
+    public void setUp() {
+        superCls = new ClassDefinition();
+        superCls.setObjectId(new ID(1));
+        superCls.setSuperClassObjectId(new ID(0));
+        superCls.addInstanceField(longField = new InstanceField(BasicType.LONG, new ID(10)));
+        superCls.addInstanceField(booleanField = new InstanceField(BasicType.BOOLEAN, new ID(11)));
+        superCls.addInstanceField(doubleField = new InstanceField(BasicType.DOUBLE, new ID(12)));
+        superCls.addInstanceField(floatField = new InstanceField(BasicType.FLOAT, new ID(13)));
+        cls = new ClassDefinition();
+        cls.setObjectId(new ID(2));
+        cls.setSuperClassObjectId(superCls.getObjectId());
+        cls.addInstanceField(objectField = new InstanceField(BasicType.OBJECT, new ID(20)));
+        cls.addInstanceField(byteField = new InstanceField(BasicType.BYTE, new ID(21)));
+        cls.addInstanceField(intField = new InstanceField(BasicType.INT, new ID(22)));
+        cls.addInstanceField(shortField = new InstanceField(BasicType.SHORT, new ID(23)));
+        cls.addInstanceField(charField = new InstanceField(BasicType.CHAR, new ID(24)));
+        classes.put(superCls.getObjectId(), superCls);
+        classes.put(cls.getObjectId(), cls);
+    }
+
+    @Test
+    public void readFields4ByteIds() throws IOException {
+        verifyFields(IdContext.ID_4, 0xfffffff0L);
+    }
+
+    @Test
+    public void readFields8ByteIds() throws IOException {
+        verifyFields(IdContext.ID_8, 0x123456789aL);
+    }
+
+    @Test
+    public void layout() {
+        ClassLayout layout = ClassLayout.get(cls, classes, IdContext.ID_4);
+        assertSame(layout, ClassLayout.get(cls, classes, IdContext.ID_4)); // Cached
+        assertEquals(9, layout.getFields().size());
+        assertEquals(0, layout.getOffset(objectField));
+        assertEquals(4, layout.getOffset(byteField));
+        assertEquals(5, layout.getOffset(intField));
+        assertEquals(13, layout.getOffset(longField)); // Super class fields come last
+        assertEquals(4 + 1 + 4 + 2 + 2 + 8 + 1 + 8 + 4, layout.getDataSize());
+        assertEquals(ClassLayout.NOT_FOUND, layout.getOffset(new InstanceField(BasicType.INT, new ID(22))));
+        // The layout depends on the id size
+        assertEquals(layout.getDataSize() + 4, ClassLayout.get(cls, classes, IdContext.ID_8).getDataSize());
+        // Changing the fields of the class must recompute the layout
+        InstanceField added = new InstanceField(BasicType.INT, new ID(25));
+        cls.addInstanceField(added);
+        ClassLayout updated = ClassLayout.get(cls, classes, IdContext.ID_4);
+        assertFalse(layout == updated);
+        assertTrue(updated.getOffset(added) != ClassLayout.NOT_FOUND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongFieldType() throws IOException {
+        Instance instance = new Instance(new ID(100), 0, cls.getObjectId(), new byte[48], IdContext.ID_4);
+        instance.getIntField(shortField, classes);
+    }
+
+    private void verifyFields(IdContext idContext, long objectId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        idContext.writeId(out, objectId);
+        out.write(0xf0); // byte
+        StreamUtil.writeInt(out, -123456); // int
+        StreamUtil.writeShort(out, (short) -2); // short
+        StreamUtil.writeShort(out, (short) 'x'); // char
+        StreamUtil.writeLong(out, -1234567890123L); // long
+        out.write(1); // boolean
+        StreamUtil.writeLong(out, Double.doubleToLongBits(1.5)); // double
+        StreamUtil.writeInt(out, Float.floatToIntBits(-2.25f)); // float
+        Instance instance = new Instance(new ID(100), 0, cls.getObjectId(), out.toByteArray(), idContext);
+        assertEquals(new ID(objectId, idContext.getIdSize()), instance.getObjectField(objectField, classes));
+        assertEquals(0xf0, instance.getByteField(byteField, classes));
+        assertEquals(-123456, instance.getIntField(intField, classes));
+        assertEquals(-2, instance.getShortField(shortField, classes));
+        assertEquals('x', instance.getCharField(charField, classes));
+        assertEquals(-1234567890123L, instance.getLongField(longField, classes));
+        assertTrue(instance.getBooleanField(booleanField, classes));
+        assertEquals(1.5, instance.getDoubleField(doubleField, classes), 0);
+        assertEquals(-2.25f, instance.getFloatField(floatField, classes), 0);
+        assertEquals(out.size(), instance.getLayout(classes).getDataSize());
+    }
+}
@@ -0,0 +1,43 @@
+package com.badoo.hprof.library.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongIntMapTest {
+
+    @Test
+    public void putAndGet() {
+        LongIntMap map = new LongIntMap(4);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(LongIntMap.NO_VALUE, map.put(i * 8L, i)); // Aligned keys, like object ids
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get(i * 8L));
+        }
+        assertEquals(LongIntMap.NO_VALUE, map.get(3));
+        assertEquals(0, map.get(0));
+        assertEquals(5, map.put(40, 6));
+        assertEquals(6, map.get(40));
+        assertEquals(10000, map.size());
+    }
+
+    @Test
+    public void putIfAbsent() {
+        LongIntMap map = new LongIntMap();
+        assertEquals(LongIntMap.NO_VALUE, map.putIfAbsent(0xfffffff0L, 1));
+        assertEquals(1, map.putIfAbsent(0xfffffff0L, 2));
+        assertEquals(1, map.get(0xfffffff0L));
+        assertEquals(LongIntMap.NO_VALUE, map.putIfAbsent(-1, 3));
+        assertEquals(3, map.get(-1));
+        assertTrue(map.containsKey(-1));
+        assertFalse(map.containsKey(0));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(LongIntMap.NO_VALUE, map.get(-1));
+    }
+
+}
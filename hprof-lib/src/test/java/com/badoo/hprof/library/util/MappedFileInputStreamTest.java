@@ -0,0 +1,208 @@
+package com.badoo.hprof.library.util;
+
+import com.badoo.hprof.library.HprofProcessor;
+import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.HprofWriter;
+import com.badoo.hprof.library.Tag;
+import com.badoo.hprof.library.generator.HprofGenerator;
+import com.badoo.hprof.library.heap.HeapDumpReader;
+import com.badoo.hprof.library.heap.HeapDumpWriter;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.heap.processor.HeapDumpCopyProcessor;
+import com.badoo.hprof.library.heap.processor.HeapDumpDiscardProcessor;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.processor.CopyProcessor;
+import com.badoo.hprof.library.processor.DiscardProcessor;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedFileInputStreamTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readAcrossWindows() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        StreamUtil.writeByte(out, 0x7f);
+        StreamUtil.writeInt(out, 0xcafebabe);
+        StreamUtil.writeLong(out, 0x0123456789abcdefL);
+        StreamUtil.writeShort(out, (short) -2);
+        StreamUtil.writeInt(out, 42);
+        out.close();
+
+        // Use a window size that forces every value to be split between two windows
+        MappedFileInputStream in = new MappedFileInputStream(file, 3);
+        assertEquals(0x7f, StreamUtil.readByte(in));
+        assertEquals(0xcafebabe, StreamUtil.readInt(in));
+        assertEquals(0x0123456789abcdefL, StreamUtil.readLong(in));
+        assertEquals(-2, StreamUtil.readShort(in));
+        assertEquals(15, in.getPosition());
+        StreamUtil.skip(in, 2);
+        assertArrayEquals(new byte[]{0, 42}, StreamUtil.read(in, 2));
+        assertEquals(-1, in.read());
+        in.setPosition(1);
+        assertEquals(0xcafebabe, StreamUtil.readInt(in));
+        in.close();
+    }
+
+    @Test
+    public void readHprofFromMappedFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        HprofWriter writer = new HprofWriter(out);
+        writer.writeHprofFileHeader("JAVA PROFILE 1.0.2", 4, 0, 0);
+        writer.writeStringRecord(new HprofString(new ID(1), "a", 0));
+        ByteArrayOutputStream heapData = new ByteArrayOutputStream();
+        HeapDumpWriter heapWriter = new HeapDumpWriter(heapData, writer.getIdContext());
+        heapWriter.writeInstanceDumpRecord(new ID(10), 0, new ID(20), new byte[]{1, 2, 3});
+        heapWriter.writeInstanceDumpRecord(new ID(11), 0, new ID(20), new byte[]{4, 5, 6});
+        writer.writeRecordHeader(Tag.HEAP_DUMP, 0, heapData.size());
+        heapData.writeTo(out);
+        writer.writeStringRecord(new HprofString(new ID(2), "b", 0));
+        out.close();
+
+        final List<String> strings = new ArrayList<String>();
+        final List<Instance> instances = new ArrayList<Instance>();
+        final HeapDumpDiscardProcessor heapProcessor = new HeapDumpDiscardProcessor() {
+            @Override
+            public void onHeapRecord(int tag, @Nonnull HeapDumpReader reader) throws IOException {
+                assertEquals(HeapTag.INSTANCE_DUMP, tag);
+                instances.add(reader.readInstanceDump());
+            }
+        };
+        DiscardProcessor processor = new DiscardProcessor() {
+            @Override
+            public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+                if (tag == Tag.STRING) {
+                    strings.add(reader.readStringRecord(length, timestamp).getValue());
+                }
+                else {
+                    assertEquals(Tag.HEAP_DUMP, tag);
+                    HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), heapProcessor);
+                    while (heapReader.hasNext()) {
+                        heapReader.next();
+                    }
+                    assertEquals(length, heapReader.getCurrentPosition());
+                }
+            }
+        };
+        MappedFileInputStream in = new MappedFileInputStream(file, 5);
+        HprofReader reader = new HprofReader(in, processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        in.close();
+
+        assertEquals(2, strings.size());
+        assertEquals("a", strings.get(0));
+        assertEquals("b", strings.get(1));
+        assertEquals(2, instances.size());
+        assertEquals(new ID(11), instances.get(1).getObjectId());
+        assertEquals(new ID(20), instances.get(1).getClassId());
+        assertArrayEquals(new byte[]{4, 5, 6}, instances.get(1).getInstanceFieldData());
+    }
+
+    @Test
+    public void transferMappedFile() throws IOException {
+        byte[] expected = generateLargeArrays();
+        File copy = File.createTempFile("copy", ".hprof");
+        try {
+            copy(new MappedFileInputStream(file, 64 * 1024), copy, false);
+            assertArrayEquals(expected, Files.toByteArray(copy));
+            // Copy each heap record separately
+            copy(new MappedFileInputStream(file), copy, true);
+            assertArrayEquals(expected, Files.toByteArray(copy));
+        }
+        finally {
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void transferFile() throws IOException {
+        byte[] expected = generateLargeArrays();
+        File copy = File.createTempFile("copy", ".hprof");
+        try {
+            copy(new FileInputStream(file), copy, false);
+            assertArrayEquals(expected, Files.toByteArray(copy));
+        }
+        finally {
+            copy.delete();
+        }
+    }
+
+    private byte[] generateLargeArrays() throws IOException {
+        // Arrays larger than the copy buffer so that they are transferred between the file channels
+        HprofGenerator.Config config = new HprofGenerator.Config.Builder()
+            .instances(100)
+            .primitiveArrays(10)
+            .arrayLength(200 * 1024)
+            .segments(3)
+            .build();
+        new HprofGenerator(config).generate(file);
+        return Files.toByteArray(file);
+    }
+
+    private static void copy(InputStream in, File target, boolean heapRecords) throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        HprofProcessor processor = heapRecords ? new HeapRecordCopyProcessor(out) : new CopyProcessor(out);
+        HprofReader reader = new HprofReader(in, processor);
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        in.close();
+        out.close();
+    }
+
+    private static class HeapRecordCopyProcessor extends CopyProcessor {
+
+        HeapRecordCopyProcessor(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
+            if (tag == Tag.HEAP_DUMP_SEGMENT) {
+                writer.writeRecordHeader(tag, timestamp, length);
+                HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(),
+                    new HeapDumpCopyProcessor(out));
+                while (heapReader.hasNext()) {
+                    heapReader.next();
+                }
+            }
+            else {
+                super.onRecord(tag, timestamp, length, reader);
+            }
+        }
+    }
+
+}
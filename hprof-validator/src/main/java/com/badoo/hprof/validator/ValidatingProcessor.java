@@ -1,6 +1,7 @@
 package com.badoo.hprof.validator;
 
 import com.badoo.hprof.library.HprofReader;
+import com.badoo.hprof.library.IdContext;
 import com.badoo.hprof.library.Tag;
 import com.badoo.hprof.library.heap.HeapDumpProcessor;
 import com.badoo.hprof.library.heap.HeapDumpReader;
@@ -50,7 +51,7 @@ public class ValidatingProcessor extends DiscardProcessor {
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         //Log.d(TAG, "onRecord pos=" + in.getCount() + ", type=" + Tag.tagToString(tag));
         if (tag == Tag.STRING) {
             HprofString str = reader.readStringRecord(length, timestamp);
@@ -61,7 +62,7 @@ public class ValidatingProcessor extends DiscardProcessor {
             classes.put(cls.getObjectId(), cls);
         }
         else if (tag == Tag.HEAP_DUMP || tag == Tag.HEAP_DUMP_SEGMENT) {
-            readHeapDump(length);
+            readHeapDump(length, reader.getIdContext());
         }
         else {
             super.onRecord(tag, timestamp, length, reader);
@@ -109,9 +110,9 @@ public class ValidatingProcessor extends DiscardProcessor {
         }
     }
 
-    private void readHeapDump(int length) throws IOException {
+    private void readHeapDump(long length, IdContext idContext) throws IOException {
         HeapDumpProcessor processor = new ValidatingHeapDumpProcessor();
-        HeapDumpReader reader = new HeapDumpReader(in, length, processor);
+        HeapDumpReader reader = new HeapDumpReader(in, length, idContext, processor);
         while (reader.hasNext()) {
             reader.next();
         }
@@ -2,39 +2,168 @@ package com.badoo.hprof.viewer;
 
 import com.badoo.hprof.library.model.ID;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
+import java.awt.image.DataBufferInt;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
- * Factory class for bitmaps (BufferedImage)
+ * Factory and cache for bitmaps (BufferedImage).
+ * <p/>
+ * The cache is bounded by the total size of the cached images: when it is full the least recently used images are evicted. The images
+ * are also only softly referenced so the garbage collector can free them before the cache is full if memory runs low. Bitmaps are
+ * decoded outside of the cache lock so several bitmaps can be decoded at the same time.
  *
  * Created by Erik Andre on 22/11/15.
  */
 public class BitmapCache {
 
-    private static Map<ID, BufferedImage> cache = new HashMap<ID, BufferedImage>();
+    /**
+     * Default maximum size of the shared cache used by createBitmap() (in bytes)
+     */
+    public static final long DEFAULT_MAX_SIZE = 128 * 1024 * 1024;
 
+    private static final BitmapCache defaultCache = new BitmapCache(DEFAULT_MAX_SIZE);
+
+    private static class Entry {
+
+        final SoftReference<BufferedImage> image;
+        final long size;
+
+        Entry(BufferedImage image) {
+            this.image = new SoftReference<BufferedImage>(image);
+            this.size = getSize(image);
+        }
+    }
+
+    private final long maxSize;
+    private final LinkedHashMap<ID, Entry> cache = new LinkedHashMap<ID, Entry>(16, 0.75f, true); // In access order
+    private long size;
+
+    /**
+     * @param maxSize the maximum total size of the cached images in bytes
+     */
+    public BitmapCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the bitmap of a Bitmap instance from the shared cache, decoding it if it is not cached.
+     */
     @Nullable
     public static BufferedImage createBitmap(ID bitmapObjectId, byte[] data, int width, int height) {
-        if (cache.containsKey(bitmapObjectId)) {
-            return cache.get(bitmapObjectId);
+        BufferedImage image = defaultCache.get(bitmapObjectId);
+        if (image == null) {
+            image = decode(data, width, height);
+            if (image != null) {
+                defaultCache.put(bitmapObjectId, image);
+            }
         }
-        if (data.length != width * height * 4) {
+        return image;
+    }
+
+    /**
+     * Decode the pixel data of an ARGB_8888 bitmap (as stored in the Bitmap.mBuffer field).
+     *
+     * @return the image or null if the dimensions do not match the data
+     */
+    @Nullable
+    public static BufferedImage decode(@Nonnull byte[] data, int width, int height) {
+        if (width <= 0 || height <= 0 || data.length != (long) width * height * 4) {
             System.err.println("Invalid bitmap dimensions! length=" + data.length + ", w=" + width + ", h=" + height);
             return null;
         }
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        for (int i = 0; i < data.length; i += 4) {
-            int pixel = i / 4;
-            // Force the alpha to make the image more visible
-            int value = ((data[i + 3] << 24) & 0xff000000) |  ((data[i] << 16) & 0xff0000) | ((data[i + 1] << 8) & 0xff00) | (data[i + 2] & 0xff);
-            image.setRGB(pixel % width, pixel / width, value);
+        // Write directly to the pixels of the image instead of one setRGB() call per pixel
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int pixel = 0, i = 0; pixel < pixels.length; pixel++, i += 4) {
+            pixels[pixel] = ((data[i + 3] << 24) & 0xff000000) | ((data[i] << 16) & 0xff0000) | ((data[i + 1] << 8) & 0xff00)
+                | (data[i + 2] & 0xff);
+        }
+        return image;
+    }
+
+    /**
+     * Create a scaled down copy of an image.
+     *
+     * @param image   the image
+     * @param maxSide the maximum width and height of the thumbnail
+     * @return the thumbnail (or the image itself if it is small enough)
+     */
+    @Nonnull
+    public static BufferedImage createThumbnail(@Nonnull BufferedImage image, int maxSide) {
+        if (image.getWidth() <= maxSide && image.getHeight() <= maxSide) {
+            return image;
+        }
+        float scale = Math.min(maxSide / (float) image.getWidth(), maxSide / (float) image.getHeight());
+        int width = Math.max(1, Math.round(image.getWidth() * scale));
+        int height = Math.max(1, Math.round(image.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D canvas = thumbnail.createGraphics();
+        canvas.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        canvas.drawImage(image, 0, 0, width, height, null);
+        canvas.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Returns a cached image.
+     *
+     * @return the image or null if it is not cached (or has been freed by the garbage collector)
+     */
+    @Nullable
+    public synchronized BufferedImage get(@Nonnull ID id) {
+        Entry entry = cache.get(id);
+        if (entry == null) {
+            return null;
+        }
+        BufferedImage image = entry.image.get();
+        if (image == null) {
+            cache.remove(id);
+            size -= entry.size;
         }
-        cache.put(bitmapObjectId, image);
         return image;
     }
 
+    /**
+     * Add an image to the cache, evicting the least recently used images if the cache is full.
+     */
+    public synchronized void put(@Nonnull ID id, @Nonnull BufferedImage image) {
+        Entry previous = cache.put(id, new Entry(image));
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += getSize(image);
+        Iterator<Map.Entry<ID, Entry>> iterator = cache.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<ID, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(id)) {
+                continue; // Keep the new image even if it is larger than the cache
+            }
+            size -= eldest.getValue().size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the total size of the cached images in bytes (including images freed by the garbage collector that have not been removed).
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private static long getSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
 }
@@ -27,14 +27,21 @@ import java.util.Map;
  */
 public class HprofViewer {
 
+    /**
+     * Option for reading the whole file into memory instead of reading records on demand using an index
+     */
+    private static final String OPTION_NO_INDEX = "--no-index";
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.err.println("No HPROF file specified");
             return;
         }
         File inFile = new File(args[0]);
+        boolean useIndex = !(args.length > 1 && OPTION_NO_INDEX.equals(args[1]));
         try {
-            readHprofFile(inFile);
+            MemoryDump data = useIndex ? IndexedMemoryDump.open(inFile) : readHprofFile(inFile);
+            showViews(data);
         }
         catch (IOException e) {
             System.err.println("Failed to read file: " + e.getMessage());
@@ -42,16 +49,19 @@ public class HprofViewer {
         }
     }
 
-    private static void readHprofFile(File inFile) throws IOException {
+    private static MemoryDump readHprofFile(File inFile) throws IOException {
         InputStream in = new BufferedInputStream(new FileInputStream(inFile));
         ViewDataProcessor processor = new ViewDataProcessor();
         HprofReader reader = new HprofReader(in, processor);
         while (reader.hasNext()) {
             reader.next();
         }
-        MemoryDump data = new MemoryDump(processor.getClasses(), processor.getStrings(), processor.getInstances(),
+        in.close();
+        return new MemoryDump(processor.getClasses(), processor.getStrings(), processor.getInstances(),
             processor.getObjectArrays(), processor.getPrimitiveArrays());
+    }
 
+    private static void showViews(MemoryDump data) {
         // Class data read, now we can figure out which classes are Views (or ViewGroups)
         Map<ID, ClassDefinition> viewClasses = filterViewClasses(data);
         System.out.println("Found " + viewClasses.size() + " View classes");
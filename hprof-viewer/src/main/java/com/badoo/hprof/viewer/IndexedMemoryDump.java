@@ -0,0 +1,231 @@
+package com.badoo.hprof.viewer;
+
+import com.badoo.hprof.library.graph.DominatorTree;
+import com.badoo.hprof.library.graph.GcRootPathFinder;
+import com.badoo.hprof.library.graph.ReferenceGraph;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.index.HprofRandomAccessReader;
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.HprofString;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.model.ObjectArray;
+import com.badoo.hprof.library.model.PrimitiveArray;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * MemoryDump that reads strings, instances and arrays on demand from the HPROF file, using an offset index (see HprofIndex) that is
+ * created next to the HPROF file the first time it is opened. Only the most recently used records are kept in memory, which makes it
+ * possible to open files that are larger than the heap. Class definitions are few and used for every lookup so they are all loaded when
+ * the dump is opened.
+ * <p/>
+ * The reference graph, dominator tree (for retained sizes) and GC root path finder are created the first time they are requested.
+ * <p/>
+ * The maps can be used from several threads, but records are read one at a time.
+ */
+public class IndexedMemoryDump extends MemoryDump implements Closeable {
+
+    /**
+     * Default number of records of each kind (strings, instances, object arrays and primitive arrays) to cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final File hprofFile;
+    private final HprofRandomAccessReader reader;
+    private ReferenceGraph referenceGraph;
+    private DominatorTree dominatorTree;
+    private GcRootPathFinder gcRootPathFinder;
+
+    private IndexedMemoryDump(File hprofFile, final HprofRandomAccessReader reader, Map<ID, ClassDefinition> classes, int cacheSize) {
+        super(classes, new StringMap(reader, cacheSize),
+            new ObjectMap<Instance>(reader, HeapTag.INSTANCE_DUMP, cacheSize) {
+                @Override
+                protected Instance readObject(long id) throws IOException {
+                    return reader.readInstance(id);
+                }
+            },
+            new ObjectMap<ObjectArray>(reader, HeapTag.OBJECT_ARRAY_DUMP, cacheSize) {
+                @Override
+                protected ObjectArray readObject(long id) throws IOException {
+                    return reader.readObjectArray(id);
+                }
+            },
+            new ObjectMap<PrimitiveArray>(reader, HeapTag.PRIMITIVE_ARRAY_DUMP, cacheSize) {
+                @Override
+                protected PrimitiveArray readObject(long id) throws IOException {
+                    return reader.readPrimitiveArray(id);
+                }
+            });
+        this.hprofFile = hprofFile;
+        this.reader = reader;
+    }
+
+    /**
+     * Open a HPROF file, creating the index file if needed.
+     *
+     * @param hprofFile the HPROF file
+     * @return the memory dump
+     * @throws IOException
+     */
+    @Nonnull
+    public static IndexedMemoryDump open(@Nonnull File hprofFile) throws IOException {
+        return open(hprofFile, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Open a HPROF file, creating the index file if needed.
+     *
+     * @param hprofFile the HPROF file
+     * @param cacheSize the number of records of each kind to cache
+     * @return the memory dump
+     * @throws IOException
+     */
+    @Nonnull
+    public static IndexedMemoryDump open(@Nonnull File hprofFile, int cacheSize) throws IOException {
+        HprofRandomAccessReader reader = new HprofRandomAccessReader(hprofFile, HprofIndex.load(hprofFile));
+        HprofIndex index = reader.getIndex();
+        Map<ID, ClassDefinition> classes = new HashMap<ID, ClassDefinition>();
+        for (int i = 0; i < index.getLoadClassCount(); i++) {
+            ClassDefinition cls = reader.readClass(index.getLoadClassId(i));
+            classes.put(cls.getObjectId(), cls);
+        }
+        return new IndexedMemoryDump(hprofFile, reader, classes, cacheSize);
+    }
+
+    @Override
+    public synchronized DominatorTree getDominatorTree() throws IOException {
+        if (dominatorTree == null) {
+            dominatorTree = DominatorTree.compute(getReferenceGraph());
+        }
+        return dominatorTree;
+    }
+
+    @Override
+    public synchronized GcRootPathFinder getGcRootPathFinder() throws IOException {
+        if (gcRootPathFinder == null) {
+            gcRootPathFinder = new GcRootPathFinder(getReferenceGraph());
+        }
+        return gcRootPathFinder;
+    }
+
+    @Override
+    public long getPrimitiveArraySize(@Nonnull ID arrayId) throws IOException {
+        synchronized (reader) { // Only reads the array header
+            if (reader.getObjectType(arrayId.toLong()) != HeapTag.PRIMITIVE_ARRAY_DUMP) {
+                return -1;
+            }
+            return reader.readPrimitiveArraySize(arrayId.toLong());
+        }
+    }
+
+    private synchronized ReferenceGraph getReferenceGraph() throws IOException {
+        if (referenceGraph == null) {
+            referenceGraph = ReferenceGraph.load(hprofFile, reader.getIndex());
+        }
+        return referenceGraph;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (reader) {
+            reader.close();
+        }
+    }
+
+    private static class StringMap extends LazyRecordMap<HprofString> {
+
+        private final HprofRandomAccessReader reader;
+        private final HprofIndex index;
+
+        StringMap(HprofRandomAccessReader reader, int cacheSize) {
+            super(reader, reader.getIdContext().getIdSize(), cacheSize);
+            this.reader = reader;
+            this.index = reader.getIndex();
+        }
+
+        @Override
+        protected int getPositionCount() {
+            return index.getStringCount();
+        }
+
+        @Override
+        protected long getRecordId(int position) {
+            return index.getStringId(position);
+        }
+
+        @Override
+        protected boolean containsRecord(long id) {
+            return index.getStringOffset(id) != -1;
+        }
+
+        @Override
+        protected HprofString readRecord(long id) throws IOException {
+            return reader.readString(id);
+        }
+
+        @Override
+        public int size() {
+            return index.getStringCount();
+        }
+    }
+
+    private static abstract class ObjectMap<V> extends LazyRecordMap<V> {
+
+        private final HprofIndex index;
+        private final int type;
+        private int size = -1;
+
+        ObjectMap(HprofRandomAccessReader reader, int type, int cacheSize) {
+            super(reader, reader.getIdContext().getIdSize(), cacheSize);
+            this.index = reader.getIndex();
+            this.type = type;
+        }
+
+        protected abstract V readObject(long id) throws IOException;
+
+        @Override
+        protected int getPositionCount() {
+            return index.getObjectCount();
+        }
+
+        @Override
+        protected long getRecordId(int position) {
+            return index.getObjectType(position) == type ? index.getObjectId(position) : NO_RECORD;
+        }
+
+        @Override
+        protected boolean containsRecord(long id) {
+            int position = index.findObject(id);
+            return position != HprofIndex.NOT_FOUND && index.getObjectType(position) == type;
+        }
+
+        @Override
+        protected V readRecord(long id) throws IOException {
+            // Objects of other types are not part of this map (the reader would throw an exception for them)
+            return containsRecord(id) ? readObject(id) : null;
+        }
+
+        @Override
+        public synchronized int size() {
+            if (size == -1) {
+                int count = 0;
+                for (int i = 0; i < index.getObjectCount(); i++) {
+                    if (index.getObjectType(i) == type) {
+                        count++;
+                    }
+                }
+                size = count;
+            }
+            return size;
+        }
+    }
+
+}
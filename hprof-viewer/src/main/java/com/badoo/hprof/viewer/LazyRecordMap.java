@@ -0,0 +1,191 @@
+package com.badoo.hprof.viewer;
+
+import com.badoo.hprof.library.model.ID;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Read only map of records that are read on demand (from a HPROF file). The records that have been read most recently are kept in a
+ * bounded LRU cache, all other records are read again when requested.
+ * <p/>
+ * Subclasses define which records are in the map by the positions of the records in an index. Reading is synchronized on the given
+ * lock since the underlying reader is not thread safe.
+ */
+abstract class LazyRecordMap<V> extends AbstractMap<ID, V> {
+
+    /**
+     * Returned by getRecordId() for positions that should be skipped
+     */
+    protected static final long NO_RECORD = Long.MIN_VALUE;
+
+    private final Object lock;
+    private final int idSize;
+    private final Map<Long, V> cache;
+    private Set<Map.Entry<ID, V>> entrySet;
+
+    /**
+     * @param lock      the lock to synchronize reads on
+     * @param idSize    the id size of the HPROF file (used for the keys)
+     * @param cacheSize the maximum number of records to cache
+     */
+    LazyRecordMap(Object lock, int idSize, final int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size " + cacheSize);
+        }
+        this.lock = lock;
+        this.idSize = idSize;
+        this.cache = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of index positions to iterate over.
+     */
+    protected abstract int getPositionCount();
+
+    /**
+     * Returns the id of the record at an index position or NO_RECORD if the position holds a record that is not part of this map.
+     */
+    protected abstract long getRecordId(int position);
+
+    /**
+     * Returns true if there is a record with the id in this map.
+     */
+    protected abstract boolean containsRecord(long id);
+
+    /**
+     * Read a record.
+     *
+     * @return the record or null if there is no record with the id in this map
+     */
+    @Nullable
+    protected abstract V readRecord(long id) throws IOException;
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof ID)) {
+            return null;
+        }
+        long id = ((ID) key).toLong();
+        synchronized (lock) {
+            V value = cache.get(id);
+            if (value == null) {
+                try {
+                    value = readRecord(id);
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException("Failed to read record " + Long.toHexString(id), e);
+                }
+                if (value != null) {
+                    cache.put(id, value);
+                }
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof ID && containsRecord(((ID) key).toLong());
+    }
+
+    @Override
+    public Set<Map.Entry<ID, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<ID, V>>() {
+                @Override
+                public Iterator<Map.Entry<ID, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return LazyRecordMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<ID, V>> {
+
+        private final int count = getPositionCount();
+        private int position = -1;
+        private long nextId = NO_RECORD;
+
+        public boolean hasNext() {
+            while (nextId == NO_RECORD && position + 1 < count) {
+                position++;
+                nextId = getRecordId(position);
+            }
+            return nextId != NO_RECORD;
+        }
+
+        public Map.Entry<ID, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ID key = new ID(nextId, idSize);
+            nextId = NO_RECORD;
+            return new LazyEntry(key);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Entry that reads the value when it is requested (so that iterating over the keys does not read all records).
+     */
+    private class LazyEntry implements Map.Entry<ID, V> {
+
+        private final ID key;
+
+        LazyEntry(ID key) {
+            this.key = key;
+        }
+
+        public ID getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return get(key);
+        }
+
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) o;
+            V value = getValue();
+            return key.equals(that.getKey()) && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            V value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+
+}
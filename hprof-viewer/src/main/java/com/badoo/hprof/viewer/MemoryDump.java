@@ -1,7 +1,10 @@
 package com.badoo.hprof.viewer;
 
+import com.badoo.hprof.library.graph.DominatorTree;
+import com.badoo.hprof.library.graph.GcRootPathFinder;
 import com.badoo.hprof.library.model.*;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Map;
 
@@ -28,6 +31,36 @@ public class MemoryDump {
         this.primitiveArrays = Collections.unmodifiableMap(primitiveArrays);
     }
 
+    /**
+     * Returns the dominator tree of the dump (used to calculate retained sizes).
+     *
+     * @return the dominator tree or null if not supported (only supported by IndexedMemoryDump)
+     */
+    @Nullable
+    public DominatorTree getDominatorTree() throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the path finder for finding the shortest path from a GC root to an object.
+     *
+     * @return the path finder or null if not supported (only supported by IndexedMemoryDump)
+     */
+    @Nullable
+    public GcRootPathFinder getGcRootPathFinder() throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the size of the elements of a primitive array in bytes.
+     *
+     * @return the size or -1 if there is no primitive array with the id
+     */
+    public long getPrimitiveArraySize(@Nonnull ID arrayId) throws IOException {
+        PrimitiveArray array = primitiveArrays.get(arrayId);
+        return array != null ? array.getArrayData().length : -1;
+    }
+
     @Nonnull
     public ClassDefinition findClassByName(@Nonnull String name) {
         ClassDefinition cls = tryFindClassByName(name);
@@ -75,7 +75,7 @@ public class ViewDataProcessor extends DiscardProcessor {
     }
 
     @Override
-    public void onRecord(int tag, int timestamp, int length, @Nonnull HprofReader reader) throws IOException {
+    public void onRecord(int tag, int timestamp, long length, @Nonnull HprofReader reader) throws IOException {
         switch (tag) {
             case Tag.STRING: {
                 HprofString string = reader.readStringRecord(length, timestamp);
@@ -89,7 +89,7 @@ public class ViewDataProcessor extends DiscardProcessor {
             }
             case Tag.HEAP_DUMP:
             case Tag.HEAP_DUMP_SEGMENT: {
-                HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, heapDumpProcessor);
+                HeapDumpReader heapReader = new HeapDumpReader(reader.getInputStream(), length, reader.getIdContext(), heapDumpProcessor);
                 while (heapReader.hasNext()) {
                     heapReader.next();
                 }
@@ -0,0 +1,200 @@
+package com.badoo.hprof.viewer.provider;
+
+import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ID;
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.library.model.PrimitiveArray;
+import com.badoo.hprof.viewer.BitmapCache;
+import com.badoo.hprof.viewer.MemoryDump;
+import com.badoo.hprof.viewer.android.View;
+import com.badoo.hprof.viewer.android.ViewGroup;
+import com.badoo.hprof.viewer.factory.Screen;
+import com.badoo.hprof.viewer.factory.classdefs.BitmapClassDef;
+import com.badoo.hprof.viewer.factory.classdefs.BitmapDrawableClassDef;
+import com.badoo.hprof.viewer.factory.classdefs.GenericViewClassDef;
+import com.badoo.hprof.viewer.factory.classdefs.ImageViewClassDef;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Provides information about the bitmaps (android.graphics.Bitmap instances) in a memory dump: their size, the views displaying them
+ * (as image or background) and thumbnails. Thumbnails are kept in a size bounded BitmapCache and can be created from several threads.
+ * <p/>
+ * Finding the bitmaps requires reading all instances, so it is done the first time getBitmaps() is called instead of when the provider
+ * is created.
+ */
+public class BitmapProvider extends BaseProvider {
+
+    /**
+     * Maximum width and height of thumbnails
+     */
+    public static final int THUMBNAIL_SIZE = 64;
+
+    private static final long THUMBNAIL_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private final MemoryDump data;
+    private BitmapClassDef classDef;
+    private List<Instance> bitmaps;
+    private final List<Screen> screens;
+    private Map<ID, List<String>> owners;
+    private final BitmapCache thumbnails = new BitmapCache(THUMBNAIL_CACHE_SIZE);
+
+    public BitmapProvider(@Nonnull MemoryDump data, @Nonnull List<Screen> screens) {
+        this.data = data;
+        this.screens = screens;
+    }
+
+    /**
+     * Returns all bitmaps in the memory dump. The bitmaps are found the first time this is called (which can take a long time).
+     */
+    @Nonnull
+    public synchronized List<Instance> getBitmaps() {
+        if (bitmaps == null) {
+            findBitmaps();
+        }
+        return bitmaps;
+    }
+
+    public int getWidth(@Nonnull Instance bitmap) throws IOException {
+        return bitmap.getIntField(getClassDef().width, data.classes);
+    }
+
+    public int getHeight(@Nonnull Instance bitmap) throws IOException {
+        return bitmap.getIntField(getClassDef().height, data.classes);
+    }
+
+    /**
+     * Returns the size of the pixel data of a bitmap in bytes (0 if the pixel data is not part of the memory dump). Only the header of
+     * the pixel data array is read.
+     */
+    public int getByteSize(@Nonnull Instance bitmap) throws IOException {
+        ID bufferId = bitmap.getObjectField(getClassDef().buffer, data.classes);
+        if (bufferId.toLong() == 0) {
+            return 0;
+        }
+        long size = data.getPrimitiveArraySize(bufferId);
+        return size != -1 ? (int) size : 0;
+    }
+
+    /**
+     * Returns the views displaying a bitmap (described by class name and screen). The views are found the first time this is called.
+     */
+    @Nonnull
+    public synchronized List<String> getOwnerViews(@Nonnull Instance bitmap) throws IOException {
+        if (owners == null) {
+            owners = new HashMap<ID, List<String>>();
+            findOwners();
+        }
+        List<String> views = owners.get(bitmap.getObjectId());
+        return views != null ? views : Collections.<String>emptyList();
+    }
+
+    /**
+     * Returns a thumbnail of a bitmap, decoding the bitmap if the thumbnail is not cached. Can be called from any thread.
+     *
+     * @return the thumbnail or null if the pixel data is not part of the memory dump
+     */
+    @Nullable
+    public BufferedImage getThumbnail(@Nonnull Instance bitmap) throws IOException {
+        BufferedImage thumbnail = thumbnails.get(bitmap.getObjectId());
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        PrimitiveArray buffer = getBuffer(bitmap);
+        if (buffer == null) {
+            return null;
+        }
+        BufferedImage image = BitmapCache.decode(buffer.getArrayData(), getWidth(bitmap), getHeight(bitmap));
+        if (image == null) {
+            return null;
+        }
+        thumbnail = BitmapCache.createThumbnail(image, THUMBNAIL_SIZE);
+        thumbnails.put(bitmap.getObjectId(), thumbnail);
+        return thumbnail;
+    }
+
+    @Nullable
+    private PrimitiveArray getBuffer(@Nonnull Instance bitmap) throws IOException {
+        ID bufferId = bitmap.getObjectField(getClassDef().buffer, data.classes);
+        return bufferId.toLong() != 0 ? data.primitiveArrays.get(bufferId) : null;
+    }
+
+    private synchronized BitmapClassDef getClassDef() {
+        getBitmaps(); // The class is only defined if there are bitmaps
+        return classDef;
+    }
+
+    private void findBitmaps() {
+        ClassDefinition bitmapCls = data.tryFindClassByName("android.graphics.Bitmap");
+        if (bitmapCls == null) {
+            bitmaps = Collections.emptyList();
+        }
+        else {
+            classDef = new BitmapClassDef(data);
+            bitmaps = new ArrayList<Instance>();
+            for (Instance instance : data.instances.values()) {
+                if (instance.getClassId().equals(bitmapCls.getObjectId())) {
+                    bitmaps.add(instance);
+                }
+            }
+        }
+        setStatus(ProviderStatus.LOADED);
+    }
+
+    private void findOwners() throws IOException {
+        GenericViewClassDef viewDef;
+        BitmapDrawableClassDef drawableDef;
+        try {
+            viewDef = new GenericViewClassDef(data);
+            drawableDef = new BitmapDrawableClassDef(data);
+        }
+        catch (IllegalArgumentException e) {
+            return; // No views or bitmap drawables in this dump
+        }
+        ImageViewClassDef imageViewDef = data.tryFindClassByName("android.widget.ImageView") != null ? new ImageViewClassDef(data) : null;
+        for (Screen screen : screens) {
+            List<View> views = new ArrayList<View>();
+            views.add(screen.getViewRoot());
+            while (!views.isEmpty()) {
+                View view = views.remove(views.size() - 1);
+                if (view instanceof ViewGroup) {
+                    views.addAll(((ViewGroup) view).getChildren());
+                }
+                Instance instance = view.getInstance();
+                String owner = view.getClassName() + " (" + screen + ")";
+                addOwner(instance.getObjectField(viewDef.background, data.classes), drawableDef, owner + " background");
+                if (imageViewDef != null && data.isInstanceOf(instance, imageViewDef.imageViewCls)) {
+                    addOwner(instance.getObjectField(imageViewDef.drawable, data.classes), drawableDef, owner);
+                }
+            }
+        }
+    }
+
+    private void addOwner(ID drawableId, BitmapDrawableClassDef drawableDef, String owner) throws IOException {
+        Instance drawable = data.instances.get(drawableId);
+        if (!data.isInstanceOf(drawable, drawableDef.cls)) {
+            return;
+        }
+        Instance state = data.instances.get(drawable.getObjectField(drawableDef.stateField, data.classes));
+        if (state == null) {
+            return;
+        }
+        ID bitmapId = state.getObjectField(drawableDef.state.bitmap, data.classes);
+        List<String> views = owners.get(bitmapId);
+        if (views == null) {
+            views = new ArrayList<String>();
+            owners.put(bitmapId, views);
+        }
+        views.add(owner);
+    }
+
+}
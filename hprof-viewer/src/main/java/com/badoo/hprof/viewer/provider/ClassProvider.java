@@ -1,8 +1,10 @@
 package com.badoo.hprof.viewer.provider;
 
+import com.badoo.hprof.library.graph.DominatorTree;
 import com.badoo.hprof.library.model.ClassDefinition;
 import com.badoo.hprof.viewer.MemoryDump;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +21,7 @@ public class ClassProvider extends BaseProvider {
 
     private final MemoryDump data;
     private final Map<ClassDefinition, String> classNames = new HashMap<ClassDefinition, String>();
+    private volatile DominatorTree dominatorTree;
 
     public ClassProvider(@Nonnull MemoryDump data) {
         this.data = data;
@@ -42,6 +45,24 @@ public class ClassProvider extends BaseProvider {
         return size;
     }
 
+    /**
+     * Calculate the retained sizes of all classes (this can take a long time for large dumps).
+     *
+     * @return false if retained sizes are not supported by the memory dump
+     */
+    public boolean calculateRetainedSizes() throws IOException {
+        dominatorTree = data.getDominatorTree();
+        return dominatorTree != null;
+    }
+
+    /**
+     * Returns the retained size of all instances of a class or -1 if the retained sizes have not been calculated.
+     */
+    public long getRetainedSizeForClass(@Nonnull ClassDefinition cls) {
+        DominatorTree tree = dominatorTree;
+        return tree != null ? tree.getClassRetainedSize(cls.getObjectId().toLong()) : -1;
+    }
+
     public List<ClassDefinition> getClassesMatchingQuery(@Nonnull String query) {
         List<ClassDefinition> result = new ArrayList<ClassDefinition>();
         for (ClassDefinition cls : data.classes.values()) {
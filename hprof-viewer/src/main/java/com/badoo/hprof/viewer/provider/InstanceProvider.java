@@ -1,12 +1,23 @@
 package com.badoo.hprof.viewer.provider;
 
+import com.badoo.hprof.library.graph.GcRootPathFinder;
+import com.badoo.hprof.library.graph.ReferenceGraph;
+import com.badoo.hprof.library.heap.HeapTag;
+import com.badoo.hprof.library.index.HprofIndex;
+import com.badoo.hprof.library.model.BasicType;
 import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ID;
 import com.badoo.hprof.library.model.Instance;
 import com.badoo.hprof.library.model.InstanceField;
+import com.badoo.hprof.library.model.ObjectArray;
+import com.badoo.hprof.library.model.PrimitiveArray;
+import com.badoo.hprof.library.model.StaticField;
+import com.badoo.hprof.library.util.StreamUtil;
 import com.badoo.hprof.viewer.MemoryDump;
 import com.badoo.hprof.viewer.factory.Environment;
 import com.badoo.hprof.viewer.factory.GenericObjectFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Provider for Instance data
@@ -67,26 +79,135 @@ public class InstanceProvider extends BaseProvider {
     @Nonnull
     public Map<Object, Object> getInstanceFields(@Nonnull Instance instance) throws IOException {
         HashMap<Object, Object> result = new HashMap<Object, Object>();
-        ClassDefinition cls = getClass(instance);
-        while (cls != null) {
-            for (InstanceField field : cls.getInstanceFields()) {
-                final String name = data.strings.get(field.getFieldNameId()).getValue();
-                final Object value;
-                switch (field.getType()) {
-                    case OBJECT:
-                        value = readObjectField(instance, field);
-                        break;
-                    default:
-                        value = readPrimitiveField(instance, field);
+        for (InstanceField field : instance.getLayout(data.classes).getFields()) {
+            final String name = data.strings.get(field.getFieldNameId()).getValue();
+            final Object value;
+            switch (field.getType()) {
+                case OBJECT:
+                    value = readObjectField(instance, field);
+                    break;
+                default:
+                    value = readPrimitiveField(instance, field);
 
-                }
-                result.put(name, value);
             }
-            cls = data.classes.get(cls.getSuperClassObjectId());
+            result.put(name, value);
         }
         return result;
     }
 
+    /**
+     * Find the shortest path from a GC root to an instance.
+     *
+     * @return the ids of the objects on the path, starting with the GC root and ending with the instance, or null if the instance cannot be
+     * reached from a GC root or if paths are not supported by the memory dump
+     */
+    @Nullable
+    public List<ID> getPathToGcRoot(@Nonnull Instance instance) throws IOException {
+        GcRootPathFinder finder = data.getGcRootPathFinder();
+        if (finder == null) {
+            return null;
+        }
+        ReferenceGraph graph = finder.getGraph();
+        int node = graph.getNode(instance.getObjectId().toLong());
+        int[] path = node != HprofIndex.NOT_FOUND ? finder.findPath(node) : null;
+        if (path == null) {
+            return null;
+        }
+        List<ID> result = new ArrayList<ID>();
+        for (int pathNode : path) {
+            result.add(new ID(graph.getObjectId(pathNode)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the type of GC root of an object (for example ROOT_STICKY_CLASS) or null if it is not a GC root.
+     */
+    @Nullable
+    public String getGcRootType(@Nonnull ID objectId) throws IOException {
+        GcRootPathFinder finder = data.getGcRootPathFinder();
+        if (finder == null) {
+            return null;
+        }
+        ReferenceGraph graph = finder.getGraph();
+        int node = graph.getNode(objectId.toLong());
+        int root = node != HprofIndex.NOT_FOUND ? graph.findRoot(node) : HprofIndex.NOT_FOUND;
+        return root != HprofIndex.NOT_FOUND ? HeapTag.tagToString(graph.getRootType(root)) : null;
+    }
+
+    /**
+     * Returns a description of an object (class, instance or array), for example "android.app.Activity @ 12c0a1b0".
+     */
+    @Nonnull
+    public String getObjectName(@Nonnull ID objectId) {
+        ClassDefinition cls = data.classes.get(objectId);
+        if (cls != null) {
+            return "class " + getClassName(cls);
+        }
+        Instance instance = data.instances.get(objectId);
+        if (instance != null) {
+            return getClassName(getClass(instance)) + " @ " + objectId;
+        }
+        ObjectArray array = data.objArrays.get(objectId);
+        if (array != null) {
+            return getClassName(data.classes.get(array.getElementClassId())) + "[" + array.getCount() + "] @ " + objectId;
+        }
+        PrimitiveArray primitiveArray = data.primitiveArrays.get(objectId);
+        if (primitiveArray != null) {
+            return primitiveArray.getType().name().toLowerCase() + "[" + primitiveArray.getCount() + "] @ " + objectId;
+        }
+        return "unknown @ " + objectId;
+    }
+
+    /**
+     * Returns the name of the reference from one object to another (a field name, array index or a description of the reference).
+     */
+    @Nonnull
+    public String getReferenceName(@Nonnull ID fromId, @Nonnull ID toId) throws IOException {
+        ClassDefinition cls = data.classes.get(fromId);
+        if (cls != null) {
+            if (cls.getStaticFields() != null) {
+                for (StaticField field : cls.getStaticFields()) {
+                    if (field.getType() == BasicType.OBJECT && readId(field.getValue()) == toId.toLong()) {
+                        return "static " + data.strings.get(field.getFieldNameId()).getValue();
+                    }
+                }
+            }
+            if (toId.equals(cls.getSuperClassObjectId())) {
+                return "<super class>";
+            }
+            return "<class loader>";
+        }
+        Instance instance = data.instances.get(fromId);
+        if (instance != null) {
+            for (InstanceField field : instance.getLayout(data.classes).getFields()) {
+                if (field.getType() == BasicType.OBJECT && toId.equals(instance.getObjectField(field, data.classes))) {
+                    return data.strings.get(field.getFieldNameId()).getValue();
+                }
+            }
+            return "<class>";
+        }
+        ObjectArray array = data.objArrays.get(fromId);
+        if (array != null) {
+            ID[] elements = array.getElements();
+            for (int i = 0; i < elements.length; i++) {
+                if (toId.equals(elements[i])) {
+                    return "[" + i + "]";
+                }
+            }
+            return "<class>";
+        }
+        return "";
+    }
+
+    private String getClassName(@Nullable ClassDefinition cls) {
+        return cls != null ? data.strings.get(cls.getNameStringId()).getValue() : "unknown";
+    }
+
+    private static long readId(byte[] value) throws IOException {
+        return StreamUtil.readIdAsLong(new ByteArrayInputStream(value), value.length);
+    }
+
     private Object readPrimitiveField(Instance instance, InstanceField field) throws IOException {
         switch (field.getType()) {
             case INT:
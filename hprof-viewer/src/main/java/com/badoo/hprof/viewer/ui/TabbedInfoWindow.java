@@ -4,6 +4,7 @@ import com.badoo.hprof.library.model.Instance;
 import com.badoo.hprof.viewer.MemoryDump;
 import com.badoo.hprof.viewer.factory.Screen;
 import com.badoo.hprof.viewer.factory.SystemInfo;
+import com.badoo.hprof.viewer.ui.bitmaps.BitmapsInfoPanel;
 import com.badoo.hprof.viewer.ui.classinfo.ClassesInfoPanel;
 import com.badoo.hprof.viewer.ui.instances.InstancesInfoPanel;
 
@@ -31,6 +32,7 @@ public class TabbedInfoWindow extends JFrame {
         tabHost.addTab("Activities", new ScreenInfoPanel(this, screenList));
         tabHost.addTab("System info", new SystemInfoPanel(sysInfo));
         tabHost.addTab("Classes", new ClassesInfoPanel(data, this));
+        tabHost.addTab("Bitmaps", new BitmapsInfoPanel(data, screenList));
         pack();
         setVisible(true);
     }
@@ -0,0 +1,30 @@
+package com.badoo.hprof.viewer.ui.bitmaps;
+
+import com.badoo.hprof.library.model.Instance;
+
+/**
+ * Model used to populate the Bitmaps panel
+ */
+public class BitmapInfo {
+
+    public final Instance instance;
+    public final String name;
+    public final int width;
+    public final int height;
+    public final int byteSize; // 0 if the pixel data is not part of the memory dump
+    public final String views;
+
+    public BitmapInfo(Instance instance, String name, int width, int height, int byteSize, String views) {
+        this.instance = instance;
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.byteSize = byteSize;
+        this.views = views;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,110 @@
+package com.badoo.hprof.viewer.ui.bitmaps;
+
+import com.badoo.hprof.viewer.MemoryDump;
+import com.badoo.hprof.viewer.factory.Screen;
+import com.badoo.hprof.viewer.provider.BitmapProvider;
+
+import java.awt.BorderLayout;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * Panel listing all bitmaps in the memory dump with their thumbnail, dimensions, size and the views displaying them.
+ */
+public class BitmapsInfoPanel extends JPanel implements BitmapsInfoPresenter.View {
+
+    static class BitmapsTableModel extends DefaultTableModel {
+
+        private static final long serialVersionUID = 1L;
+
+        public BitmapsTableModel(Object[][] cells) {
+            super(cells, HEADER);
+        }
+
+        @Override
+        public Class<?> getColumnClass(int col) {
+            switch (col) {
+                case 0:
+                    return Icon.class;
+                case 1:
+                case 2:
+                case 3:
+                    return Integer.class;
+                default:
+                    return String.class;
+            }
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int col) {
+            return false;
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] HEADER = {"Bitmap", "Width", "Height", "Size", "Views"};
+    private static final int SIZE_COLUMN = 3;
+
+    private final JTable dataTable;
+    private final BitmapsInfoPresenter presenter;
+    private final Map<BitmapInfo, Integer> rows = new HashMap<BitmapInfo, Integer>();
+
+    public BitmapsInfoPanel(@Nonnull MemoryDump data, @Nonnull List<Screen> screens) {
+        super(new BorderLayout());
+
+        dataTable = new JTable();
+        dataTable.setRowHeight(BitmapProvider.THUMBNAIL_SIZE + 2);
+        add(new JScrollPane(dataTable), BorderLayout.CENTER);
+
+        presenter = new BitmapsInfoPresenterImpl(this, new BitmapProvider(data, screens));
+    }
+
+    @Override
+    public void showBitmaps(@Nonnull List<BitmapInfo> bitmaps) {
+        rows.clear();
+        Object[][] cells = new Object[bitmaps.size()][HEADER.length];
+        for (int i = 0; i < bitmaps.size(); i++) {
+            BitmapInfo bitmap = bitmaps.get(i);
+            cells[i][0] = null; // Set when the thumbnail has been decoded
+            cells[i][1] = bitmap.width;
+            cells[i][2] = bitmap.height;
+            cells[i][3] = bitmap.byteSize;
+            cells[i][4] = bitmap.views;
+            rows.put(bitmap, i);
+        }
+        BitmapsTableModel model = new BitmapsTableModel(cells);
+        dataTable.setModel(model);
+        TableRowSorter<BitmapsTableModel> sorter = new TableRowSorter<BitmapsTableModel>(model);
+        sorter.setSortable(0, false);
+        sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(SIZE_COLUMN, SortOrder.DESCENDING)));
+        dataTable.setRowSorter(sorter);
+    }
+
+    @Override
+    public void showThumbnail(@Nonnull BitmapInfo bitmap, @Nonnull BufferedImage thumbnail) {
+        Integer row = rows.get(bitmap);
+        if (row != null) {
+            dataTable.getModel().setValueAt(new ImageIcon(thumbnail), row, 0);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        presenter.onDestroy();
+    }
+}
@@ -0,0 +1,27 @@
+package com.badoo.hprof.viewer.ui.bitmaps;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Presenter for the Bitmaps panel, listing all bitmaps of the memory dump with their thumbnails.
+ */
+public interface BitmapsInfoPresenter {
+
+    /**
+     * Stop decoding thumbnails (for example when the panel is closed).
+     */
+    void onDestroy();
+
+    interface View {
+
+        /**
+         * Show the bitmaps, largest first (thumbnails are shown later as they are decoded).
+         */
+        void showBitmaps(@Nonnull List<BitmapInfo> bitmaps);
+
+        void showThumbnail(@Nonnull BitmapInfo bitmap, @Nonnull BufferedImage thumbnail);
+    }
+}
@@ -0,0 +1,121 @@
+package com.badoo.hprof.viewer.ui.bitmaps;
+
+import com.badoo.hprof.library.model.Instance;
+import com.badoo.hprof.viewer.provider.BitmapProvider;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
+
+/**
+ * Implementation of BitmapsInfoPresenter. The list of bitmaps is created on a background thread since all instances have to be read,
+ * and their thumbnails are then decoded in parallel, one task per bitmap, on a pool with one thread per processor.
+ */
+public class BitmapsInfoPresenterImpl implements BitmapsInfoPresenter {
+
+    private final View view;
+    private final BitmapProvider bitmapProvider;
+    private final ExecutorService decoder;
+
+    public BitmapsInfoPresenterImpl(@Nonnull View view, @Nonnull BitmapProvider bitmapProvider) {
+        this.view = view;
+        this.bitmapProvider = bitmapProvider;
+        this.decoder = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bitmap-decoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        });
+    }
+
+    private void update() {
+        final List<BitmapInfo> model = new ArrayList<BitmapInfo>();
+        try {
+            for (Instance bitmap : bitmapProvider.getBitmaps()) {
+                List<String> owners = bitmapProvider.getOwnerViews(bitmap);
+                StringBuilder views = new StringBuilder();
+                for (String owner : owners) {
+                    if (views.length() > 0) {
+                        views.append(", ");
+                    }
+                    views.append(owner);
+                }
+                model.add(new BitmapInfo(bitmap, "Bitmap @ " + bitmap.getObjectId(), bitmapProvider.getWidth(bitmap),
+                    bitmapProvider.getHeight(bitmap), bitmapProvider.getByteSize(bitmap), views.toString()));
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Failed to read bitmaps: " + e.getMessage());
+            return;
+        }
+        Collections.sort(model, new Comparator<BitmapInfo>() {
+            @Override
+            public int compare(BitmapInfo lhs, BitmapInfo rhs) {
+                return lhs.byteSize < rhs.byteSize ? 1 : (lhs.byteSize == rhs.byteSize ? 0 : -1);
+            }
+        });
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                view.showBitmaps(model);
+            }
+        });
+        // Thumbnails are shown after the list since invokeLater() runs in order
+        for (final BitmapInfo bitmap : model) {
+            if (bitmap.byteSize == 0) {
+                continue;
+            }
+            try {
+                decoder.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final BufferedImage thumbnail;
+                        try {
+                            thumbnail = bitmapProvider.getThumbnail(bitmap.instance);
+                        }
+                        catch (IOException e) {
+                            System.err.println("Failed to decode " + bitmap.name + ": " + e.getMessage());
+                            return;
+                        }
+                        if (thumbnail == null) {
+                            return;
+                        }
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                view.showThumbnail(bitmap, thumbnail);
+                            }
+                        });
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                return; // The panel has been closed while the bitmaps were read
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        decoder.shutdownNow();
+    }
+
+}
@@ -12,12 +12,14 @@ public class ClassInfo {
     public final String name;
     public final int instanceCount;
     public final int instanceSize;
+    public final long retainedSize; // -1 if not calculated
 
-    public ClassInfo(ClassDefinition cls, String name, int instanceCount, int instanceSize) {
+    public ClassInfo(ClassDefinition cls, String name, int instanceCount, int instanceSize, long retainedSize) {
         this.cls = cls;
         this.name = name;
         this.instanceCount = instanceCount;
         this.instanceSize = instanceSize;
+        this.retainedSize = retainedSize;
     }
 
     @Override
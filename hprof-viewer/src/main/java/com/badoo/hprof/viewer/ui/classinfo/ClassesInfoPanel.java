@@ -51,6 +51,7 @@ public class ClassesInfoPanel extends JPanel implements ClassesInfoPresenter.Vie
             setComparator(0, new NameComparator(this, query));
             setComparator(1, new CountComparator(this));
             setComparator(2, new CountComparator(this));
+            setComparator(3, new CountComparator(this));
         }
 
         @Override
@@ -87,8 +88,8 @@ public class ClassesInfoPanel extends JPanel implements ClassesInfoPresenter.Vie
         }
     }
 
-    private static final String[] HEADER = {"Name", "Instances", "Shallow Heap"};
-    private static final String[] EMPTY_QUERY_HEADER = {"Enter query", "", ""};
+    private static final String[] HEADER = {"Name", "Instances", "Shallow Heap", "Retained Heap"};
+    private static final String[] EMPTY_QUERY_HEADER = {"Enter query", "", "", ""};
     private final ClassesInfoPresenter presenter;
     private final JTable dataTable;
     private final TabbedInfoWindow mainWindow;
@@ -122,6 +123,12 @@ public class ClassesInfoPanel extends JPanel implements ClassesInfoPresenter.Vie
         });
         popupMenu.add(listWithOutgoingRefs);
         JMenuItem calculateRetainedHeap = new JMenuItem("Calculate retained heap size");
+        calculateRetainedHeap.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                presenter.onCalculateRetainedSize();
+            }
+        });
         popupMenu.add(calculateRetainedHeap);
         MouseListener popupListener = new PopupListener(popupMenu);
         dataTable.addMouseListener(popupListener);
@@ -145,15 +152,17 @@ public class ClassesInfoPanel extends JPanel implements ClassesInfoPresenter.Vie
 
     @Override
     public void showQueryResult(List<ClassInfo> result, @Nonnull String query) {
-        Object[][] cells = new Object[result.size() + 1][3];
+        Object[][] cells = new Object[result.size() + 1][4];
         cells[0][0] = query;
         cells[0][1] = "";
         cells[0][2] = "";
+        cells[0][3] = "";
         for (int i = 0; i < result.size(); i++) {
             ClassInfo cls = result.get(i);
             cells[i + 1][0] = cls;
             cells[i + 1][1] = cls.instanceCount;
             cells[i + 1][2] = cls.instanceSize * cls.instanceCount;
+            cells[i + 1][3] = cls.retainedSize >= 0 ? cls.retainedSize : "";
         }
         final ClassesTableModel model = new ClassesTableModel(cells);
         dataTable.setModel(model);
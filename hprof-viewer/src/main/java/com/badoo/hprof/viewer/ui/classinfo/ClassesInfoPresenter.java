@@ -16,6 +16,8 @@ public interface ClassesInfoPresenter {
 
     void onListInstances(@Nonnull ClassInfo cls);
 
+    void onCalculateRetainedSize();
+
     interface View {
 
         void showLoading();
@@ -5,10 +5,12 @@ import com.badoo.hprof.library.model.Instance;
 import com.badoo.hprof.viewer.provider.ClassProvider;
 import com.badoo.hprof.viewer.provider.InstanceProvider;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
 
 /**
  * Implementation of InstanceInfoPresenter
@@ -20,6 +22,7 @@ public class ClassesInfoPresenterImpl implements ClassesInfoPresenter {
     private final View view;
     private final ClassProvider clsProvider;
     private final InstanceProvider instanceProvider;
+    private String lastQuery;
 
     public ClassesInfoPresenterImpl(@Nonnull View view, @Nonnull ClassProvider clsProvider, @Nonnull InstanceProvider instanceProvider) {
         this.view = view;
@@ -30,12 +33,14 @@ public class ClassesInfoPresenterImpl implements ClassesInfoPresenter {
 
     @Override
     public void onQueryByName(@Nonnull String query) {
+        lastQuery = query;
         List<ClassDefinition> result = clsProvider.getClassesMatchingQuery(query);
         List<ClassInfo> model = new ArrayList<ClassInfo>();
         for (ClassDefinition cls : result) {
             int count = instanceProvider.getInstanceCountOfClass(cls);
             int instanceSize = clsProvider.getInstanceSizeForClass(cls);
-            model.add(new ClassInfo(cls, clsProvider.getClassName(cls), count, instanceSize));
+            long retainedSize = clsProvider.getRetainedSizeForClass(cls);
+            model.add(new ClassInfo(cls, clsProvider.getClassName(cls), count, instanceSize, retainedSize));
         }
         view.showQueryResult(model, query);
     }
@@ -49,4 +54,36 @@ public class ClassesInfoPresenterImpl implements ClassesInfoPresenter {
         view.showInstancesListTab(cls.name, instances);
     }
 
+    @Override
+    public void onCalculateRetainedSize() {
+        view.showLoading();
+        // Calculating the dominator tree can take a long time, do it in the background and then show the result of the last query again
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!clsProvider.calculateRetainedSizes()) {
+                        System.err.println("Retained sizes are only supported when using an index");
+                        return;
+                    }
+                }
+                catch (IOException e) {
+                    System.err.println("Failed to calculate retained sizes: " + e.getMessage());
+                    e.printStackTrace();
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (lastQuery != null) {
+                            onQueryByName(lastQuery);
+                        }
+                    }
+                });
+            }
+        }, "retained-size");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
 }
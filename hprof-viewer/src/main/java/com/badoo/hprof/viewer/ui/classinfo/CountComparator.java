@@ -19,14 +19,16 @@ public class CountComparator implements Comparator<Object> {
 
     @Override
     public int compare(Object lhs, Object rhs) {
-        if (!(lhs instanceof Integer)) {
+        if (!(lhs instanceof Number)) {
             SortOrder order = sorter.getSortKeys().get(0).getSortOrder();
             return order == SortOrder.ASCENDING ? -1 : 1;
         }
-        else if (!(rhs instanceof Integer)) {
+        else if (!(rhs instanceof Number)) {
             SortOrder order = sorter.getSortKeys().get(0).getSortOrder();
             return order == SortOrder.ASCENDING ? 1 : -1;
         }
-        return ((Integer) lhs).compareTo((Integer) rhs);
+        long lhsValue = ((Number) lhs).longValue();
+        long rhsValue = ((Number) rhs).longValue();
+        return lhsValue < rhsValue ? -1 : (lhsValue == rhsValue ? 0 : 1);
     }
 }
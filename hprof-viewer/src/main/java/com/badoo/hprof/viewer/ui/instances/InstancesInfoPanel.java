@@ -6,6 +6,7 @@ import com.badoo.hprof.viewer.provider.ClassProvider;
 import com.badoo.hprof.viewer.provider.InstanceProvider;
 
 import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
@@ -16,7 +17,10 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.swing.AbstractAction;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
@@ -30,8 +34,10 @@ import javax.swing.table.DefaultTableModel;
  */
 public class InstancesInfoPanel extends JPanel implements InstancesInfoPresenter.View {
 
+    private static final long serialVersionUID = 1L;
     private static final String[] INSTANCES_HEADER = {"Name", "Shallow Heap"};
     private static final String[] DETAILS_HEADER = {"Name", "Value"};
+    private static final String[] PATH_HEADER = {"Path from GC root", "Reference"};
 
     private final JTable instancesTable;
     private final JTable detailsTable;
@@ -45,6 +51,7 @@ public class InstancesInfoPanel extends JPanel implements InstancesInfoPresenter
             presenter.onInstanceSelected(instance);
         }
     };
+    private InstanceInfo selectedItem;
 
     public InstancesInfoPanel(@Nonnull MemoryDump data, @Nonnull List<Instance> instances) {
         super(new BorderLayout());
@@ -54,6 +61,16 @@ public class InstancesInfoPanel extends JPanel implements InstancesInfoPresenter
         instancesTable.setAutoCreateRowSorter(true);
         instancesTable.setRowSelectionAllowed(true);
         instancesTable.addMouseListener(instanceSelectionListener);
+        JPopupMenu popupMenu = new JPopupMenu();
+        JMenuItem showPathToGcRoot = new JMenuItem("Show path to GC root");
+        showPathToGcRoot.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                presenter.onShowPathToGcRoot(selectedItem);
+            }
+        });
+        popupMenu.add(showPathToGcRoot);
+        instancesTable.addMouseListener(new PopupListener(popupMenu));
         JScrollPane dataTableScrollPane = new JScrollPane(instancesTable);
 
         // Instance details table
@@ -104,4 +121,43 @@ public class InstancesInfoPanel extends JPanel implements InstancesInfoPresenter
         final DefaultTableModel model = new DefaultTableModel(cells, DETAILS_HEADER);
         detailsTable.setModel(model);
     }
+
+    @Override
+    public void showPathToGcRoot(@Nonnull List<ReferenceInfo> path) {
+        Object[][] cells = new Object[path.size()][2];
+        for (int i = 0; i < path.size(); i++) {
+            ReferenceInfo reference = path.get(i);
+            cells[i][0] = reference;
+            cells[i][1] = reference.reference;
+        }
+        final DefaultTableModel model = new DefaultTableModel(cells, PATH_HEADER);
+        detailsTable.setModel(model);
+    }
+
+    class PopupListener extends MouseAdapter {
+
+        private final JPopupMenu popup;
+
+        public PopupListener(@Nonnull JPopupMenu popup) {
+            this.popup = popup;
+        }
+
+        public void mousePressed(MouseEvent e) {
+            maybeShowPopup(e);
+        }
+
+        public void mouseReleased(MouseEvent e) {
+            maybeShowPopup(e);
+        }
+
+        private void maybeShowPopup(MouseEvent e) {
+            if (e.isPopupTrigger()) {
+                final int row = instancesTable.rowAtPoint(e.getPoint());
+                if (row != -1) {
+                    selectedItem = (InstanceInfo) instancesTable.getValueAt(row, 0);
+                    popup.show(e.getComponent(), e.getX(), e.getY());
+                }
+            }
+        }
+    }
 }
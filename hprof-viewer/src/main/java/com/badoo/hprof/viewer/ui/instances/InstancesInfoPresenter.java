@@ -12,10 +12,14 @@ public interface InstancesInfoPresenter {
 
     void onInstanceSelected(@Nonnull InstanceInfo instance);
 
+    void onShowPathToGcRoot(@Nonnull InstanceInfo instance);
+
     interface View {
 
         void showInstances(@Nonnull List<InstanceInfo> instances);
 
         void showInstanceDetails(@Nonnull Map<Object, Object> fields);
+
+        void showPathToGcRoot(@Nonnull List<ReferenceInfo> path);
     }
 }
@@ -1,6 +1,7 @@
 package com.badoo.hprof.viewer.ui.instances;
 
 import com.badoo.hprof.library.model.ClassDefinition;
+import com.badoo.hprof.library.model.ID;
 import com.badoo.hprof.library.model.Instance;
 import com.badoo.hprof.viewer.provider.ClassProvider;
 import com.badoo.hprof.viewer.provider.InstanceProvider;
@@ -11,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
 
 /**
  * Created by Erik Andre on 13/12/15.
@@ -52,4 +54,41 @@ public class InstancesInfoPresenterImpl implements InstancesInfoPresenter {
             throw new RuntimeException("Could not read fields for instance " + instance.name);
         }
     }
+
+    @Override
+    public void onShowPathToGcRoot(@Nonnull final InstanceInfo instance) {
+        // The reference graph is created the first time a path is requested, which can take a long time
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<ReferenceInfo> path = new ArrayList<ReferenceInfo>();
+                try {
+                    List<ID> ids = instanceProvider.getPathToGcRoot(instance.instance);
+                    if (ids == null) {
+                        System.err.println("No path to a GC root found for " + instance.name + " (paths are only supported when using an index)");
+                        return;
+                    }
+                    for (int i = 0; i < ids.size(); i++) {
+                        String name = instanceProvider.getObjectName(ids.get(i));
+                        String reference = i == 0 ? "GC root (" + instanceProvider.getGcRootType(ids.get(i)) + ")"
+                            : instanceProvider.getReferenceName(ids.get(i - 1), ids.get(i));
+                        path.add(new ReferenceInfo(name, reference));
+                    }
+                }
+                catch (IOException e) {
+                    System.err.println("Failed to find path to GC root: " + e.getMessage());
+                    e.printStackTrace();
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        view.showPathToGcRoot(path);
+                    }
+                });
+            }
+        }, "gc-root-path");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
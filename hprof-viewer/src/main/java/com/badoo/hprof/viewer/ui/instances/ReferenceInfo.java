@@ -0,0 +1,22 @@
+package com.badoo.hprof.viewer.ui.instances;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An object on a path of references, together with the reference to it from the previous object on the path.
+ */
+public class ReferenceInfo {
+
+    public final String name;
+    public final String reference;
+
+    public ReferenceInfo(@Nonnull String name, @Nonnull String reference) {
+        this.name = name;
+        this.reference = reference;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
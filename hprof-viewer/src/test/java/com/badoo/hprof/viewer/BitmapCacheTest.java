@@ -0,0 +1,63 @@
+package com.badoo.hprof.viewer;
+
+import com.badoo.hprof.library.model.ID;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class BitmapCacheTest {
+
+    private static final long IMAGE_SIZE = 10 * 10 * 4;
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        BitmapCache cache = new BitmapCache(3 * IMAGE_SIZE);
+        BufferedImage first = createImage(10);
+        BufferedImage second = createImage(10);
+        BufferedImage third = createImage(10);
+        cache.put(new ID(1), first);
+        cache.put(new ID(2), second);
+        cache.put(new ID(3), third);
+        assertEquals(3 * IMAGE_SIZE, cache.getSize());
+        // Using the first image makes the second one the least recently used
+        assertSame(first, cache.get(new ID(1)));
+        BufferedImage fourth = createImage(10);
+        cache.put(new ID(4), fourth);
+        assertEquals(3 * IMAGE_SIZE, cache.getSize());
+        assertNull(cache.get(new ID(2)));
+        assertSame(first, cache.get(new ID(1)));
+        assertSame(third, cache.get(new ID(3)));
+        assertSame(fourth, cache.get(new ID(4)));
+    }
+
+    @Test
+    public void replaceImage() {
+        BitmapCache cache = new BitmapCache(3 * IMAGE_SIZE);
+        cache.put(new ID(1), createImage(10));
+        BufferedImage image = createImage(10);
+        cache.put(new ID(1), image);
+        assertEquals(IMAGE_SIZE, cache.getSize());
+        assertSame(image, cache.get(new ID(1)));
+    }
+
+    @Test
+    public void keepImageLargerThanCache() {
+        BitmapCache cache = new BitmapCache(3 * IMAGE_SIZE);
+        cache.put(new ID(1), createImage(10));
+        cache.put(new ID(2), createImage(10));
+        BufferedImage large = createImage(20);
+        cache.put(new ID(3), large);
+        // All other images are evicted
+        assertEquals(20 * 20 * 4, cache.getSize());
+        assertNull(cache.get(new ID(1)));
+        assertNull(cache.get(new ID(2)));
+        assertSame(large, cache.get(new ID(3)));
+    }
+
+    private static BufferedImage createImage(int side) {
+        return new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+    }
+}